@@ -0,0 +1,17 @@
+package tl.antlr4;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Arithmetic on numbers in for and while loops.
+ */
+public class ArithmeticBench extends ScriptBench {
+
+    @Param({"arithmetic_loops", "nested_loops"})
+    public String script;
+
+    @Override
+    String script() {
+        return script;
+    }
+}
@@ -0,0 +1,10 @@
+package tl.antlr4;
+
+/**
+ * How a benchmark executes a script: {@code LEGACY} walks the parse tree with
+ * {@link Scope} chains, {@code AST} interprets the resolved tree with {@link Frame}s and
+ * {@code COMPILED} runs the {@link BytecodeCompiler} output.
+ */
+public enum Backend {
+    LEGACY, AST, COMPILED
+}
@@ -0,0 +1,17 @@
+package tl.antlr4;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Recursive function calls, each returning from inside a block.
+ */
+public class CallBench extends ScriptBench {
+
+    @Param({"fib"})
+    public String script;
+
+    @Override
+    String script() {
+        return script;
+    }
+}
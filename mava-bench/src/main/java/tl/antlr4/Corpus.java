@@ -0,0 +1,93 @@
+package tl.antlr4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import tl.antlr4.TLParser.ParseContext;
+
+/**
+ * The fixed set of {@code .mava} scripts the benchmarks run, packaged from
+ * {@code src/main/mava} under {@code corpus/}, and the steps {@link Main} takes to run
+ * one. Benchmarks live in the {@code tl.antlr4} package so they can drive the pipeline
+ * stage by stage.
+ */
+final class Corpus {
+
+    private static final PrintStream STDOUT = System.out;
+
+    private Corpus() {
+    }
+
+    static String source(String script) throws IOException {
+        try (InputStream in = Corpus.class.getResourceAsStream("/corpus/" + script + ".mava")) {
+            if (in == null) {
+                throw new IOException("no such script in the corpus: " + script);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int n; (n = in.read(buffer)) != -1; ) {
+                bytes.write(buffer, 0, n);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static ParseContext parse(String source) {
+        return new SourceParser().parse(CharStreams.fromString(source));
+    }
+
+    static Program lower(ParseContext tree, String source) {
+        return Resolver.resolve(Optimizer.optimize(AstBuilder.lower(tree, source, LiteralPool.of(tree))));
+    }
+
+    /**
+     * Parses and prepares a script once, so that running the result measures execution
+     * only. The script prints to the current {@code System.out}.
+     */
+    static Runnable prepare(String script, Backend backend) throws IOException {
+        String source = source(script);
+        ParseContext tree = parse(source);
+        switch (backend) {
+            case LEGACY:
+                return () -> {
+                    Map<String, Function> functions = new HashMap<>();
+                    new SymbolVisitor(functions).visit(tree);
+                    Output output = Output.buffered();
+                    new EvalVisitor(new Scope(), functions, output, LiteralPool.of(tree)).visit(tree);
+                    output.flush();
+                };
+            case AST:
+                Program program = lower(tree, source);
+                return () -> new Interpreter(program, Output.buffered()).run();
+            case COMPILED:
+                return BytecodeCompiler.compile(lower(tree, source), Output.buffered())::run;
+            default:
+                throw new IllegalArgumentException("unknown backend: " + backend);
+        }
+    }
+
+    // scripts print their results, keep that out of the benchmark log
+    static void silence() {
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+    }
+
+    static void restore() {
+        System.setOut(STDOUT);
+    }
+}
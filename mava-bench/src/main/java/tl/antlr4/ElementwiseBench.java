@@ -0,0 +1,86 @@
+package tl.antlr4;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link Elementwise} kernels on vectors of a million elements, against the same
+ * operator applied number by number, as a script looping over the elements would.
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ElementwiseBench {
+
+    private static final int SIZE = 1 << 20;
+
+    @Param({"divide", "lt", "multiply", "power"})
+    public String operator;
+
+    private BinaryOperator<TLValue> op;
+    private TLValue lhs;
+    private TLValue rhs;
+    private List<TLValue> lhsList;
+    private List<TLValue> rhsList;
+
+    @Setup
+    public void setUp() {
+        switch (operator) {
+            case "divide":
+                op = Operators::divide;
+                break;
+            case "lt":
+                op = Operators::lt;
+                break;
+            case "multiply":
+                op = Operators::multiply;
+                break;
+            case "power":
+                op = Operators::power;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown operator: " + operator);
+        }
+        Random random = new Random(1);
+        double[] a = new double[SIZE];
+        double[] b = new double[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            a[i] = random.nextDouble();
+            b[i] = random.nextDouble() + 1;
+        }
+        lhs = new TLValue(DenseMatrix.vector(a));
+        rhs = new TLValue(DenseMatrix.vector(b));
+        lhsList = DenseMatrix.vector(a).toList();
+        rhsList = DenseMatrix.vector(b).toList();
+    }
+
+    @Benchmark
+    public TLValue elementwise() {
+        return op.apply(lhs, rhs);
+    }
+
+    @Benchmark
+    public List<TLValue> boxed() {
+        List<TLValue> result = new ValueList();
+        for (int i = 0; i < SIZE; i++) {
+            result.add(op.apply(lhsList.get(i), rhsList.get(i)));
+        }
+        return result;
+    }
+}
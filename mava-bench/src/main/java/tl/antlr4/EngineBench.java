@@ -0,0 +1,81 @@
+package tl.antlr4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs every corpus script concurrently through one {@link MavaEngine}: the scripts are
+ * compiled once, and the benchmark threads run all of them at the same time, each run
+ * printing to a buffer of its own. A run that prints something else than a serial run
+ * of the same script fails the benchmark, so this is also the stress test of scripts
+ * sharing a JVM.
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class EngineBench {
+
+    private static final String[] SCRIPTS = {
+            "arithmetic_loops", "fib", "list_index", "matrix_chain", "matrix_determinant",
+            "matrix_shape", "matrix_sum", "matrix_transpose", "nested_loops", "string_concat"
+    };
+
+    @Param({"INTERPRET", "COMPILE"})
+    public MavaEngine.Mode mode;
+
+    private MavaEngine.Script[] scripts;
+    // what each script prints when it runs alone
+    private byte[][] expected;
+
+    // the next script of a thread, the threads start at different ones
+    @State(org.openjdk.jmh.annotations.Scope.Thread)
+    public static class Turn {
+        int next = ThreadLocalRandom.current().nextInt(SCRIPTS.length);
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        MavaEngine engine = new MavaEngine(mode);
+        scripts = new MavaEngine.Script[SCRIPTS.length];
+        expected = new byte[SCRIPTS.length][];
+        for (int i = 0; i < SCRIPTS.length; i++) {
+            scripts[i] = engine.compile(Corpus.source(SCRIPTS[i]));
+            expected[i] = run(scripts[i]);
+        }
+    }
+
+    @Benchmark
+    public void run(Turn turn) {
+        int i = turn.next;
+        turn.next = (i + 1) % SCRIPTS.length;
+        if (!Arrays.equals(run(scripts[i]), expected[i])) {
+            throw new IllegalStateException(SCRIPTS[i] + " printed something else when run concurrently");
+        }
+    }
+
+    private static byte[] run(MavaEngine.Script script) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        script.run(new PrintStream(out));
+        return out.toByteArray();
+    }
+}
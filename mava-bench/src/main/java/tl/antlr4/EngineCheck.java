@@ -0,0 +1,84 @@
+package tl.antlr4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that concurrent runs of compiled scripts are independent of each other: every
+ * corpus script is compiled once per {@link MavaEngine.Mode}, and the compiled scripts are
+ * run many times at once on a {@link ScriptExecutor}. Every run has to print exactly what a
+ * run of the same script on its own in the AST interpreter prints; a run that saw another
+ * run's globals, output or inputs prints something else. {@code mvn test} of this module
+ * runs the check, which fails the build when a run differs.
+ */
+public final class EngineCheck {
+
+    private static final String[] SCRIPTS = {
+            "arithmetic_loops", "fib", "list_index", "matrix_chain", "matrix_determinant",
+            "matrix_shape", "matrix_solve", "matrix_sum", "matrix_transpose", "nested_loops",
+            "string_concat"
+    };
+    private static final int THREADS = 8;
+    // the runs of every script in every mode
+    private static final int RUNS = 24;
+
+    private EngineCheck() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        byte[][] expected = new byte[SCRIPTS.length][];
+        MavaEngine reference = new MavaEngine(MavaEngine.Mode.INTERPRET);
+        for (int i = 0; i < SCRIPTS.length; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            reference.compile(Corpus.source(SCRIPTS[i])).run(new PrintStream(out));
+            expected[i] = out.toByteArray();
+        }
+
+        List<String> failures = new ArrayList<>();
+        for (MavaEngine.Mode mode : MavaEngine.Mode.values()) {
+            MavaEngine engine = new MavaEngine(mode);
+            MavaEngine.Script[] scripts = new MavaEngine.Script[SCRIPTS.length];
+            for (int i = 0; i < SCRIPTS.length; i++) {
+                scripts[i] = engine.compile(Corpus.source(SCRIPTS[i]));
+            }
+            ScriptExecutor executor = new ScriptExecutor(THREADS, Limits.NONE);
+            List<Future<?>> runs = new ArrayList<>();
+            List<ByteArrayOutputStream> outputs = new ArrayList<>();
+            // every script's runs interleaved with the others'
+            for (int run = 0; run < RUNS; run++) {
+                for (MavaEngine.Script script : scripts) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    outputs.add(out);
+                    runs.add(executor.submit(script, new PrintStream(out)));
+                }
+            }
+            for (int i = 0; i < runs.size(); i++) {
+                String script = SCRIPTS[i % SCRIPTS.length];
+                try {
+                    runs.get(i).get();
+                    if (!Arrays.equals(outputs.get(i).toByteArray(), expected[i % SCRIPTS.length])) {
+                        failures.add(mode + " " + script + " printed something else when run concurrently");
+                    }
+                } catch (ExecutionException e) {
+                    failures.add(mode + " " + script + " failed when run concurrently: " + e.getCause());
+                }
+            }
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        if (!failures.isEmpty()) {
+            failures.forEach(System.err::println);
+            throw new IllegalStateException(failures.size() + " concurrent runs differ from a run on its own");
+        }
+        System.out.println("EngineCheck: " + RUNS * SCRIPTS.length * MavaEngine.Mode.values().length
+                + " concurrent runs on " + THREADS + " threads printed what the scripts print on their own");
+    }
+}
@@ -0,0 +1,63 @@
+package tl.antlr4;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link Gemm} kernel against the commons-math product it replaced, on random
+ * square matrices.
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GemmBench {
+
+    @Param({"64", "256", "1024"})
+    public int n;
+
+    private DenseMatrix lhs;
+    private DenseMatrix rhs;
+    private RealMatrix realLhs;
+    private RealMatrix realRhs;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        double[] a = new double[n * n];
+        double[] b = new double[n * n];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = random.nextDouble();
+            b[i] = random.nextDouble();
+        }
+        lhs = DenseMatrix.matrix(n, n, a);
+        rhs = DenseMatrix.matrix(n, n, b);
+        realLhs = new Array2DRowRealMatrix(lhs.toRealMatrix().getData(), false);
+        realRhs = new Array2DRowRealMatrix(rhs.toRealMatrix().getData(), false);
+    }
+
+    @Benchmark
+    public DenseMatrix gemm() {
+        return Gemm.multiply(lhs, rhs);
+    }
+
+    @Benchmark
+    public RealMatrix commonsMath() {
+        return realLhs.multiply(realRhs);
+    }
+}
@@ -0,0 +1,17 @@
+package tl.antlr4;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * Element reads and indexed assignments on lists and nested lists.
+ */
+public class ListBench extends ScriptBench {
+
+    @Param({"list_index"})
+    public String script;
+
+    @Override
+    String script() {
+        return script;
+    }
+}
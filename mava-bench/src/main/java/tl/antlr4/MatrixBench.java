@@ -0,0 +1,18 @@
+package tl.antlr4;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * The matrix builtins and the matrix product, one script each.
+ */
+public class MatrixBench extends ScriptBench {
+
+    @Param({"matrix_chain", "matrix_transpose", "matrix_shape", "matrix_determinant", "matrix_sum",
+            "matrix_solve"})
+    public String script;
+
+    @Override
+    String script() {
+        return script;
+    }
+}
@@ -0,0 +1,58 @@
+package tl.antlr4;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tl.antlr4.TLParser.ParseContext;
+
+/**
+ * Front end cost of a script: parsing alone, and parsing plus lowering, optimizing and
+ * resolving. Large sources are made by repeating a corpus script {@code copies} times.
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBench {
+
+    @Param({"test", "matrix_chain"})
+    public String script;
+
+    @Param({"1", "100"})
+    public int copies;
+
+    private String source;
+
+    @Setup
+    public void setUp() throws IOException {
+        String script = Corpus.source(this.script);
+        StringBuilder sb = new StringBuilder(script.length() * copies);
+        for (int i = 0; i < copies; i++) {
+            sb.append(script).append('\n');
+        }
+        source = sb.toString();
+    }
+
+    @Benchmark
+    public ParseContext parse() {
+        return Corpus.parse(source);
+    }
+
+    @Benchmark
+    public Program lower() {
+        return Corpus.lower(Corpus.parse(source), source);
+    }
+}
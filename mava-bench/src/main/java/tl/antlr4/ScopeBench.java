@@ -0,0 +1,81 @@
+package tl.antlr4;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The variable accesses of {@code nested_loops.mava} against the two ways of storing
+ * variables, with the same arithmetic: {@link Scope} chains, where every block entered
+ * gets a scope and a name is looked up through the chain, and the {@link Frame} slots
+ * the {@link Resolver} assigns. ArithmeticBench runs the whole script on the backends
+ * built on each of them.
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScopeBench {
+
+    private static final int N = 300;
+    private static final int K = 10;
+    private static final TLValue ONE = TLValue.of(1);
+    private static final TLValue TEN = TLValue.of(K);
+
+    @Benchmark
+    public TLValue scopeChain() {
+        Scope globals = new Scope();
+        globals.assign("total", TLValue.of(0));
+        for (int i = 1; i <= N; i++) {
+            globals.assign("i", TLValue.of(i));
+            Scope outer = new Scope(globals);
+            outer.assign("row", TLValue.of(0));
+            for (int j = 1; j <= N; j++) {
+                outer.assign("j", TLValue.of(j));
+                Scope inner = new Scope(outer);
+                inner.assign("k", TLValue.of(0));
+                while (Operators.lt(inner.resolve("k"), TEN).asBoolean()) {
+                    Scope body = new Scope(inner);
+                    body.assign("cell", Operators.add(
+                            Operators.multiply(body.resolve("i"), body.resolve("j")), body.resolve("k")));
+                    body.assign("row", Operators.add(body.resolve("row"), body.resolve("cell")));
+                    body.assign("k", Operators.add(body.resolve("k"), ONE));
+                }
+            }
+            globals.assign("total", Operators.add(globals.resolve("total"), outer.resolve("row")));
+        }
+        return globals.resolve("total");
+    }
+
+    @Benchmark
+    public TLValue frameSlots() {
+        // total, i, row, j, k, cell, the way the Interpreter reads and writes them
+        Frame frame = new Frame(6, null);
+        frame.set(0, 0, TLValue.of(0));
+        for (int i = 1; i <= N; i++) {
+            frame.set(0, 1, TLValue.of(i));
+            frame.set(0, 2, TLValue.of(0));
+            for (int j = 1; j <= N; j++) {
+                frame.set(0, 3, TLValue.of(j));
+                frame.set(0, 4, TLValue.of(0));
+                while (Operators.lt(frame.get(0, 4), TEN).asBoolean()) {
+                    frame.set(0, 5, Operators.add(
+                            Operators.multiply(frame.get(0, 1), frame.get(0, 3)), frame.get(0, 4)));
+                    frame.set(0, 2, Operators.add(frame.get(0, 2), frame.get(0, 5)));
+                    frame.set(0, 4, Operators.add(frame.get(0, 4), ONE));
+                }
+            }
+            frame.set(0, 0, Operators.add(frame.get(0, 0), frame.get(0, 2)));
+        }
+        return frame.get(0, 0);
+    }
+}
@@ -0,0 +1,53 @@
+package tl.antlr4;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs corpus scripts end to end on every backend. Each suite is a subclass that picks
+ * its scripts; parsing and compiling happen in the setup, so a measurement covers
+ * execution only.
+ */
+@State(org.openjdk.jmh.annotations.Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public abstract class ScriptBench {
+
+    @Param({"AST", "COMPILED", "LEGACY"})
+    public Backend backend;
+
+    private Runnable program;
+
+    abstract String script();
+
+    @Setup
+    public void setUp() throws IOException {
+        Corpus.silence();
+        program = Corpus.prepare(script(), backend);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Corpus.restore();
+    }
+
+    @Benchmark
+    public void run() {
+        program.run();
+    }
+}
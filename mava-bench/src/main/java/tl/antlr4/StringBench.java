@@ -0,0 +1,17 @@
+package tl.antlr4;
+
+import org.openjdk.jmh.annotations.Param;
+
+/**
+ * String concatenation and character indexing.
+ */
+public class StringBench extends ScriptBench {
+
+    @Param({"string_concat"})
+    public String script;
+
+    @Override
+    String script() {
+        return script;
+    }
+}
@@ -13,6 +13,8 @@ statement
  | functionCall ';'
  | ifStatement
  | forStatement
+ | forInStatement
+ | parforStatement
  | whileStatement
  ;
 
@@ -20,7 +22,8 @@ assignment
  : Identifier indexes? '=' expression
  ;
 
-functionCall
+// function: the Function a call site is bound to after its first call
+functionCall locals [Function function]
  : Identifier '(' exprList? ')' #identifierFunctionCall
  | Println '(' expression? ')'  #printlnFunctionCall
  | Print '(' expression ')'     #printFunctionCall
@@ -31,6 +34,17 @@ functionCall
  | Columns '(' expression ')'   #columnsFunctionCall
  | Determinant '(' expression ')' #determinantFunctionCall
  | MatrixSum '(' expression ')' #matrixSum
+ | Lines '(' expression ')'     #linesFunctionCall
+ | Chunks '(' expression ',' expression ')' #chunksFunctionCall
+ | Range '(' expression ',' expression ')' #rangeFunctionCall
+ | Inverse '(' expression ')'   #inverseFunctionCall
+ | Solve '(' expression ',' expression ')' #solveFunctionCall
+ | Qr '(' expression ')'        #qrFunctionCall
+ | Eig '(' expression ')'       #eigFunctionCall
+ | Svd '(' expression ')'       #svdFunctionCall
+ | Norm '(' expression ')'      #normFunctionCall
+ | Trace '(' expression ')'     #traceFunctionCall
+ | Identity '(' expression ')'  #identityFunctionCall
  ;
 
 ifStatement
@@ -57,6 +71,20 @@ forStatement
  : For Identifier '=' expression To expression Do block End
  ;
 
+forInStatement
+ : For Identifier In expression Do block End
+ ;
+
+// the iterations run in parallel, see ParallelRange
+parforStatement
+ : Parfor Identifier '=' expression To expression reduction? Do block End
+ ;
+
+// Reduce ( sum | product | min | max ) Into Identifier
+reduction
+ : Reduce Identifier Into Identifier
+ ;
+
 whileStatement
  : While expression Do block End
  ;
@@ -73,8 +101,8 @@ expression
  : '-' expression                                       #unaryMinusExpression
  | '!' expression                                       #notExpression
  | <assoc=right> expression '^' expression              #powerExpression
- | expression op=( '*' | '/' | '%' ) expression         #multExpression
- | expression op=( '+' | '-' ) expression               #addExpression
+ | expression op=( '*' | '/' | '%' | '.*' ) expression  #multExpression
+ | expression op=( '+' | '-' | '.+' | '.-' ) expression #addExpression
  | expression op=( '>=' | '<=' | '>' | '<' ) expression #compExpression
  | expression op=( '==' | '!=' ) expression             #eqExpression
  | expression '&&' expression                           #andExpression
@@ -86,6 +114,8 @@ expression
  | Null                                                 #nullExpression
  | functionCall indexes?                                #functionCallExpression
  | list indexes?                                        #listExpression
+ | map indexes?                                         #mapExpression
+ | set                                                  #setExpression
  | Identifier indexes?                                  #identifierExpression
  | String indexes?                                      #stringExpression
  | '(' expression ')' indexes?                          #expressionExpression
@@ -96,6 +126,20 @@ list
  : '[' exprList? ']'
  ;
 
+// {} is the empty set, {:} the empty map
+set
+ : '{' exprList? '}'
+ ;
+
+map
+ : '{' entry ( ',' entry )* '}'
+ | '{' ':' '}'
+ ;
+
+entry
+ : expression ':' expression
+ ;
+
 indexes
  : ( '[' expression ']' )+
  ;
@@ -110,6 +154,9 @@ If       : 'if';
 Else     : 'else';
 Return   : 'return';
 For      : 'for';
+Parfor   : 'parfor';
+Reduce   : 'reduce';
+Into     : 'into';
 While    : 'while';
 To       : 'to';
 Do       : 'do';
@@ -121,6 +168,17 @@ Rows     : 'rows';
 Columns  : 'columns';
 Determinant: 'determinant';
 MatrixSum: 'matrixSum';
+Lines    : 'lines';
+Chunks   : 'chunks';
+Range    : 'range';
+Inverse  : 'inverse';
+Solve    : 'solve';
+Qr       : 'qr';
+Eig      : 'eig';
+Svd      : 'svd';
+Norm     : 'norm';
+Trace    : 'trace';
+Identity : 'identity';
 
 Or       : '||';
 And      : '&&';
@@ -137,6 +195,10 @@ Subtract : '-';
 Multiply : '*';
 Divide   : '/';
 Modulus  : '%';
+// element by element on vectors and matrices, where * + - have list meanings
+DotMultiply : '.*';
+DotAdd      : '.+';
+DotSubtract : '.-';
 OBrace   : '{';
 CBrace   : '}';
 OBracket : '[';
@@ -154,8 +216,9 @@ Bool
  | 'false'
  ;
 
+// no trailing '.', so that 2.*v is 2 .* v
 Number
- : Int ( '.' Digit* )?
+ : Int ( '.' Digit+ )?
  ;
 
 Identifier
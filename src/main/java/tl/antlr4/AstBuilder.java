@@ -0,0 +1,509 @@
+package tl.antlr4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import tl.antlr4.Node.*;
+import tl.antlr4.TLParser.*;
+
+/**
+ * Lowers the ANTLR parse tree into the immutable {@link Node} AST. All the text
+ * processing the {@link EvalVisitor} used to repeat on every evaluation (number
+ * parsing, string unescaping, operator token lookups, identifier extraction)
+ * happens exactly once here.
+ */
+public class AstBuilder extends TLBaseVisitor<Node> {
+
+    private static final Expr[] NO_EXPRS = new Expr[0];
+
+    private final Map<String, FunctionDecl> functions = new LinkedHashMap<>();
+    private final LiteralPool literals;
+
+    AstBuilder(LiteralPool literals) {
+        this.literals = literals;
+    }
+
+    public static Program lower(ParseContext tree, String source, LiteralPool literals) {
+        AstBuilder builder = new AstBuilder(literals);
+        Block main = (Block) builder.visit(tree);
+        return new Program(main, builder.functions, source);
+    }
+
+    // parse: block EOF
+    @Override
+    public Node visitParse(ParseContext ctx) {
+        return visit(ctx.block());
+    }
+
+    // block: ( statement | functionDecl )* ( Return expression ';' )?
+    @Override
+    public Node visitBlock(BlockContext ctx) {
+        List<Stmt> statements = new ArrayList<>();
+        for (ParseTree child : ctx.children != null ? ctx.children : Collections.<ParseTree>emptyList()) {
+            if (child instanceof StatementContext) {
+                statements.add((Stmt) visit(child));
+            } else if (child instanceof FunctionDeclContext) {
+                // declarations are hoisted into the program's function table
+                visit(child);
+            }
+        }
+        Expr returnValue = ctx.expression() != null ? expr(ctx.expression()) : null;
+        return new Block(line(ctx), start(ctx), stop(ctx), statements.toArray(new Stmt[0]), returnValue);
+    }
+
+    // Def Identifier '(' idList? ')' block End
+    @Override
+    public Node visitFunctionDecl(FunctionDeclContext ctx) {
+        List<String> params = new ArrayList<>();
+        if (ctx.idList() != null) {
+            for (TerminalNode id : ctx.idList().Identifier()) {
+                params.add(id.getText().intern());
+            }
+        }
+        FunctionDecl decl = new FunctionDecl(line(ctx), start(ctx), stop(ctx), ctx.Identifier().getText().intern(),
+                params.toArray(new String[0]), (Block) visit(ctx.block()));
+        functions.put(decl.key(), decl);
+        return decl;
+    }
+
+    // statement: assignment ';' | functionCall ';' | ifStatement | forStatement | forInStatement | whileStatement
+    @Override
+    public Node visitStatement(StatementContext ctx) {
+        if (ctx.functionCall() != null) {
+            return new ExprStmt(line(ctx), start(ctx), stop(ctx), expr(ctx.functionCall()));
+        }
+        return visit(ctx.getChild(0));
+    }
+
+    // Identifier indexes? '=' expression
+    @Override
+    public Node visitAssignment(AssignmentContext ctx) {
+        return new Assign(line(ctx), start(ctx), stop(ctx), ctx.Identifier().getText().intern(),
+                indexes(ctx.indexes()), expr(ctx.expression()));
+    }
+
+    // ifStat elseIfStat* elseStat? End
+    @Override
+    public Node visitIfStatement(IfStatementContext ctx) {
+        int branches = 1 + ctx.elseIfStat().size();
+        Expr[] conditions = new Expr[branches];
+        Block[] blocks = new Block[branches];
+        conditions[0] = expr(ctx.ifStat().expression());
+        blocks[0] = (Block) visit(ctx.ifStat().block());
+        for (int i = 1; i < branches; i++) {
+            conditions[i] = expr(ctx.elseIfStat(i - 1).expression());
+            blocks[i] = (Block) visit(ctx.elseIfStat(i - 1).block());
+        }
+        Block elseBlock = ctx.elseStat() != null ? (Block) visit(ctx.elseStat().block()) : null;
+        return new If(line(ctx), start(ctx), stop(ctx), conditions, blocks, elseBlock);
+    }
+
+    // For Identifier '=' expression To expression Do block End
+    @Override
+    public Node visitForStatement(ForStatementContext ctx) {
+        return new For(line(ctx), start(ctx), stop(ctx), ctx.Identifier().getText().intern(),
+                expr(ctx.expression(0)), expr(ctx.expression(1)), (Block) visit(ctx.block()));
+    }
+
+    // For Identifier In expression Do block End
+    @Override
+    public Node visitForInStatement(ForInStatementContext ctx) {
+        return new ForIn(line(ctx), start(ctx), stop(ctx), ctx.Identifier().getText().intern(),
+                expr(ctx.expression()), (Block) visit(ctx.block()));
+    }
+
+    // Parfor Identifier '=' expression To expression reduction? Do block End
+    @Override
+    public Node visitParforStatement(ParforStatementContext ctx) {
+        Reduction reduction = null;
+        String target = null;
+        if (ctx.reduction() != null) {
+            reduction = reduction(ctx.reduction());
+            target = ctx.reduction().Identifier(1).getText().intern();
+        }
+        return new Parfor(line(ctx), start(ctx), stop(ctx), ctx.Identifier().getText().intern(),
+                expr(ctx.expression(0)), expr(ctx.expression(1)), (Block) visit(ctx.block()), reduction, target);
+    }
+
+    // Reduce Identifier Into Identifier
+    static Reduction reduction(ReductionContext ctx) {
+        String keyword = ctx.Identifier(0).getText();
+        for (Reduction reduction : Reduction.values()) {
+            if (reduction.keyword.equals(keyword)) {
+                return reduction;
+            }
+        }
+        throw new EvalException("unknown reduction: " + keyword, ctx.start.getLine());
+    }
+
+    // While expression Do block End
+    @Override
+    public Node visitWhileStatement(WhileStatementContext ctx) {
+        return new While(line(ctx), start(ctx), stop(ctx), expr(ctx.expression()), (Block) visit(ctx.block()));
+    }
+
+    // Identifier '(' exprList? ')'
+    @Override
+    public Node visitIdentifierFunctionCall(IdentifierFunctionCallContext ctx) {
+        return new Call(line(ctx), start(ctx), stop(ctx), ctx.Identifier().getText().intern(), exprs(ctx.exprList()));
+    }
+
+    @Override
+    public Node visitPrintlnFunctionCall(PrintlnFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.PRINTLN, ctx.expression());
+    }
+
+    @Override
+    public Node visitPrintFunctionCall(PrintFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.PRINT, ctx.expression());
+    }
+
+    @Override
+    public Node visitAssertFunctionCall(AssertFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.ASSERT, ctx.expression());
+    }
+
+    @Override
+    public Node visitSizeFunctionCall(SizeFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.SIZE, ctx.expression());
+    }
+
+    @Override
+    public Node visitTransposeFunctionCall(TransposeFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.TRANSPOSE, ctx.expression());
+    }
+
+    @Override
+    public Node visitRowsFunctionCall(RowsFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.ROWS, ctx.expression());
+    }
+
+    @Override
+    public Node visitColumnsFunctionCall(ColumnsFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.COLUMNS, ctx.expression());
+    }
+
+    @Override
+    public Node visitDeterminantFunctionCall(DeterminantFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.DETERMINANT, ctx.expression());
+    }
+
+    @Override
+    public Node visitMatrixSum(MatrixSumContext ctx) {
+        return builtin(ctx, Builtin.MATRIX_SUM, ctx.expression());
+    }
+
+    @Override
+    public Node visitLinesFunctionCall(LinesFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.LINES, ctx.expression());
+    }
+
+    // Chunks '(' expression ',' expression ')'
+    @Override
+    public Node visitChunksFunctionCall(ChunksFunctionCallContext ctx) {
+        return new BuiltinCall(line(ctx), start(ctx), stop(ctx), Builtin.CHUNKS, expr(ctx.expression(0)),
+                expr(ctx.expression(1)));
+    }
+
+    // Range '(' expression ',' expression ')'
+    @Override
+    public Node visitRangeFunctionCall(RangeFunctionCallContext ctx) {
+        return new BuiltinCall(line(ctx), start(ctx), stop(ctx), Builtin.RANGE, expr(ctx.expression(0)),
+                expr(ctx.expression(1)));
+    }
+
+    @Override
+    public Node visitInverseFunctionCall(InverseFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.INVERSE, ctx.expression());
+    }
+
+    // Solve '(' expression ',' expression ')'
+    @Override
+    public Node visitSolveFunctionCall(SolveFunctionCallContext ctx) {
+        return new BuiltinCall(line(ctx), start(ctx), stop(ctx), Builtin.SOLVE, expr(ctx.expression(0)),
+                expr(ctx.expression(1)));
+    }
+
+    @Override
+    public Node visitQrFunctionCall(QrFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.QR, ctx.expression());
+    }
+
+    @Override
+    public Node visitEigFunctionCall(EigFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.EIG, ctx.expression());
+    }
+
+    @Override
+    public Node visitSvdFunctionCall(SvdFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.SVD, ctx.expression());
+    }
+
+    @Override
+    public Node visitNormFunctionCall(NormFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.NORM, ctx.expression());
+    }
+
+    @Override
+    public Node visitTraceFunctionCall(TraceFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.TRACE, ctx.expression());
+    }
+
+    @Override
+    public Node visitIdentityFunctionCall(IdentityFunctionCallContext ctx) {
+        return builtin(ctx, Builtin.IDENTITY, ctx.expression());
+    }
+
+    // '-' expression
+    @Override
+    public Node visitUnaryMinusExpression(UnaryMinusExpressionContext ctx) {
+        return new Unary(line(ctx), start(ctx), stop(ctx), UnaryOp.MINUS, expr(ctx.expression()));
+    }
+
+    // '!' expression
+    @Override
+    public Node visitNotExpression(NotExpressionContext ctx) {
+        return new Unary(line(ctx), start(ctx), stop(ctx), UnaryOp.NOT, expr(ctx.expression()));
+    }
+
+    // <assoc=right> expression '^' expression
+    @Override
+    public Node visitPowerExpression(PowerExpressionContext ctx) {
+        return binary(ctx, BinaryOp.POW, ctx.expression(0), ctx.expression(1));
+    }
+
+    // expression op=( '*' | '/' | '%' ) expression
+    @Override
+    public Node visitMultExpression(MultExpressionContext ctx) {
+        return binary(ctx, binaryOp(ctx.op), ctx.expression(0), ctx.expression(1));
+    }
+
+    // expression op=( '+' | '-' ) expression
+    @Override
+    public Node visitAddExpression(AddExpressionContext ctx) {
+        return binary(ctx, binaryOp(ctx.op), ctx.expression(0), ctx.expression(1));
+    }
+
+    // expression op=( '>=' | '<=' | '>' | '<' ) expression
+    @Override
+    public Node visitCompExpression(CompExpressionContext ctx) {
+        return binary(ctx, binaryOp(ctx.op), ctx.expression(0), ctx.expression(1));
+    }
+
+    // expression op=( '==' | '!=' ) expression
+    @Override
+    public Node visitEqExpression(EqExpressionContext ctx) {
+        return binary(ctx, binaryOp(ctx.op), ctx.expression(0), ctx.expression(1));
+    }
+
+    // expression '&&' expression
+    @Override
+    public Node visitAndExpression(AndExpressionContext ctx) {
+        return binary(ctx, BinaryOp.AND, ctx.expression(0), ctx.expression(1));
+    }
+
+    // expression '||' expression
+    @Override
+    public Node visitOrExpression(OrExpressionContext ctx) {
+        return binary(ctx, BinaryOp.OR, ctx.expression(0), ctx.expression(1));
+    }
+
+    // expression In expression
+    @Override
+    public Node visitInExpression(InExpressionContext ctx) {
+        return binary(ctx, BinaryOp.IN, ctx.expression(0), ctx.expression(1));
+    }
+
+    // expression '?' expression ':' expression
+    @Override
+    public Node visitTernaryExpression(TernaryExpressionContext ctx) {
+        return new Ternary(line(ctx), start(ctx), stop(ctx), expr(ctx.expression(0)), expr(ctx.expression(1)),
+                expr(ctx.expression(2)));
+    }
+
+    // Number
+    @Override
+    public Node visitNumberExpression(NumberExpressionContext ctx) {
+        return new Literal(line(ctx), start(ctx), stop(ctx), literals.get(ctx.Number()));
+    }
+
+    // Bool
+    @Override
+    public Node visitBoolExpression(BoolExpressionContext ctx) {
+        return new Literal(line(ctx), start(ctx), stop(ctx), literals.get(ctx.Bool()));
+    }
+
+    // Null
+    @Override
+    public Node visitNullExpression(NullExpressionContext ctx) {
+        return new Literal(line(ctx), start(ctx), stop(ctx), TLValue.NULL);
+    }
+
+    // functionCall indexes?
+    @Override
+    public Node visitFunctionCallExpression(FunctionCallExpressionContext ctx) {
+        return indexed(ctx, expr(ctx.functionCall()), ctx.indexes());
+    }
+
+    // list indexes?
+    @Override
+    public Node visitListExpression(ListExpressionContext ctx) {
+        return indexed(ctx, expr(ctx.list()), ctx.indexes());
+    }
+
+    // '[' exprList? ']'
+    @Override
+    public Node visitList(ListContext ctx) {
+        return new ListLiteral(line(ctx), start(ctx), stop(ctx), exprs(ctx.exprList()));
+    }
+
+    // map indexes?
+    @Override
+    public Node visitMapExpression(MapExpressionContext ctx) {
+        return indexed(ctx, expr(ctx.map()), ctx.indexes());
+    }
+
+    // set
+    @Override
+    public Node visitSetExpression(SetExpressionContext ctx) {
+        return expr(ctx.set());
+    }
+
+    // '{' exprList? '}'
+    @Override
+    public Node visitSet(SetContext ctx) {
+        return new SetLiteral(line(ctx), start(ctx), stop(ctx), exprs(ctx.exprList()));
+    }
+
+    // '{' entry ( ',' entry )* '}' | '{' ':' '}'
+    @Override
+    public Node visitMap(MapContext ctx) {
+        List<EntryContext> entries = ctx.entry();
+        Expr[] keys = new Expr[entries.size()];
+        Expr[] values = new Expr[entries.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = expr(entries.get(i).expression(0));
+            values[i] = expr(entries.get(i).expression(1));
+        }
+        return new MapLiteral(line(ctx), start(ctx), stop(ctx), keys, values);
+    }
+
+    // Identifier indexes?
+    @Override
+    public Node visitIdentifierExpression(IdentifierExpressionContext ctx) {
+        Variable variable = new Variable(line(ctx), start(ctx), stop(ctx), ctx.Identifier().getText().intern());
+        return indexed(ctx, variable, ctx.indexes());
+    }
+
+    // String indexes?
+    @Override
+    public Node visitStringExpression(StringExpressionContext ctx) {
+        TerminalNode string = ctx.String();
+        Literal literal = new Literal(line(ctx), start(ctx), string.getSymbol().getStopIndex(),
+                literals.get(string));
+        return indexed(ctx, literal, ctx.indexes());
+    }
+
+    // '(' expression ')' indexes?
+    @Override
+    public Node visitExpressionExpression(ExpressionExpressionContext ctx) {
+        return indexed(ctx, expr(ctx.expression()), ctx.indexes());
+    }
+
+    // Input '(' String? ')'
+    @Override
+    public Node visitInputExpression(InputExpressionContext ctx) {
+        String path = ctx.String() != null ? literals.get(ctx.String()).asString() : null;
+        return new Input(line(ctx), start(ctx), stop(ctx), path);
+    }
+
+    private Expr expr(ParserRuleContext ctx) {
+        return (Expr) visit(ctx);
+    }
+
+    private Expr[] exprs(ExprListContext ctx) {
+        return ctx != null ? exprs(ctx.expression()) : NO_EXPRS;
+    }
+
+    private Expr[] indexes(IndexesContext ctx) {
+        return ctx != null ? exprs(ctx.expression()) : NO_EXPRS;
+    }
+
+    private Expr[] exprs(List<ExpressionContext> expressions) {
+        Expr[] exprs = new Expr[expressions.size()];
+        for (int i = 0; i < exprs.length; i++) {
+            exprs[i] = expr(expressions.get(i));
+        }
+        return exprs;
+    }
+
+    private Expr indexed(ParserRuleContext ctx, Expr target, IndexesContext indexes) {
+        if (indexes == null) {
+            return target;
+        }
+        return new Index(line(ctx), start(ctx), stop(ctx), target, indexes(indexes));
+    }
+
+    private Expr binary(ParserRuleContext ctx, BinaryOp op, ExpressionContext lhs, ExpressionContext rhs) {
+        return new Binary(line(ctx), start(ctx), stop(ctx), op, expr(lhs), expr(rhs));
+    }
+
+    private Expr builtin(ParserRuleContext ctx, Builtin builtin, ExpressionContext arg) {
+        return new BuiltinCall(line(ctx), start(ctx), stop(ctx), builtin, arg != null ? expr(arg) : null);
+    }
+
+    private static BinaryOp binaryOp(Token op) {
+        switch (op.getType()) {
+            case TLLexer.Multiply:
+                return BinaryOp.MUL;
+            case TLLexer.Divide:
+                return BinaryOp.DIV;
+            case TLLexer.Modulus:
+                return BinaryOp.MOD;
+            case TLLexer.Add:
+                return BinaryOp.ADD;
+            case TLLexer.Subtract:
+                return BinaryOp.SUB;
+            case TLLexer.DotMultiply:
+                return BinaryOp.DOT_MUL;
+            case TLLexer.DotAdd:
+                return BinaryOp.DOT_ADD;
+            case TLLexer.DotSubtract:
+                return BinaryOp.DOT_SUB;
+            case TLLexer.LT:
+                return BinaryOp.LT;
+            case TLLexer.LTEquals:
+                return BinaryOp.LT_EQ;
+            case TLLexer.GT:
+                return BinaryOp.GT;
+            case TLLexer.GTEquals:
+                return BinaryOp.GT_EQ;
+            case TLLexer.Equals:
+                return BinaryOp.EQ;
+            case TLLexer.NEquals:
+                return BinaryOp.N_EQ;
+            default:
+                throw new RuntimeException("unknown operator type: " + op.getType());
+        }
+    }
+
+    private static int line(ParserRuleContext ctx) {
+        return ctx.start.getLine();
+    }
+
+    private static int start(ParserRuleContext ctx) {
+        return ctx.start.getStartIndex();
+    }
+
+    private static int stop(ParserRuleContext ctx) {
+        return ctx.stop != null ? ctx.stop.getStopIndex() : ctx.start.getStopIndex();
+    }
+}
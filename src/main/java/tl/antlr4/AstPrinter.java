@@ -0,0 +1,389 @@
+package tl.antlr4;
+
+import tl.antlr4.Node.*;
+
+/**
+ * Prints a lowered program back as MAVA source, one statement per line. Binary and
+ * ternary expressions are fully parenthesized, so the printed tree shows exactly how
+ * the program was parsed and what the {@link Optimizer} made of it.
+ */
+public class AstPrinter implements NodeVisitor<Void> {
+
+    private static final String INDENT = "  ";
+
+    private final StringBuilder out = new StringBuilder();
+    private int depth;
+
+    private AstPrinter() {
+    }
+
+    public static String print(Program program) {
+        AstPrinter printer = new AstPrinter();
+        for (FunctionDecl function : program.functions.values()) {
+            function.accept(printer);
+        }
+        printer.visitBlock(program.main);
+        return printer.out.toString();
+    }
+
+    private void line(String text) {
+        for (int i = 0; i < depth; i++) {
+            out.append(INDENT);
+        }
+        out.append(text).append('\n');
+    }
+
+    private void indented(Block block) {
+        depth++;
+        visitBlock(block);
+        depth--;
+    }
+
+    private String expr(Expr expr) {
+        ExprPrinter printer = new ExprPrinter();
+        expr.accept(printer);
+        return printer.sb.toString();
+    }
+
+    @Override
+    public Void visitLiteral(Literal node) {
+        return expression(node);
+    }
+
+    @Override
+    public Void visitListLiteral(ListLiteral node) {
+        return expression(node);
+    }
+
+    @Override
+    public Void visitSetLiteral(SetLiteral node) {
+        return expression(node);
+    }
+
+    @Override
+    public Void visitMapLiteral(MapLiteral node) {
+        return expression(node);
+    }
+
+    @Override
+    public Void visitVariable(Variable node) {
+        return expression(node);
+    }
+
+    @Override
+    public Void visitIndex(Index node) {
+        return expression(node);
+    }
+
+    @Override
+    public Void visitUnary(Unary node) {
+        return expression(node);
+    }
+
+    @Override
+    public Void visitBinary(Binary node) {
+        return expression(node);
+    }
+
+    @Override
+    public Void visitTernary(Ternary node) {
+        return expression(node);
+    }
+
+    @Override
+    public Void visitCall(Call node) {
+        return expression(node);
+    }
+
+    @Override
+    public Void visitBuiltinCall(BuiltinCall node) {
+        return expression(node);
+    }
+
+    @Override
+    public Void visitInput(Input node) {
+        return expression(node);
+    }
+
+    private Void expression(Expr node) {
+        line(expr(node));
+        return null;
+    }
+
+    @Override
+    public Void visitAssign(Assign node) {
+        StringBuilder sb = new StringBuilder(node.name);
+        for (Expr index : node.indexes) {
+            sb.append('[').append(expr(index)).append(']');
+        }
+        line(sb.append(" = ").append(expr(node.value)).append(';').toString());
+        return null;
+    }
+
+    @Override
+    public Void visitExprStmt(ExprStmt node) {
+        line(expr(node.expr) + ";");
+        return null;
+    }
+
+    @Override
+    public Void visitIf(If node) {
+        if (node.conditions.length == 0) {
+            // only the else branch was left, it runs unconditionally
+            line("if true do");
+            indented(node.elseBlock);
+            line("end");
+            return null;
+        }
+        for (int i = 0; i < node.conditions.length; i++) {
+            line((i == 0 ? "if " : "else if ") + expr(node.conditions[i]) + " do");
+            indented(node.blocks[i]);
+        }
+        if (node.elseBlock != null) {
+            line("else do");
+            indented(node.elseBlock);
+        }
+        line("end");
+        return null;
+    }
+
+    @Override
+    public Void visitFor(For node) {
+        line("for " + node.variable + " = " + expr(node.from) + " to " + expr(node.to) + " do");
+        indented(node.body);
+        line("end");
+        return null;
+    }
+
+    @Override
+    public Void visitForIn(ForIn node) {
+        line("for " + node.variable + " in " + expr(node.iterable) + " do");
+        indented(node.body);
+        line("end");
+        return null;
+    }
+
+    @Override
+    public Void visitParfor(Parfor node) {
+        String reduction = node.reduction != null ? " reduce " + node.reduction.keyword + " into " + node.target : "";
+        line("parfor " + node.variable + " = " + expr(node.from) + " to " + expr(node.to) + reduction + " do");
+        indented(node.body);
+        line("end");
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(While node) {
+        line("while " + expr(node.condition) + " do");
+        indented(node.body);
+        line("end");
+        return null;
+    }
+
+    @Override
+    public Void visitBlock(Block node) {
+        for (Stmt statement : node.statements) {
+            statement.accept(this);
+        }
+        if (node.returnValue != null) {
+            line("return " + expr(node.returnValue) + ";");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionDecl(FunctionDecl node) {
+        line("def " + node.name + "(" + String.join(", ", node.params) + ")");
+        indented(node.body);
+        line("end");
+        return null;
+    }
+
+    // renders one expression on a single line
+    private static final class ExprPrinter implements NodeVisitor<Void> {
+
+        private final StringBuilder sb = new StringBuilder();
+
+        private void print(Expr expr) {
+            expr.accept(this);
+        }
+
+        private void print(Expr[] exprs, String separator) {
+            for (int i = 0; i < exprs.length; i++) {
+                if (i > 0) {
+                    sb.append(separator);
+                }
+                print(exprs[i]);
+            }
+        }
+
+        @Override
+        public Void visitLiteral(Literal node) {
+            if (node.value.isString()) {
+                sb.append('"').append(node.value.asString().replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            } else if (node.value.isNull()) {
+                sb.append("null");
+            } else {
+                sb.append(node.value);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitListLiteral(ListLiteral node) {
+            sb.append('[');
+            print(node.elements, ", ");
+            sb.append(']');
+            return null;
+        }
+
+        @Override
+        public Void visitSetLiteral(SetLiteral node) {
+            sb.append('{');
+            print(node.elements, ", ");
+            sb.append('}');
+            return null;
+        }
+
+        @Override
+        public Void visitMapLiteral(MapLiteral node) {
+            sb.append('{');
+            if (node.keys.length == 0) {
+                sb.append(':');
+            }
+            for (int i = 0; i < node.keys.length; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                print(node.keys[i]);
+                sb.append(": ");
+                print(node.values[i]);
+            }
+            sb.append('}');
+            return null;
+        }
+
+        @Override
+        public Void visitVariable(Variable node) {
+            sb.append(node.name);
+            return null;
+        }
+
+        @Override
+        public Void visitIndex(Index node) {
+            print(node.target);
+            for (Expr index : node.indexes) {
+                sb.append('[');
+                print(index);
+                sb.append(']');
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitUnary(Unary node) {
+            sb.append(node.op.symbol);
+            print(node.operand);
+            return null;
+        }
+
+        @Override
+        public Void visitBinary(Binary node) {
+            sb.append('(');
+            print(node.lhs);
+            sb.append(' ').append(node.op.symbol).append(' ');
+            print(node.rhs);
+            sb.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitTernary(Ternary node) {
+            sb.append('(');
+            print(node.condition);
+            sb.append(" ? ");
+            print(node.whenTrue);
+            sb.append(" : ");
+            print(node.whenFalse);
+            sb.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitCall(Call node) {
+            sb.append(node.name).append('(');
+            print(node.args, ", ");
+            sb.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitBuiltinCall(BuiltinCall node) {
+            sb.append(node.builtin.keyword).append('(');
+            if (node.arg != null) {
+                print(node.arg);
+            }
+            if (node.second != null) {
+                sb.append(", ");
+                print(node.second);
+            }
+            sb.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitInput(Input node) {
+            sb.append("input(");
+            if (node.path != null) {
+                sb.append('"').append(node.path).append('"');
+            }
+            sb.append(')');
+            return null;
+        }
+
+        @Override
+        public Void visitAssign(Assign node) {
+            throw new IllegalArgumentException("not an expression");
+        }
+
+        @Override
+        public Void visitExprStmt(ExprStmt node) {
+            throw new IllegalArgumentException("not an expression");
+        }
+
+        @Override
+        public Void visitIf(If node) {
+            throw new IllegalArgumentException("not an expression");
+        }
+
+        @Override
+        public Void visitFor(For node) {
+            throw new IllegalArgumentException("not an expression");
+        }
+
+        @Override
+        public Void visitForIn(ForIn node) {
+            throw new IllegalArgumentException("not an expression");
+        }
+
+        @Override
+        public Void visitParfor(Parfor node) {
+            throw new IllegalArgumentException("not an expression");
+        }
+
+        @Override
+        public Void visitWhile(While node) {
+            throw new IllegalArgumentException("not an expression");
+        }
+
+        @Override
+        public Void visitBlock(Block node) {
+            throw new IllegalArgumentException("not an expression");
+        }
+
+        @Override
+        public Void visitFunctionDecl(FunctionDecl node) {
+            throw new IllegalArgumentException("not an expression");
+        }
+    }
+}
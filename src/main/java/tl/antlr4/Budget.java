@@ -0,0 +1,205 @@
+package tl.antlr4;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * What is left of the {@link Limits} of one run. The backends call {@link #tick()} once
+ * per loop iteration and function call; a tick only decrements a counter, the clock and
+ * the interrupt flag of the thread are looked at every {@code CHECK_INTERVAL} steps.
+ *
+ * Lists and strings are built by {@link Operators}, which don't know the run they belong
+ * to, so the budget of a run is registered for its thread while it runs, see
+ * {@link #checkLength(long)}. Builtins that take long without ticking, such as a large
+ * matrix product or string repetition, check the clock of that budget as they go, see
+ * {@link #checkTime()}.
+ *
+ * The iterations of a parfor run in other threads with a {@link #fork} each, which
+ * takes its steps from the budget of the run, and stops when the run is cancelled or the
+ * iterations it runs are no longer wanted. The lists, sets, maps and strings made in an
+ * iteration belong to its fork, and only that budget and the ones it was forked from may
+ * change them, see {@link #mayChange}: an iteration reads what was made before the loop,
+ * but can't change it under the others. The fork of an iteration is kept by the worker
+ * thread running it, see {@link ParallelRange#iteration()}, so that making a value outside
+ * of parfors costs nothing more.
+ */
+final class Budget {
+
+    private static final int CHECK_INTERVAL = 1 << 12;
+    private static final ThreadLocal<Budget> RUNNING = new ThreadLocal<>();
+
+    private final Limits limits;
+    // System.nanoTime() when the run has to end, unused without a time limit
+    private final long deadline;
+    // the budget of the run, which grants the steps; this one unless it is a fork
+    private final Budget run;
+    // of a fork: the budget it was forked from, and whether its work is no longer wanted
+    private final Budget parent;
+    private final BooleanSupplier stopped;
+    // of the budget of the run: set when the run is cancelled while it waits for a parfor
+    private volatile boolean cancelled;
+    // of the budget of the run: the steps granted so far to it and its forks
+    private long granted;
+    // the steps left until the next check
+    private int left;
+
+    Budget(Limits limits) {
+        this.limits = limits;
+        this.deadline = System.nanoTime() + limits.maxMillis * 1000000;
+        this.run = this;
+        this.parent = null;
+        this.stopped = null;
+    }
+
+    private Budget(Budget parent, BooleanSupplier stopped) {
+        this.limits = parent.limits;
+        this.deadline = parent.deadline;
+        this.run = parent.run;
+        this.parent = parent;
+        this.stopped = stopped;
+    }
+
+    // a budget for another thread of the same run, stopped stays false while its work is wanted
+    Budget fork(BooleanSupplier stopped) {
+        return new Budget(this, stopped);
+    }
+
+    // the run is cancelled, its forks stop at their next check
+    void cancel() {
+        run.cancelled = true;
+    }
+
+    void tick() {
+        if (--left < 0) {
+            check();
+        }
+    }
+
+    private void check() {
+        checkClock();
+        // this tick takes the first of them
+        left = run.grant() - 1;
+    }
+
+    private synchronized int grant() {
+        long grant = CHECK_INTERVAL;
+        if (limits.maxSteps != Limits.NO_LIMIT) {
+            grant = Math.min(grant, limits.maxSteps - granted);
+            if (grant <= 0) {
+                throw new LimitExceededException("the script took more than " + limits.maxSteps + " steps");
+            }
+        }
+        granted += grant;
+        return (int) grant;
+    }
+
+    private void checkClock() {
+        checkStopped();
+        if (Thread.interrupted()) {
+            throw new LimitExceededException("the script was interrupted");
+        }
+    }
+
+    // the time of the run is over, it was cancelled, or the work of this fork isn't wanted;
+    // may be called from any thread working for the run
+    void checkStopped() {
+        if (limits.maxMillis != Limits.NO_LIMIT && System.nanoTime() - deadline > 0) {
+            throw new LimitExceededException("the script ran longer than " + limits.maxMillis + " ms");
+        }
+        if (run.cancelled) {
+            throw new LimitExceededException("the script was interrupted");
+        }
+        for (Budget fork = this; fork.parent != null; fork = fork.parent) {
+            if (fork.stopped != null && fork.stopped.getAsBoolean()) {
+                // an earlier iteration failed, its error is the one reported
+                throw new LimitExceededException("the parfor has failed");
+            }
+        }
+    }
+
+    /**
+     * Waits for what another thread does for the run, such as reading stdin, no longer
+     * than the run may take. The wait ends when the run's thread is interrupted too.
+     */
+    <T> T await(Future<T> result) {
+        try {
+            if (limits.maxMillis == Limits.NO_LIMIT) {
+                return result.get();
+            }
+            return result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            result.cancel(true);
+            throw new LimitExceededException("the script ran longer than " + limits.maxMillis + " ms");
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            throw new LimitExceededException("the script was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // the run starts in this thread, returns the budget to restore when it ends
+    Budget enter() {
+        Budget previous = RUNNING.get();
+        RUNNING.set(this);
+        return previous;
+    }
+
+    // the run has ended
+    void exit(Budget previous) {
+        RUNNING.set(previous);
+    }
+
+    // the budget of the run in this thread, null outside of a run
+    static Budget running() {
+        return RUNNING.get();
+    }
+
+    // the owner of a value made now in this thread, null outside of the iterations of a parfor
+    static Budget owner() {
+        return ParallelRange.iteration();
+    }
+
+    /**
+     * Whether the thread may change a value of this owner: always outside of the iterations
+     * of a parfor, and in them only values made by the iteration itself or by a parfor in it.
+     */
+    static boolean mayChange(Budget owner) {
+        Budget current = ParallelRange.iteration();
+        if (current == null) {
+            return true;
+        }
+        for (Budget budget = owner; budget != null; budget = budget.parent) {
+            if (budget == current) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // a list or string of this length is about to be built by the run in this thread
+    static void checkLength(long length) {
+        Budget budget = RUNNING.get();
+        if (budget != null && budget.limits.limitsLength() && length > budget.limits.maxLength) {
+            throw new LimitExceededException("the script built a list or string longer than "
+                    + budget.limits.maxLength);
+        }
+    }
+
+    // a builtin is still working for the run in this thread: its time may be over, or it was interrupted
+    static void checkTime() {
+        Budget budget = RUNNING.get();
+        if (budget != null) {
+            budget.checkClock();
+        }
+    }
+}
@@ -0,0 +1,1018 @@
+package tl.antlr4;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import tl.antlr4.Node.*;
+
+/**
+ * Compiles a resolved {@link Program} into a JVM class, so HotSpot can JIT the script
+ * itself instead of the tree walker. The generated class extends {@link CompiledProgram}:
+ * the top-level block becomes {@code main()} and every function becomes a method taking
+ * its arguments as parameters. Function slots are JVM locals, top-level slots are the
+ * {@code globals} array, and {@code return} is a JVM return. For a call that shares
+ * variables with the callee (see {@link Call#names}) a function stores those locals in an
+ * array, which the callee looks them up in, and loads them back after the call.
+ *
+ * The semantics follow the {@link Interpreter} node by node; operators and builtins call
+ * the helpers of {@link CompiledProgram}, which share {@link Operators} with it.
+ */
+public class BytecodeCompiler implements NodeVisitor<Void>, Opcodes {
+
+    static final String CLASS_NAME = "tl/antlr4/compiled/MavaProgram";
+
+    private static final String BASE = Type.getInternalName(CompiledProgram.class);
+    private static final String VALUE = Type.getInternalName(TLValue.class);
+    private static final String VALUE_DESC = Type.getDescriptor(TLValue.class);
+    private static final String OPERATOR_DESC = "(" + VALUE_DESC + VALUE_DESC + "I)" + VALUE_DESC;
+    private static final String BUILTIN_DESC = "(" + VALUE_DESC + "I)" + VALUE_DESC;
+    private static final String MAP_DESC = Type.getDescriptor(ValueMap.class);
+    private static final String CURSOR = Type.getInternalName(Sequence.Cursor.class);
+    private static final String CURSOR_DESC = Type.getDescriptor(Sequence.Cursor.class);
+
+    private final Program program;
+    private final List<TLValue> constants = new ArrayList<>();
+    private final Map<TLValue, Integer> constantIndexes = new IdentityHashMap<>();
+    private final List<Node> sites = new ArrayList<>();
+
+    // the parfors met so far, the body of each becomes a method of its own
+    private final List<Parfor> parfors = new ArrayList<>();
+    // of each parfor: the size of the frame of the function it is in, -1 at the top level
+    private final List<Integer> parforFrames = new ArrayList<>();
+
+    // state of the method being generated
+    private MethodVisitor mv;
+    private boolean inFunction;
+    // the parfor whose body the method is, null for main() and functions
+    private Parfor parforBody;
+    private int frameSize;
+    private int globalsLocal;
+    private int scratchLocal;
+    private int nextLocal;
+    // locals holding the cursors of the for-in loops around the code being generated, innermost first
+    private final Deque<Integer> cursorLocals = new ArrayDeque<>();
+
+    private BytecodeCompiler(Program program) {
+        this.program = program;
+    }
+
+    /**
+     * Compiles the program and loads it in a class loader of its own.
+     */
+    public static CompiledProgram compile(Program program, Output output) {
+        return load(program).newInstance(output, new Budget(Limits.NONE));
+    }
+
+    /**
+     * Compiles the program and loads it in a class loader of its own, once for any
+     * number of runs: every instance of the class has globals of its own.
+     */
+    static CompiledClass load(Program program) {
+        if (!program.isResolved()) {
+            throw new IllegalStateException("the program has to be resolved before it can be compiled");
+        }
+        BytecodeCompiler compiler = new BytecodeCompiler(program);
+        byte[] bytes = compiler.generate();
+        try {
+            Class<?> type = new ProgramClassLoader().define(CLASS_NAME.replace('/', '.'), bytes);
+            return new CompiledClass(type.asSubclass(CompiledProgram.class).getConstructor(), program,
+                    compiler.constants.toArray(new TLValue[0]), compiler.sites.toArray(new Node[0]));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("can't load the compiled program", e);
+        }
+    }
+
+    private byte[] generate() {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, CLASS_NAME, null, BASE, null);
+
+        MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, BASE, "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        // main: the top-level slots live in the globals array
+        mv = cw.visitMethod(ACC_PROTECTED, "main", "()V", null, null);
+        mv.visitCode();
+        inFunction = false;
+        parforBody = null;
+        globalsLocal = 1;
+        scratchLocal = 2;
+        nextLocal = 3;
+        loadGlobalsLocal();
+        visitBlock(program.main);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        for (FunctionDecl function : program.functions.values()) {
+            mv = cw.visitMethod(ACC_PUBLIC | ACC_FINAL, methodName(function.name), methodDescriptor(function.params.length), null, null);
+            mv.visitCode();
+            inFunction = true;
+            parforBody = null;
+            frameSize = function.frameSize;
+            // this, then one local per frame slot, the parameters first
+            for (int slot = function.params.length; slot < function.frameSize; slot++) {
+                mv.visitInsn(ACONST_NULL);
+                mv.visitVarInsn(ASTORE, 1 + slot);
+            }
+            globalsLocal = 1 + function.frameSize;
+            scratchLocal = globalsLocal + 1;
+            nextLocal = scratchLocal + 1;
+            loadGlobalsLocal();
+            tick();
+            visitBlock(function.body);
+            mv.visitFieldInsn(GETSTATIC, VALUE, "VOID", VALUE_DESC);
+            mv.visitInsn(ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+
+        // a parfor body may hold parfors, which are added while it is generated
+        for (int id = 0; id < parfors.size(); id++) {
+            generateParfor(cw, id);
+        }
+        if (!parfors.isEmpty()) {
+            generateIterate(cw);
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    // parfor$<id>(slots): one iteration of the body, in the slots that CompiledProgram.parfor prepared
+    private void generateParfor(ClassWriter cw, int id) {
+        Parfor node = parfors.get(id);
+        mv = cw.visitMethod(ACC_PUBLIC | ACC_FINAL, "parfor$" + id, "([" + VALUE_DESC + ")" + VALUE_DESC, null, null);
+        mv.visitCode();
+        inFunction = parforFrames.get(id) >= 0;
+        parforBody = node;
+        if (inFunction) {
+            // a copy of the function's frame: its slots are loaded into the locals of a function
+            frameSize = parforFrames.get(id);
+            int slotsLocal = 1 + frameSize;
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitVarInsn(ASTORE, slotsLocal);
+            for (int slot = 0; slot < frameSize; slot++) {
+                mv.visitVarInsn(ALOAD, slotsLocal);
+                push(slot);
+                mv.visitInsn(AALOAD);
+                mv.visitVarInsn(ASTORE, 1 + slot);
+            }
+            globalsLocal = slotsLocal + 1;
+        } else {
+            // a copy of the globals, which is also the globals of the chunk's instance
+            globalsLocal = 2;
+        }
+        scratchLocal = globalsLocal + 1;
+        nextLocal = scratchLocal + 1;
+        loadGlobalsLocal();
+        visitBlock(node.body);
+        if (node.reduction != null) {
+            load(node.target, 0, node.localTarget);
+        } else {
+            mv.visitInsn(ACONST_NULL);
+        }
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    // iterate(id, slots) calls parfor$<id>(slots)
+    private void generateIterate(ClassWriter cw) {
+        mv = cw.visitMethod(ACC_PROTECTED, "iterate", "(I[" + VALUE_DESC + ")" + VALUE_DESC, null, null);
+        mv.visitCode();
+        Label[] bodies = new Label[parfors.size()];
+        for (int id = 0; id < bodies.length; id++) {
+            bodies[id] = new Label();
+        }
+        Label unknown = new Label();
+        mv.visitVarInsn(ILOAD, 1);
+        mv.visitTableSwitchInsn(0, bodies.length - 1, unknown, bodies);
+        for (int id = 0; id < bodies.length; id++) {
+            mv.visitLabel(bodies[id]);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitVarInsn(ALOAD, 2);
+            mv.visitMethodInsn(INVOKEVIRTUAL, CLASS_NAME, "parfor$" + id, "([" + VALUE_DESC + ")" + VALUE_DESC, false);
+            mv.visitInsn(ARETURN);
+        }
+        mv.visitLabel(unknown);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ILOAD, 1);
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitMethodInsn(INVOKESPECIAL, BASE, "iterate", "(I[" + VALUE_DESC + ")" + VALUE_DESC, false);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static String methodName(String function) {
+        return "mava$" + function;
+    }
+
+    private static String methodDescriptor(int arity) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < arity; i++) {
+            sb.append(VALUE_DESC);
+        }
+        return sb.append(')').append(VALUE_DESC).toString();
+    }
+
+    private void loadGlobalsLocal() {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, BASE, "globals", "[" + VALUE_DESC);
+        mv.visitVarInsn(ASTORE, globalsLocal);
+    }
+
+    private void eval(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void push(int value) {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    // pushes the index of the node in the sites table, for error reporting
+    private void site(Node node) {
+        sites.add(node);
+        push(sites.size() - 1);
+    }
+
+    private void lineNumber(Node node) {
+        Label label = new Label();
+        mv.visitLabel(label);
+        mv.visitLineNumber(node.line, label);
+    }
+
+    private void callHelper(String name, String descriptor) {
+        mv.visitMethodInsn(INVOKEVIRTUAL, BASE, name, descriptor, false);
+    }
+
+    // a loop iteration or function call, counted against the Budget of the run
+    private void tick() {
+        mv.visitVarInsn(ALOAD, 0);
+        callHelper("tick", "()V");
+    }
+
+    private void callStaticHelper(String name, String descriptor) {
+        mv.visitMethodInsn(INVOKESTATIC, BASE, name, descriptor, false);
+    }
+
+    private void load(String name, int depth, int slot) {
+        if (depth == Node.UNDEFINED) {
+            lookup(name);
+        } else if (depth == Node.CALLERS) {
+            // the caller's variable while the function hasn't set its own
+            Label set = new Label();
+            mv.visitVarInsn(ALOAD, 1 + slot);
+            mv.visitInsn(DUP);
+            mv.visitJumpInsn(IFNONNULL, set);
+            mv.visitInsn(POP);
+            lookup(name);
+            mv.visitLabel(set);
+        } else if (depth == 0 && inFunction) {
+            mv.visitVarInsn(ALOAD, 1 + slot);
+        } else {
+            mv.visitVarInsn(ALOAD, globalsLocal);
+            push(slot);
+            mv.visitInsn(AALOAD);
+        }
+    }
+
+    private void lookup(String name) {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitLdcInsn(name);
+        callHelper("lookup", "(Ljava/lang/String;)" + VALUE_DESC);
+    }
+
+    // stores the value on top of the stack
+    private void store(String name, int depth, int slot, int line) {
+        if (depth == Node.CALLERS) {
+            // re-assigns the caller's variable while the function hasn't set its own
+            Label local = new Label();
+            Label end = new Label();
+            mv.visitVarInsn(ALOAD, 1 + slot);
+            mv.visitJumpInsn(IFNONNULL, local);
+            mv.visitInsn(DUP);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitInsn(SWAP);
+            mv.visitLdcInsn(name);
+            push(line);
+            callHelper("assign", "(" + VALUE_DESC + "Ljava/lang/String;I)Z");
+            mv.visitJumpInsn(IFEQ, local);
+            mv.visitInsn(POP);
+            mv.visitJumpInsn(GOTO, end);
+            mv.visitLabel(local);
+            mv.visitVarInsn(ASTORE, 1 + slot);
+            mv.visitLabel(end);
+        } else if (depth == 0 && inFunction) {
+            mv.visitVarInsn(ASTORE, 1 + slot);
+        } else {
+            // value -> globals, slot, value
+            mv.visitVarInsn(ALOAD, globalsLocal);
+            push(slot);
+            mv.visitInsn(DUP2_X1);
+            mv.visitInsn(POP2);
+            mv.visitInsn(AASTORE);
+        }
+    }
+
+    private void condition(Expr condition, Label whenFalse) {
+        eval(condition);
+        mv.visitMethodInsn(INVOKEVIRTUAL, VALUE, "asBoolean", "()Z", false);
+        mv.visitJumpInsn(IFEQ, whenFalse);
+    }
+
+    @Override
+    public Void visitLiteral(Literal node) {
+        loadConstant(node.value);
+        return null;
+    }
+
+    private void loadConstant(TLValue value) {
+        Integer index = constantIndexes.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndexes.put(value, index);
+        }
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, BASE, "constants", "[" + VALUE_DESC);
+        push(index);
+        mv.visitInsn(AALOAD);
+    }
+
+    @Override
+    public Void visitListLiteral(ListLiteral node) {
+        if (node.constant != null) {
+            loadConstant(node.constant);
+            callStaticHelper("copy", "(" + VALUE_DESC + ")" + VALUE_DESC);
+            return null;
+        }
+        callStaticHelper("newList", "()Ljava/util/List;");
+        for (Expr element : node.elements) {
+            mv.visitInsn(DUP);
+            eval(element);
+            mv.visitMethodInsn(INVOKEINTERFACE, "java/util/List", "add", "(Ljava/lang/Object;)Z", true);
+            mv.visitInsn(POP);
+        }
+        callStaticHelper("listValue", "(Ljava/util/List;)" + VALUE_DESC);
+        return null;
+    }
+
+    @Override
+    public Void visitSetLiteral(SetLiteral node) {
+        callStaticHelper("newSet", "()" + MAP_DESC);
+        for (Expr element : node.elements) {
+            // a set puts every element under itself
+            mv.visitInsn(DUP);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitInsn(SWAP);
+            eval(element);
+            mv.visitInsn(DUP);
+            site(element);
+            callHelper("put", "(" + MAP_DESC + VALUE_DESC + VALUE_DESC + "I)V");
+        }
+        callStaticHelper("mapValue", "(" + MAP_DESC + ")" + VALUE_DESC);
+        return null;
+    }
+
+    @Override
+    public Void visitMapLiteral(MapLiteral node) {
+        callStaticHelper("newMap", "()" + MAP_DESC);
+        for (int i = 0; i < node.keys.length; i++) {
+            mv.visitInsn(DUP);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitInsn(SWAP);
+            eval(node.keys[i]);
+            eval(node.values[i]);
+            site(node.keys[i]);
+            callHelper("put", "(" + MAP_DESC + VALUE_DESC + VALUE_DESC + "I)V");
+        }
+        callStaticHelper("mapValue", "(" + MAP_DESC + ")" + VALUE_DESC);
+        return null;
+    }
+
+    @Override
+    public Void visitVariable(Variable node) {
+        load(node.name, node.depth, node.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitIndex(Index node) {
+        eval(node.target);
+        Expr[] indexes = node.indexes;
+        int i = 0;
+        for (; i + 1 < indexes.length; i += 2) {
+            // value[i][j], a dense matrix element is read without turning the matrix into lists
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitInsn(SWAP);
+            eval(indexes[i]);
+            eval(indexes[i + 1]);
+            site(indexes[i + 1]);
+            callHelper("index", "(" + VALUE_DESC + VALUE_DESC + VALUE_DESC + "I)" + VALUE_DESC);
+        }
+        if (i < indexes.length) {
+            index(indexes[i], indexes[i]);
+        }
+        return null;
+    }
+
+    // indexes the value on top of the stack
+    private void index(Expr index, Node site) {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitInsn(SWAP);
+        eval(index);
+        site(site);
+        callHelper("index", OPERATOR_DESC);
+    }
+
+    @Override
+    public Void visitUnary(Unary node) {
+        mv.visitVarInsn(ALOAD, 0);
+        eval(node.operand);
+        site(node);
+        switch (node.op) {
+            case MINUS:
+                callHelper("minus", BUILTIN_DESC);
+                break;
+            case NOT:
+                callHelper("not", BUILTIN_DESC);
+                break;
+            default:
+                throw new RuntimeException("unknown operator type: " + node.op);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinary(Binary node) {
+        if (node.op == BinaryOp.AND || node.op == BinaryOp.OR) {
+            logical(node);
+            return null;
+        }
+        mv.visitVarInsn(ALOAD, 0);
+        eval(node.lhs);
+        eval(node.rhs);
+        site(node);
+        callHelper(helperName(node.op), OPERATOR_DESC);
+        return null;
+    }
+
+    private static String helperName(BinaryOp op) {
+        switch (op) {
+            case POW:
+                return "power";
+            case MUL:
+                return "multiply";
+            case DIV:
+                return "divide";
+            case MOD:
+                return "modulus";
+            case ADD:
+                return "add";
+            case SUB:
+                return "subtract";
+            case DOT_MUL:
+                return "dotMultiply";
+            case DOT_ADD:
+                return "dotAdd";
+            case DOT_SUB:
+                return "dotSubtract";
+            case LT:
+                return "lt";
+            case LT_EQ:
+                return "ltEq";
+            case GT:
+                return "gt";
+            case GT_EQ:
+                return "gtEq";
+            case EQ:
+                return "eq";
+            case N_EQ:
+                return "nEq";
+            case IN:
+                return "in";
+            default:
+                throw new RuntimeException("unknown operator type: " + op);
+        }
+    }
+
+    // '&&' jumps to FALSE as soon as an operand is false, '||' to TRUE as soon as one is true
+    private void logical(Binary node) {
+        boolean or = node.op == BinaryOp.OR;
+        Label decided = new Label();
+        Label end = new Label();
+        logicalOperand(node.lhs, node);
+        mv.visitJumpInsn(or ? IFNE : IFEQ, decided);
+        logicalOperand(node.rhs, node);
+        mv.visitJumpInsn(or ? IFNE : IFEQ, decided);
+        mv.visitFieldInsn(GETSTATIC, VALUE, or ? "FALSE" : "TRUE", VALUE_DESC);
+        mv.visitJumpInsn(GOTO, end);
+        mv.visitLabel(decided);
+        mv.visitFieldInsn(GETSTATIC, VALUE, or ? "TRUE" : "FALSE", VALUE_DESC);
+        mv.visitLabel(end);
+    }
+
+    private void logicalOperand(Expr operand, Binary node) {
+        mv.visitVarInsn(ALOAD, 0);
+        eval(operand);
+        site(node);
+        callHelper("logicalOperand", "(" + VALUE_DESC + "I)Z");
+    }
+
+    @Override
+    public Void visitTernary(Ternary node) {
+        // only the branch that is taken is evaluated
+        Label whenFalse = new Label();
+        Label end = new Label();
+        condition(node.condition, whenFalse);
+        eval(node.whenTrue);
+        mv.visitJumpInsn(GOTO, end);
+        mv.visitLabel(whenFalse);
+        eval(node.whenFalse);
+        mv.visitLabel(end);
+        return null;
+    }
+
+    @Override
+    public Void visitCall(Call node) {
+        if (node.function == Node.UNDEFINED) {
+            mv.visitVarInsn(ALOAD, 0);
+            site(node);
+            callHelper("error", "(I)" + Type.getDescriptor(EvalException.class));
+            mv.visitInsn(ATHROW);
+            return null;
+        }
+        mv.visitVarInsn(ALOAD, 0);
+        for (Expr arg : node.args) {
+            eval(arg);
+        }
+        // a parfor iteration always enters its calls, to keep the callees off the variables it shares
+        boolean enter = node.names != null || parforBody != null;
+        int shared = Node.UNDEFINED;
+        if (enter) {
+            mv.visitVarInsn(ALOAD, 0);
+            if (inFunction) {
+                shared = nextLocal++;
+                push(frameSize);
+                mv.visitTypeInsn(ANEWARRAY, VALUE);
+                if (node.names != null) {
+                    for (int slot : node.names.values()) {
+                        mv.visitInsn(DUP);
+                        push(slot);
+                        mv.visitVarInsn(ALOAD, 1 + slot);
+                        mv.visitInsn(AASTORE);
+                    }
+                }
+                mv.visitInsn(DUP);
+                mv.visitVarInsn(ASTORE, shared);
+            } else {
+                mv.visitVarInsn(ALOAD, globalsLocal);
+            }
+            site(node);
+            if (parforBody != null) {
+                site(parforBody);
+            } else {
+                push(-1);
+            }
+            callHelper("enterCall", "([" + VALUE_DESC + "II)V");
+        }
+        FunctionDecl function = program.functionTable[node.function];
+        mv.visitMethodInsn(INVOKEVIRTUAL, CLASS_NAME, methodName(function.name), methodDescriptor(node.args.length), false);
+        if (enter) {
+            mv.visitVarInsn(ALOAD, 0);
+            callHelper("exitCall", "()V");
+            if (shared != Node.UNDEFINED && node.names != null) {
+                // the callee may have re-assigned them
+                for (int slot : node.names.values()) {
+                    mv.visitVarInsn(ALOAD, shared);
+                    push(slot);
+                    mv.visitInsn(AALOAD);
+                    mv.visitVarInsn(ASTORE, 1 + slot);
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBuiltinCall(BuiltinCall node) {
+        switch (node.builtin) {
+            case PRINTLN:
+                mv.visitVarInsn(ALOAD, 0);
+                if (node.arg == null) {
+                    callHelper("println", "()V");
+                } else {
+                    eval(node.arg);
+                    callHelper("println", "(" + VALUE_DESC + ")V");
+                }
+                mv.visitFieldInsn(GETSTATIC, VALUE, "VOID", VALUE_DESC);
+                return null;
+            case PRINT:
+                mv.visitVarInsn(ALOAD, 0);
+                eval(node.arg);
+                callHelper("print", "(" + VALUE_DESC + ")V");
+                mv.visitFieldInsn(GETSTATIC, VALUE, "VOID", VALUE_DESC);
+                return null;
+            case ASSERT:
+                mv.visitVarInsn(ALOAD, 0);
+                eval(node.arg);
+                site(node);
+                callHelper("assertTrue", "(" + VALUE_DESC + "I)V");
+                mv.visitFieldInsn(GETSTATIC, VALUE, "VOID", VALUE_DESC);
+                return null;
+            case SIZE:
+                return builtin("size", node);
+            case TRANSPOSE:
+                return builtin("transpose", node);
+            case ROWS:
+                return builtin("rows", node);
+            case COLUMNS:
+                return builtin("columns", node);
+            case DETERMINANT:
+                return builtin("determinant", node);
+            case MATRIX_SUM:
+                return builtin("matrixSum", node);
+            case LINES:
+                return builtin("lines", node);
+            case CHUNKS:
+                mv.visitVarInsn(ALOAD, 0);
+                eval(node.arg);
+                eval(node.second);
+                site(node);
+                callHelper("chunks", OPERATOR_DESC);
+                return null;
+            case RANGE:
+                mv.visitVarInsn(ALOAD, 0);
+                eval(node.arg);
+                eval(node.second);
+                site(node);
+                callHelper("range", OPERATOR_DESC);
+                return null;
+            case INVERSE:
+                return builtin("inverse", node);
+            case SOLVE:
+                mv.visitVarInsn(ALOAD, 0);
+                eval(node.arg);
+                eval(node.second);
+                site(node);
+                callHelper("solve", OPERATOR_DESC);
+                return null;
+            case QR:
+                return builtin("qr", node);
+            case EIG:
+                return builtin("eig", node);
+            case SVD:
+                return builtin("svd", node);
+            case NORM:
+                return builtin("norm", node);
+            case TRACE:
+                return builtin("trace", node);
+            case IDENTITY:
+                return builtin("identity", node);
+            default:
+                throw new RuntimeException("unknown builtin: " + node.builtin);
+        }
+    }
+
+    private Void builtin(String helper, BuiltinCall node) {
+        mv.visitVarInsn(ALOAD, 0);
+        eval(node.arg);
+        site(node);
+        callHelper(helper, BUILTIN_DESC);
+        return null;
+    }
+
+    @Override
+    public Void visitInput(Input node) {
+        mv.visitVarInsn(ALOAD, 0);
+        if (node.path != null) {
+            mv.visitLdcInsn(node.path);
+        } else {
+            mv.visitInsn(ACONST_NULL);
+        }
+        callHelper("input", "(Ljava/lang/String;)" + VALUE_DESC);
+        return null;
+    }
+
+    @Override
+    public Void visitAssign(Assign node) {
+        lineNumber(node);
+        eval(node.value);
+        if (node.indexes.length == 0) {
+            store(node.name, node.depth, node.slot, node.line);
+            return null;
+        }
+        // assignments don't nest, so one scratch local per method holds the new value
+        mv.visitVarInsn(ASTORE, scratchLocal);
+        mv.visitVarInsn(ALOAD, 0);
+        load(node.name, node.depth, node.slot);
+        site(node);
+        callHelper("assignTarget", BUILTIN_DESC);
+        int last = node.indexes.length - 1;
+        for (int i = 0; i < last; i++) {
+            index(node.indexes[i], node);
+        }
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitInsn(SWAP);
+        eval(node.indexes[last]);
+        mv.visitVarInsn(ALOAD, scratchLocal);
+        site(node);
+        callHelper("setAtIndex", "(" + VALUE_DESC + VALUE_DESC + VALUE_DESC + "I)V");
+        return null;
+    }
+
+    @Override
+    public Void visitExprStmt(ExprStmt node) {
+        lineNumber(node);
+        eval(node.expr);
+        mv.visitInsn(POP);
+        return null;
+    }
+
+    @Override
+    public Void visitIf(If node) {
+        lineNumber(node);
+        Label end = new Label();
+        for (int i = 0; i < node.conditions.length; i++) {
+            Label next = new Label();
+            condition(node.conditions[i], next);
+            visitBlock(node.blocks[i]);
+            mv.visitJumpInsn(GOTO, end);
+            mv.visitLabel(next);
+        }
+        if (node.elseBlock != null) {
+            visitBlock(node.elseBlock);
+        }
+        mv.visitLabel(end);
+        return null;
+    }
+
+    @Override
+    public Void visitFor(For node) {
+        lineNumber(node);
+        int i = nextLocal++;
+        int stop = nextLocal++;
+        eval(node.from);
+        mv.visitMethodInsn(INVOKEVIRTUAL, VALUE, "asDouble", "()D", false);
+        mv.visitInsn(D2I);
+        mv.visitVarInsn(ISTORE, i);
+        eval(node.to);
+        mv.visitMethodInsn(INVOKEVIRTUAL, VALUE, "asDouble", "()D", false);
+        mv.visitInsn(D2I);
+        mv.visitVarInsn(ISTORE, stop);
+        Label test = new Label();
+        Label end = new Label();
+        mv.visitLabel(test);
+        mv.visitVarInsn(ILOAD, i);
+        mv.visitVarInsn(ILOAD, stop);
+        mv.visitJumpInsn(IF_ICMPGT, end);
+        mv.visitVarInsn(ILOAD, i);
+        mv.visitMethodInsn(INVOKESTATIC, VALUE, "of", "(I)" + VALUE_DESC, false);
+        store(node.variable, node.depth, node.slot, node.line);
+        visitBlock(node.body);
+        tick();
+        mv.visitIincInsn(i, 1);
+        mv.visitJumpInsn(GOTO, test);
+        mv.visitLabel(end);
+        return null;
+    }
+
+    @Override
+    public Void visitForIn(ForIn node) {
+        lineNumber(node);
+        if (node.iterable instanceof BuiltinCall && ((BuiltinCall) node.iterable).builtin == Builtin.RANGE) {
+            countUp(node, (BuiltinCall) node.iterable);
+            return null;
+        }
+        int cursor = nextLocal++;
+        mv.visitVarInsn(ALOAD, 0);
+        eval(node.iterable);
+        site(node.iterable);
+        callHelper("iterate", "(" + VALUE_DESC + "I)" + CURSOR_DESC);
+        mv.visitVarInsn(ASTORE, cursor);
+        Label start = new Label();
+        Label test = new Label();
+        Label exhausted = new Label();
+        Label end = new Label();
+        Label handler = new Label();
+        Label after = new Label();
+        mv.visitLabel(start);
+        mv.visitLabel(test);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, cursor);
+        site(node.iterable);
+        callHelper("next", "(" + CURSOR_DESC + "I)" + VALUE_DESC);
+        mv.visitInsn(DUP);
+        mv.visitJumpInsn(IFNULL, exhausted);
+        store(node.variable, node.depth, node.slot, node.line);
+        cursorLocals.push(cursor);
+        visitBlock(node.body);
+        cursorLocals.pop();
+        tick();
+        mv.visitJumpInsn(GOTO, test);
+        mv.visitLabel(exhausted);
+        mv.visitInsn(POP);
+        mv.visitLabel(end);
+        closeCursor(cursor);
+        mv.visitJumpInsn(GOTO, after);
+        // an error leaving the loop closes the cursor and is rethrown
+        mv.visitLabel(handler);
+        closeCursor(cursor);
+        mv.visitInsn(ATHROW);
+        mv.visitLabel(after);
+        // registered after the body, so the handlers of nested loops come first in the exception table
+        mv.visitTryCatchBlock(start, end, handler, null);
+        return null;
+    }
+
+    // for i in range(from, to) counts in an int local, no range or cursor is created
+    private void countUp(ForIn node, BuiltinCall range) {
+        int i = nextLocal++;
+        int stop = nextLocal++;
+        mv.visitVarInsn(ALOAD, 0);
+        eval(range.arg);
+        site(range);
+        callHelper("rangeBound", "(" + VALUE_DESC + "I)I");
+        mv.visitVarInsn(ISTORE, i);
+        mv.visitVarInsn(ALOAD, 0);
+        eval(range.second);
+        site(range);
+        callHelper("rangeBound", "(" + VALUE_DESC + "I)I");
+        mv.visitVarInsn(ISTORE, stop);
+        Label test = new Label();
+        Label end = new Label();
+        mv.visitLabel(test);
+        mv.visitVarInsn(ILOAD, i);
+        mv.visitVarInsn(ILOAD, stop);
+        mv.visitJumpInsn(IF_ICMPGE, end);
+        mv.visitVarInsn(ILOAD, i);
+        mv.visitMethodInsn(INVOKESTATIC, VALUE, "of", "(I)" + VALUE_DESC, false);
+        store(node.variable, node.depth, node.slot, node.line);
+        visitBlock(node.body);
+        tick();
+        mv.visitIincInsn(i, 1);
+        mv.visitJumpInsn(GOTO, test);
+        mv.visitLabel(end);
+    }
+
+    private void closeCursor(int cursor) {
+        mv.visitVarInsn(ALOAD, cursor);
+        mv.visitMethodInsn(INVOKEINTERFACE, CURSOR, "close", "()V", true);
+    }
+
+    @Override
+    public Void visitParfor(Parfor node) {
+        lineNumber(node);
+        int id = parfors.size();
+        parfors.add(node);
+        parforFrames.add(inFunction ? frameSize : -1);
+        mv.visitVarInsn(ALOAD, 0);
+        push(id);
+        eval(node.from);
+        mv.visitMethodInsn(INVOKEVIRTUAL, VALUE, "asDouble", "()D", false);
+        mv.visitInsn(D2I);
+        eval(node.to);
+        mv.visitMethodInsn(INVOKEVIRTUAL, VALUE, "asDouble", "()D", false);
+        mv.visitInsn(D2I);
+        if (inFunction) {
+            // the function's locals live in JVM locals, the iterations get them in an array
+            push(frameSize);
+            mv.visitTypeInsn(ANEWARRAY, VALUE);
+            for (int slot = 0; slot < node.firstLocal; slot++) {
+                mv.visitInsn(DUP);
+                push(slot);
+                mv.visitVarInsn(ALOAD, 1 + slot);
+                mv.visitInsn(AASTORE);
+            }
+        } else {
+            mv.visitInsn(ACONST_NULL);
+        }
+        if (node.reduction != null) {
+            load(node.target, node.targetDepth, node.targetSlot);
+        } else {
+            mv.visitInsn(ACONST_NULL);
+        }
+        site(node);
+        callHelper("parfor", "(III[" + VALUE_DESC + VALUE_DESC + "I)" + VALUE_DESC);
+        if (node.reduction != null) {
+            store(node.target, node.targetDepth, node.targetSlot, node.line);
+        } else {
+            mv.visitInsn(POP);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(While node) {
+        lineNumber(node);
+        Label test = new Label();
+        Label end = new Label();
+        mv.visitLabel(test);
+        condition(node.condition, end);
+        visitBlock(node.body);
+        tick();
+        mv.visitJumpInsn(GOTO, test);
+        mv.visitLabel(end);
+        return null;
+    }
+
+    @Override
+    public Void visitBlock(Block node) {
+        for (Stmt statement : node.statements) {
+            statement.accept(this);
+        }
+        if (node.returnValue != null) {
+            lineNumber(node.returnValue);
+            eval(node.returnValue);
+            if (!cursorLocals.isEmpty()) {
+                // returning from inside for-in loops: their cursors are closed first
+                mv.visitVarInsn(ASTORE, scratchLocal);
+                for (int cursor : cursorLocals) {
+                    closeCursor(cursor);
+                }
+                mv.visitVarInsn(ALOAD, scratchLocal);
+            }
+            if (inFunction) {
+                mv.visitInsn(ARETURN);
+            } else {
+                // a top-level return ends the program
+                mv.visitInsn(POP);
+                mv.visitInsn(RETURN);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionDecl(FunctionDecl node) {
+        return null;
+    }
+
+    /**
+     * The loaded class of a compiled program. The constants and sites are only read by
+     * the generated code, so all instances share them.
+     */
+    static final class CompiledClass {
+
+        private final Constructor<? extends CompiledProgram> constructor;
+        private final Program program;
+        private final TLValue[] constants;
+        private final Node[] sites;
+
+        private CompiledClass(Constructor<? extends CompiledProgram> constructor, Program program,
+                              TLValue[] constants, Node[] sites) {
+            this.constructor = constructor;
+            this.program = program;
+            this.constants = constants;
+            this.sites = sites;
+        }
+
+        CompiledProgram newInstance(Output output, Budget budget) {
+            CompiledProgram compiled;
+            try {
+                compiled = constructor.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("can't load the compiled program", e);
+            }
+            compiled.init(this, program, constants, sites, output, budget);
+            return compiled;
+        }
+    }
+
+    // every compiled program gets a loader of its own, so its class can be unloaded with it
+    private static final class ProgramClassLoader extends ClassLoader {
+
+        ProgramClassLoader() {
+            super(CompiledProgram.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
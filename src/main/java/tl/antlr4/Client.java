@@ -0,0 +1,96 @@
+package tl.antlr4;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+
+/**
+ * The client of a {@link Server}: {@code Main --client [arguments]} sends the arguments
+ * of {@link Main} to the server, prints what the script prints and exits with the status
+ * of the run. What the script reads with {@code input()} comes from the client's stdin,
+ * and the files it reads are found from the client's working directory, which the
+ * request carries. When no server is running, the script runs in the client's JVM instead.
+ */
+final class Client {
+
+    private Client() {
+    }
+
+    static int run(String[] args) {
+        String[] state;
+        try {
+            state = new String(Files.readAllBytes(Server.stateFile()), StandardCharsets.UTF_8).trim().split(" ");
+        } catch (NoSuchFileException e) {
+            return Main.run(args, System.out, System.err);
+        } catch (IOException e) {
+            System.err.println("MAVA client: " + e.getMessage());
+            return 1;
+        }
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(state[0]))) {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            request.writeUTF(state[1]);
+            request.writeUTF(Charset.defaultCharset().name());
+            request.writeUTF(Paths.get("").toAbsolutePath().toString());
+            request.writeInt(args.length);
+            for (String arg : args) {
+                request.writeUTF(arg);
+            }
+            request.flush();
+            return receive(new DataInputStream(new BufferedInputStream(socket.getInputStream())), request);
+        } catch (ConnectException e) {
+            // the state file of a server that is gone
+            return Main.run(args, System.out, System.err);
+        } catch (IOException e) {
+            System.err.println("MAVA client: " + e.getMessage());
+            return 1;
+        }
+    }
+
+    // prints the frames of the answer and sends stdin when asked to, returns the exit status
+    private static int receive(DataInputStream answer, DataOutputStream request) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (true) {
+            int kind = answer.read();
+            if (kind < 0) {
+                // a request with a wrong token is dropped
+                throw new IOException("the server closed the connection");
+            }
+            if (kind == Server.EXIT) {
+                System.out.flush();
+                System.err.flush();
+                return answer.readInt();
+            }
+            if (kind == Server.INPUT) {
+                // what the user typed so far, or the next part of a piped file
+                System.out.flush();
+                int n = System.in.read(buffer);
+                request.writeInt(n);
+                if (n > 0) {
+                    request.write(buffer, 0, n);
+                }
+                request.flush();
+                continue;
+            }
+            PrintStream stream = kind == Server.STDERR ? System.err : System.out;
+            for (int left = answer.readInt(); left > 0; ) {
+                int n = answer.read(buffer, 0, Math.min(left, buffer.length));
+                if (n < 0) {
+                    throw new IOException("the server closed the connection");
+                }
+                stream.write(buffer, 0, n);
+                left -= n;
+            }
+        }
+    }
+}
@@ -0,0 +1,559 @@
+package tl.antlr4;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The base class of the programs generated by {@link BytecodeCompiler}. The generated
+ * subclass implements {@link #main()} and one method per MAVA function; everything that
+ * has to report MAVA errors goes through the helpers here, which mirror the
+ * {@link Interpreter} node by node. Helpers are protected because the generated class
+ * lives in its own class loader and can't see package-private members.
+ */
+public abstract class CompiledProgram {
+
+    // the top-level variables, shared with every function
+    protected TLValue[] globals;
+    // the frames of the callers of the method that runs, null in main(), see Frame#lookup
+    private Frame callers;
+    // literal values, indexed by the generated code
+    protected TLValue[] constants;
+    // the class this is an instance of, to make instances for the iterations of parfors
+    private BytecodeCompiler.CompiledClass type;
+    private Program program;
+    // nodes referenced by error sites, indexed by the generated code
+    private Node[] sites;
+    private Output output;
+    private Inputs inputs;
+    private Budget budget;
+
+    void init(BytecodeCompiler.CompiledClass type, Program program, TLValue[] constants, Node[] sites,
+              Output output, Budget budget) {
+        this.type = type;
+        this.program = program;
+        this.globals = new TLValue[program.frameSize];
+        this.constants = constants;
+        this.sites = sites;
+        this.output = output;
+        this.inputs = new Inputs(output, budget);
+        this.budget = budget;
+    }
+
+    public void run() {
+        Budget previous = budget.enter();
+        try {
+            main();
+        } finally {
+            budget.exit(previous);
+            output.flush();
+        }
+    }
+
+    protected abstract void main();
+
+    // once per loop iteration and function call
+    protected final void tick() {
+        budget.tick();
+    }
+
+    // one iteration of parfor number id, generated for programs that have parfors
+    protected TLValue iterate(int id, TLValue[] slots) {
+        throw new IllegalStateException("no parfor " + id);
+    }
+
+    /**
+     * Runs a parfor, see {@link ParallelRange}. Every chunk of iterations runs on an
+     * instance of its own, in a copy of the frame: of the function's locals, which the
+     * generated code passes in an array, or at the top level of the globals. Returns the
+     * contributions folded into total, or total without a reduce clause.
+     */
+    protected final TLValue parfor(int id, int from, int to, TLValue[] frame, TLValue total, int site) {
+        Node.Parfor node = (Node.Parfor) sites[site];
+        TLValue[] contributions = node.reduction != null && from <= to ? new TLValue[to - from + 1] : new TLValue[0];
+        ParallelRange.run(from, to, output, budget, (first, last, chunkOutput, chunkBudget) -> {
+            CompiledProgram chunk = type.newInstance(chunkOutput, chunkBudget);
+            chunk.inputs = inputs;
+            chunk.callers = callers;
+            TLValue[] slots;
+            if (frame != null) {
+                chunk.globals = globals;
+                slots = frame.clone();
+            } else {
+                chunk.globals = globals.clone();
+                slots = chunk.globals;
+            }
+            for (int i = first; i <= last; i++) {
+                Arrays.fill(slots, node.firstLocal, node.localsEnd, null);
+                slots[node.slot] = TLValue.of(i);
+                TLValue contribution = chunk.iterate(id, slots);
+                chunk.tick();
+                if (node.reduction != null) {
+                    contributions[i - from] = contribution;
+                }
+            }
+        });
+        if (node.reduction == null) {
+            return total;
+        }
+        try {
+            return ParallelRange.fold(node.reduction, total, contributions);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    /**
+     * Before a call that shares variables with the callee, see {@link Node.Call#names}: the
+     * caller's slots, which a function holds in an array only for the call, and the parfor
+     * whose iteration makes the call (-1 outside parfor bodies).
+     */
+    protected final void enterCall(TLValue[] slots, int call, int loop) {
+        Frame frame = new Frame(slots, null);
+        frame.names = ((Node.Call) sites[call]).names;
+        frame.loop = loop >= 0 ? (Node.Parfor) sites[loop] : null;
+        frame.caller = callers;
+        callers = frame;
+    }
+
+    protected final void exitCall() {
+        callers = callers.caller;
+    }
+
+    // a variable that isn't set in the frame of the method
+    protected final TLValue lookup(String name) {
+        return Frame.lookup(callers, name);
+    }
+
+    // assigns a variable the method hasn't set to the caller's of that name, false when no caller holds one
+    protected final boolean assign(TLValue value, String name, int line) {
+        return Frame.assign(callers, name, value, line);
+    }
+
+    protected final EvalException error(int site) {
+        Node node = sites[site];
+        return new EvalException("Illegal expression: " + program.text(node), node.line);
+    }
+
+    private EvalException error(int site, OperatorException e) {
+        return e.getMessage() != null ? new EvalException(e.getMessage(), sites[site].line) : error(site);
+    }
+
+    // arithmetic on an undefined variable
+    private void checkOperands(TLValue lhs, TLValue rhs, int site) {
+        if (lhs == null || rhs == null) {
+            throw error(site);
+        }
+    }
+
+    protected static List<TLValue> newList() {
+        return new ValueList();
+    }
+
+    protected static TLValue listValue(List<TLValue> list) {
+        return new TLValue(list);
+    }
+
+    protected static ValueMap newSet() {
+        return ValueMap.newSet();
+    }
+
+    protected static ValueMap newMap() {
+        return ValueMap.newMap();
+    }
+
+    protected static TLValue mapValue(ValueMap map) {
+        return new TLValue(map);
+    }
+
+    protected final void put(ValueMap map, TLValue key, TLValue value, int site) {
+        try {
+            map.put(key, value);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected static TLValue copy(TLValue constant) {
+        return constant.copy();
+    }
+
+    protected final TLValue minus(TLValue v, int site) {
+        try {
+            return Operators.unaryMinus(v);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue not(TLValue v, int site) {
+        try {
+            return Operators.not(v);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue power(TLValue lhs, TLValue rhs, int site) {
+        try {
+            return Operators.power(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue multiply(TLValue lhs, TLValue rhs, int site) {
+        checkOperands(lhs, rhs, site);
+        try {
+            return Operators.multiply(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue divide(TLValue lhs, TLValue rhs, int site) {
+        checkOperands(lhs, rhs, site);
+        try {
+            return Operators.divide(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue modulus(TLValue lhs, TLValue rhs, int site) {
+        checkOperands(lhs, rhs, site);
+        try {
+            return Operators.modulus(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue add(TLValue lhs, TLValue rhs, int site) {
+        checkOperands(lhs, rhs, site);
+        try {
+            return Operators.add(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue subtract(TLValue lhs, TLValue rhs, int site) {
+        checkOperands(lhs, rhs, site);
+        try {
+            return Operators.subtract(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue dotMultiply(TLValue lhs, TLValue rhs, int site) {
+        checkOperands(lhs, rhs, site);
+        try {
+            return Operators.dotMultiply(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue dotAdd(TLValue lhs, TLValue rhs, int site) {
+        checkOperands(lhs, rhs, site);
+        try {
+            return Operators.dotAdd(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue dotSubtract(TLValue lhs, TLValue rhs, int site) {
+        checkOperands(lhs, rhs, site);
+        try {
+            return Operators.dotSubtract(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue lt(TLValue lhs, TLValue rhs, int site) {
+        try {
+            return Operators.lt(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue ltEq(TLValue lhs, TLValue rhs, int site) {
+        try {
+            return Operators.ltEq(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue gt(TLValue lhs, TLValue rhs, int site) {
+        try {
+            return Operators.gt(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue gtEq(TLValue lhs, TLValue rhs, int site) {
+        try {
+            return Operators.gtEq(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue eq(TLValue lhs, TLValue rhs, int site) {
+        try {
+            return Operators.eq(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue nEq(TLValue lhs, TLValue rhs, int site) {
+        try {
+            return Operators.nEq(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    // an operand of '&&' or '||', evaluated only when the result depends on it
+    protected final boolean logicalOperand(TLValue value, int site) {
+        if (value == null || !value.isBoolean()) {
+            throw error(site);
+        }
+        return value.asBoolean();
+    }
+
+    protected final TLValue in(TLValue lhs, TLValue rhs, int site) {
+        try {
+            return Operators.in(lhs, rhs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue index(TLValue val, TLValue idx, int site) {
+        try {
+            return Operators.index(val, idx);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue index(TLValue val, TLValue row, TLValue column, int site) {
+        try {
+            return Operators.index(val, row, column);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    // the list or map an indexed assignment writes into
+    protected final TLValue assignTarget(TLValue val, int site) {
+        if (val == null || !(val.isList() || val.isMap())) {
+            throw error(site);
+        }
+        return val;
+    }
+
+    protected final void setAtIndex(TLValue val, TLValue idx, TLValue newVal, int site) {
+        try {
+            Operators.setAtIndex(val, idx, newVal);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final void println() {
+        output.println();
+    }
+
+    protected final void println(TLValue value) {
+        output.println(value);
+    }
+
+    protected final void print(TLValue value) {
+        output.print(value);
+    }
+
+    protected final void assertTrue(TLValue value, int site) {
+        if (!value.isBoolean()) {
+            throw error(site);
+        }
+        if (!value.asBoolean()) {
+            Node node = sites[site];
+            throw new AssertionError("Failed Assertion " + program.text(((Node.BuiltinCall) node).arg) + " line:" + node.line);
+        }
+    }
+
+    protected final TLValue size(TLValue value, int site) {
+        try {
+            return Operators.size(value);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue transpose(TLValue value, int site) {
+        try {
+            return Operators.transpose(value);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue rows(TLValue value, int site) {
+        try {
+            return Operators.rows(value);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue columns(TLValue value, int site) {
+        try {
+            return Operators.columns(value);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue determinant(TLValue value, int site) {
+        try {
+            return Operators.determinant(value);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue matrixSum(TLValue value, int site) {
+        try {
+            return Operators.matrixSum(value);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue lines(TLValue path, int site) {
+        try {
+            return Operators.lines(path, inputs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue chunks(TLValue path, TLValue size, int site) {
+        try {
+            return Operators.chunks(path, size, inputs);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue range(TLValue from, TLValue to, int site) {
+        try {
+            return Operators.range(from, to);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue inverse(TLValue value, int site) {
+        try {
+            return Operators.inverse(value);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue solve(TLValue a, TLValue b, int site) {
+        try {
+            return Operators.solve(a, b);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue qr(TLValue value, int site) {
+        try {
+            return Operators.qr(value);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue eig(TLValue value, int site) {
+        try {
+            return Operators.eig(value);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue svd(TLValue value, int site) {
+        try {
+            return Operators.svd(value);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue norm(TLValue value, int site) {
+        try {
+            return Operators.norm(value);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue trace(TLValue value, int site) {
+        try {
+            return Operators.trace(value);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue identity(TLValue value, int site) {
+        try {
+            return Operators.identity(value);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    // a bound of for i in range(from, to), which is compiled to a counting loop
+    protected final int rangeBound(TLValue bound, int site) {
+        try {
+            return Operators.rangeBound(bound);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    // the cursor of a for-in loop, closed by the generated code however the loop ends
+    protected final Sequence.Cursor iterate(TLValue value, int site) {
+        try {
+            return Operators.iterate(value);
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue next(Sequence.Cursor cursor, int site) {
+        try {
+            return cursor.next();
+        } catch (OperatorException e) {
+            throw error(site, e);
+        }
+    }
+
+    protected final TLValue input(String path) {
+        return path != null ? inputs.file(path) : inputs.line();
+    }
+}
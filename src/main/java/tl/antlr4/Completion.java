@@ -0,0 +1,43 @@
+package tl.antlr4;
+
+/**
+ * How the statements executed so far completed: normally, or by a {@code return} whose
+ * value is waiting to be taken by the function call (or the program) it returns from.
+ * Blocks and loops stop executing statements as soon as a return is pending, so a
+ * return unwinds without throwing.
+ *
+ * Every evaluator owns one instance; calls take the value before the caller continues.
+ */
+final class Completion {
+
+    enum Kind {
+        NORMAL,
+        RETURN
+    }
+
+    private Kind kind = Kind.NORMAL;
+    private TLValue value;
+
+    boolean isReturn() {
+        return kind == Kind.RETURN;
+    }
+
+    void setReturn(TLValue value) {
+        this.kind = Kind.RETURN;
+        this.value = value;
+    }
+
+    /**
+     * The returned value, or VOID if the statements completed normally. The completion
+     * is normal again afterwards.
+     */
+    TLValue take() {
+        if (kind == Kind.NORMAL) {
+            return TLValue.VOID;
+        }
+        TLValue result = value;
+        kind = Kind.NORMAL;
+        value = null;
+        return result;
+    }
+}
@@ -0,0 +1,257 @@
+package tl.antlr4;
+
+import java.util.AbstractList;
+import java.util.List;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.QRDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+
+/**
+ * An immutable dense vector or matrix of doubles, stored row-major in one contiguous
+ * array. Matrix and vector operators produce these instead of lists of boxed numbers;
+ * a {@link TLValue} only turns one into a list when list semantics are used on it.
+ *
+ * A vector is the dense form of a flat MAVA list of numbers ({@code [1, 2, 3]}),
+ * which is different from a matrix with a single row ({@code [[1, 2, 3]]}).
+ *
+ * Since a matrix never changes, its LU and QR decompositions are kept once a builtin has
+ * computed them: {@code determinant(A)}, {@code inverse(A)} and {@code solve(A, b)} of the
+ * same matrix decompose it only once.
+ */
+public final class DenseMatrix {
+
+    final int rows;
+    final int columns;
+    // row-major: element (i, j) is at i * columns + j
+    final double[] data;
+    private final boolean vector;
+    // null until first needed
+    private volatile LUDecomposition lu;
+    private volatile QRDecomposition qr;
+
+    private DenseMatrix(int rows, int columns, double[] data, boolean vector) {
+        this.rows = rows;
+        this.columns = columns;
+        this.data = data;
+        this.vector = vector;
+    }
+
+    public static DenseMatrix vector(double[] data) {
+        return new DenseMatrix(1, data.length, data, true);
+    }
+
+    public static DenseMatrix matrix(int rows, int columns, double[] data) {
+        if (data.length != rows * columns) {
+            throw new IllegalArgumentException(rows + "x" + columns + " matrix can't hold " + data.length + " elements");
+        }
+        return new DenseMatrix(rows, columns, data, false);
+    }
+
+    public static DenseMatrix matrix(double[][] rowData) {
+        int rows = rowData.length;
+        int columns = rows > 0 ? rowData[0].length : 0;
+        double[] data = new double[rows * columns];
+        for (int i = 0; i < rows; i++) {
+            if (rowData[i].length != columns) {
+                throw new OperatorException(Operators.DIMENSION_MISMATCH + rowData[i].length + " != " + columns);
+            }
+            System.arraycopy(rowData[i], 0, data, i * columns, columns);
+        }
+        return new DenseMatrix(rows, columns, data, false);
+    }
+
+    // the n x 1 matrix with the elements of a vector
+    public static DenseMatrix column(double[] data) {
+        return new DenseMatrix(data.length, 1, data, false);
+    }
+
+    public static DenseMatrix fromRealMatrix(RealMatrix realMatrix) {
+        return matrix(realMatrix.getData());
+    }
+
+    public boolean isVector() {
+        return vector;
+    }
+
+    // number of elements of a vector, number of rows of a matrix
+    public int size() {
+        return vector ? columns : rows;
+    }
+
+    public double get(int row, int column) {
+        if (row < 0 || row >= rows || column < 0 || column >= columns) {
+            throw new IndexOutOfBoundsException("Index: " + row + "," + column + ", Size: " + rows + "x" + columns);
+        }
+        return data[row * columns + column];
+    }
+
+    // the i-th element of a vector
+    public double get(int i) {
+        if (i < 0 || i >= data.length) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + data.length);
+        }
+        return data[i];
+    }
+
+    public double[] row(int row) {
+        double[] result = new double[columns];
+        System.arraycopy(data, row * columns, result, 0, columns);
+        return result;
+    }
+
+    LUDecomposition lu() {
+        LUDecomposition result = lu;
+        if (result == null) {
+            // concurrent runs sharing the matrix may both compute it, either result will do
+            lu = result = new LUDecomposition(toRealMatrix());
+        }
+        return result;
+    }
+
+    QRDecomposition qr() {
+        QRDecomposition result = qr;
+        if (result == null) {
+            qr = result = new QRDecomposition(toRealMatrix());
+        }
+        return result;
+    }
+
+    public RealMatrix toRealMatrix() {
+        double[][] rowData = new double[rows][];
+        for (int i = 0; i < rows; i++) {
+            rowData[i] = row(i);
+        }
+        return new Array2DRowRealMatrix(rowData, false);
+    }
+
+    public DenseMatrix transpose() {
+        double[] result = new double[data.length];
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < columns; j++) {
+                result[j * rows + i] = data[i * columns + j];
+            }
+        }
+        return new DenseMatrix(columns, rows, result, false);
+    }
+
+    // the list form: TLValue numbers, rows of a matrix are lists themselves
+    public List<TLValue> toList() {
+        return toList(null);
+    }
+
+    // the list form of a value holding the matrix, null for a new one
+    List<TLValue> toList(TLValue value) {
+        if (vector) {
+            return toList(data, 0, columns);
+        }
+        List<TLValue> list = new ValueList();
+        for (int i = 0; i < rows; i++) {
+            list.add(TLValue.row(toList(data, i * columns, columns), value));
+        }
+        return list;
+    }
+
+    /**
+     * A list form of a value holding the matrix that reads the matrix as it goes, for the
+     * iterations of a parfor that can't change the value: they read it at the same time, so
+     * the value keeps the matrix instead of taking a list form no handoff has published.
+     */
+    List<TLValue> view(TLValue value) {
+        return new AbstractList<TLValue>() {
+            @Override
+            public TLValue get(int i) {
+                if (vector) {
+                    return TLValue.of(DenseMatrix.this.get(i));
+                }
+                if (i < 0 || i >= rows) {
+                    throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + rows);
+                }
+                return TLValue.row(toList(data, i * columns, columns), value);
+            }
+
+            @Override
+            public int size() {
+                return DenseMatrix.this.size();
+            }
+        };
+    }
+
+    private static List<TLValue> toList(double[] data, int offset, int length) {
+        List<TLValue> list = new ValueList();
+        for (int i = 0; i < length; i++) {
+            list.add(TLValue.of(data[offset + i]));
+        }
+        return list;
+    }
+
+    /**
+     * Compares with the same tolerance as {@link TLValue#equals(Object)} does for numbers.
+     */
+    public boolean contentEquals(DenseMatrix that) {
+        if (this.vector != that.vector || this.rows != that.rows || this.columns != that.columns) {
+            return false;
+        }
+        for (int i = 0; i < data.length; i++) {
+            if (Math.abs(this.data[i] - that.data[i]) >= TLValue.EPSILON) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the hash code of the list form, see java.util.List#hashCode()
+    public int listHashCode() {
+        if (vector) {
+            return listHashCode(0, columns);
+        }
+        int hashCode = 1;
+        for (int i = 0; i < rows; i++) {
+            hashCode = 31 * hashCode + listHashCode(i * columns, columns);
+        }
+        return hashCode;
+    }
+
+    int listHashCode(int offset, int length) {
+        int hashCode = 1;
+        for (int i = 0; i < length; i++) {
+            hashCode = 31 * hashCode + TLValue.hashOf(data[offset + i]);
+        }
+        return hashCode;
+    }
+
+    // the same text as the list form
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb);
+        return sb.toString();
+    }
+
+    void appendTo(StringBuilder sb) {
+        if (vector) {
+            appendRow(sb, 0);
+            return;
+        }
+        sb.append('[');
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            appendRow(sb, i);
+        }
+        sb.append(']');
+    }
+
+    private void appendRow(StringBuilder sb, int row) {
+        sb.append('[');
+        for (int j = 0; j < columns; j++) {
+            if (j > 0) {
+                sb.append(", ");
+            }
+            sb.append(data[row * columns + j]);
+        }
+        sb.append(']');
+    }
+}
@@ -0,0 +1,244 @@
+package tl.antlr4;
+
+/**
+ * The kernels behind the element-wise operators on vectors and matrices. Every operator
+ * has a loop of its own over plain {@code double[]}s, with the switch on the operator
+ * outside of it, so that C2 can unroll and vectorize the loops it knows instructions for
+ * (everything but {@code %} and {@code ^}).
+ *
+ * A number is applied to every element, and a vector to every row of a matrix with as
+ * many columns. Comparisons give 1 where they hold and 0 where they don't.
+ */
+final class Elementwise {
+
+    enum Op {
+        ADD, SUBTRACT, MULTIPLY, DIVIDE, MODULUS, POWER, LT, LT_EQ, GT, GT_EQ;
+
+        // the operator with its operands swapped: a op b == b swapped a
+        Op swapped() {
+            switch (this) {
+                case LT:
+                    return GT;
+                case LT_EQ:
+                    return GT_EQ;
+                case GT:
+                    return LT;
+                case GT_EQ:
+                    return LT_EQ;
+                case ADD:
+                case MULTIPLY:
+                    return this;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private Elementwise() {
+    }
+
+    // same shapes, or a vector and a matrix with as many columns
+    static DenseMatrix apply(Op op, DenseMatrix lhs, DenseMatrix rhs) {
+        if (lhs.isVector() != rhs.isVector()) {
+            return lhs.isVector() ? broadcast(op, lhs, rhs, false) : broadcast(op, rhs, lhs, true);
+        }
+        if (lhs.rows != rhs.rows || lhs.columns != rhs.columns) {
+            throw new OperatorException(Operators.DIMENSION_MISMATCH + "got " + lhs.rows + "x" + lhs.columns
+                    + " but expected " + rhs.rows + "x" + rhs.columns);
+        }
+        double[] result = new double[lhs.data.length];
+        arrays(op, lhs.data, 0, rhs.data, 0, result, 0, result.length);
+        return like(lhs, result);
+    }
+
+    static DenseMatrix apply(Op op, DenseMatrix lhs, double rhs) {
+        double[] result = new double[lhs.data.length];
+        arrayScalar(op, lhs.data, rhs, result);
+        return like(lhs, result);
+    }
+
+    static DenseMatrix apply(Op op, double lhs, DenseMatrix rhs) {
+        double[] result = new double[rhs.data.length];
+        Op swapped = op.swapped();
+        if (swapped != null) {
+            arrayScalar(swapped, rhs.data, lhs, result);
+        } else {
+            scalarArray(op, lhs, rhs.data, result);
+        }
+        return like(rhs, result);
+    }
+
+    static DenseMatrix negate(DenseMatrix value) {
+        double[] data = value.data;
+        double[] result = new double[data.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = -data[i];
+        }
+        return like(value, result);
+    }
+
+    // the vector against every row of the matrix, swapped when the vector is the right operand
+    private static DenseMatrix broadcast(Op op, DenseMatrix vector, DenseMatrix matrix, boolean swapped) {
+        int columns = matrix.columns;
+        if (vector.columns != columns) {
+            throw new OperatorException(Operators.DIMENSION_MISMATCH + vector.columns + " != " + columns);
+        }
+        double[] result = new double[matrix.data.length];
+        for (int offset = 0; offset < result.length; offset += columns) {
+            if (swapped) {
+                arrays(op, matrix.data, offset, vector.data, 0, result, offset, columns);
+            } else {
+                arrays(op, vector.data, 0, matrix.data, offset, result, offset, columns);
+            }
+        }
+        return DenseMatrix.matrix(matrix.rows, columns, result);
+    }
+
+    private static DenseMatrix like(DenseMatrix shape, double[] data) {
+        return shape.isVector() ? DenseMatrix.vector(data) : DenseMatrix.matrix(shape.rows, shape.columns, data);
+    }
+
+    // c[cOff..cOff+n) = a[aOff..aOff+n) op b[bOff..bOff+n)
+    static void arrays(Op op, double[] a, int aOff, double[] b, int bOff, double[] c, int cOff, int n) {
+        switch (op) {
+            case ADD:
+                for (int i = 0; i < n; i++) {
+                    c[cOff + i] = a[aOff + i] + b[bOff + i];
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < n; i++) {
+                    c[cOff + i] = a[aOff + i] - b[bOff + i];
+                }
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < n; i++) {
+                    c[cOff + i] = a[aOff + i] * b[bOff + i];
+                }
+                break;
+            case DIVIDE:
+                for (int i = 0; i < n; i++) {
+                    c[cOff + i] = a[aOff + i] / b[bOff + i];
+                }
+                break;
+            case MODULUS:
+                for (int i = 0; i < n; i++) {
+                    c[cOff + i] = a[aOff + i] % b[bOff + i];
+                }
+                break;
+            case POWER:
+                for (int i = 0; i < n; i++) {
+                    c[cOff + i] = Math.pow(a[aOff + i], b[bOff + i]);
+                }
+                break;
+            case LT:
+                for (int i = 0; i < n; i++) {
+                    c[cOff + i] = a[aOff + i] < b[bOff + i] ? 1 : 0;
+                }
+                break;
+            case LT_EQ:
+                for (int i = 0; i < n; i++) {
+                    c[cOff + i] = a[aOff + i] <= b[bOff + i] ? 1 : 0;
+                }
+                break;
+            case GT:
+                for (int i = 0; i < n; i++) {
+                    c[cOff + i] = a[aOff + i] > b[bOff + i] ? 1 : 0;
+                }
+                break;
+            case GT_EQ:
+                for (int i = 0; i < n; i++) {
+                    c[cOff + i] = a[aOff + i] >= b[bOff + i] ? 1 : 0;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown operator: " + op);
+        }
+    }
+
+    // c = a op s
+    private static void arrayScalar(Op op, double[] a, double s, double[] c) {
+        switch (op) {
+            case ADD:
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = a[i] + s;
+                }
+                break;
+            case SUBTRACT:
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = a[i] - s;
+                }
+                break;
+            case MULTIPLY:
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = a[i] * s;
+                }
+                break;
+            case DIVIDE:
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = a[i] / s;
+                }
+                break;
+            case MODULUS:
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = a[i] % s;
+                }
+                break;
+            case POWER:
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = Math.pow(a[i], s);
+                }
+                break;
+            case LT:
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = a[i] < s ? 1 : 0;
+                }
+                break;
+            case LT_EQ:
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = a[i] <= s ? 1 : 0;
+                }
+                break;
+            case GT:
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = a[i] > s ? 1 : 0;
+                }
+                break;
+            case GT_EQ:
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = a[i] >= s ? 1 : 0;
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown operator: " + op);
+        }
+    }
+
+    // c = s op b, for the operators that can't swap their operands
+    private static void scalarArray(Op op, double s, double[] b, double[] c) {
+        switch (op) {
+            case SUBTRACT:
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = s - b[i];
+                }
+                break;
+            case DIVIDE:
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = s / b[i];
+                }
+                break;
+            case MODULUS:
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = s % b[i];
+                }
+                break;
+            case POWER:
+                for (int i = 0; i < c.length; i++) {
+                    c[i] = Math.pow(s, b[i]);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown operator: " + op);
+        }
+    }
+}
@@ -6,8 +6,16 @@ public class EvalException extends RuntimeException {
     public EvalException(ParserRuleContext ctx) {
         this("Illegal expression: " + ctx.getText(), ctx);
     }
-    
+
     public EvalException(String msg, ParserRuleContext ctx) {
-        super(msg + " line:" + ctx.start.getLine());
+        this(msg, ctx.start.getLine());
+    }
+
+    public EvalException(OperatorException e, ParserRuleContext ctx) {
+        this(e.getMessage() != null ? e.getMessage() : "Illegal expression: " + ctx.getText(), ctx);
+    }
+
+    public EvalException(String msg, int line) {
+        super(msg + " line:" + line);
     }
 }
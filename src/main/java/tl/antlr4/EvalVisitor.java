@@ -1,41 +1,58 @@
 package tl.antlr4;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.TerminalNode;
 
-import org.apache.commons.math3.exception.DimensionMismatchException;
-import org.apache.commons.math3.linear.LUDecomposition;
-import org.apache.commons.math3.linear.MatrixUtils;
-import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.RealVector;
 import tl.antlr4.TLParser.*;
 
 public class EvalVisitor extends TLBaseVisitor<TLValue> {
 
-    private static final String DIMENSION_MISMATCH = "Dimension mismatch! ";
-    private static final String TRANSPOSE_ARGUMENT_MISMATCH = "Only vectors and matrices can be transposed!";
-    private static final String DIMENSIONS_ARGUMENTS_MISMATCH = "rows() and columns() is working only with vectors and matrices";
-    private static final String NOT_SQUARED_MATRIX = "Determinant can be calculated only of squared matrix";
-    private static final String ELEMENTS_SUM_NOT_MATRIX = "matrixSum() works only with vector and matrix";
-
-	private static ReturnValue returnValue = new ReturnValue();
+    private final Completion completion = new Completion();
     private Scope scope;
     private Map<String, Function> functions;
+    private final Output output;
+    private final Inputs inputs;
+    private final LiteralPool literals;
+    private final Budget budget;
     
-    EvalVisitor(Scope scope, Map<String, Function> functions) {
+    EvalVisitor(Scope scope, Map<String, Function> functions, Output output, LiteralPool literals) {
+        this(scope, functions, output, literals, new Budget(Limits.NONE));
+    }
+
+    EvalVisitor(Scope scope, Map<String, Function> functions, Output output, LiteralPool literals, Budget budget) {
         this.scope = scope;
         this.functions = functions;
+        this.output = output;
+        this.inputs = new Inputs(output, budget);
+        this.literals = literals;
+        this.budget = budget;
+    }
+
+    // runs the iterations of a parfor, printing to output
+    private EvalVisitor(EvalVisitor loop, Output output, Budget budget) {
+        this.scope = loop.scope;
+        this.functions = loop.functions;
+        this.output = output;
+        this.inputs = loop.inputs;
+        this.literals = loop.literals;
+        this.budget = budget;
+    }
+
+    // runs the block of a function in its own scope, returns the value of its return statement or VOID
+    TLValue visitFunctionBody(ParseTree block, Scope functionScope) {
+        Scope callerScope = scope;
+        scope = functionScope;
+        try {
+            this.visit(block);
+        } finally {
+            scope = callerScope;
+        }
+        return completion.take();
     }
 
     // functionDecl
@@ -47,7 +64,7 @@ public class EvalVisitor extends TLBaseVisitor<TLValue> {
     // list: '[' exprList? ']'
     @Override
     public TLValue visitList(ListContext ctx) {
-        List<TLValue> list = new ArrayList<>();
+        List<TLValue> list = new ValueList();
         if (ctx.exprList() != null) {
 	        for(ExpressionContext ex: ctx.exprList().expression()) {
 	            list.add(this.visit(ex));
@@ -57,443 +74,204 @@ public class EvalVisitor extends TLBaseVisitor<TLValue> {
     }
     
     
-    // '-' expression                           #unaryMinusExpression
-    @Override
-    public TLValue visitUnaryMinusExpression(UnaryMinusExpressionContext ctx) {
-    	TLValue v = this.visit(ctx.expression());
-    	if (!v.isNumber()) {
-    	    throw new EvalException(ctx);
-        }
-    	return new TLValue(-1 * v.asDouble());
-    }
-
-    // '!' expression                           #notExpression
-    @Override
-    public TLValue visitNotExpression(NotExpressionContext ctx) {
-    	TLValue v = this.visit(ctx.expression());
-    	if(!v.isBoolean()) {
-    	    throw new EvalException(ctx);
-        }
-    	return new TLValue(!v.asBoolean());
-    }
-
-    // expression '^' expression                #powerExpression
+    // set: '{' exprList? '}'
     @Override
-    public TLValue visitPowerExpression(PowerExpressionContext ctx) {
-    	TLValue lhs = this.visit(ctx.expression(0));
-    	TLValue rhs = this.visit(ctx.expression(1));
-    	if (lhs.isNumber() && rhs.isNumber()) {
-    		return new TLValue(Math.pow(lhs.asDouble(), rhs.asDouble()));
-    	}
-
-    	if (lhs.isList() && rhs.isNumber()){
-    	    if (lhs.isMatrix()){
-                double[][] lhsMatrix = TLValue.toMatrix(lhs);
-                for (int i = 0; i < lhsMatrix.length; i++){
-                    for (int j = 0; j < lhsMatrix[i].length; j++){
-                        lhsMatrix[i][j] = Math.pow(lhsMatrix[i][j], rhs.asDouble());
-                    }
-                }
-                RealMatrix result = MatrixUtils.createRealMatrix(lhsMatrix);
-                return TLValue.fromMatrix(result);
-            }
-            else if (lhs.isVector()){
-                double[] lhsMatrix = TLValue.toVector(lhs);
-
-                for (int i = 0; i < lhsMatrix.length; i++) {
-                    lhsMatrix[i] = Math.pow(lhsMatrix[i], rhs.asDouble());
+    public TLValue visitSet(SetContext ctx) {
+        ValueMap set = ValueMap.newSet();
+        if (ctx.exprList() != null) {
+            for (ExpressionContext ex : ctx.exprList().expression()) {
+                try {
+                    set.add(this.visit(ex));
+                } catch (OperatorException e) {
+                    throw new EvalException(e, ex);
                 }
-                RealMatrix result = MatrixUtils.createColumnRealMatrix(lhsMatrix);
-                return TLValue.fromMatrix(result);
             }
         }
-
-    	throw new EvalException(ctx);
+        return new TLValue(set);
     }
 
-    // expression op=( '*' | '/' | '%' ) expression         #multExpression
+    // map: '{' entry ( ',' entry )* '}' | '{' ':' '}'
     @Override
-    public TLValue visitMultExpression(MultExpressionContext ctx) {
-        switch (ctx.op.getType()) {
-            case TLLexer.Multiply:
-                return multiply(ctx);
-            case TLLexer.Divide:
-                return divide(ctx);
-            case TLLexer.Modulus:
-                return modulus(ctx);
-            default:
-                throw new RuntimeException("unknown operator type: " + ctx.op.getType());
+    public TLValue visitMap(MapContext ctx) {
+        ValueMap map = ValueMap.newMap();
+        for (EntryContext entry : ctx.entry()) {
+            TLValue key = this.visit(entry.expression(0));
+            TLValue value = this.visit(entry.expression(1));
+            try {
+                map.put(key, value);
+            } catch (OperatorException e) {
+                throw new EvalException(e, entry);
+            }
         }
+        return new TLValue(map);
     }
-
-    // expression op=( '+' | '-' ) expression               #addExpression
+    
+    // '-' expression                           #unaryMinusExpression
     @Override
-    public TLValue visitAddExpression(AddExpressionContext ctx) {
-        switch (ctx.op.getType()) {
-            case TLLexer.Add:
-                return add(ctx);
-            case TLLexer.Subtract:
-                return subtract(ctx);
-            default:
-                throw new RuntimeException("unknown operator type: " + ctx.op.getType());
+    public TLValue visitUnaryMinusExpression(UnaryMinusExpressionContext ctx) {
+        TLValue v = this.visit(ctx.expression());
+        try {
+            return Operators.unaryMinus(v);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
     }
 
-    // expression op=( '>=' | '<=' | '>' | '<' ) expression #compExpression
+    // '!' expression                           #notExpression
     @Override
-    public TLValue visitCompExpression(CompExpressionContext ctx) {
-        switch (ctx.op.getType()) {
-            case TLLexer.LT:
-                return lt(ctx);
-            case TLLexer.LTEquals:
-                return ltEq(ctx);
-            case TLLexer.GT:
-                return gt(ctx);
-            case TLLexer.GTEquals:
-                return gtEq(ctx);
-            default:
-                throw new RuntimeException("unknown operator type: " + ctx.op.getType());
+    public TLValue visitNotExpression(NotExpressionContext ctx) {
+        TLValue v = this.visit(ctx.expression());
+        try {
+            return Operators.not(v);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
     }
 
-    // expression op=( '==' | '!=' ) expression             #eqExpression
+    // expression '^' expression                #powerExpression
     @Override
-    public TLValue visitEqExpression(EqExpressionContext ctx) {
-        switch (ctx.op.getType()) {
-            case TLLexer.Equals:
-                return eq(ctx);
-            case TLLexer.NEquals:
-                return nEq(ctx);
-            default:
-                throw new RuntimeException("unknown operator type: " + ctx.op.getType());
-        }
-    }
-    
-    public TLValue multiply(MultExpressionContext ctx) {
-    	TLValue lhs = this.visit(ctx.expression(0));
-    	TLValue rhs = this.visit(ctx.expression(1));
-    	if(lhs == null || rhs == null) {
-    		System.err.println("lhs "+ lhs+ " rhs "+rhs);
-    	    throw new EvalException(ctx);
-    	}
-    	
-    	// number * number
-        if(lhs.isNumber() && rhs.isNumber()) {
-            return new TLValue(lhs.asDouble() * rhs.asDouble());
-        }
-
-        // string * number
-        if(lhs.isString() && rhs.isNumber()) {
-            StringBuilder str = new StringBuilder();
-            int stop = rhs.asDouble().intValue();
-            for(int i = 0; i < stop; i++) {
-                str.append(lhs.asString());
-            }
-            return new TLValue(str.toString());
-        }
-
-        // list * number
-        if(lhs.isList() && rhs.isNumber()) {
-            List<TLValue> total = new ArrayList<>();
-            int stop = rhs.asDouble().intValue();
-            for(int i = 0; i < stop; i++) {
-                total.addAll(lhs.asList());
-            }
-            return new TLValue(total);
-        }
-
-        if (lhs.isList() && rhs.isList()) {
-    	    if (lhs.isVector() && rhs.isVector()) {
-                return multiplyVectors(ctx, lhs, rhs);
-            }
-            boolean leftIsVector = (lhs.isVector() && rhs.isMatrix());
-            if (leftIsVector || (lhs.isMatrix() && rhs.isVector())) {
-                return multiplyVectorByMatrix(ctx, lhs, rhs, leftIsVector);
-            }
-            if (lhs.isMatrix() && rhs.isMatrix()) {
-                return multiplyMatrixByMatrix(ctx, lhs, rhs);
-            }
-        }
-         	
-    	throw new EvalException(ctx);
-    }
-
-    private TLValue multiplyMatrixByMatrix(MultExpressionContext ctx, TLValue lhs, TLValue rhs) {
-        double[][] lhsMatrix = TLValue.toMatrix(lhs);
-        double[][] rhsMatrox = TLValue.toMatrix(rhs);
-        RealMatrix lhsRealMatrix = MatrixUtils.createRealMatrix(lhsMatrix);
-        RealMatrix rhsRealMatrix = MatrixUtils.createRealMatrix(rhsMatrox);
+    public TLValue visitPowerExpression(PowerExpressionContext ctx) {
+        TLValue lhs = this.visit(ctx.expression(0));
+        TLValue rhs = this.visit(ctx.expression(1));
         try {
-            RealMatrix result = lhsRealMatrix.multiply(rhsRealMatrix);
-            return TLValue.fromMatrix(result);
-        } catch (DimensionMismatchException e) {
-            throw new EvalException(DIMENSION_MISMATCH + e.getMessage(), ctx);
+            return Operators.power(lhs, rhs);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
     }
 
-    private TLValue multiplyVectorByMatrix(MultExpressionContext ctx, TLValue lhs, TLValue rhs, boolean leftIsVector) {
-        if (leftIsVector) {
-            double[] lfsVector = TLValue.toVector(lhs);
-            double[][] rhsMatrix = TLValue.toMatrix(rhs);
-            RealMatrix lfsRealVector = MatrixUtils.createColumnRealMatrix(lfsVector).transpose();
-            RealMatrix rhsRealMatrix = MatrixUtils.createRealMatrix(rhsMatrix);
-            try {
-                RealMatrix result = lfsRealVector.multiply(rhsRealMatrix);
-                return TLValue.fromMatrix(result);
-            } catch (DimensionMismatchException e) {
-                throw new EvalException(DIMENSION_MISMATCH + e.getMessage(), ctx);
-            }
-        }
-        double[][] lfsMatrix = TLValue.toMatrix(lhs);
-        double[] rhsVector = TLValue.toVector(rhs);
-        RealMatrix lhsRealMatrix = MatrixUtils.createRealMatrix(lfsMatrix);
-        RealMatrix rhsRealVector = MatrixUtils.createColumnRealMatrix(rhsVector);
-        try {
-            RealMatrix result = lhsRealMatrix.multiply(rhsRealVector);
-            return TLValue.fromMatrix(result);
-        } catch (DimensionMismatchException e) {
-            throw new EvalException(DIMENSION_MISMATCH + e.getMessage(), ctx);
+    // expression op=( '*' | '/' | '%' | '.*' ) expression  #multExpression
+    @Override
+    public TLValue visitMultExpression(MultExpressionContext ctx) {
+        TLValue lhs = this.visit(ctx.expression(0));
+        TLValue rhs = this.visit(ctx.expression(1));
+        if (lhs == null || rhs == null) {
+            throw new EvalException(ctx);
         }
-    }
-
-    private TLValue multiplyVectors(MultExpressionContext ctx, TLValue lhs, TLValue rhs) {
-        double[] lhsAsDoubleArray = TLValue.toVector(lhs);
-        double[] rhsAsDoubleArray = TLValue.toVector(rhs);
-        RealVector leftVector = MatrixUtils.createRealVector(lhsAsDoubleArray);
-        RealVector rightVector = MatrixUtils.createRealVector(rhsAsDoubleArray);
         try {
-            RealVector result = leftVector.ebeMultiply(rightVector);
-            List<TLValue> resultAsTemplate = Arrays.stream(result.toArray()).mapToObj(x -> new TLValue(x))
-                    .collect(Collectors.toList());
-            return new TLValue(resultAsTemplate);
-        } catch (DimensionMismatchException e) {
-            throw new EvalException(DIMENSION_MISMATCH + e.getMessage(), ctx);
+            switch (ctx.op.getType()) {
+                case TLLexer.Multiply:
+                    return Operators.multiply(lhs, rhs);
+                case TLLexer.Divide:
+                    return Operators.divide(lhs, rhs);
+                case TLLexer.Modulus:
+                    return Operators.modulus(lhs, rhs);
+                case TLLexer.DotMultiply:
+                    return Operators.dotMultiply(lhs, rhs);
+                default:
+                    throw new RuntimeException("unknown operator type: " + ctx.op.getType());
+            }
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
     }
-    
-    private TLValue divide(MultExpressionContext ctx) {
-    	TLValue lhs = this.visit(ctx.expression(0));
-    	TLValue rhs = this.visit(ctx.expression(1));
-    	if (lhs.isNumber() && rhs.isNumber()) {
-    		return new TLValue(lhs.asDouble() / rhs.asDouble());
-    	}
-    	throw new EvalException(ctx);
-    }
 
-	private TLValue modulus(MultExpressionContext ctx) {
-		TLValue lhs = this.visit(ctx.expression(0));
-    	TLValue rhs = this.visit(ctx.expression(1));
-    	if (lhs.isNumber() && rhs.isNumber()) {
-    		return new TLValue(lhs.asDouble() % rhs.asDouble());
-    	}
-    	throw new EvalException(ctx);
-	}
-
-    private TLValue add(AddExpressionContext ctx) {
+    // expression op=( '+' | '-' | '.+' | '.-' ) expression #addExpression
+    @Override
+    public TLValue visitAddExpression(AddExpressionContext ctx) {
         TLValue lhs = this.visit(ctx.expression(0));
         TLValue rhs = this.visit(ctx.expression(1));
-
-        if(lhs == null || rhs == null) {
+        if (lhs == null || rhs == null) {
             throw new EvalException(ctx);
         }
-
-        // number + number
-        if(lhs.isNumber() && rhs.isNumber()) {
-            return new TLValue(lhs.asDouble() + rhs.asDouble());
-        }
-
-
-        // vector + vector | matrix + matrix
-        if (lhs.isList() && rhs.isList()) {
-            RealMatrix leftMatrix;
-            RealMatrix rightMatrix;
-            if (lhs.isMatrix() && rhs.isMatrix()) {
-                double[][] lhsMatrix = TLValue.toMatrix(lhs);
-                leftMatrix = MatrixUtils.createRealMatrix(lhsMatrix);
-                double[][] rhsMatrix = TLValue.toMatrix(rhs);
-                rightMatrix = MatrixUtils.createRealMatrix(rhsMatrix);
-                return addMatrices(ctx, leftMatrix, rightMatrix, false);
-            }
-            if (lhs.isVector() && rhs.isVector()) {
-                double[] lhsMatrix = TLValue.toVector(lhs);
-                leftMatrix = MatrixUtils.createColumnRealMatrix(lhsMatrix);
-                double[] rhsMatrix = TLValue.toVector(rhs);
-                rightMatrix = MatrixUtils.createColumnRealMatrix(rhsMatrix);
-                return addMatrices(ctx, leftMatrix, rightMatrix, false);
-            }
-        }
-
-
-        // list + any
-        if(lhs.isList()) {
-            List<TLValue> list = lhs.asList();
-            list.add(rhs);
-            return new TLValue(list);
-        }
-
-        // string + any
-        if(lhs.isString()) {
-            return new TLValue(lhs.asString() + "" + rhs.toString());
-        }
-
-        // any + string
-        if(rhs.isString()) {
-            return new TLValue(lhs.toString() + "" + rhs.asString());
-        }
-
-        return new TLValue(lhs.toString() + rhs.toString());
-    }
-
-
-
-    private TLValue addMatrices(AddExpressionContext ctx, RealMatrix leftMatrix, RealMatrix rightMatrix, boolean substract) {
         try {
-            RealMatrix result;
-            if (substract){
-                result = leftMatrix.subtract(rightMatrix);
-            } else {
-                result = leftMatrix.add(rightMatrix);
+            switch (ctx.op.getType()) {
+                case TLLexer.Add:
+                    return Operators.add(lhs, rhs);
+                case TLLexer.Subtract:
+                    return Operators.subtract(lhs, rhs);
+                case TLLexer.DotAdd:
+                    return Operators.dotAdd(lhs, rhs);
+                case TLLexer.DotSubtract:
+                    return Operators.dotSubtract(lhs, rhs);
+                default:
+                    throw new RuntimeException("unknown operator type: " + ctx.op.getType());
             }
-            return TLValue.fromMatrix(result);
-        } catch (DimensionMismatchException e) {
-            throw new EvalException(DIMENSION_MISMATCH + e.getMessage(), ctx);
-        }
-    }
-
-
-    private TLValue subtract(AddExpressionContext ctx) {
-    	TLValue lhs = this.visit(ctx.expression(0));
-    	TLValue rhs = this.visit(ctx.expression(1));
-    	if (lhs.isNumber() && rhs.isNumber()) {
-    		return new TLValue(lhs.asDouble() - rhs.asDouble());
-    	}
-
-
-        // vector + vector | matrix + matrix
-        if (lhs.isList() && rhs.isList()) {
-            RealMatrix leftMatrix;
-            RealMatrix rightMatrix;
-            if (lhs.isMatrix() && rhs.isMatrix()) {
-                double[][] lhsMatrix = TLValue.toMatrix(lhs);
-                leftMatrix = MatrixUtils.createRealMatrix(lhsMatrix);
-                double[][] rhsMatrix = TLValue.toMatrix(rhs);
-                rightMatrix = MatrixUtils.createRealMatrix(rhsMatrix);
-                return addMatrices(ctx, leftMatrix, rightMatrix, true);
-            }
-            if (lhs.isVector() && rhs.isVector()) {
-                double[] lhsMatrix = TLValue.toVector(lhs);
-                leftMatrix = MatrixUtils.createColumnRealMatrix(lhsMatrix);
-                double[] rhsMatrix = TLValue.toVector(rhs);
-                rightMatrix = MatrixUtils.createColumnRealMatrix(rhsMatrix);
-                return addMatrices(ctx, leftMatrix, rightMatrix, true);
-            }
-        }
-
-
-
-        if (lhs.isList()) {
-            List<TLValue> list = lhs.asList();
-            list.remove(rhs);
-            return new TLValue(list);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
-    	throw new EvalException(ctx);
     }
 
-    private TLValue gtEq(CompExpressionContext ctx) {
-    	TLValue lhs = this.visit(ctx.expression(0));
-    	TLValue rhs = this.visit(ctx.expression(1));
-    	if (lhs.isNumber() && rhs.isNumber()) {
-    		return new TLValue(lhs.asDouble() >= rhs.asDouble());
-    	}
-    	if(lhs.isString() && rhs.isString()) {
-            return new TLValue(lhs.asString().compareTo(rhs.asString()) >= 0);
-        }
-    	throw new EvalException(ctx);
-    }
-
-    private TLValue ltEq(CompExpressionContext ctx) {
-    	TLValue lhs = this.visit(ctx.expression(0));
-    	TLValue rhs = this.visit(ctx.expression(1));
-    	if (lhs.isNumber() && rhs.isNumber()) {
-    		return new TLValue(lhs.asDouble() <= rhs.asDouble());
-    	}
-    	if(lhs.isString() && rhs.isString()) {
-            return new TLValue(lhs.asString().compareTo(rhs.asString()) <= 0);
-        }
-    	throw new EvalException(ctx);
-    }
-
-    private TLValue gt(CompExpressionContext ctx) {
-    	TLValue lhs = this.visit(ctx.expression(0));
-    	TLValue rhs = this.visit(ctx.expression(1));
-    	if (lhs.isNumber() && rhs.isNumber()) {
-    		return new TLValue(lhs.asDouble() > rhs.asDouble());
-    	}
-    	if(lhs.isString() && rhs.isString()) {
-            return new TLValue(lhs.asString().compareTo(rhs.asString()) > 0);
-        }
-    	throw new EvalException(ctx);
-    }
-
-    private TLValue lt(CompExpressionContext ctx) {
-    	TLValue lhs = this.visit(ctx.expression(0));
-    	TLValue rhs = this.visit(ctx.expression(1));
-    	if (lhs.isNumber() && rhs.isNumber()) {
-    		return new TLValue(lhs.asDouble() < rhs.asDouble());
-    	}
-    	if(lhs.isString() && rhs.isString()) {
-            return new TLValue(lhs.asString().compareTo(rhs.asString()) < 0);
-        }
-    	throw new EvalException(ctx);
-    }
-
-    private TLValue eq(EqExpressionContext ctx) {
+    // expression op=( '>=' | '<=' | '>' | '<' ) expression #compExpression
+    @Override
+    public TLValue visitCompExpression(CompExpressionContext ctx) {
         TLValue lhs = this.visit(ctx.expression(0));
         TLValue rhs = this.visit(ctx.expression(1));
-        if (lhs == null) {
-        	throw new EvalException(ctx);
+        try {
+            switch (ctx.op.getType()) {
+                case TLLexer.LT:
+                    return Operators.lt(lhs, rhs);
+                case TLLexer.LTEquals:
+                    return Operators.ltEq(lhs, rhs);
+                case TLLexer.GT:
+                    return Operators.gt(lhs, rhs);
+                case TLLexer.GTEquals:
+                    return Operators.gtEq(lhs, rhs);
+                default:
+                    throw new RuntimeException("unknown operator type: " + ctx.op.getType());
+            }
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
-        return new TLValue(lhs.equals(rhs));
     }
 
-    private TLValue nEq(EqExpressionContext ctx) {
+    // expression op=( '==' | '!=' ) expression             #eqExpression
+    @Override
+    public TLValue visitEqExpression(EqExpressionContext ctx) {
         TLValue lhs = this.visit(ctx.expression(0));
         TLValue rhs = this.visit(ctx.expression(1));
-        return new TLValue(!lhs.equals(rhs));
+        try {
+            switch (ctx.op.getType()) {
+                case TLLexer.Equals:
+                    return Operators.eq(lhs, rhs);
+                case TLLexer.NEquals:
+                    return Operators.nEq(lhs, rhs);
+                default:
+                    throw new RuntimeException("unknown operator type: " + ctx.op.getType());
+            }
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
+        }
     }
 
     // expression '&&' expression               #andExpression
     @Override
     public TLValue visitAndExpression(AndExpressionContext ctx) {
-    	TLValue lhs = this.visit(ctx.expression(0));
-    	TLValue rhs = this.visit(ctx.expression(1));
-    	
-    	if(!lhs.isBoolean() || !rhs.isBoolean()) {
-    	    throw new EvalException(ctx);
+        TLValue lhs = logicalOperand(ctx.expression(0), ctx);
+        if (!lhs.asBoolean()) {
+            return lhs;
         }
-		return new TLValue(lhs.asBoolean() && rhs.asBoolean());
+        return logicalOperand(ctx.expression(1), ctx);
     }
 
     // expression '||' expression               #orExpression
     @Override
     public TLValue visitOrExpression(OrExpressionContext ctx) {
-    	TLValue lhs = this.visit(ctx.expression(0));
-    	TLValue rhs = this.visit(ctx.expression(1));
-    	
-    	if(!lhs.isBoolean() || !rhs.isBoolean()) {
-    	    throw new EvalException(ctx);
+        TLValue lhs = logicalOperand(ctx.expression(0), ctx);
+        if (lhs.asBoolean()) {
+            return lhs;
         }
-		return new TLValue(lhs.asBoolean() || rhs.asBoolean());
+        return logicalOperand(ctx.expression(1), ctx);
+    }
+
+    // an operand of '&&' or '||', evaluated only when the result depends on it
+    private TLValue logicalOperand(ExpressionContext operand, ParserRuleContext ctx) {
+        TLValue value = this.visit(operand);
+        if (value == null || !value.isBoolean()) {
+            throw new EvalException(ctx);
+        }
+        return value;
     }
 
     // expression '?' expression ':' expression #ternaryExpression
     @Override
     public TLValue visitTernaryExpression(TernaryExpressionContext ctx) {
     	TLValue condition = this.visit(ctx.expression(0));
+    	// only the branch that is taken is evaluated
     	if (condition.asBoolean()) {
-    		return new TLValue(this.visit(ctx.expression(1)));
+    		return this.visit(ctx.expression(1));
     	} else {
-    		return new TLValue(this.visit(ctx.expression(2)));
+    		return this.visit(ctx.expression(2));
     	}
     }
 
@@ -502,28 +280,23 @@ public class EvalVisitor extends TLBaseVisitor<TLValue> {
 	public TLValue visitInExpression(InExpressionContext ctx) {
 		TLValue lhs = this.visit(ctx.expression(0));
     	TLValue rhs = this.visit(ctx.expression(1));
-    	
-    	if (rhs.isList()) {
-    		for(TLValue val: rhs.asList()) {
-    			if (val.equals(lhs)) {
-    				return new TLValue(true);
-    			}
-    		}
-    		return new TLValue(false);
-    	}
-    	throw new EvalException(ctx);
+        try {
+            return Operators.in(lhs, rhs);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
+        }
 	}
 	
     // Number                                   #numberExpression
     @Override
     public TLValue visitNumberExpression(NumberExpressionContext ctx) {
-        return new TLValue(Double.valueOf(ctx.getText()));
+        return literals.get(ctx.Number());
     }
 
     // Bool                                     #boolExpression
     @Override
     public TLValue visitBoolExpression(BoolExpressionContext ctx) {
-        return new TLValue(Boolean.valueOf(ctx.getText()));
+        return literals.get(ctx.Bool());
     }
 
     // Null                                     #nullExpression
@@ -535,35 +308,27 @@ public class EvalVisitor extends TLBaseVisitor<TLValue> {
     private TLValue resolveIndexes(TLValue val, List<ExpressionContext> indexes) {
     	for (ExpressionContext ec: indexes) {
     		TLValue idx = this.visit(ec);
-    		if (!idx.isNumber() || (!val.isList() && !val.isString()) ) {
-        		throw new EvalException("Problem resolving indexes on "+val+" at "+idx, ec);
-    		}
-    		int i = idx.asDouble().intValue();
-    		if (val.isString()) {
-    			val = new TLValue(val.asString().substring(i, i+1));
-    		} else {
-    			val = val.asList().get(i);
+    		try {
+    		    val = Operators.index(val, idx);
+    		} catch (OperatorException e) {
+    		    throw new EvalException(e, ec);
     		}
     	}
     	return val;
     }
     
     private void setAtIndex(ParserRuleContext ctx, List<ExpressionContext> indexes, TLValue val, TLValue newVal) {
-    	if (!val.isList()) {
+    	if (!val.isList() && !val.isMap()) {
     		throw new EvalException(ctx);
     	}
-    	for (int i = 0; i < indexes.size() - 1; i++) {
-    		TLValue idx = this.visit(indexes.get(i));
-    		if (!idx.isNumber()) {
-        		throw new EvalException(ctx);
-    		}
-    		val = val.asList().get(idx.asDouble().intValue());
+    	try {
+    	    for (int i = 0; i < indexes.size() - 1; i++) {
+    	        val = Operators.index(val, this.visit(indexes.get(i)));
+    	    }
+    	    Operators.setAtIndex(val, this.visit(indexes.get(indexes.size() - 1)), newVal);
+    	} catch (OperatorException e) {
+    	    throw new EvalException(e, ctx);
     	}
-    	TLValue idx = this.visit(indexes.get(indexes.size() - 1));
-		if (!idx.isNumber()) {
-    		throw new EvalException(ctx);
-		}
-    	val.asList().set(idx.asDouble().intValue(), newVal);
     }
     
     // functionCall indexes?                    #functionCallExpression
@@ -588,6 +353,23 @@ public class EvalVisitor extends TLBaseVisitor<TLValue> {
     	return val;
     }
 
+    // map indexes?                             #mapExpression
+    @Override
+    public TLValue visitMapExpression(MapExpressionContext ctx) {
+    	TLValue val = this.visit(ctx.map());
+    	if (ctx.indexes() != null) {
+        	List<ExpressionContext> exps = ctx.indexes().expression();
+        	val = resolveIndexes(val, exps);
+        }
+    	return val;
+    }
+
+    // set                                      #setExpression
+    @Override
+    public TLValue visitSetExpression(SetExpressionContext ctx) {
+    	return this.visit(ctx.set());
+    }
+
     // Identifier indexes?                      #identifierExpression
     @Override
     public TLValue visitIdentifierExpression(IdentifierExpressionContext ctx) {
@@ -604,9 +386,7 @@ public class EvalVisitor extends TLBaseVisitor<TLValue> {
     // String indexes?                          #stringExpression
     @Override
     public TLValue visitStringExpression(StringExpressionContext ctx) {
-        String text = ctx.getText();
-        text = text.substring(1, text.length() - 1).replaceAll("\\\\(.)", "$1");
-        TLValue val = new TLValue(text);
+        TLValue val = literals.get(ctx.String());
         if (ctx.indexes() != null) {
         	List<ExpressionContext> exps = ctx.indexes().expression();
         	val = resolveIndexes(val, exps);
@@ -629,17 +409,10 @@ public class EvalVisitor extends TLBaseVisitor<TLValue> {
     @Override
     public TLValue visitInputExpression(InputExpressionContext ctx) {
     	TerminalNode inputString = ctx.String();
-		try {
-			if (inputString != null) {
-				String text = inputString.getText();
-		        text = text.substring(1, text.length() - 1).replaceAll("\\\\(.)", "$1");
-				return new TLValue(new String(Files.readAllBytes(Paths.get(text))));
-			} else {
-				BufferedReader buffer = new BufferedReader(new InputStreamReader(System.in));
-				return new TLValue(buffer.readLine());
-			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
+		if (inputString != null) {
+			return inputs.file(literals.get(inputString).asString());
+		} else {
+			return inputs.line();
 		}
     }
 
@@ -664,26 +437,35 @@ public class EvalVisitor extends TLBaseVisitor<TLValue> {
     // Identifier '(' exprList? ')' #identifierFunctionCall
     @Override
     public TLValue visitIdentifierFunctionCall(IdentifierFunctionCallContext ctx) {
-        List<ExpressionContext> params = ctx.exprList() != null ? ctx.exprList().expression() : new ArrayList<ExpressionContext>();
-        String id = ctx.Identifier().getText() + params.size();
-        Function function;      
-        if ((function = functions.get(id)) != null) {
-            return function.invoke(params, functions, scope);
+        List<ExpressionContext> params = ctx.exprList() != null ? ctx.exprList().expression() : Collections.<ExpressionContext>emptyList();
+        Function function = ctx.function;
+        if (function == null) {
+            // first call from this site, bind it
+            String id = ctx.Identifier().getText() + params.size();
+            if ((function = functions.get(id)) == null) {
+                throw new EvalException(ctx);
+            }
+            ctx.function = function;
         }
-        throw new EvalException(ctx);
+        TLValue[] args = new TLValue[params.size()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = this.visit(params.get(i));
+        }
+        budget.tick();
+        return function.invoke(args, scope, this);
     }
 
     // Println '(' expression? ')'  #printlnFunctionCall
     @Override
     public TLValue visitPrintlnFunctionCall(PrintlnFunctionCallContext ctx) {
-        System.out.println(this.visit(ctx.expression()));
+        output.println(this.visit(ctx.expression()));
         return TLValue.VOID;
     }
 
     // Print '(' expression ')'     #printFunctionCall
     @Override
     public TLValue visitPrintFunctionCall(PrintFunctionCallContext ctx) {
-        System.out.print(this.visit(ctx.expression()));
+        output.print(this.visit(ctx.expression()));
         return TLValue.VOID;
     }
 
@@ -707,16 +489,11 @@ public class EvalVisitor extends TLBaseVisitor<TLValue> {
     @Override
     public TLValue visitSizeFunctionCall(SizeFunctionCallContext ctx) {
     	TLValue value = this.visit(ctx.expression());
-
-        if(value.isString()) {
-            return new TLValue(value.asString().length());
-        }
-
-        if(value.isList()) {
-            return new TLValue(value.asList().size());
+        try {
+            return Operators.size(value);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
-
-        throw new EvalException(ctx);
     }
 
     // ifStatement
@@ -766,12 +543,14 @@ public class EvalVisitor extends TLBaseVisitor<TLValue> {
     	scope = new Scope(scope); // create new local scope
         for (StatementContext sx: ctx.statement()) {
             this.visit(sx);
+            if (completion.isReturn()) {
+                scope = scope.parent();
+                return TLValue.VOID;
+            }
         }
         ExpressionContext ex;
         if ((ex = ctx.expression()) != null) {
-        	returnValue.value = this.visit(ex);
-        	scope = scope.parent();
-        	throw returnValue;
+        	completion.setReturn(this.visit(ex));
         }
         scope = scope.parent();
         return TLValue.VOID;
@@ -782,27 +561,148 @@ public class EvalVisitor extends TLBaseVisitor<TLValue> {
     // ;
     @Override
     public TLValue visitForStatement(ForStatementContext ctx) {
-        int start = this.visit(ctx.expression(0)).asDouble().intValue();
-        int stop = this.visit(ctx.expression(1)).asDouble().intValue();
+        int start = (int) this.visit(ctx.expression(0)).asDouble();
+        int stop = (int) this.visit(ctx.expression(1)).asDouble();
+        // the variable stays in the same scope for the whole loop, look it up once
+        String id = ctx.Identifier().getText();
+        Scope owner = scope.owner(id);
         for(int i = start; i <= stop; i++) {
-            scope.assign(ctx.Identifier().getText(), new TLValue(i));
-            TLValue returnValue = this.visit(ctx.block());
-            if(returnValue != TLValue.VOID) {
-                return returnValue;
+            owner.assignParam(id, TLValue.of(i));
+            this.visit(ctx.block());
+            budget.tick();
+            if (completion.isReturn()) {
+                break;
+            }
+        }
+        return TLValue.VOID;
+    }
+    
+    // forInStatement
+    // : For Identifier In expression Do block End
+    // ;
+    @Override
+    public TLValue visitForInStatement(ForInStatementContext ctx) {
+        Sequence.Cursor cursor;
+        try {
+            cursor = Operators.iterate(this.visit(ctx.expression()));
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx.expression());
+        }
+        String id = ctx.Identifier().getText();
+        Scope owner = scope.owner(id);
+        try {
+            while (true) {
+                TLValue value;
+                try {
+                    value = cursor.next();
+                } catch (OperatorException e) {
+                    throw new EvalException(e, ctx.expression());
+                }
+                if (value == null) {
+                    break;
+                }
+                owner.assignParam(id, value);
+                this.visit(ctx.block());
+                budget.tick();
+                if (completion.isReturn()) {
+                    break;
+                }
             }
+        } finally {
+            cursor.close();
         }
         return TLValue.VOID;
     }
     
+    // parforStatement
+    // : Parfor Identifier '=' expression To expression reduction? Do block End
+    // ;
+    // the iterations run one after another here, in a single chunk of ParallelRange, each in
+    // a scope of its own: they only assign variables of their own, which checkParforBody makes
+    // sure of, and they run with a fork of the budget, so that they can't change lists and
+    // maps from outside the loop either
+    @Override
+    public TLValue visitParforStatement(ParforStatementContext ctx) {
+        String id = ctx.Identifier().getText();
+        ReductionContext reduction = ctx.reduction();
+        String target = reduction != null ? reduction.Identifier(1).getText() : null;
+        checkParforBody(ctx.block(), scope, id, target);
+        int start = (int) this.visit(ctx.expression(0)).asDouble();
+        int stop = (int) this.visit(ctx.expression(1)).asDouble();
+        TLValue[] contributions = new TLValue[Math.max(0, stop - start + 1)];
+        ParallelRange.runInOrder(start, stop, output, budget, (first, last, chunkOutput, chunkBudget) ->
+                new EvalVisitor(this, chunkOutput, chunkBudget).iterate(ctx, id, target, first, last, contributions));
+        if (target != null) {
+            try {
+                scope.assign(target, ParallelRange.fold(AstBuilder.reduction(reduction), scope.resolve(target),
+                        contributions));
+            } catch (OperatorException e) {
+                throw new EvalException(e, ctx);
+            }
+        }
+        return TLValue.VOID;
+    }
+
+    // iterations first to last of a parfor, contributions[i - first] gets what iteration i leaves in the target
+    private void iterate(ParforStatementContext ctx, String id, String target, int first, int last,
+                         TLValue[] contributions) {
+        Scope outer = scope;
+        for (int i = first; i <= last; i++) {
+            scope = new Scope(outer);
+            scope.assignParam(id, TLValue.of(i));
+            if (target != null) {
+                scope.declare(target);
+            }
+            this.visit(ctx.block());
+            budget.tick();
+            if (target != null) {
+                contributions[i - first] = scope.local(target);
+            }
+        }
+        scope = outer;
+    }
+
+    // rejects what the parallel backends reject in a parfor body: returns, and assignments
+    // to variables from outside the loop other than the loop variable and the reduce target
+    private static void checkParforBody(ParseTree tree, Scope outer, String id, String target) {
+        if (tree instanceof FunctionDeclContext) {
+            return;
+        }
+        if (tree instanceof BlockContext && ((BlockContext) tree).expression() != null) {
+            throw new EvalException("parfor can't return from its body", ((BlockContext) tree).expression());
+        }
+        TerminalNode assigned = null;
+        if (tree instanceof AssignmentContext) {
+            assigned = ((AssignmentContext) tree).Identifier();
+        } else if (tree instanceof ForStatementContext) {
+            assigned = ((ForStatementContext) tree).Identifier();
+        } else if (tree instanceof ForInStatementContext) {
+            assigned = ((ForInStatementContext) tree).Identifier();
+        } else if (tree instanceof ReductionContext) {
+            assigned = ((ReductionContext) tree).Identifier(1);
+        }
+        if (assigned != null) {
+            String name = assigned.getText();
+            if (!name.equals(id) && !name.equals(target) && outer.resolve(name) != null) {
+                throw new EvalException("parfor can't assign " + name + ", a variable from outside the loop",
+                        assigned.getSymbol().getLine());
+            }
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            checkParforBody(tree.getChild(i), outer, id, target);
+        }
+    }
+    
     // whileStatement
     // : While expression OBrace block CBrace
     // ;
     @Override
     public TLValue visitWhileStatement(WhileStatementContext ctx) {
         while( this.visit(ctx.expression()).asBoolean() ) {
-            TLValue returnValue = this.visit(ctx.block());
-            if (returnValue != TLValue.VOID) {
-                return returnValue;
+            this.visit(ctx.block());
+            budget.tick();
+            if (completion.isReturn()) {
+                break;
             }
         }
         return TLValue.VOID;
@@ -810,88 +710,169 @@ public class EvalVisitor extends TLBaseVisitor<TLValue> {
 
     @Override
     public TLValue visitTransposeFunctionCall(TransposeFunctionCallContext ctx) {
-        TLValue tlValueToTranspose = this.visit(ctx.expression());
-        RealMatrix matrixToTranspose = null;
-        if (tlValueToTranspose.isMatrix()) {
-            double[][] argAsMatrix = TLValue.toMatrix(tlValueToTranspose);
-            matrixToTranspose = MatrixUtils.createRealMatrix(argAsMatrix);
-        } else if (tlValueToTranspose.isVector()) {
-            double[] argsAsVector = TLValue.toVector(tlValueToTranspose);
-            matrixToTranspose = MatrixUtils.createColumnRealMatrix(argsAsVector);
-        }
-        if (matrixToTranspose == null) {
-            throw new EvalException(TRANSPOSE_ARGUMENT_MISMATCH, ctx);
+        TLValue value = this.visit(ctx.expression());
+        try {
+            return Operators.transpose(value);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
-        return TLValue.fromMatrix(matrixToTranspose.transpose());
     }
 
     @Override
     public TLValue visitRowsFunctionCall(RowsFunctionCallContext ctx) {
-        TLValue elementToGetRows = this.visit(ctx.expression());
-        return new TLValue(getElementDimensions(elementToGetRows, true, ctx));
+        TLValue value = this.visit(ctx.expression());
+        try {
+            return Operators.rows(value);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
+        }
     }
 
     @Override
     public TLValue visitColumnsFunctionCall(ColumnsFunctionCallContext ctx) {
-        TLValue elementToGetColumns = this.visit(ctx.expression());
-        return new TLValue(getElementDimensions(elementToGetColumns, false, ctx));
+        TLValue value = this.visit(ctx.expression());
+        try {
+            return Operators.columns(value);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
+        }
     }
 
-    private int getElementDimensions(TLValue tlValue, boolean getRows, FunctionCallContext ctx) {
-        RealMatrix realMatrix = null;
-        if (tlValue.isVector()) {
-            double[] elementAsVector = TLValue.toVector(tlValue);
-            realMatrix = MatrixUtils.createColumnRealMatrix(elementAsVector);
+    @Override
+    public TLValue visitDeterminantFunctionCall(DeterminantFunctionCallContext ctx) {
+        TLValue value = this.visit(ctx.expression());
+        try {
+            return Operators.determinant(value);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
-        if (tlValue.isMatrix()) {
-            double[][] elementAsMatrix = TLValue.toMatrix(tlValue);
-            realMatrix = MatrixUtils.createRealMatrix(elementAsMatrix);
+    }
+
+    @Override
+    public TLValue visitMatrixSum(TLParser.MatrixSumContext ctx) {
+        TLValue value = this.visit(ctx.expression());
+        try {
+            return Operators.matrixSum(value);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
-        if (realMatrix == null) {
-            throw new EvalException(DIMENSIONS_ARGUMENTS_MISMATCH, ctx);
+    }
+
+    @Override
+    public TLValue visitInverseFunctionCall(InverseFunctionCallContext ctx) {
+        TLValue value = this.visit(ctx.expression());
+        try {
+            return Operators.inverse(value);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
-        return getRows ? realMatrix.getRowDimension() : realMatrix.getColumnDimension();
     }
 
+    // Solve '(' expression ',' expression ')' #solveFunctionCall
     @Override
-    public TLValue visitDeterminantFunctionCall(DeterminantFunctionCallContext ctx) {
-        TLValue argMatrix = this.visit(ctx.expression());
-        if (!argMatrix.isMatrix()) {
-            throw new EvalException(NOT_SQUARED_MATRIX, ctx);
+    public TLValue visitSolveFunctionCall(SolveFunctionCallContext ctx) {
+        TLValue a = this.visit(ctx.expression(0));
+        TLValue b = this.visit(ctx.expression(1));
+        try {
+            return Operators.solve(a, b);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
-        double[][] matrixAsArray = TLValue.toMatrix(argMatrix);
-        RealMatrix realMatrix = MatrixUtils.createRealMatrix(matrixAsArray);
-        LUDecomposition luDecomposition = new LUDecomposition(realMatrix);
-        return new TLValue(luDecomposition.getDeterminant());
     }
 
     @Override
-    public TLValue visitMatrixSum(TLParser.MatrixSumContext ctx) {
-        TLValue argMatrix = this.visit(ctx.expression());
-        RealMatrix realMatrix = null;
-        if (argMatrix.isVector()) {
-            double[] argAsVector = TLValue.toVector(argMatrix);
-            realMatrix = MatrixUtils.createColumnRealMatrix(argAsVector);
+    public TLValue visitQrFunctionCall(QrFunctionCallContext ctx) {
+        TLValue value = this.visit(ctx.expression());
+        try {
+            return Operators.qr(value);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
+        }
+    }
+
+    @Override
+    public TLValue visitEigFunctionCall(EigFunctionCallContext ctx) {
+        TLValue value = this.visit(ctx.expression());
+        try {
+            return Operators.eig(value);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
-        if (argMatrix.isMatrix()) {
-            double[][] argAsMatrix = TLValue.toMatrix(argMatrix);
-            realMatrix = MatrixUtils.createRealMatrix(argAsMatrix);
+    }
+
+    @Override
+    public TLValue visitSvdFunctionCall(SvdFunctionCallContext ctx) {
+        TLValue value = this.visit(ctx.expression());
+        try {
+            return Operators.svd(value);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
-        if (realMatrix == null) {
-            throw new EvalException(ELEMENTS_SUM_NOT_MATRIX, ctx);
+    }
+
+    @Override
+    public TLValue visitNormFunctionCall(NormFunctionCallContext ctx) {
+        TLValue value = this.visit(ctx.expression());
+        try {
+            return Operators.norm(value);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
-        return new TLValue(getMatrixSum(realMatrix));
     }
 
-    private double getMatrixSum(RealMatrix realMatrix) {
-        double result = 0;
-        double[][] data = realMatrix.getData();
-        for (int i = 0; i < data.length; i++) {
-            for (int j = 0; j < data[i].length; j++) {
-                result += data[i][j];
-            }
+    @Override
+    public TLValue visitTraceFunctionCall(TraceFunctionCallContext ctx) {
+        TLValue value = this.visit(ctx.expression());
+        try {
+            return Operators.trace(value);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
+        }
+    }
+
+    @Override
+    public TLValue visitIdentityFunctionCall(IdentityFunctionCallContext ctx) {
+        TLValue value = this.visit(ctx.expression());
+        try {
+            return Operators.identity(value);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
+        }
+    }
+
+    // Lines '(' expression ')'     #linesFunctionCall
+    @Override
+    public TLValue visitLinesFunctionCall(LinesFunctionCallContext ctx) {
+        TLValue path = this.visit(ctx.expression());
+        try {
+            return Operators.lines(path, inputs);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
+        }
+    }
+
+    // Range '(' expression ',' expression ')' #rangeFunctionCall
+    @Override
+    public TLValue visitRangeFunctionCall(RangeFunctionCallContext ctx) {
+        TLValue from = this.visit(ctx.expression(0));
+        TLValue to = this.visit(ctx.expression(1));
+        try {
+            return Operators.range(from, to);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
+        }
+    }
+
+    // Chunks '(' expression ',' expression ')' #chunksFunctionCall
+    @Override
+    public TLValue visitChunksFunctionCall(ChunksFunctionCallContext ctx) {
+        TLValue path = this.visit(ctx.expression(0));
+        TLValue size = this.visit(ctx.expression(1));
+        try {
+            return Operators.chunks(path, size, inputs);
+        } catch (OperatorException e) {
+            throw new EvalException(e, ctx);
         }
-        return result;
     }
     
 }
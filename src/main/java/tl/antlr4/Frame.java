@@ -0,0 +1,94 @@
+package tl.antlr4;
+
+import java.util.Map;
+
+/**
+ * The variables of one function activation (or of the top-level program), stored in
+ * slots the {@link Resolver} assigned at compile time. A block doesn't get a frame
+ * of its own: its variables live in the enclosing function's frame, so entering a
+ * block or a loop iteration allocates nothing.
+ *
+ * Like {@link Scope} does, a function sees the variables of its callers: a name that
+ * isn't set in the function's frame is looked up in the frames up the chain of calls,
+ * in the variables each caller had in reach at its call.
+ */
+public final class Frame {
+
+    final TLValue[] slots;
+    // the lexically enclosing frame, null for the global frame
+    final Frame parent;
+    // the frame of the caller, null for the global frame
+    Frame caller;
+    // while this frame calls a function: its variables the callee may look up, see Call#names
+    Map<String, Integer> names;
+    // of the frame of parfor iterations: the loop, whose iteration-local slots it holds
+    Node.Parfor loop;
+    // next frame in the Interpreter's free list of the same function
+    Frame nextFree;
+
+    Frame(int size, Frame parent) {
+        this(new TLValue[size], parent);
+    }
+
+    Frame(TLValue[] slots, Frame parent) {
+        this.slots = slots;
+        this.parent = parent;
+    }
+
+    // a frame of its own for parallel iterations, with the same variables
+    Frame copy(Node.Parfor loop) {
+        Frame copy = new Frame(slots.length, parent);
+        System.arraycopy(slots, 0, copy.slots, 0, slots.length);
+        copy.caller = caller;
+        copy.loop = loop;
+        return copy;
+    }
+
+    TLValue get(int depth, int slot) {
+        return ancestor(depth).slots[slot];
+    }
+
+    void set(int depth, int slot, TLValue value) {
+        ancestor(depth).slots[slot] = value;
+    }
+
+    private Frame ancestor(int depth) {
+        Frame frame = this;
+        for (int i = 0; i < depth; i++) {
+            frame = frame.parent;
+        }
+        return frame;
+    }
+
+    // Scope#resolve of a name a frame doesn't hold: the value in the nearest of the callers holding it
+    static TLValue lookup(Frame callers, String name) {
+        for (Frame frame = callers; frame != null; frame = frame.caller) {
+            Integer slot = frame.names != null ? frame.names.get(name) : null;
+            if (slot != null && frame.slots[slot] != null) {
+                return frame.slots[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Scope#assign of a name a frame doesn't hold: re-assigns the variable of the nearest
+     * of the callers holding it, or returns false when none does. Iterations of a parfor
+     * may only re-assign their own variables, not those they share with each other.
+     */
+    static boolean assign(Frame callers, String name, TLValue value, int line) {
+        boolean shared = false;
+        for (Frame frame = callers; frame != null; frame = frame.caller) {
+            Integer slot = frame.names != null ? frame.names.get(name) : null;
+            if (slot != null && frame.slots[slot] != null) {
+                if (shared || frame.loop != null && (slot < frame.loop.firstLocal || slot >= frame.loop.localsEnd)) {
+                    throw new EvalException("parfor can't assign " + name + ", a variable from outside the loop", line);
+                }
+                frame.slots[slot] = value;
+                return true;
+            }
+            shared |= frame.loop != null;
+        }
+        return false;
+    }
+}
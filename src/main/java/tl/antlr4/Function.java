@@ -1,39 +1,36 @@
 package tl.antlr4;
 
 import java.util.List;
-import java.util.Map;
 
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.TerminalNode;
 
-import tl.antlr4.TLParser.ExpressionContext;
-
 public class Function {
 
-    private List<TerminalNode> params;
-    private ParseTree block;
+    private final String[] params;
+    private final ParseTree block;
 
     Function(List<TerminalNode> params, ParseTree block) {
-        this.params = params;
+        this.params = new String[params.size()];
+        for (int i = 0; i < this.params.length; i++) {
+            this.params[i] = params.get(i).getText();
+        }
         this.block = block;
     }
-    
-    public TLValue invoke(List<ExpressionContext> params, Map<String, Function> functions, Scope scope) {
-        if (params.size() != this.params.size()) {
+
+    int arity() {
+        return params.length;
+    }
+
+    // runs the function on the caller's visitor, with the arguments the caller evaluated
+    public TLValue invoke(TLValue[] args, Scope scope, EvalVisitor visitor) {
+        if (args.length != params.length) {
             throw new RuntimeException("Illegal Function call");
         }
         scope = new Scope(scope); // create function scope
-        EvalVisitor evalVisitor = new EvalVisitor(scope, functions); 
-        for (int i = 0; i < this.params.size(); i++) {
-            TLValue value = evalVisitor.visit(params.get(i));
-            scope.assignParam(this.params.get(i).getText(), value);
-        }
-        TLValue ret = TLValue.VOID;
-        try {
-        	evalVisitor.visit(this.block);
-        } catch (ReturnValue returnValue) {
-        	ret = returnValue.value;
+        for (int i = 0; i < params.length; i++) {
+            scope.assignParam(params[i], args[i]);
         }
-        return ret;
+        return visitor.visitFunctionBody(block, scope);
     }
 }
@@ -0,0 +1,120 @@
+package tl.antlr4;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The matrix product kernel behind {@code *}. Small products use a plain i-k-j loop.
+ * Larger ones are tiled so that a panel of the right operand stays in cache while it is
+ * reused for a block of rows. The row blocks are computed in parallel on the common
+ * {@link ForkJoinPool}. A large product checks the time of the run after every panel, so
+ * that it stops at the run's time limit like a loop does.
+ */
+final class Gemm {
+
+    // below this many multiply-adds the plain loop is faster than tiling and forking
+    static final long BLOCKED_THRESHOLD = 64L * 64 * 64;
+    // rows of c computed by one task
+    static final int ROW_BLOCK = 64;
+    // the k x j panel of b reused for a row block: 128 x 512 doubles = 512KB, sized for L2
+    static final int K_BLOCK = 128;
+    static final int J_BLOCK = 512;
+
+    private Gemm() {
+    }
+
+    static DenseMatrix multiply(DenseMatrix lhs, DenseMatrix rhs) {
+        if (lhs.columns != rhs.rows) {
+            throw new OperatorException(Operators.DIMENSION_MISMATCH + lhs.columns + " != " + rhs.rows);
+        }
+        int n = lhs.rows;
+        int m = lhs.columns;
+        int p = rhs.columns;
+        double[] c = new double[Operators.arrayLength((long) n * p)];
+        Budget budget = Budget.running();
+        if ((long) n * m * p < BLOCKED_THRESHOLD) {
+            multiplySimple(lhs.data, rhs.data, c, n, m, p);
+        } else if (n <= ROW_BLOCK || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            multiplyBlocked(lhs.data, rhs.data, c, m, p, 0, n, budget);
+        } else {
+            ForkJoinPool.commonPool().invoke(new RowBlocks(lhs.data, rhs.data, c, m, p, 0, n, budget));
+        }
+        Budget.checkTime();
+        return DenseMatrix.matrix(n, p, c);
+    }
+
+    static void multiplySimple(double[] a, double[] b, double[] c, int n, int m, int p) {
+        // i-k-j order walks the rows of b and c sequentially
+        for (int i = 0; i < n; i++) {
+            int cRow = i * p;
+            for (int k = 0; k < m; k++) {
+                double aik = a[i * m + k];
+                int bRow = k * p;
+                for (int j = 0; j < p; j++) {
+                    c[cRow + j] += aik * b[bRow + j];
+                }
+            }
+        }
+    }
+
+    // c[rowFrom..rowTo) += a[rowFrom..rowTo) * b, one K_BLOCK x J_BLOCK panel of b at a time;
+    // the budget is the run's, null outside of a run
+    static void multiplyBlocked(double[] a, double[] b, double[] c, int m, int p, int rowFrom, int rowTo,
+                                Budget budget) {
+        for (int k0 = 0; k0 < m; k0 += K_BLOCK) {
+            int k1 = Math.min(k0 + K_BLOCK, m);
+            for (int j0 = 0; j0 < p; j0 += J_BLOCK) {
+                if (budget != null) {
+                    budget.checkStopped();
+                }
+                int j1 = Math.min(j0 + J_BLOCK, p);
+                for (int i = rowFrom; i < rowTo; i++) {
+                    int aRow = i * m;
+                    int cRow = i * p;
+                    for (int k = k0; k < k1; k++) {
+                        double aik = a[aRow + k];
+                        int bRow = k * p;
+                        for (int j = j0; j < j1; j++) {
+                            c[cRow + j] += aik * b[bRow + j];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // splits the rows of c in halves until a task has at most ROW_BLOCK rows
+    private static final class RowBlocks extends RecursiveAction {
+
+        private final double[] a;
+        private final double[] b;
+        private final double[] c;
+        private final int m;
+        private final int p;
+        private final int rowFrom;
+        private final int rowTo;
+        private final Budget budget;
+
+        RowBlocks(double[] a, double[] b, double[] c, int m, int p, int rowFrom, int rowTo, Budget budget) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.m = m;
+            this.p = p;
+            this.rowFrom = rowFrom;
+            this.rowTo = rowTo;
+            this.budget = budget;
+        }
+
+        @Override
+        protected void compute() {
+            if (rowTo - rowFrom <= ROW_BLOCK) {
+                multiplyBlocked(a, b, c, m, p, rowFrom, rowTo, budget);
+                return;
+            }
+            int middle = (rowFrom + rowTo) >>> 1;
+            invokeAll(new RowBlocks(a, b, c, m, p, rowFrom, middle, budget),
+                    new RowBlocks(a, b, c, m, p, middle, rowTo, budget));
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package tl.antlr4;
+
+import java.util.Arrays;
+
+/**
+ * The hash table of a MAVA set or map: a persistent hash array mapped trie. Every level
+ * takes 5 bits of a key's hash, and a node keeps only the children that are there, found
+ * by the bits set in a 32-bit map. Looking a key up, adding and removing one touch one
+ * path of the trie, O(log32 n); adding and removing copy that path and share everything
+ * else with the trie they started from, which stays as it was.
+ *
+ * Keys are compared with {@code equals}, with the hash given alongside them. A key alone
+ * under its part of the trie is kept as a leaf as high up as it can go; keys with the
+ * same 32-bit hash end up together in a list below the last level.
+ */
+final class HashTrie {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    static final HashTrie EMPTY = new HashTrie(new Node(0, new Object[0]));
+
+    // a Node, or a Leaf when the trie holds a single key
+    private final Object root;
+
+    private HashTrie(Object root) {
+        this.root = root;
+    }
+
+    // the value of a key, null when the trie doesn't hold it
+    Object get(int hash, Object key) {
+        Object node = root;
+        for (int shift = 0; node instanceof Node; shift += BITS) {
+            Node branch = (Node) node;
+            int bit = bit(hash, shift);
+            if ((branch.bitmap & bit) == 0) {
+                return null;
+            }
+            node = branch.children[branch.index(bit)];
+        }
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            return leaf.hash == hash && leaf.key.equals(key) ? leaf.value : null;
+        }
+        for (Leaf leaf : ((Collision) node).leaves) {
+            if (leaf.key.equals(key)) {
+                return leaf.value;
+            }
+        }
+        return null;
+    }
+
+    // a trie with the key added, or with its value replaced
+    HashTrie put(int hash, Object key, Object value) {
+        return new HashTrie(put(root, 0, new Leaf(hash, key, value)));
+    }
+
+    // a trie without the key, the same trie if it doesn't hold it
+    HashTrie remove(int hash, Object key) {
+        Object newRoot = remove(root, 0, hash, key);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? EMPTY : new HashTrie(newRoot);
+    }
+
+    private static Object put(Object node, int shift, Leaf leaf) {
+        if (node instanceof Node) {
+            Node branch = (Node) node;
+            int bit = bit(leaf.hash, shift);
+            int i = branch.index(bit);
+            Object[] children;
+            if ((branch.bitmap & bit) == 0) {
+                children = new Object[branch.children.length + 1];
+                System.arraycopy(branch.children, 0, children, 0, i);
+                children[i] = leaf;
+                System.arraycopy(branch.children, i, children, i + 1, branch.children.length - i);
+            } else {
+                children = branch.children.clone();
+                children[i] = put(children[i], shift + BITS, leaf);
+            }
+            return new Node(branch.bitmap | bit, children);
+        }
+        if (node instanceof Leaf) {
+            Leaf other = (Leaf) node;
+            if (other.hash == leaf.hash && other.key.equals(leaf.key)) {
+                return leaf;
+            }
+            if (shift >= Integer.SIZE) {
+                return new Collision(new Leaf[]{other, leaf});
+            }
+            // a node in place of the leaf, with both keys below it
+            return put(new Node(bit(other.hash, shift), new Object[]{other}), shift, leaf);
+        }
+        Leaf[] leaves = ((Collision) node).leaves;
+        Leaf[] copy;
+        int i = indexOf(leaves, leaf.key);
+        if (i >= 0) {
+            copy = leaves.clone();
+        } else {
+            copy = Arrays.copyOf(leaves, leaves.length + 1);
+            i = leaves.length;
+        }
+        copy[i] = leaf;
+        return new Collision(copy);
+    }
+
+    // the node without the key, null when nothing is left of it
+    private static Object remove(Object node, int shift, int hash, Object key) {
+        if (node instanceof Node) {
+            Node branch = (Node) node;
+            int bit = bit(hash, shift);
+            if ((branch.bitmap & bit) == 0) {
+                return node;
+            }
+            int i = branch.index(bit);
+            Object child = branch.children[i];
+            Object newChild = remove(child, shift + BITS, hash, key);
+            if (newChild == child) {
+                return node;
+            }
+            if (newChild != null) {
+                if (branch.children.length == 1 && newChild instanceof Leaf) {
+                    return newChild;
+                }
+                Object[] children = branch.children.clone();
+                children[i] = newChild;
+                return new Node(branch.bitmap, children);
+            }
+            if (branch.children.length == 1) {
+                return null;
+            }
+            Object[] children = new Object[branch.children.length - 1];
+            System.arraycopy(branch.children, 0, children, 0, i);
+            System.arraycopy(branch.children, i + 1, children, i, children.length - i);
+            if (children.length == 1 && children[0] instanceof Leaf) {
+                return children[0];
+            }
+            return new Node(branch.bitmap & ~bit, children);
+        }
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            return leaf.hash == hash && leaf.key.equals(key) ? null : node;
+        }
+        Leaf[] leaves = ((Collision) node).leaves;
+        int i = indexOf(leaves, key);
+        if (i < 0) {
+            return node;
+        }
+        if (leaves.length == 2) {
+            return leaves[1 - i];
+        }
+        Leaf[] copy = new Leaf[leaves.length - 1];
+        System.arraycopy(leaves, 0, copy, 0, i);
+        System.arraycopy(leaves, i + 1, copy, i, copy.length - i);
+        return new Collision(copy);
+    }
+
+    private static int indexOf(Leaf[] leaves, Object key) {
+        for (int i = 0; i < leaves.length; i++) {
+            if (leaves[i].key.equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // the bit of the node at this level that a hash goes to
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static final class Node {
+
+        final int bitmap;
+        // one for every bit set in the bitmap, in the order of the bits
+        final Object[] children;
+
+        Node(int bitmap, Object[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+
+        // where the child of a bit is, or would go
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    private static final class Leaf {
+
+        final int hash;
+        final Object key;
+        final Object value;
+
+        Leaf(int hash, Object key, Object value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // keys with the same hash, below the last level
+    private static final class Collision {
+
+        final Leaf[] leaves;
+
+        Collision(Leaf[] leaves) {
+            this.leaves = leaves;
+        }
+    }
+}
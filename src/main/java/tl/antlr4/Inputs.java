@@ -0,0 +1,68 @@
+package tl.antlr4;
+
+import java.io.BufferedReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * What {@code input()} reads for a running program: lines from stdin, or whole files.
+ * A file is read once per run, later {@code input("path")} calls of the same path get
+ * the same string. Files too large to hold in memory are read with {@code lines()} or
+ * {@code chunks()} instead, see {@link Sequence}. Relative paths start from the directory
+ * of the run's {@link Output}. The iterations of a parfor share the inputs of their run,
+ * so reading is synchronized.
+ *
+ * A read can block for good, on a terminal or a pipe nobody writes to. It is done in a
+ * thread of its own, and the run waits for it within its {@link Budget}: when its time
+ * is over or it is cancelled, the run ends and gives its thread back.
+ */
+final class Inputs {
+
+    private static final ExecutorService READS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "mava-input");
+        // a read nobody waits for anymore doesn't keep the JVM alive
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Output output;
+    private final Budget budget;
+    private final Map<String, TLValue> files = new HashMap<>();
+    private BufferedReader stdin;
+
+    Inputs(Output output, Budget budget) {
+        this.output = output;
+        this.budget = budget;
+    }
+
+    // input("path")
+    synchronized TLValue file(String path) {
+        TLValue contents = files.get(path);
+        if (contents == null) {
+            Path file = path(path);
+            contents = budget.await(READS.submit(() -> new TLValue(new String(Files.readAllBytes(file)))));
+            files.put(path, contents);
+        }
+        return contents;
+    }
+
+    // input()
+    synchronized TLValue line() {
+        if (stdin == null) {
+            stdin = new BufferedReader(output.stdin());
+        }
+        // a prompt printed before the read has to be visible
+        output.flush();
+        BufferedReader reader = stdin;
+        return budget.await(READS.submit(() -> new TLValue(reader.readLine())));
+    }
+
+    // a path the program reads, for input("path"), lines() and chunks()
+    Path path(String path) {
+        return output.path(path);
+    }
+}
@@ -0,0 +1,555 @@
+package tl.antlr4;
+
+import java.util.Arrays;
+import java.util.List;
+
+import tl.antlr4.Node.*;
+
+/**
+ * A tree-walking interpreter over the lowered {@link Node} AST. It implements the
+ * same semantics as the {@link EvalVisitor}, sharing the operators in {@link Operators}.
+ */
+public class Interpreter implements NodeVisitor<TLValue> {
+
+    private final Program program;
+    private final Completion completion = new Completion();
+    private final Frame globals;
+    // per function, the frames of calls that have returned, ready to be reused
+    private final Frame[] freeFrames;
+    private final Output output;
+    private final Inputs inputs;
+    private final Budget budget;
+    private Frame frame;
+
+    Interpreter(Program program, Output output) {
+        this(program, output, new Budget(Limits.NONE));
+    }
+
+    Interpreter(Program program, Output output, Budget budget) {
+        if (!program.isResolved()) {
+            throw new IllegalStateException("the program has to be resolved before it can be interpreted");
+        }
+        this.program = program;
+        this.globals = new Frame(program.frameSize, null);
+        this.freeFrames = new Frame[program.functionTable.length];
+        this.output = output;
+        this.inputs = new Inputs(output, budget);
+        this.budget = budget;
+        this.frame = globals;
+    }
+
+    // runs chunks of the iterations of a parfor, in a frame of its own
+    private Interpreter(Interpreter loop, Frame frame, Output output, Budget budget) {
+        this.program = loop.program;
+        this.globals = loop.globals;
+        this.freeFrames = new Frame[program.functionTable.length];
+        this.output = output;
+        this.inputs = loop.inputs;
+        this.budget = budget;
+        this.frame = frame;
+    }
+
+    public void run() {
+        Budget previous = budget.enter();
+        try {
+            // a top-level return ends the program
+            visitBlock(program.main);
+            completion.take();
+        } finally {
+            budget.exit(previous);
+            output.flush();
+        }
+    }
+
+    private TLValue eval(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private EvalException error(Node node) {
+        return new EvalException("Illegal expression: " + program.text(node), node.line);
+    }
+
+    private EvalException error(Node node, OperatorException e) {
+        return e.getMessage() != null ? new EvalException(e.getMessage(), node.line) : error(node);
+    }
+
+    @Override
+    public TLValue visitLiteral(Literal node) {
+        return node.value;
+    }
+
+    @Override
+    public TLValue visitListLiteral(ListLiteral node) {
+        if (node.constant != null) {
+            return node.constant.copy();
+        }
+        List<TLValue> list = new ValueList();
+        for (Expr element : node.elements) {
+            list.add(eval(element));
+        }
+        return new TLValue(list);
+    }
+
+    @Override
+    public TLValue visitSetLiteral(SetLiteral node) {
+        ValueMap set = ValueMap.newSet();
+        for (Expr element : node.elements) {
+            TLValue value = eval(element);
+            try {
+                set.add(value);
+            } catch (OperatorException e) {
+                throw error(element, e);
+            }
+        }
+        return new TLValue(set);
+    }
+
+    @Override
+    public TLValue visitMapLiteral(MapLiteral node) {
+        ValueMap map = ValueMap.newMap();
+        for (int i = 0; i < node.keys.length; i++) {
+            TLValue key = eval(node.keys[i]);
+            TLValue value = eval(node.values[i]);
+            try {
+                map.put(key, value);
+            } catch (OperatorException e) {
+                throw error(node.keys[i], e);
+            }
+        }
+        return new TLValue(map);
+    }
+
+    private TLValue load(String name, int depth, int slot) {
+        switch (depth) {
+            case 0:
+                return frame.slots[slot];
+            case Node.CALLERS:
+                TLValue value = frame.slots[slot];
+                return value != null ? value : Frame.lookup(frame.caller, name);
+            case Node.UNDEFINED:
+                return Frame.lookup(frame.caller, name);
+            default:
+                return frame.get(depth, slot);
+        }
+    }
+
+    private void store(String name, int depth, int slot, TLValue value, int line) {
+        switch (depth) {
+            case 0:
+                frame.slots[slot] = value;
+                break;
+            case Node.CALLERS:
+                if (frame.slots[slot] != null || !Frame.assign(frame.caller, name, value, line)) {
+                    frame.slots[slot] = value;
+                }
+                break;
+            default:
+                frame.set(depth, slot, value);
+        }
+    }
+
+    @Override
+    public TLValue visitVariable(Variable node) {
+        return load(node.name, node.depth, node.slot);
+    }
+
+    @Override
+    public TLValue visitIndex(Index node) {
+        TLValue val = eval(node.target);
+        Expr[] indexes = node.indexes;
+        for (int i = 0; i < indexes.length; i++) {
+            TLValue idx = eval(indexes[i]);
+            try {
+                if (i + 1 < indexes.length && val != null && val.isDense()) {
+                    // m[i][j] on a dense matrix
+                    i++;
+                    val = Operators.index(val, idx, eval(indexes[i]));
+                } else {
+                    val = Operators.index(val, idx);
+                }
+            } catch (OperatorException e) {
+                throw error(indexes[i], e);
+            }
+        }
+        return val;
+    }
+
+    @Override
+    public TLValue visitUnary(Unary node) {
+        TLValue v = eval(node.operand);
+        try {
+            switch (node.op) {
+                case MINUS:
+                    return Operators.unaryMinus(v);
+                case NOT:
+                    return Operators.not(v);
+                default:
+                    throw new RuntimeException("unknown operator type: " + node.op);
+            }
+        } catch (OperatorException e) {
+            throw error(node, e);
+        }
+    }
+
+    @Override
+    public TLValue visitBinary(Binary node) {
+        if (node.op == BinaryOp.AND || node.op == BinaryOp.OR) {
+            return logical(node);
+        }
+        TLValue lhs = eval(node.lhs);
+        TLValue rhs = eval(node.rhs);
+        try {
+            switch (node.op) {
+                case POW:
+                    return Operators.power(lhs, rhs);
+                case MUL:
+                    checkOperands(node, lhs, rhs);
+                    return Operators.multiply(lhs, rhs);
+                case DIV:
+                    checkOperands(node, lhs, rhs);
+                    return Operators.divide(lhs, rhs);
+                case MOD:
+                    checkOperands(node, lhs, rhs);
+                    return Operators.modulus(lhs, rhs);
+                case ADD:
+                    checkOperands(node, lhs, rhs);
+                    return Operators.add(lhs, rhs);
+                case SUB:
+                    checkOperands(node, lhs, rhs);
+                    return Operators.subtract(lhs, rhs);
+                case DOT_MUL:
+                    checkOperands(node, lhs, rhs);
+                    return Operators.dotMultiply(lhs, rhs);
+                case DOT_ADD:
+                    checkOperands(node, lhs, rhs);
+                    return Operators.dotAdd(lhs, rhs);
+                case DOT_SUB:
+                    checkOperands(node, lhs, rhs);
+                    return Operators.dotSubtract(lhs, rhs);
+                case LT:
+                    return Operators.lt(lhs, rhs);
+                case LT_EQ:
+                    return Operators.ltEq(lhs, rhs);
+                case GT:
+                    return Operators.gt(lhs, rhs);
+                case GT_EQ:
+                    return Operators.gtEq(lhs, rhs);
+                case EQ:
+                    return Operators.eq(lhs, rhs);
+                case N_EQ:
+                    return Operators.nEq(lhs, rhs);
+                case IN:
+                    return Operators.in(lhs, rhs);
+                default:
+                    throw new RuntimeException("unknown operator type: " + node.op);
+            }
+        } catch (OperatorException e) {
+            throw error(node, e);
+        }
+    }
+
+    // '&&' and '||' only evaluate the right operand when the left one doesn't decide the result
+    private TLValue logical(Binary node) {
+        TLValue lhs = eval(node.lhs);
+        if (lhs == null || !lhs.isBoolean()) {
+            throw error(node);
+        }
+        if (lhs.asBoolean() == (node.op == BinaryOp.OR)) {
+            return lhs;
+        }
+        TLValue rhs = eval(node.rhs);
+        if (rhs == null || !rhs.isBoolean()) {
+            throw error(node);
+        }
+        return rhs;
+    }
+
+    // arithmetic on an undefined variable
+    private void checkOperands(Binary node, TLValue lhs, TLValue rhs) {
+        if (lhs == null || rhs == null) {
+            throw error(node);
+        }
+    }
+
+    @Override
+    public TLValue visitTernary(Ternary node) {
+        // only the branch that is taken is evaluated
+        return eval(node.condition).asBoolean() ? eval(node.whenTrue) : eval(node.whenFalse);
+    }
+
+    @Override
+    public TLValue visitCall(Call node) {
+        if (node.function == Node.UNDEFINED) {
+            throw error(node);
+        }
+        budget.tick();
+        FunctionDecl function = program.functionTable[node.function];
+        Frame callee = freeFrames[node.function];
+        if (callee != null) {
+            freeFrames[node.function] = callee.nextFree;
+        } else {
+            callee = new Frame(function.frameSize, globals);
+        }
+        // the arguments are evaluated in the caller's frame, straight into the parameter slots
+        for (int i = 0; i < node.args.length; i++) {
+            callee.slots[i] = eval(node.args[i]);
+        }
+        Frame callerFrame = frame;
+        callerFrame.names = node.names;
+        callee.caller = callerFrame;
+        frame = callee;
+        try {
+            visitBlock(function.body);
+        } finally {
+            frame = callerFrame;
+        }
+        // a frame that is freed again only has to be cleared, a recursive call takes another one
+        Arrays.fill(callee.slots, null);
+        callee.caller = null;
+        callee.nextFree = freeFrames[node.function];
+        freeFrames[node.function] = callee;
+        return completion.take();
+    }
+
+    @Override
+    public TLValue visitBuiltinCall(BuiltinCall node) {
+        TLValue value = node.arg != null ? eval(node.arg) : null;
+        TLValue second = node.second != null ? eval(node.second) : null;
+        try {
+            switch (node.builtin) {
+                case PRINTLN:
+                    if (node.arg == null) {
+                        output.println();
+                    } else {
+                        output.println(value);
+                    }
+                    return TLValue.VOID;
+                case PRINT:
+                    output.print(value);
+                    return TLValue.VOID;
+                case ASSERT:
+                    if (!value.isBoolean()) {
+                        throw error(node);
+                    }
+                    if (!value.asBoolean()) {
+                        throw new AssertionError("Failed Assertion " + program.text(node.arg) + " line:" + node.line);
+                    }
+                    return TLValue.VOID;
+                case SIZE:
+                    return Operators.size(value);
+                case TRANSPOSE:
+                    return Operators.transpose(value);
+                case ROWS:
+                    return Operators.rows(value);
+                case COLUMNS:
+                    return Operators.columns(value);
+                case DETERMINANT:
+                    return Operators.determinant(value);
+                case MATRIX_SUM:
+                    return Operators.matrixSum(value);
+                case LINES:
+                    return Operators.lines(value, inputs);
+                case CHUNKS:
+                    return Operators.chunks(value, second, inputs);
+                case RANGE:
+                    return Operators.range(value, second);
+                case INVERSE:
+                    return Operators.inverse(value);
+                case SOLVE:
+                    return Operators.solve(value, second);
+                case QR:
+                    return Operators.qr(value);
+                case EIG:
+                    return Operators.eig(value);
+                case SVD:
+                    return Operators.svd(value);
+                case NORM:
+                    return Operators.norm(value);
+                case TRACE:
+                    return Operators.trace(value);
+                case IDENTITY:
+                    return Operators.identity(value);
+                default:
+                    throw new RuntimeException("unknown builtin: " + node.builtin);
+            }
+        } catch (OperatorException e) {
+            throw error(node, e);
+        }
+    }
+
+    @Override
+    public TLValue visitInput(Input node) {
+        return node.path != null ? inputs.file(node.path) : inputs.line();
+    }
+
+    @Override
+    public TLValue visitAssign(Assign node) {
+        TLValue newVal = eval(node.value);
+        if (node.indexes.length == 0) {
+            store(node.name, node.depth, node.slot, newVal, node.line);
+            return TLValue.VOID;
+        }
+        TLValue val = load(node.name, node.depth, node.slot);
+        if (val == null || !(val.isList() || val.isMap())) {
+            throw error(node);
+        }
+        try {
+            int last = node.indexes.length - 1;
+            for (int i = 0; i < last; i++) {
+                val = Operators.index(val, eval(node.indexes[i]));
+            }
+            Operators.setAtIndex(val, eval(node.indexes[last]), newVal);
+        } catch (OperatorException e) {
+            throw error(node, e);
+        }
+        return TLValue.VOID;
+    }
+
+    @Override
+    public TLValue visitExprStmt(ExprStmt node) {
+        eval(node.expr);
+        return TLValue.VOID;
+    }
+
+    @Override
+    public TLValue visitIf(If node) {
+        for (int i = 0; i < node.conditions.length; i++) {
+            if (eval(node.conditions[i]).asBoolean()) {
+                return visitBlock(node.blocks[i]);
+            }
+        }
+        if (node.elseBlock != null) {
+            return visitBlock(node.elseBlock);
+        }
+        return TLValue.VOID;
+    }
+
+    @Override
+    public TLValue visitFor(For node) {
+        int start = (int) eval(node.from).asDouble();
+        int stop = (int) eval(node.to).asDouble();
+        for (int i = start; i <= stop; i++) {
+            store(node.variable, node.depth, node.slot, TLValue.of(i), node.line);
+            visitBlock(node.body);
+            budget.tick();
+            if (completion.isReturn()) {
+                break;
+            }
+        }
+        return TLValue.VOID;
+    }
+
+    @Override
+    public TLValue visitForIn(ForIn node) {
+        TLValue iterable = eval(node.iterable);
+        if (iterable != null && iterable.isSequence() && iterable.asSequence() instanceof Sequence.Range) {
+            return countUp(node, (Sequence.Range) iterable.asSequence());
+        }
+        Sequence.Cursor cursor;
+        try {
+            cursor = Operators.iterate(iterable);
+        } catch (OperatorException e) {
+            throw error(node.iterable, e);
+        }
+        // a return or an error leaves the loop early, the cursor may still hold a file open
+        try {
+            for (TLValue value = next(node, cursor); value != null; value = next(node, cursor)) {
+                store(node.variable, node.depth, node.slot, value, node.line);
+                visitBlock(node.body);
+                budget.tick();
+                if (completion.isReturn()) {
+                    break;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return TLValue.VOID;
+    }
+
+    // for i in range(from, to): a counter instead of a cursor, nothing to close
+    private TLValue countUp(ForIn node, Sequence.Range range) {
+        for (int i = range.from; i < range.to; i++) {
+            store(node.variable, node.depth, node.slot, TLValue.of(i), node.line);
+            visitBlock(node.body);
+            budget.tick();
+            if (completion.isReturn()) {
+                break;
+            }
+        }
+        return TLValue.VOID;
+    }
+
+    private TLValue next(ForIn node, Sequence.Cursor cursor) {
+        try {
+            return cursor.next();
+        } catch (OperatorException e) {
+            throw error(node.iterable, e);
+        }
+    }
+
+    @Override
+    public TLValue visitParfor(Parfor node) {
+        int from = (int) eval(node.from).asDouble();
+        int to = (int) eval(node.to).asDouble();
+        TLValue[] contributions = node.reduction != null && from <= to ? new TLValue[to - from + 1] : new TLValue[0];
+        Frame loop = frame;
+        ParallelRange.run(from, to, output, budget, (first, last, chunkOutput, chunkBudget) ->
+                new Interpreter(this, loop.copy(node), chunkOutput, chunkBudget).iterate(node, first, last, from, contributions));
+        if (node.reduction != null) {
+            try {
+                TLValue total = load(node.target, node.targetDepth, node.targetSlot);
+                store(node.target, node.targetDepth, node.targetSlot,
+                        ParallelRange.fold(node.reduction, total, contributions), node.line);
+            } catch (OperatorException e) {
+                throw error(node, e);
+            }
+        }
+        return TLValue.VOID;
+    }
+
+    // iterations first to last of a parfor, contributions[i - from] gets what iteration i leaves in the target
+    private void iterate(Parfor node, int first, int last, int from, TLValue[] contributions) {
+        TLValue[] slots = frame.slots;
+        for (int i = first; i <= last; i++) {
+            Arrays.fill(slots, node.firstLocal, node.localsEnd, null);
+            slots[node.slot] = TLValue.of(i);
+            visitBlock(node.body);
+            budget.tick();
+            if (node.reduction != null) {
+                contributions[i - from] = slots[node.localTarget];
+            }
+        }
+    }
+
+    @Override
+    public TLValue visitWhile(While node) {
+        while (eval(node.condition).asBoolean()) {
+            visitBlock(node.body);
+            budget.tick();
+            if (completion.isReturn()) {
+                break;
+            }
+        }
+        return TLValue.VOID;
+    }
+
+    @Override
+    public TLValue visitBlock(Block node) {
+        for (Stmt statement : node.statements) {
+            statement.accept(this);
+            if (completion.isReturn()) {
+                return TLValue.VOID;
+            }
+        }
+        if (node.returnValue != null) {
+            completion.setReturn(eval(node.returnValue));
+        }
+        return TLValue.VOID;
+    }
+
+    @Override
+    public TLValue visitFunctionDecl(FunctionDecl node) {
+        return TLValue.VOID;
+    }
+}
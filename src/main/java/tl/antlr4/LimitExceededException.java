@@ -0,0 +1,11 @@
+package tl.antlr4;
+
+/**
+ * Ends a run that went over one of its {@link Limits}, or was interrupted.
+ */
+public class LimitExceededException extends RuntimeException {
+
+    public LimitExceededException(String msg) {
+        super(msg);
+    }
+}
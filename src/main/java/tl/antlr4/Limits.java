@@ -0,0 +1,48 @@
+package tl.antlr4;
+
+/**
+ * What one run of a script may use: the steps it takes (loop iterations and function
+ * calls), its wall time, and the length of the lists and strings it builds. A run that
+ * goes over a limit ends with a {@link LimitExceededException}. Limits are immutable;
+ * every run counts against them with a {@link Budget} of its own.
+ */
+public final class Limits {
+
+    // a limit of 0 doesn't limit anything
+    public static final long NO_LIMIT = 0;
+
+    public static final Limits NONE = new Limits(NO_LIMIT, NO_LIMIT, (int) NO_LIMIT);
+
+    final long maxSteps;
+    final long maxMillis;
+    final int maxLength;
+
+    /**
+     * @param maxSteps  the loop iterations and function calls of a run
+     * @param maxMillis the wall time of a run, in milliseconds
+     * @param maxLength the elements of a list or the characters of a string; a list is
+     *                  checked every 32 elements it grows by
+     */
+    public Limits(long maxSteps, long maxMillis, int maxLength) {
+        if (maxSteps < 0 || maxMillis < 0 || maxLength < 0) {
+            throw new IllegalArgumentException("limits can't be negative");
+        }
+        this.maxSteps = maxSteps;
+        this.maxMillis = maxMillis;
+        this.maxLength = maxLength;
+    }
+
+    // the smaller of every limit of these and of the cap
+    Limits within(Limits cap) {
+        return new Limits(min(maxSteps, cap.maxSteps), min(maxMillis, cap.maxMillis),
+                (int) min(maxLength, cap.maxLength));
+    }
+
+    private static long min(long limit, long cap) {
+        return limit == NO_LIMIT ? cap : cap == NO_LIMIT ? limit : Math.min(limit, cap);
+    }
+
+    boolean limitsLength() {
+        return maxLength != NO_LIMIT;
+    }
+}
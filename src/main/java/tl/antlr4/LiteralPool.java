@@ -0,0 +1,78 @@
+package tl.antlr4;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+/**
+ * The values of the literals of a parsed program, decoded once before it runs: a pass
+ * over the parse tree turns every Number, Bool and String token into a TLValue, and
+ * literals with the same text share one. Evaluating a literal is then a lookup by its
+ * token instead of parsing a number or unescaping a string again every time. Literal
+ * values are immutable, so sharing them is safe.
+ */
+final class LiteralPool {
+
+    // by the text of the token, quotes and escapes included for strings
+    private final Map<String, TLValue> interned = new HashMap<>();
+    // by the index of the token in the token stream
+    private final TLValue[] values;
+
+    private LiteralPool(int tokens) {
+        this.values = new TLValue[tokens];
+    }
+
+    static LiteralPool of(ParserRuleContext tree) {
+        LiteralPool pool = new LiteralPool(tree.stop != null ? tree.stop.getTokenIndex() + 1 : 0);
+        pool.collect(tree);
+        return pool;
+    }
+
+    private void collect(ParseTree tree) {
+        if (tree instanceof TerminalNode) {
+            Token token = ((TerminalNode) tree).getSymbol();
+            if (token.getTokenIndex() >= 0 && token.getTokenIndex() < values.length) {
+                values[token.getTokenIndex()] = decode(token);
+            }
+            return;
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            collect(tree.getChild(i));
+        }
+    }
+
+    private TLValue decode(Token token) {
+        switch (token.getType()) {
+            case TLLexer.Number:
+            case TLLexer.String:
+                break;
+            case TLLexer.Bool:
+                return TLValue.of(Boolean.parseBoolean(token.getText()));
+            default:
+                return null;
+        }
+        String text = token.getText();
+        TLValue value = interned.get(text);
+        if (value == null) {
+            value = token.getType() == TLLexer.Number
+                    ? TLValue.of(Double.parseDouble(text))
+                    : new TLValue(unescape(text));
+            interned.put(text, value);
+        }
+        return value;
+    }
+
+    // the value of a Number, Bool or String token
+    TLValue get(TerminalNode literal) {
+        return values[literal.getSymbol().getTokenIndex()];
+    }
+
+    // strips the quotes of a String token and unescapes it
+    private static String unescape(String text) {
+        return text.substring(1, text.length() - 1).replaceAll("\\\\(.)", "$1");
+    }
+}
@@ -1,37 +1,139 @@
 package tl.antlr4;
 
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 
+import tl.antlr4.TLParser.ParseContext;
+
 public class Main {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--server")) {
+            // keep a JVM running and run the scripts that clients send, see Server
+            Server.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--client")) {
+            // run a script in the server, in this JVM when none is running
+            System.exit(Client.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        run(args, System.out, System.err);
+    }
+
+    /**
+     * Runs a program as the command line arguments say, printing to the given streams.
+     * Returns 0, or 1 when the run failed with an error.
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        return run(args, null, null, out, err, Limits.NONE);
+    }
+
+    /**
+     * Runs a program like {@link #run(String[], PrintStream, PrintStream)}, reading stdin
+     * from {@code in} (System.in when null), within the limits the arguments ask for and
+     * no more than {@code cap}. Relative paths, of the arguments and of the files the
+     * program reads, start from {@code directory}, the working directory of the JVM when null.
+     */
+    static int run(String[] args, Reader in, Path directory, PrintStream out, PrintStream err, Limits cap) {
         try {
-            System.out.println("MAVA compiler. Made by Mantas Damijonaitis and Mantas Kleiva. All rights reserved. 2018.");
-            if (args.length == 0) {
-                System.out.println("No source code found! Please pass it like: mvn -q antlr4:antlr4 install exec:java -Dexec.args=\"test.mava\"");
-                return;
+            out.println("MAVA compiler. Made by Mantas Damijonaitis and Mantas Kleiva. All rights reserved. 2018.");
+            String fileName = null;
+            boolean legacy = false;
+            boolean compile = false;
+            boolean dumpOptimized = false;
+            boolean unbuffered = false;
+            boolean cache = true;
+            String cacheDir = null;
+            int flushChars = Output.DEFAULT_FLUSH_CHARS;
+            int flushLines = Output.NO_LINE_LIMIT;
+            long maxSteps = Limits.NO_LIMIT;
+            long maxMillis = Limits.NO_LIMIT;
+            int maxLength = (int) Limits.NO_LIMIT;
+            for (String arg : args) {
+                if (arg.equals("--legacy")) {
+                    // evaluate the parse tree directly with the EvalVisitor
+                    legacy = true;
+                } else if (arg.equals("--compile")) {
+                    // compile the program to JVM bytecode instead of interpreting the AST
+                    compile = true;
+                } else if (arg.equals("--dump-optimized")) {
+                    // print the program as the optimizer left it instead of running it
+                    dumpOptimized = true;
+                } else if (arg.equals("--unbuffered")) {
+                    // write every printed value immediately
+                    unbuffered = true;
+                } else if (arg.equals("--no-cache")) {
+                    // always parse the source, neither read nor write the program cache
+                    cache = false;
+                } else if (arg.startsWith("--cache-dir=")) {
+                    cacheDir = arg.substring("--cache-dir=".length());
+                } else if (arg.startsWith("--flush-chars=")) {
+                    flushChars = Integer.parseInt(arg.substring("--flush-chars=".length()));
+                } else if (arg.startsWith("--flush-lines=")) {
+                    flushLines = Integer.parseInt(arg.substring("--flush-lines=".length()));
+                } else if (arg.startsWith("--max-steps=")) {
+                    // the loop iterations and function calls the program may run, see Limits
+                    maxSteps = Long.parseLong(arg.substring("--max-steps=".length()));
+                } else if (arg.startsWith("--max-millis=")) {
+                    maxMillis = Long.parseLong(arg.substring("--max-millis=".length()));
+                } else if (arg.startsWith("--max-length=")) {
+                    maxLength = Integer.parseInt(arg.substring("--max-length=".length()));
+                } else {
+                    fileName = arg;
+                }
             }
-            TLLexer lexer = new TLLexer(CharStreams.fromFileName(args[0]));
-            TLParser parser = new TLParser(new CommonTokenStream(lexer));
-            parser.setBuildParseTree(true);
-            ParseTree tree = parser.parse();
-            
-            Scope scope = new Scope();
-            Map<String, Function> functions = new HashMap<>();
-            SymbolVisitor symbolVisitor = new SymbolVisitor(functions);
-            symbolVisitor.visit(tree);
-            EvalVisitor visitor = new EvalVisitor(scope, functions);
-            visitor.visit(tree);
+            if (fileName == null) {
+                out.println("No source code found! Please pass it like: mvn -q antlr4:antlr4 install exec:java -Dexec.args=\"test.mava\"");
+                return 0;
+            }
+            Limits limits = new Limits(maxSteps, maxMillis, maxLength).within(cap);
+            Output output = unbuffered ? Output.unbuffered(out, in, directory)
+                    : new Output(out, flushChars, flushLines, in, directory);
+            CharStream source = CharStreams.fromPath(output.path(fileName));
+
+            if (legacy) {
+                ParseContext tree = new SourceParser(err).parse(source);
+                runLegacy(tree, output, LiteralPool.of(tree), new Budget(limits));
+                return 0;
+            }
+            ProgramCache programs = !cache ? null
+                    : cacheDir != null ? new ProgramCache(output.path(cacheDir)) : ProgramCache.inHomeDirectory();
+            MavaEngine engine = new MavaEngine(compile ? MavaEngine.Mode.COMPILE : MavaEngine.Mode.INTERPRET, programs);
+            if (dumpOptimized) {
+                out.print(AstPrinter.print(engine.optimize(source.toString(), err)));
+                return 0;
+            }
+            engine.compile(source.toString(), err).run(output, limits);
+            return 0;
         } catch (Exception e) {
             if (e.getMessage() != null) {
-                System.err.println(e.getMessage());
+                err.println(e.getMessage());
             } else {
-                e.printStackTrace();
+                e.printStackTrace(err);
             }
+            return 1;
+        }
+    }
+
+    private static void runLegacy(ParseTree tree, Output output, LiteralPool literals, Budget budget) {
+        Scope scope = new Scope();
+        Map<String, Function> functions = new HashMap<>();
+        SymbolVisitor symbolVisitor = new SymbolVisitor(functions);
+        symbolVisitor.visit(tree);
+        EvalVisitor visitor = new EvalVisitor(scope, functions, output, literals, budget);
+        Budget previous = budget.enter();
+        try {
+            visitor.visit(tree);
+        } finally {
+            budget.exit(previous);
+            output.flush();
         }
     }
 }
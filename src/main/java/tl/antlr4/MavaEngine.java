@@ -0,0 +1,122 @@
+package tl.antlr4;
+
+import java.io.PrintStream;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.objectweb.asm.ClassTooLargeException;
+import org.objectweb.asm.MethodTooLargeException;
+
+import tl.antlr4.TLParser.ParseContext;
+
+/**
+ * Runs MAVA scripts inside another application. {@link #compile(String)} parses,
+ * optimizes and resolves a script once; the {@link Script} it returns is immutable, and
+ * can be run any number of times from any number of threads at once. Every run has
+ * globals, output and inputs of its own, so concurrent runs never see each other's
+ * variables.
+ *
+ * An engine holds no state of its own besides its settings and can be shared too.
+ */
+public final class MavaEngine {
+
+    public enum Mode {
+        // walk the resolved AST with the Interpreter
+        INTERPRET,
+        // run the BytecodeCompiler output, interpreting programs too large for a class file
+        COMPILE
+    }
+
+    private final Mode mode;
+    // null when scripts are always parsed
+    private final ProgramCache programs;
+
+    public MavaEngine(Mode mode) {
+        this(mode, null);
+    }
+
+    MavaEngine(Mode mode, ProgramCache programs) {
+        this.mode = mode;
+        this.programs = programs;
+    }
+
+    /**
+     * Compiles a script, reporting syntax errors to System.err.
+     */
+    public Script compile(String source) {
+        return compile(source, System.err);
+    }
+
+    /**
+     * Compiles a script, reporting syntax errors to {@code err}. Like the command line,
+     * a script with syntax errors still runs what the parser recovered of it.
+     */
+    public Script compile(String source, PrintStream err) {
+        Program program = Resolver.resolve(optimize(source, err));
+        if (mode == Mode.COMPILE) {
+            try {
+                return new Script(program, BytecodeCompiler.load(program));
+            } catch (ClassTooLargeException | MethodTooLargeException e) {
+                // the JVM limits a method to 64KB of bytecode, interpret what doesn't fit
+            }
+        }
+        return new Script(program, null);
+    }
+
+    // the optimized program of the source, from the cache when it holds one
+    Program optimize(String source, PrintStream err) {
+        Program optimized = programs != null ? programs.load(source) : null;
+        if (optimized != null) {
+            return optimized;
+        }
+        SourceParser parser = new SourceParser(err);
+        ParseContext tree = parser.parse(CharStreams.fromString(source));
+        // decodes every literal once, before the program is lowered
+        optimized = Optimizer.optimize(AstBuilder.lower(tree, source, LiteralPool.of(tree)));
+        // a program with syntax errors is parsed again, so the errors are reported every run
+        if (programs != null && !parser.hadErrors()) {
+            programs.store(source, optimized);
+        }
+        return optimized;
+    }
+
+    /**
+     * A compiled script. Runs are independent of each other and may overlap.
+     */
+    public static final class Script {
+
+        private final Program program;
+        // null when the script is interpreted
+        private final BytecodeCompiler.CompiledClass compiled;
+
+        private Script(Program program, BytecodeCompiler.CompiledClass compiled) {
+            this.program = program;
+            this.compiled = compiled;
+        }
+
+        /**
+         * Runs the script in the calling thread, printing to {@code out}. An error of
+         * the script ends the run with an {@link EvalException}.
+         */
+        public void run(PrintStream out) {
+            run(out, Limits.NONE);
+        }
+
+        /**
+         * Runs the script like {@link #run(PrintStream)}, within the given limits. A run
+         * that goes over them, or whose thread is interrupted, ends with a
+         * {@link LimitExceededException}.
+         */
+        public void run(PrintStream out, Limits limits) {
+            run(new Output(out, Output.DEFAULT_FLUSH_CHARS, Output.NO_LINE_LIMIT), limits);
+        }
+
+        void run(Output output, Limits limits) {
+            Budget budget = new Budget(limits);
+            if (compiled != null) {
+                compiled.newInstance(output, budget).run();
+            } else {
+                new Interpreter(program, output, budget).run();
+            }
+        }
+    }
+}
@@ -0,0 +1,565 @@
+package tl.antlr4;
+
+import java.util.Map;
+
+/**
+ * The lowered, immutable AST that {@link AstBuilder} produces from the ANTLR parse tree.
+ * Literals are pre-parsed, operators are pre-resolved and identifiers are interned,
+ * so evaluating a node never has to look at source text again.
+ */
+public abstract class Node {
+
+    public enum UnaryOp {
+        MINUS("-"), NOT("!");
+
+        public final String symbol;
+
+        UnaryOp(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    public enum BinaryOp {
+        POW("^"), MUL("*"), DIV("/"), MOD("%"), ADD("+"), SUB("-"),
+        LT("<"), LT_EQ("<="), GT(">"), GT_EQ(">="), EQ("=="), N_EQ("!="),
+        AND("&&"), OR("||"), IN("in"),
+        // element by element, see Operators#dotMultiply
+        DOT_MUL(".*"), DOT_ADD(".+"), DOT_SUB(".-");
+
+        public final String symbol;
+
+        BinaryOp(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    public enum Builtin {
+        PRINTLN("println"), PRINT("print"), ASSERT("assert"), SIZE("size"),
+        TRANSPOSE("transpose"), ROWS("rows"), COLUMNS("columns"),
+        DETERMINANT("determinant"), MATRIX_SUM("matrixSum"),
+        LINES("lines"), CHUNKS("chunks"), RANGE("range"),
+        INVERSE("inverse"), SOLVE("solve"), QR("qr"), EIG("eig"), SVD("svd"), NORM("norm"), TRACE("trace"),
+        IDENTITY("identity");
+
+        public final String keyword;
+
+        Builtin(String keyword) {
+            this.keyword = keyword;
+        }
+    }
+
+    // how a parfor folds what its iterations leave in the target of its reduce clause
+    public enum Reduction {
+        SUM("sum"), PRODUCT("product"), MIN("min"), MAX("max");
+
+        public final String keyword;
+
+        Reduction(String keyword) {
+            this.keyword = keyword;
+        }
+    }
+
+    // depth of a variable that isn't declared in reach: it is the variable of that name in the
+    // frames of the callers, see Frame#lookup, and null when none of them holds it
+    public static final int UNDEFINED = -1;
+    // depth of a variable a function assigns: the slot in its frame, but while that is unset
+    // the variable of that name in the frames of the callers, like Scope#assign re-assigns it
+    public static final int CALLERS = -2;
+
+    // line and character interval of the node in the source, for error reporting
+    public final int line;
+    public final int start;
+    public final int stop;
+
+    Node(int line, int start, int stop) {
+        this.line = line;
+        this.start = start;
+        this.stop = stop;
+    }
+
+    public abstract <T> T accept(NodeVisitor<T> visitor);
+
+    public abstract static class Expr extends Node {
+        Expr(int line, int start, int stop) {
+            super(line, start, stop);
+        }
+    }
+
+    public abstract static class Stmt extends Node {
+        Stmt(int line, int start, int stop) {
+            super(line, start, stop);
+        }
+    }
+
+    // Number | Bool | Null | String
+    public static final class Literal extends Expr {
+        public final TLValue value;
+
+        Literal(int line, int start, int stop, TLValue value) {
+            super(line, start, stop);
+            this.value = value;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitLiteral(this);
+        }
+    }
+
+    // '[' exprList? ']'
+    public static final class ListLiteral extends Expr {
+        final Expr[] elements;
+        // the value of a list whose elements are all constant, copied on evaluation; null otherwise
+        public final TLValue constant;
+
+        ListLiteral(int line, int start, int stop, Expr[] elements) {
+            this(line, start, stop, elements, null);
+        }
+
+        ListLiteral(int line, int start, int stop, Expr[] elements, TLValue constant) {
+            super(line, start, stop);
+            this.elements = elements;
+            this.constant = constant;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitListLiteral(this);
+        }
+    }
+
+    // '{' exprList? '}'
+    public static final class SetLiteral extends Expr {
+        final Expr[] elements;
+
+        SetLiteral(int line, int start, int stop, Expr[] elements) {
+            super(line, start, stop);
+            this.elements = elements;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitSetLiteral(this);
+        }
+    }
+
+    // '{' entry ( ',' entry )* '}' | '{' ':' '}'
+    public static final class MapLiteral extends Expr {
+        final Expr[] keys;
+        // the value of keys[i] is values[i]
+        final Expr[] values;
+
+        MapLiteral(int line, int start, int stop, Expr[] keys, Expr[] values) {
+            super(line, start, stop);
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitMapLiteral(this);
+        }
+    }
+
+    // Identifier
+    public static final class Variable extends Expr {
+        public final String name;
+        // frame coordinate assigned by the Resolver: how many frames up, and the slot in that frame
+        public final int depth;
+        public final int slot;
+
+        Variable(int line, int start, int stop, String name) {
+            this(line, start, stop, name, UNDEFINED, UNDEFINED);
+        }
+
+        Variable(int line, int start, int stop, String name, int depth, int slot) {
+            super(line, start, stop);
+            this.name = name;
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitVariable(this);
+        }
+    }
+
+    // expression indexes
+    public static final class Index extends Expr {
+        public final Expr target;
+        final Expr[] indexes;
+
+        Index(int line, int start, int stop, Expr target, Expr[] indexes) {
+            super(line, start, stop);
+            this.target = target;
+            this.indexes = indexes;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitIndex(this);
+        }
+    }
+
+    // '-' expression | '!' expression
+    public static final class Unary extends Expr {
+        public final UnaryOp op;
+        public final Expr operand;
+
+        Unary(int line, int start, int stop, UnaryOp op, Expr operand) {
+            super(line, start, stop);
+            this.op = op;
+            this.operand = operand;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitUnary(this);
+        }
+    }
+
+    // expression op expression
+    public static final class Binary extends Expr {
+        public final BinaryOp op;
+        public final Expr lhs;
+        public final Expr rhs;
+
+        Binary(int line, int start, int stop, BinaryOp op, Expr lhs, Expr rhs) {
+            super(line, start, stop);
+            this.op = op;
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitBinary(this);
+        }
+    }
+
+    // expression '?' expression ':' expression
+    public static final class Ternary extends Expr {
+        public final Expr condition;
+        public final Expr whenTrue;
+        public final Expr whenFalse;
+
+        Ternary(int line, int start, int stop, Expr condition, Expr whenTrue, Expr whenFalse) {
+            super(line, start, stop);
+            this.condition = condition;
+            this.whenTrue = whenTrue;
+            this.whenFalse = whenFalse;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitTernary(this);
+        }
+    }
+
+    // Identifier '(' exprList? ')'
+    public static final class Call extends Expr {
+        public final String name;
+        // name + arity, the key functions are registered under
+        public final String key;
+        final Expr[] args;
+        // index of the called function in Program.functionTable, UNDEFINED if there is none
+        public final int function;
+        // the caller's variables a function may look up by name, to their slots; null when there are none
+        public final Map<String, Integer> names;
+
+        Call(int line, int start, int stop, String name, Expr[] args) {
+            this(line, start, stop, name, args, UNDEFINED, null);
+        }
+
+        Call(int line, int start, int stop, String name, Expr[] args, int function, Map<String, Integer> names) {
+            super(line, start, stop);
+            this.name = name;
+            this.key = (name + args.length).intern();
+            this.args = args;
+            this.function = function;
+            this.names = names;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitCall(this);
+        }
+    }
+
+    // Println '(' expression? ')' | Print '(' expression ')' | ...
+    public static final class BuiltinCall extends Expr {
+        public final Builtin builtin;
+        // null for a bare println()
+        public final Expr arg;
+        // the chunk size of chunks(), the end of range() or b of solve(), null for the builtins taking one argument
+        public final Expr second;
+
+        BuiltinCall(int line, int start, int stop, Builtin builtin, Expr arg) {
+            this(line, start, stop, builtin, arg, null);
+        }
+
+        BuiltinCall(int line, int start, int stop, Builtin builtin, Expr arg, Expr second) {
+            super(line, start, stop);
+            this.builtin = builtin;
+            this.arg = arg;
+            this.second = second;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitBuiltinCall(this);
+        }
+    }
+
+    // Input '(' String? ')'
+    public static final class Input extends Expr {
+        // decoded file path, null when reading a line from stdin
+        public final String path;
+
+        Input(int line, int start, int stop, String path) {
+            super(line, start, stop);
+            this.path = path;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitInput(this);
+        }
+    }
+
+    // Identifier indexes? '=' expression
+    public static final class Assign extends Stmt {
+        public final String name;
+        public final int depth;
+        public final int slot;
+        final Expr[] indexes;
+        public final Expr value;
+
+        Assign(int line, int start, int stop, String name, Expr[] indexes, Expr value) {
+            this(line, start, stop, name, UNDEFINED, UNDEFINED, indexes, value);
+        }
+
+        Assign(int line, int start, int stop, String name, int depth, int slot, Expr[] indexes, Expr value) {
+            super(line, start, stop);
+            this.name = name;
+            this.depth = depth;
+            this.slot = slot;
+            this.indexes = indexes;
+            this.value = value;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitAssign(this);
+        }
+    }
+
+    // functionCall ';'
+    public static final class ExprStmt extends Stmt {
+        public final Expr expr;
+
+        ExprStmt(int line, int start, int stop, Expr expr) {
+            super(line, start, stop);
+            this.expr = expr;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitExprStmt(this);
+        }
+    }
+
+    // ifStat elseIfStat* elseStat? End
+    public static final class If extends Stmt {
+        final Expr[] conditions;
+        final Block[] blocks;
+        // null when there is no else branch
+        public final Block elseBlock;
+
+        If(int line, int start, int stop, Expr[] conditions, Block[] blocks, Block elseBlock) {
+            super(line, start, stop);
+            this.conditions = conditions;
+            this.blocks = blocks;
+            this.elseBlock = elseBlock;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitIf(this);
+        }
+    }
+
+    // For Identifier '=' expression To expression Do block End
+    public static final class For extends Stmt {
+        public final String variable;
+        public final int depth;
+        public final int slot;
+        public final Expr from;
+        public final Expr to;
+        public final Block body;
+
+        For(int line, int start, int stop, String variable, Expr from, Expr to, Block body) {
+            this(line, start, stop, variable, UNDEFINED, UNDEFINED, from, to, body);
+        }
+
+        For(int line, int start, int stop, String variable, int depth, int slot, Expr from, Expr to, Block body) {
+            super(line, start, stop);
+            this.variable = variable;
+            this.depth = depth;
+            this.slot = slot;
+            this.from = from;
+            this.to = to;
+            this.body = body;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitFor(this);
+        }
+    }
+
+    // For Identifier In expression Do block End
+    public static final class ForIn extends Stmt {
+        public final String variable;
+        public final int depth;
+        public final int slot;
+        // a list, string, matrix or sequence, see Sequence#iterate
+        public final Expr iterable;
+        public final Block body;
+
+        ForIn(int line, int start, int stop, String variable, Expr iterable, Block body) {
+            this(line, start, stop, variable, UNDEFINED, UNDEFINED, iterable, body);
+        }
+
+        ForIn(int line, int start, int stop, String variable, int depth, int slot, Expr iterable, Block body) {
+            super(line, start, stop);
+            this.variable = variable;
+            this.depth = depth;
+            this.slot = slot;
+            this.iterable = iterable;
+            this.body = body;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitForIn(this);
+        }
+    }
+
+    // Parfor Identifier '=' expression To expression reduction? Do block End
+    public static final class Parfor extends Stmt {
+        public final String variable;
+        // the loop variable, iteration-local like every variable the body assigns
+        public final int slot;
+        public final Expr from;
+        public final Expr to;
+        public final Block body;
+        // null without a reduce clause
+        public final Reduction reduction;
+        public final String target;
+        // the iteration-local variable of the target, what an iteration contributes
+        public final int localTarget;
+        // the variable the contributions are folded into
+        public final int targetDepth;
+        public final int targetSlot;
+        // the iteration-local slots of the frame, cleared before every iteration
+        public final int firstLocal;
+        public final int localsEnd;
+
+        Parfor(int line, int start, int stop, String variable, Expr from, Expr to, Block body,
+               Reduction reduction, String target) {
+            this(line, start, stop, variable, UNDEFINED, from, to, body, reduction, target,
+                    UNDEFINED, UNDEFINED, UNDEFINED, UNDEFINED, UNDEFINED);
+        }
+
+        Parfor(int line, int start, int stop, String variable, int slot, Expr from, Expr to, Block body,
+               Reduction reduction, String target, int localTarget, int targetDepth, int targetSlot,
+               int firstLocal, int localsEnd) {
+            super(line, start, stop);
+            this.variable = variable;
+            this.slot = slot;
+            this.from = from;
+            this.to = to;
+            this.body = body;
+            this.reduction = reduction;
+            this.target = target;
+            this.localTarget = localTarget;
+            this.targetDepth = targetDepth;
+            this.targetSlot = targetSlot;
+            this.firstLocal = firstLocal;
+            this.localsEnd = localsEnd;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitParfor(this);
+        }
+    }
+
+    // While expression Do block End
+    public static final class While extends Stmt {
+        public final Expr condition;
+        public final Block body;
+
+        While(int line, int start, int stop, Expr condition, Block body) {
+            super(line, start, stop);
+            this.condition = condition;
+            this.body = body;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitWhile(this);
+        }
+    }
+
+    // statement* ( Return expression ';' )?
+    public static final class Block extends Node {
+        final Stmt[] statements;
+        // null when the block doesn't end with a return
+        public final Expr returnValue;
+
+        Block(int line, int start, int stop, Stmt[] statements, Expr returnValue) {
+            super(line, start, stop);
+            this.statements = statements;
+            this.returnValue = returnValue;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitBlock(this);
+        }
+    }
+
+    // Def Identifier '(' idList? ')' block End
+    public static final class FunctionDecl extends Node {
+        public final String name;
+        // parameters occupy the first slots of the function's frame
+        final String[] params;
+        public final Block body;
+        // number of slots in the function's frame, UNDEFINED before resolution
+        public final int frameSize;
+
+        FunctionDecl(int line, int start, int stop, String name, String[] params, Block body) {
+            this(line, start, stop, name, params, body, UNDEFINED);
+        }
+
+        FunctionDecl(int line, int start, int stop, String name, String[] params, Block body, int frameSize) {
+            super(line, start, stop);
+            this.name = name;
+            this.params = params;
+            this.body = body;
+            this.frameSize = frameSize;
+        }
+
+        public String key() {
+            return name + params.length;
+        }
+
+        @Override
+        public <T> T accept(NodeVisitor<T> visitor) {
+            return visitor.visitFunctionDecl(this);
+        }
+    }
+}
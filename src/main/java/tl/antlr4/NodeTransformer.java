@@ -0,0 +1,245 @@
+package tl.antlr4;
+
+import tl.antlr4.Node.*;
+
+/**
+ * A {@link NodeVisitor} that rebuilds the AST bottom-up. Each visit method returns
+ * the node itself when none of its children changed, so passes only override the
+ * nodes they actually rewrite.
+ */
+public class NodeTransformer implements NodeVisitor<Node> {
+
+    protected Expr expr(Expr expr) {
+        return expr != null ? (Expr) expr.accept(this) : null;
+    }
+
+    protected Block block(Block block) {
+        return block != null ? (Block) block.accept(this) : null;
+    }
+
+    protected Expr[] exprs(Expr[] exprs) {
+        Expr[] result = exprs;
+        for (int i = 0; i < exprs.length; i++) {
+            Expr expr = expr(exprs[i]);
+            if (expr != exprs[i]) {
+                if (result == exprs) {
+                    result = exprs.clone();
+                }
+                result[i] = expr;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Node visitLiteral(Literal node) {
+        return node;
+    }
+
+    @Override
+    public Node visitListLiteral(ListLiteral node) {
+        Expr[] elements = exprs(node.elements);
+        if (elements == node.elements) {
+            return node;
+        }
+        return new ListLiteral(node.line, node.start, node.stop, elements);
+    }
+
+    @Override
+    public Node visitSetLiteral(SetLiteral node) {
+        Expr[] elements = exprs(node.elements);
+        if (elements == node.elements) {
+            return node;
+        }
+        return new SetLiteral(node.line, node.start, node.stop, elements);
+    }
+
+    @Override
+    public Node visitMapLiteral(MapLiteral node) {
+        Expr[] keys = exprs(node.keys);
+        Expr[] values = exprs(node.values);
+        if (keys == node.keys && values == node.values) {
+            return node;
+        }
+        return new MapLiteral(node.line, node.start, node.stop, keys, values);
+    }
+
+    @Override
+    public Node visitVariable(Variable node) {
+        return node;
+    }
+
+    @Override
+    public Node visitIndex(Index node) {
+        Expr target = expr(node.target);
+        Expr[] indexes = exprs(node.indexes);
+        if (target == node.target && indexes == node.indexes) {
+            return node;
+        }
+        return new Index(node.line, node.start, node.stop, target, indexes);
+    }
+
+    @Override
+    public Node visitUnary(Unary node) {
+        Expr operand = expr(node.operand);
+        if (operand == node.operand) {
+            return node;
+        }
+        return new Unary(node.line, node.start, node.stop, node.op, operand);
+    }
+
+    @Override
+    public Node visitBinary(Binary node) {
+        Expr lhs = expr(node.lhs);
+        Expr rhs = expr(node.rhs);
+        if (lhs == node.lhs && rhs == node.rhs) {
+            return node;
+        }
+        return new Binary(node.line, node.start, node.stop, node.op, lhs, rhs);
+    }
+
+    @Override
+    public Node visitTernary(Ternary node) {
+        Expr condition = expr(node.condition);
+        Expr whenTrue = expr(node.whenTrue);
+        Expr whenFalse = expr(node.whenFalse);
+        if (condition == node.condition && whenTrue == node.whenTrue && whenFalse == node.whenFalse) {
+            return node;
+        }
+        return new Ternary(node.line, node.start, node.stop, condition, whenTrue, whenFalse);
+    }
+
+    @Override
+    public Node visitCall(Call node) {
+        Expr[] args = exprs(node.args);
+        if (args == node.args) {
+            return node;
+        }
+        return new Call(node.line, node.start, node.stop, node.name, args, node.function, node.names);
+    }
+
+    @Override
+    public Node visitBuiltinCall(BuiltinCall node) {
+        Expr arg = expr(node.arg);
+        Expr second = expr(node.second);
+        if (arg == node.arg && second == node.second) {
+            return node;
+        }
+        return new BuiltinCall(node.line, node.start, node.stop, node.builtin, arg, second);
+    }
+
+    @Override
+    public Node visitInput(Input node) {
+        return node;
+    }
+
+    @Override
+    public Node visitAssign(Assign node) {
+        Expr[] indexes = exprs(node.indexes);
+        Expr value = expr(node.value);
+        if (indexes == node.indexes && value == node.value) {
+            return node;
+        }
+        return new Assign(node.line, node.start, node.stop, node.name, node.depth, node.slot, indexes, value);
+    }
+
+    @Override
+    public Node visitExprStmt(ExprStmt node) {
+        Expr expr = expr(node.expr);
+        if (expr == node.expr) {
+            return node;
+        }
+        return new ExprStmt(node.line, node.start, node.stop, expr);
+    }
+
+    @Override
+    public Node visitIf(If node) {
+        Expr[] conditions = exprs(node.conditions);
+        Block[] blocks = node.blocks;
+        for (int i = 0; i < node.blocks.length; i++) {
+            Block block = block(node.blocks[i]);
+            if (block != node.blocks[i]) {
+                if (blocks == node.blocks) {
+                    blocks = node.blocks.clone();
+                }
+                blocks[i] = block;
+            }
+        }
+        Block elseBlock = block(node.elseBlock);
+        if (conditions == node.conditions && blocks == node.blocks && elseBlock == node.elseBlock) {
+            return node;
+        }
+        return new If(node.line, node.start, node.stop, conditions, blocks, elseBlock);
+    }
+
+    @Override
+    public Node visitFor(For node) {
+        Expr from = expr(node.from);
+        Expr to = expr(node.to);
+        Block body = block(node.body);
+        if (from == node.from && to == node.to && body == node.body) {
+            return node;
+        }
+        return new For(node.line, node.start, node.stop, node.variable, node.depth, node.slot, from, to, body);
+    }
+
+    @Override
+    public Node visitForIn(ForIn node) {
+        Expr iterable = expr(node.iterable);
+        Block body = block(node.body);
+        if (iterable == node.iterable && body == node.body) {
+            return node;
+        }
+        return new ForIn(node.line, node.start, node.stop, node.variable, node.depth, node.slot, iterable, body);
+    }
+
+    @Override
+    public Node visitParfor(Parfor node) {
+        Expr from = expr(node.from);
+        Expr to = expr(node.to);
+        Block body = block(node.body);
+        if (from == node.from && to == node.to && body == node.body) {
+            return node;
+        }
+        return new Parfor(node.line, node.start, node.stop, node.variable, node.slot, from, to, body, node.reduction,
+                node.target, node.localTarget, node.targetDepth, node.targetSlot, node.firstLocal, node.localsEnd);
+    }
+
+    @Override
+    public Node visitWhile(While node) {
+        Expr condition = expr(node.condition);
+        Block body = block(node.body);
+        if (condition == node.condition && body == node.body) {
+            return node;
+        }
+        return new While(node.line, node.start, node.stop, condition, body);
+    }
+
+    @Override
+    public Node visitBlock(Block node) {
+        Stmt[] statements = node.statements;
+        for (int i = 0; i < node.statements.length; i++) {
+            Stmt statement = (Stmt) node.statements[i].accept(this);
+            if (statement != node.statements[i]) {
+                if (statements == node.statements) {
+                    statements = node.statements.clone();
+                }
+                statements[i] = statement;
+            }
+        }
+        Expr returnValue = expr(node.returnValue);
+        if (statements == node.statements && returnValue == node.returnValue) {
+            return node;
+        }
+        return new Block(node.line, node.start, node.stop, statements, returnValue);
+    }
+
+    @Override
+    public Node visitFunctionDecl(FunctionDecl node) {
+        Block body = block(node.body);
+        if (body == node.body) {
+            return node;
+        }
+        return new FunctionDecl(node.line, node.start, node.stop, node.name, node.params, body, node.frameSize);
+    }
+}
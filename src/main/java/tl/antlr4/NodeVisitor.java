@@ -0,0 +1,51 @@
+package tl.antlr4;
+
+import tl.antlr4.Node.*;
+
+/**
+ * A visitor over the lowered AST, see {@link Node}.
+ */
+public interface NodeVisitor<T> {
+
+    T visitLiteral(Literal node);
+
+    T visitListLiteral(ListLiteral node);
+
+    T visitSetLiteral(SetLiteral node);
+
+    T visitMapLiteral(MapLiteral node);
+
+    T visitVariable(Variable node);
+
+    T visitIndex(Index node);
+
+    T visitUnary(Unary node);
+
+    T visitBinary(Binary node);
+
+    T visitTernary(Ternary node);
+
+    T visitCall(Call node);
+
+    T visitBuiltinCall(BuiltinCall node);
+
+    T visitInput(Input node);
+
+    T visitAssign(Assign node);
+
+    T visitExprStmt(ExprStmt node);
+
+    T visitIf(If node);
+
+    T visitFor(For node);
+
+    T visitForIn(ForIn node);
+
+    T visitParfor(Parfor node);
+
+    T visitWhile(While node);
+
+    T visitBlock(Block node);
+
+    T visitFunctionDecl(FunctionDecl node);
+}
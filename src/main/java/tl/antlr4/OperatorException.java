@@ -0,0 +1,18 @@
+package tl.antlr4;
+
+/**
+ * Thrown by {@link Operators} when an operation can't be applied to its operands.
+ * It carries no position: the evaluator that invoked the operation wraps it into
+ * an {@link EvalException} pointing at the offending expression. A null message
+ * means a plain "Illegal expression".
+ */
+public class OperatorException extends RuntimeException {
+
+    OperatorException() {
+        super(null, null, false, false);
+    }
+
+    OperatorException(String msg) {
+        super(msg, null, false, false);
+    }
+}
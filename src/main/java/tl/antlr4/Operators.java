@@ -0,0 +1,714 @@
+package tl.antlr4;
+
+import java.util.List;
+
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.QRDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+
+/**
+ * The semantics of MAVA operators and builtins, shared by every evaluator.
+ * Operations throw {@link OperatorException} when they don't apply to the given operands.
+ */
+public final class Operators {
+
+    static final String DIMENSION_MISMATCH = "Dimension mismatch! ";
+    static final String TRANSPOSE_ARGUMENT_MISMATCH = "Only vectors and matrices can be transposed!";
+    static final String DIMENSIONS_ARGUMENTS_MISMATCH = "rows() and columns() is working only with vectors and matrices";
+    static final String NOT_SQUARED_MATRIX = "Determinant can be calculated only of squared matrix";
+    static final String ELEMENTS_SUM_NOT_MATRIX = "matrixSum() works only with vector and matrix";
+    static final String LINES_ARGUMENT_MISMATCH = "lines() needs the path of a file";
+    static final String CHUNKS_ARGUMENTS_MISMATCH = "chunks() needs the path of a file and a chunk size";
+    static final String RANGE_ARGUMENTS_MISMATCH = "range() needs two numbers";
+    static final String INVERSE_ARGUMENT_MISMATCH = "inverse() needs a square matrix";
+    static final String SOLVE_ARGUMENTS_MISMATCH = "solve() needs a matrix and a vector or matrix with as many rows";
+    static final String SINGULAR_MATRIX = "The matrix is singular";
+    static final String DECOMPOSITION_ARGUMENT_MISMATCH = "qr() and svd() work only with matrices";
+    static final String EIG_ARGUMENT_MISMATCH = "eig() needs a square matrix";
+    static final String COMPLEX_EIGENVALUES = "eig() works only with matrices of real eigenvalues";
+    static final String NORM_ARGUMENT_MISMATCH = "norm() works only with vector and matrix";
+    static final String TRACE_ARGUMENT_MISMATCH = "trace() needs a square matrix";
+    static final String IDENTITY_ARGUMENT_MISMATCH = "identity() needs a positive whole number";
+    static final String TOO_LARGE = "The result has too many elements";
+    static final String SCALE_WITH_DOT = "Use .* to multiply every element of a vector or matrix by a number";
+    static final String PARFOR_SHARED_CHANGE = "parfor can't change a list or map from outside the loop";
+
+    // the longest array the JVM allocates
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    // repetitions between checks of the time of the run
+    private static final int REPEATS_PER_CHECK = 1 << 10;
+
+    private Operators() {
+    }
+
+    // '-' expression
+    public static TLValue unaryMinus(TLValue v) {
+        if (v.isNumber()) {
+            return TLValue.of(-1 * v.asDouble());
+        }
+        if (v.isVector() || v.isMatrix()) {
+            return new TLValue(Elementwise.negate(v.asDense()));
+        }
+        throw new OperatorException();
+    }
+
+    // '!' expression
+    public static TLValue not(TLValue v) {
+        if (!v.isBoolean()) {
+            throw new OperatorException();
+        }
+        return TLValue.of(!v.asBoolean());
+    }
+
+    // expression '^' expression
+    public static TLValue power(TLValue lhs, TLValue rhs) {
+        if (lhs.isNumber() && rhs.isNumber()) {
+            return TLValue.of(Math.pow(lhs.asDouble(), rhs.asDouble()));
+        }
+
+        if (lhs.isList() && rhs.isNumber() && (lhs.isMatrix() || lhs.isVector())) {
+            // element-wise, a vector gives a column matrix
+            DenseMatrix matrix = asMatrix(lhs);
+            double exponent = rhs.asDouble();
+            double[] result = new double[matrix.data.length];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = Math.pow(matrix.data[i], exponent);
+            }
+            return new TLValue(DenseMatrix.matrix(matrix.rows, matrix.columns, result));
+        }
+
+        return elementwise(Elementwise.Op.POWER, lhs, rhs);
+    }
+
+    // expression '*' expression
+    public static TLValue multiply(TLValue lhs, TLValue rhs) {
+        // number * number
+        if (lhs.isNumber() && rhs.isNumber()) {
+            return TLValue.of(lhs.asDouble() * rhs.asDouble());
+        }
+
+        // string * number
+        if (lhs.isString() && rhs.isNumber()) {
+            CharSequence string = lhs.asChars();
+            int stop = (int) rhs.asDouble();
+            StringBuilder str = new StringBuilder(arrayLength((long) Math.max(0, stop) * string.length()));
+            for (int i = 0; i < stop; i++) {
+                if ((i & (REPEATS_PER_CHECK - 1)) == REPEATS_PER_CHECK - 1) {
+                    Budget.checkTime();
+                }
+                str.append(string);
+            }
+            // a long result is a Text, appending to it later doesn't copy it
+            return new TLValue(Text.of(str));
+        }
+
+        // list * number
+        if (lhs.isList() && rhs.isNumber()) {
+            List<TLValue> total = new ValueList();
+            int stop = (int) rhs.asDouble();
+            arrayLength((long) Math.max(0, stop) * lhs.asList().size());
+            for (int i = 0; i < stop; i++) {
+                if ((i & (REPEATS_PER_CHECK - 1)) == REPEATS_PER_CHECK - 1) {
+                    Budget.checkTime();
+                }
+                total.addAll(lhs.asList());
+            }
+            return new TLValue(total);
+        }
+
+        if (lhs.isList() && rhs.isList()) {
+            if (lhs.isVector() && rhs.isVector()) {
+                return multiplyVectors(lhs, rhs);
+            }
+            boolean leftIsVector = (lhs.isVector() && rhs.isMatrix());
+            if (leftIsVector || (lhs.isMatrix() && rhs.isVector())) {
+                return multiplyVectorByMatrix(lhs, rhs, leftIsVector);
+            }
+            if (lhs.isMatrix() && rhs.isMatrix()) {
+                return multiplyMatrixByMatrix(lhs, rhs);
+            }
+        }
+
+        // number * vector | number * matrix: .* scales, like list * number repeats the list
+        if (lhs.isNumber() && (rhs.isVector() || rhs.isMatrix())) {
+            throw new OperatorException(SCALE_WITH_DOT);
+        }
+
+        throw new OperatorException();
+    }
+
+    // expression '.*' expression: element by element, a number scales every element either side
+    public static TLValue dotMultiply(TLValue lhs, TLValue rhs) {
+        if (lhs.isNumber() && rhs.isNumber()) {
+            return TLValue.of(lhs.asDouble() * rhs.asDouble());
+        }
+        return elementwise(Elementwise.Op.MULTIPLY, lhs, rhs);
+    }
+
+    // expression '.+' expression
+    public static TLValue dotAdd(TLValue lhs, TLValue rhs) {
+        if (lhs.isNumber() && rhs.isNumber()) {
+            return TLValue.of(lhs.asDouble() + rhs.asDouble());
+        }
+        return elementwise(Elementwise.Op.ADD, lhs, rhs);
+    }
+
+    // expression '.-' expression
+    public static TLValue dotSubtract(TLValue lhs, TLValue rhs) {
+        if (lhs.isNumber() && rhs.isNumber()) {
+            return TLValue.of(lhs.asDouble() - rhs.asDouble());
+        }
+        return elementwise(Elementwise.Op.SUBTRACT, lhs, rhs);
+    }
+
+    private static TLValue multiplyMatrixByMatrix(TLValue lhs, TLValue rhs) {
+        return new TLValue(Gemm.multiply(lhs.asDense(), rhs.asDense()));
+    }
+
+    private static TLValue multiplyVectorByMatrix(TLValue lhs, TLValue rhs, boolean leftIsVector) {
+        if (leftIsVector) {
+            // a row vector times the matrix
+            DenseMatrix vector = lhs.asDense();
+            return new TLValue(Gemm.multiply(DenseMatrix.matrix(1, vector.columns, vector.data), rhs.asDense()));
+        }
+        // the matrix times a column vector
+        return new TLValue(Gemm.multiply(lhs.asDense(), DenseMatrix.column(rhs.asDense().data)));
+    }
+
+    private static TLValue multiplyVectors(TLValue lhs, TLValue rhs) {
+        double[] left = lhs.asDense().data;
+        double[] right = rhs.asDense().data;
+        if (left.length != right.length) {
+            throw new OperatorException(DIMENSION_MISMATCH + left.length + " != " + right.length);
+        }
+        double[] result = new double[left.length];
+        Elementwise.arrays(Elementwise.Op.MULTIPLY, left, 0, right, 0, result, 0, result.length);
+        return new TLValue(DenseMatrix.vector(result));
+    }
+
+    // expression '/' expression
+    public static TLValue divide(TLValue lhs, TLValue rhs) {
+        if (lhs.isNumber() && rhs.isNumber()) {
+            return TLValue.of(lhs.asDouble() / rhs.asDouble());
+        }
+        return elementwise(Elementwise.Op.DIVIDE, lhs, rhs);
+    }
+
+    // expression '%' expression
+    public static TLValue modulus(TLValue lhs, TLValue rhs) {
+        if (lhs.isNumber() && rhs.isNumber()) {
+            return TLValue.of(lhs.asDouble() % rhs.asDouble());
+        }
+        return elementwise(Elementwise.Op.MODULUS, lhs, rhs);
+    }
+
+    // expression '+' expression
+    public static TLValue add(TLValue lhs, TLValue rhs) {
+        // number + number
+        if (lhs.isNumber() && rhs.isNumber()) {
+            return TLValue.of(lhs.asDouble() + rhs.asDouble());
+        }
+
+        // vector + vector | matrix + matrix
+        if (lhs.isList() && rhs.isList()) {
+            if ((lhs.isMatrix() && rhs.isMatrix()) || (lhs.isVector() && rhs.isVector())) {
+                // vectors are added as column matrices
+                return addMatrices(asMatrix(lhs), asMatrix(rhs), false);
+            }
+        }
+
+        // set + any, a new set that shares the elements of lhs
+        if (lhs.isSet()) {
+            return new TLValue(lhs.asMap().plus(rhs));
+        }
+
+        // list + any, a new list that shares the elements of lhs
+        if (lhs.isList()) {
+            return new TLValue(valueList(lhs).plus(rhs, lhs.mayChange()));
+        }
+
+        // string + any, see Text
+        if (lhs.isString()) {
+            return new TLValue(Text.concat(lhs.asChars(), rhs));
+        }
+
+        // any + string
+        if (rhs.isString()) {
+            return new TLValue(lhs.toString() + "" + rhs.asString());
+        }
+
+        return new TLValue(lhs.toString() + rhs.toString());
+    }
+
+    // expression '-' expression
+    public static TLValue subtract(TLValue lhs, TLValue rhs) {
+        if (lhs.isNumber() && rhs.isNumber()) {
+            return TLValue.of(lhs.asDouble() - rhs.asDouble());
+        }
+
+        // vector - vector | matrix - matrix
+        if (lhs.isList() && rhs.isList()) {
+            if ((lhs.isMatrix() && rhs.isMatrix()) || (lhs.isVector() && rhs.isVector())) {
+                // vectors are added as column matrices
+                return addMatrices(asMatrix(lhs), asMatrix(rhs), true);
+            }
+        }
+
+        // list - any, a new list without the first element equal to rhs
+        if (lhs.isList()) {
+            return new TLValue(valueList(lhs).minus(rhs));
+        }
+
+        // set - element | map - key, a new set or map that shares the entries of lhs
+        if (lhs.isMap()) {
+            return new TLValue(lhs.asMap().minus(rhs));
+        }
+        throw new OperatorException();
+    }
+
+    private static TLValue addMatrices(DenseMatrix leftMatrix, DenseMatrix rightMatrix, boolean substract) {
+        if (leftMatrix.rows != rightMatrix.rows || leftMatrix.columns != rightMatrix.columns) {
+            throw new OperatorException(DIMENSION_MISMATCH + "got " + leftMatrix.rows + "x" + leftMatrix.columns
+                    + " but expected " + rightMatrix.rows + "x" + rightMatrix.columns);
+        }
+        double[] left = leftMatrix.data;
+        double[] right = rightMatrix.data;
+        double[] result = new double[left.length];
+        Elementwise.arrays(substract ? Elementwise.Op.SUBTRACT : Elementwise.Op.ADD, left, 0, right, 0, result, 0,
+                result.length);
+        return new TLValue(DenseMatrix.matrix(leftMatrix.rows, leftMatrix.columns, result));
+    }
+
+    // expression '>=' expression
+    public static TLValue gtEq(TLValue lhs, TLValue rhs) {
+        if (lhs.isNumber() && rhs.isNumber()) {
+            return TLValue.of(lhs.asDouble() >= rhs.asDouble());
+        }
+        if (lhs.isString() && rhs.isString()) {
+            return TLValue.of(lhs.asString().compareTo(rhs.asString()) >= 0);
+        }
+        return elementwise(Elementwise.Op.GT_EQ, lhs, rhs);
+    }
+
+    // expression '<=' expression
+    public static TLValue ltEq(TLValue lhs, TLValue rhs) {
+        if (lhs.isNumber() && rhs.isNumber()) {
+            return TLValue.of(lhs.asDouble() <= rhs.asDouble());
+        }
+        if (lhs.isString() && rhs.isString()) {
+            return TLValue.of(lhs.asString().compareTo(rhs.asString()) <= 0);
+        }
+        return elementwise(Elementwise.Op.LT_EQ, lhs, rhs);
+    }
+
+    // expression '>' expression
+    public static TLValue gt(TLValue lhs, TLValue rhs) {
+        if (lhs.isNumber() && rhs.isNumber()) {
+            return TLValue.of(lhs.asDouble() > rhs.asDouble());
+        }
+        if (lhs.isString() && rhs.isString()) {
+            return TLValue.of(lhs.asString().compareTo(rhs.asString()) > 0);
+        }
+        return elementwise(Elementwise.Op.GT, lhs, rhs);
+    }
+
+    // expression '<' expression
+    public static TLValue lt(TLValue lhs, TLValue rhs) {
+        if (lhs.isNumber() && rhs.isNumber()) {
+            return TLValue.of(lhs.asDouble() < rhs.asDouble());
+        }
+        if (lhs.isString() && rhs.isString()) {
+            return TLValue.of(lhs.asString().compareTo(rhs.asString()) < 0);
+        }
+        return elementwise(Elementwise.Op.LT, lhs, rhs);
+    }
+
+    // expression '==' expression
+    public static TLValue eq(TLValue lhs, TLValue rhs) {
+        if (lhs == null) {
+            throw new OperatorException();
+        }
+        return TLValue.of(lhs.equals(rhs));
+    }
+
+    // expression '!=' expression
+    public static TLValue nEq(TLValue lhs, TLValue rhs) {
+        return TLValue.of(!lhs.equals(rhs));
+    }
+
+    // expression '&&' expression
+    public static TLValue and(TLValue lhs, TLValue rhs) {
+        if (!lhs.isBoolean() || !rhs.isBoolean()) {
+            throw new OperatorException();
+        }
+        return TLValue.of(lhs.asBoolean() && rhs.asBoolean());
+    }
+
+    // expression '||' expression
+    public static TLValue or(TLValue lhs, TLValue rhs) {
+        if (!lhs.isBoolean() || !rhs.isBoolean()) {
+            throw new OperatorException();
+        }
+        return TLValue.of(lhs.asBoolean() || rhs.asBoolean());
+    }
+
+    // expression In expression
+    public static TLValue in(TLValue lhs, TLValue rhs) {
+        if (rhs.isSequence() && rhs.asSequence() instanceof Sequence.Range) {
+            return TLValue.of(((Sequence.Range) rhs.asSequence()).contains(lhs));
+        }
+        if (rhs.isSequence()) {
+            // reads only as far as the first match
+            Sequence.Cursor cursor = rhs.asSequence().open();
+            try {
+                for (TLValue val = cursor.next(); val != null; val = cursor.next()) {
+                    if (val.equals(lhs)) {
+                        return TLValue.TRUE;
+                    }
+                }
+                return TLValue.FALSE;
+            } finally {
+                cursor.close();
+            }
+        }
+        if (rhs.isMap()) {
+            return TLValue.of(rhs.asMap().containsKey(lhs));
+        }
+        if (rhs.isList()) {
+            List<TLValue> list = rhs.asList();
+            if (list instanceof ValueList) {
+                // scanned at first, hashed once the list is searched repeatedly
+                return TLValue.of(((ValueList) list).includes(lhs));
+            }
+            for (TLValue val : list) {
+                if (val != null && val.equals(lhs)) {
+                    return TLValue.TRUE;
+                }
+            }
+            return TLValue.FALSE;
+        }
+        throw new OperatorException();
+    }
+
+    // value[index]
+    public static TLValue index(TLValue val, TLValue idx) {
+        if (val.isMap() && !val.isSet()) {
+            // a missing key reads as null
+            TLValue value = val.asMap().get(idx);
+            return value != null ? value : TLValue.NULL;
+        }
+        if (!idx.isNumber() || (!val.isList() && !val.isString())) {
+            throw new OperatorException("Problem resolving indexes on " + val + " at " + idx);
+        }
+        int i = (int) idx.asDouble();
+        if (val.isString()) {
+            return TLValue.ofChar(val.asChars().charAt(i));
+        }
+        if (val.isDense() && val.asDense().isVector()) {
+            return TLValue.of(val.asDense().get(i));
+        }
+        return val.asList().get(i);
+    }
+
+    // value[row][column], reads the element of a dense matrix without turning it into lists
+    public static TLValue index(TLValue val, TLValue row, TLValue column) {
+        if (val.isDense() && !val.asDense().isVector() && row.isNumber() && column.isNumber()) {
+            return TLValue.of(val.asDense().get((int) row.asDouble(), (int) column.asDouble()));
+        }
+        return index(index(val, row), column);
+    }
+
+    // value[index] = newVal
+    public static void setAtIndex(TLValue val, TLValue idx, TLValue newVal) {
+        if ((val.isList() || val.isMap()) && !val.mayChange()) {
+            // other iterations of the parfor may read it at the same time
+            throw new OperatorException(PARFOR_SHARED_CHANGE);
+        }
+        if (val.isMap() && !val.isSet()) {
+            val.asMap().put(idx, newVal);
+            return;
+        }
+        if (!val.isList() || !idx.isNumber()) {
+            throw new OperatorException();
+        }
+        val.asList().set((int) idx.asDouble(), newVal);
+    }
+
+    // size(expression)
+    public static TLValue size(TLValue value) {
+        if (value.isString()) {
+            return TLValue.of(value.asChars().length());
+        }
+        if (value.isDense()) {
+            return TLValue.of(value.asDense().size());
+        }
+        if (value.isList()) {
+            return TLValue.of(value.asList().size());
+        }
+        if (value.isMap()) {
+            return TLValue.of(value.asMap().size());
+        }
+        if (value.isSequence() && value.asSequence() instanceof Sequence.Range) {
+            return new TLValue(((Sequence.Range) value.asSequence()).size());
+        }
+        throw new OperatorException();
+    }
+
+    // transpose(expression)
+    public static TLValue transpose(TLValue value) {
+        if (!value.isMatrix() && !value.isVector()) {
+            throw new OperatorException(TRANSPOSE_ARGUMENT_MISMATCH);
+        }
+        return new TLValue(asMatrix(value).transpose());
+    }
+
+    // rows(expression)
+    public static TLValue rows(TLValue value) {
+        return TLValue.of(toMatrix(value, DIMENSIONS_ARGUMENTS_MISMATCH).rows);
+    }
+
+    // columns(expression)
+    public static TLValue columns(TLValue value) {
+        return TLValue.of(toMatrix(value, DIMENSIONS_ARGUMENTS_MISMATCH).columns);
+    }
+
+    // determinant(expression)
+    public static TLValue determinant(TLValue value) {
+        DenseMatrix matrix = squareMatrix(value, NOT_SQUARED_MATRIX);
+        Budget.checkTime();
+        double determinant = matrix.lu().getDeterminant();
+        Budget.checkTime();
+        return TLValue.of(determinant);
+    }
+
+    // inverse(expression)
+    public static TLValue inverse(TLValue value) {
+        DenseMatrix matrix = squareMatrix(value, INVERSE_ARGUMENT_MISMATCH);
+        Budget.checkTime();
+        DecompositionSolver solver = matrix.lu().getSolver();
+        if (!solver.isNonSingular()) {
+            throw new OperatorException(SINGULAR_MATRIX);
+        }
+        Budget.checkTime();
+        DenseMatrix inverse = DenseMatrix.fromRealMatrix(solver.getInverse());
+        Budget.checkTime();
+        return new TLValue(inverse);
+    }
+
+    // solve(expression, expression): x with A * x = b, the least squares solution when A has more rows than columns
+    public static TLValue solve(TLValue a, TLValue b) {
+        if (a == null || b == null || !a.isMatrix() || !(b.isVector() || b.isMatrix())) {
+            throw new OperatorException(SOLVE_ARGUMENTS_MISMATCH);
+        }
+        DenseMatrix matrix = a.asDense();
+        DenseMatrix rhs = b.asDense();
+        if (matrix.rows < matrix.columns || rhs.size() != matrix.rows) {
+            throw new OperatorException(SOLVE_ARGUMENTS_MISMATCH);
+        }
+        Budget.checkTime();
+        DecompositionSolver solver = matrix.rows == matrix.columns ? matrix.lu().getSolver() : matrix.qr().getSolver();
+        if (!solver.isNonSingular()) {
+            throw new OperatorException(SINGULAR_MATRIX);
+        }
+        Budget.checkTime();
+        DenseMatrix x = rhs.isVector()
+                ? DenseMatrix.vector(solver.solve(new ArrayRealVector(rhs.data, false)).toArray())
+                : DenseMatrix.fromRealMatrix(solver.solve(rhs.toRealMatrix()));
+        Budget.checkTime();
+        return new TLValue(x);
+    }
+
+    // qr(expression): {"q": Q, "r": R} with A = Q * R
+    public static TLValue qr(TLValue value) {
+        if (!value.isMatrix()) {
+            throw new OperatorException(DECOMPOSITION_ARGUMENT_MISMATCH);
+        }
+        Budget.checkTime();
+        QRDecomposition qr = value.asDense().qr();
+        Budget.checkTime();
+        return entries("q", matrix(qr.getQ()), "r", matrix(qr.getR()));
+    }
+
+    // eig(expression): {"values": eigenvalues, "vectors": the eigenvectors as columns}
+    public static TLValue eig(TLValue value) {
+        DenseMatrix matrix = squareMatrix(value, EIG_ARGUMENT_MISMATCH);
+        Budget.checkTime();
+        EigenDecomposition eigen = new EigenDecomposition(matrix.toRealMatrix());
+        Budget.checkTime();
+        if (eigen.hasComplexEigenvalues()) {
+            throw new OperatorException(COMPLEX_EIGENVALUES);
+        }
+        return entries("values", new TLValue(DenseMatrix.vector(eigen.getRealEigenvalues())),
+                "vectors", matrix(eigen.getV()));
+    }
+
+    // svd(expression): {"u": U, "s": singular values, "v": V} with A = U * S * transpose(V)
+    public static TLValue svd(TLValue value) {
+        if (!value.isMatrix()) {
+            throw new OperatorException(DECOMPOSITION_ARGUMENT_MISMATCH);
+        }
+        Budget.checkTime();
+        SingularValueDecomposition svd = new SingularValueDecomposition(value.asDense().toRealMatrix());
+        Budget.checkTime();
+        return entries("u", matrix(svd.getU()), "s", new TLValue(DenseMatrix.vector(svd.getSingularValues())),
+                "v", matrix(svd.getV()));
+    }
+
+    // norm(expression): the euclidean norm of a vector, the Frobenius norm of a matrix
+    public static TLValue norm(TLValue value) {
+        if (value == null || !(value.isVector() || value.isMatrix())) {
+            throw new OperatorException(NORM_ARGUMENT_MISMATCH);
+        }
+        double sum = 0;
+        for (double d : value.asDense().data) {
+            sum += d * d;
+        }
+        return TLValue.of(Math.sqrt(sum));
+    }
+
+    // trace(expression)
+    public static TLValue trace(TLValue value) {
+        DenseMatrix matrix = squareMatrix(value, TRACE_ARGUMENT_MISMATCH);
+        double result = 0;
+        for (int i = 0; i < matrix.rows; i++) {
+            result += matrix.data[i * matrix.columns + i];
+        }
+        return TLValue.of(result);
+    }
+
+    // identity(expression)
+    public static TLValue identity(TLValue size) {
+        if (size == null || !size.isNumber() || size.asDouble() < 1 || size.asDouble() != Math.floor(size.asDouble())) {
+            throw new OperatorException(IDENTITY_ARGUMENT_MISMATCH);
+        }
+        long n = (long) size.asDouble();
+        double[] data = new double[arrayLength(n * n)];
+        for (int i = 0; i < n; i++) {
+            data[(int) (i * n + i)] = 1;
+        }
+        return new TLValue(DenseMatrix.matrix((int) n, (int) n, data));
+    }
+
+    // matrixSum(expression)
+    public static TLValue matrixSum(TLValue value) {
+        double result = 0;
+        for (double d : toMatrix(value, ELEMENTS_SUM_NOT_MATRIX).data) {
+            result += d;
+        }
+        return TLValue.of(result);
+    }
+
+    // lines(expression), of a file the inputs of the run resolve
+    static TLValue lines(TLValue path, Inputs inputs) {
+        if (path == null || !path.isString()) {
+            throw new OperatorException(LINES_ARGUMENT_MISMATCH);
+        }
+        return new TLValue(Sequence.lines(inputs.path(path.asString())));
+    }
+
+    // chunks(expression, expression), of a file the inputs of the run resolve
+    static TLValue chunks(TLValue path, TLValue size, Inputs inputs) {
+        if (path == null || !path.isString() || size == null || !size.isNumber()) {
+            throw new OperatorException(CHUNKS_ARGUMENTS_MISMATCH);
+        }
+        return new TLValue(Sequence.chunks(inputs.path(path.asString()), (int) size.asDouble()));
+    }
+
+    // range(expression, expression)
+    public static TLValue range(TLValue from, TLValue to) {
+        return new TLValue(Sequence.range(rangeBound(from), rangeBound(to)));
+    }
+
+    // a bound of range(), truncated to a whole number the way a for loop truncates its bounds
+    public static int rangeBound(TLValue bound) {
+        if (bound == null || !bound.isNumber()) {
+            throw new OperatorException(RANGE_ARGUMENTS_MISMATCH);
+        }
+        return (int) bound.asDouble();
+    }
+
+    // the cursor of a for-in loop
+    public static Sequence.Cursor iterate(TLValue value) {
+        if (value == null) {
+            throw new OperatorException();
+        }
+        return Sequence.iterate(value);
+    }
+
+    // op element by element on a vector or matrix and a number, vector or matrix, see Elementwise
+    private static TLValue elementwise(Elementwise.Op op, TLValue lhs, TLValue rhs) {
+        boolean leftDense = lhs.isVector() || lhs.isMatrix();
+        boolean rightDense = rhs.isVector() || rhs.isMatrix();
+        if (leftDense && rightDense) {
+            return new TLValue(Elementwise.apply(op, lhs.asDense(), rhs.asDense()));
+        }
+        if (leftDense && rhs.isNumber()) {
+            return new TLValue(Elementwise.apply(op, lhs.asDense(), rhs.asDouble()));
+        }
+        if (lhs.isNumber() && rightDense) {
+            return new TLValue(Elementwise.apply(op, lhs.asDouble(), rhs.asDense()));
+        }
+        throw new OperatorException();
+    }
+
+    // a matrix with as many rows as columns
+    private static DenseMatrix squareMatrix(TLValue value, String mismatch) {
+        if (value == null || !value.isMatrix()) {
+            throw new OperatorException(mismatch);
+        }
+        DenseMatrix matrix = value.asDense();
+        if (matrix.rows != matrix.columns) {
+            throw new OperatorException(mismatch);
+        }
+        return matrix;
+    }
+
+    // the length of a list, string or matrix about to be built, within the limits of the run and of an array
+    static int arrayLength(long length) {
+        Budget.checkLength(length);
+        if (length > MAX_ARRAY_LENGTH) {
+            throw new OperatorException(TOO_LARGE);
+        }
+        return (int) length;
+    }
+
+    private static TLValue matrix(RealMatrix matrix) {
+        return new TLValue(DenseMatrix.fromRealMatrix(matrix));
+    }
+
+    // a map of the results of a decomposition, by name
+    private static TLValue entries(Object... namesAndValues) {
+        ValueMap map = ValueMap.newMap();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            map.put(new TLValue(namesAndValues[i]), (TLValue) namesAndValues[i + 1]);
+        }
+        return new TLValue(map);
+    }
+
+    private static DenseMatrix toMatrix(TLValue value, String mismatch) {
+        if (!value.isMatrix() && !value.isVector()) {
+            throw new OperatorException(mismatch);
+        }
+        return asMatrix(value);
+    }
+
+    // the list of a list value, any other java.util.List is copied into one
+    private static ValueList valueList(TLValue value) {
+        List<TLValue> list = value.asList();
+        if (list instanceof ValueList) {
+            return (ValueList) list;
+        }
+        ValueList copy = new ValueList();
+        copy.addAll(list);
+        return copy;
+    }
+
+    // a matrix as is, a vector as a column matrix
+    private static DenseMatrix asMatrix(TLValue value) {
+        DenseMatrix dense = value.asDense();
+        return dense.isVector() ? DenseMatrix.column(dense.data) : dense;
+    }
+}
@@ -0,0 +1,290 @@
+package tl.antlr4;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tl.antlr4.Node.*;
+
+/**
+ * Simplifies a lowered program before it is resolved:
+ * <ul>
+ *     <li>unary and binary operators on literals are folded into a literal, as are
+ *     string indexes and {@code size()} of a literal string;</li>
+ *     <li>{@code false && x} and {@code true || x} are folded without looking at
+ *     {@code x}, which short-circuiting never evaluates, and a ternary with a literal
+ *     condition is replaced by its taken branch;</li>
+ *     <li>{@code if}/{@code else if} branches with a literal {@code false} condition are
+ *     dropped, a literal {@code true} condition makes its branch the unconditional
+ *     {@code else} and drops everything after it, and {@code while false} loops are
+ *     removed;</li>
+ *     <li>list literals whose elements are all constant get a pre-built template, so a
+ *     list literal in a loop is copied instead of rebuilt element by element. Lists are
+ *     mutable, so every evaluation still gets a list of its own; numeric vectors and
+ *     matrices share their immutable dense data.</li>
+ * </ul>
+ * Folding uses {@link Operators}, so it computes exactly what evaluation would. An
+ * operation that fails is left in place to fail at runtime, with the usual message.
+ * Folding happens outside of any run's {@link Limits}, also in code that never runs, so
+ * a string or list repeated past {@link #MAX_FOLDED_LENGTH} is left to the run as well.
+ */
+public class Optimizer extends NodeTransformer {
+
+    // the longest string or list a repetition is folded into
+    static final long MAX_FOLDED_LENGTH = 4096;
+
+    private Optimizer() {
+    }
+
+    public static Program optimize(Program program) {
+        Optimizer optimizer = new Optimizer();
+        Block main = optimizer.block(program.main);
+        Map<String, FunctionDecl> functions = new LinkedHashMap<>();
+        for (Map.Entry<String, FunctionDecl> entry : program.functions.entrySet()) {
+            functions.put(entry.getKey(), (FunctionDecl) entry.getValue().accept(optimizer));
+        }
+        return new Program(main, functions, program.source());
+    }
+
+    private static boolean isLiteral(Expr expr, boolean value) {
+        return expr instanceof Literal && ((Literal) expr).value == TLValue.of(value);
+    }
+
+    private static Literal literal(Node node, TLValue value) {
+        if (value.isString() && value.asChars() instanceof Text) {
+            // a folded Text appends in place to the builder it shares, every run and every
+            // thread of the program would append to the one of the literal
+            value = new TLValue(value.asString());
+        }
+        return new Literal(node.line, node.start, node.stop, value);
+    }
+
+    @Override
+    public Node visitUnary(Unary node) {
+        node = (Unary) super.visitUnary(node);
+        if (!(node.operand instanceof Literal)) {
+            return node;
+        }
+        TLValue operand = ((Literal) node.operand).value;
+        try {
+            switch (node.op) {
+                case MINUS:
+                    return literal(node, Operators.unaryMinus(operand));
+                case NOT:
+                    return literal(node, Operators.not(operand));
+                default:
+                    return node;
+            }
+        } catch (RuntimeException e) {
+            return node;
+        }
+    }
+
+    @Override
+    public Node visitBinary(Binary node) {
+        node = (Binary) super.visitBinary(node);
+        if ((node.op == BinaryOp.AND && isLiteral(node.lhs, false)) || (node.op == BinaryOp.OR && isLiteral(node.lhs, true))) {
+            return node.lhs;
+        }
+        if (!(node.lhs instanceof Literal) || !(node.rhs instanceof Literal)) {
+            return node;
+        }
+        TLValue lhs = ((Literal) node.lhs).value;
+        TLValue rhs = ((Literal) node.rhs).value;
+        if (node.op == BinaryOp.MUL && repeatedLength(lhs, rhs) > MAX_FOLDED_LENGTH) {
+            return node;
+        }
+        try {
+            return literal(node, fold(node.op, lhs, rhs));
+        } catch (RuntimeException e) {
+            // OperatorException, or a type error such as comparing a number to a string
+            return node;
+        }
+    }
+
+    // the length of "abc" * n or [...] * n, 0 for a multiplication that repeats nothing
+    private static double repeatedLength(TLValue lhs, TLValue rhs) {
+        if (!rhs.isNumber() || !(lhs.isString() || lhs.isList())) {
+            return 0;
+        }
+        return Math.max(0, Math.floor(rhs.asDouble())) * Operators.size(lhs).asDouble();
+    }
+
+    private static TLValue fold(BinaryOp op, TLValue lhs, TLValue rhs) {
+        switch (op) {
+            case POW:
+                return Operators.power(lhs, rhs);
+            case MUL:
+                return Operators.multiply(lhs, rhs);
+            case DIV:
+                return Operators.divide(lhs, rhs);
+            case MOD:
+                return Operators.modulus(lhs, rhs);
+            case ADD:
+                return Operators.add(lhs, rhs);
+            case SUB:
+                return Operators.subtract(lhs, rhs);
+            case DOT_MUL:
+                return Operators.dotMultiply(lhs, rhs);
+            case DOT_ADD:
+                return Operators.dotAdd(lhs, rhs);
+            case DOT_SUB:
+                return Operators.dotSubtract(lhs, rhs);
+            case LT:
+                return Operators.lt(lhs, rhs);
+            case LT_EQ:
+                return Operators.ltEq(lhs, rhs);
+            case GT:
+                return Operators.gt(lhs, rhs);
+            case GT_EQ:
+                return Operators.gtEq(lhs, rhs);
+            case EQ:
+                return Operators.eq(lhs, rhs);
+            case N_EQ:
+                return Operators.nEq(lhs, rhs);
+            case AND:
+                return Operators.and(lhs, rhs);
+            case OR:
+                return Operators.or(lhs, rhs);
+            case IN:
+                return Operators.in(lhs, rhs);
+            default:
+                throw new OperatorException();
+        }
+    }
+
+    @Override
+    public Node visitTernary(Ternary node) {
+        node = (Ternary) super.visitTernary(node);
+        if (isLiteral(node.condition, true)) {
+            return node.whenTrue;
+        }
+        if (isLiteral(node.condition, false)) {
+            return node.whenFalse;
+        }
+        return node;
+    }
+
+    @Override
+    public Node visitIndex(Index node) {
+        node = (Index) super.visitIndex(node);
+        // "abc"[1]
+        if (node.indexes.length != 1 || !(node.target instanceof Literal) || !(node.indexes[0] instanceof Literal)) {
+            return node;
+        }
+        try {
+            return literal(node, Operators.index(((Literal) node.target).value, ((Literal) node.indexes[0]).value));
+        } catch (RuntimeException e) {
+            return node;
+        }
+    }
+
+    @Override
+    public Node visitBuiltinCall(BuiltinCall node) {
+        node = (BuiltinCall) super.visitBuiltinCall(node);
+        if (node.builtin == Builtin.SIZE && node.arg instanceof Literal && ((Literal) node.arg).value.isString()) {
+            return literal(node, Operators.size(((Literal) node.arg).value));
+        }
+        return node;
+    }
+
+    @Override
+    public Node visitListLiteral(ListLiteral node) {
+        node = (ListLiteral) super.visitListLiteral(node);
+        if (node.constant != null || node.elements.length == 0) {
+            return node;
+        }
+        TLValue[] values = new TLValue[node.elements.length];
+        for (int i = 0; i < values.length; i++) {
+            Expr element = node.elements[i];
+            if (element instanceof Literal) {
+                values[i] = ((Literal) element).value;
+            } else if (element instanceof ListLiteral && ((ListLiteral) element).constant != null) {
+                values[i] = ((ListLiteral) element).constant;
+            } else {
+                return node;
+            }
+        }
+        return new ListLiteral(node.line, node.start, node.stop, node.elements, template(values));
+    }
+
+    // the dense form for numeric vectors and matrices, a plain list otherwise
+    private static TLValue template(TLValue[] values) {
+        boolean numbers = true;
+        boolean vectors = true;
+        int length = values[0].isDense() ? values[0].asDense().size() : -1;
+        for (TLValue value : values) {
+            numbers = numbers && value.isNumber();
+            vectors = vectors && value.isDense() && value.asDense().isVector() && value.asDense().size() == length;
+        }
+        if (numbers) {
+            double[] data = new double[values.length];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = values[i].asDouble();
+            }
+            return new TLValue(DenseMatrix.vector(data));
+        }
+        if (vectors) {
+            double[][] rows = new double[values.length][];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = values[i].asDense().data;
+            }
+            return new TLValue(DenseMatrix.matrix(rows));
+        }
+        List<TLValue> list = new ValueList();
+        for (TLValue value : values) {
+            list.add(value);
+        }
+        return new TLValue(list);
+    }
+
+    @Override
+    public Node visitIf(If node) {
+        node = (If) super.visitIf(node);
+        List<Expr> conditions = new ArrayList<>();
+        List<Block> blocks = new ArrayList<>();
+        Block elseBlock = node.elseBlock;
+        for (int i = 0; i < node.conditions.length; i++) {
+            Expr condition = node.conditions[i];
+            if (isLiteral(condition, false)) {
+                continue;
+            }
+            if (isLiteral(condition, true)) {
+                // always taken: nothing after it is reachable
+                elseBlock = node.blocks[i];
+                break;
+            }
+            conditions.add(condition);
+            blocks.add(node.blocks[i]);
+        }
+        if (conditions.size() == node.conditions.length && elseBlock == node.elseBlock) {
+            return node;
+        }
+        return new If(node.line, node.start, node.stop, conditions.toArray(new Expr[0]),
+                blocks.toArray(new Block[0]), elseBlock);
+    }
+
+    @Override
+    public Node visitBlock(Block node) {
+        node = (Block) super.visitBlock(node);
+        List<Stmt> statements = null;
+        for (int i = 0; i < node.statements.length; i++) {
+            Stmt statement = node.statements[i];
+            boolean removed = (statement instanceof If && ((If) statement).conditions.length == 0 && ((If) statement).elseBlock == null)
+                    || (statement instanceof While && isLiteral(((While) statement).condition, false));
+            if (removed && statements == null) {
+                statements = new ArrayList<>();
+                for (int j = 0; j < i; j++) {
+                    statements.add(node.statements[j]);
+                }
+            } else if (!removed && statements != null) {
+                statements.add(statement);
+            }
+        }
+        if (statements == null) {
+            return node;
+        }
+        return new Block(node.line, node.start, node.stop, statements.toArray(new Stmt[0]), node.returnValue);
+    }
+}
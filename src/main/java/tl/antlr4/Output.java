@@ -0,0 +1,132 @@
+package tl.antlr4;
+
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The standard output of a running program. {@code print} and {@code println} append
+ * to one large buffer, values are rendered straight into it by
+ * {@link TLValue#appendTo(StringBuilder)}, and the buffer is written to the stream in a
+ * single call when it holds {@code flushChars} characters or {@code flushLines} lines,
+ * before {@code input()} reads from stdin, and when the program ends. The stdin of the
+ * program comes with it: System.in, or what a {@link Server}'s client forwards, and so
+ * does the directory the paths the program reads are relative to.
+ */
+final class Output {
+
+    static final int DEFAULT_FLUSH_CHARS = 1 << 16;
+    // no line limit, only the size of the buffer triggers a flush
+    static final int NO_LINE_LIMIT = 0;
+
+    private final PrintStream sink;
+    private final StringBuilder buffer;
+    private final int flushChars;
+    private final int flushLines;
+    // null for System.in
+    private final Reader stdin;
+    // null for the working directory of the JVM
+    private final Path directory;
+    private int lines;
+
+    /**
+     * @param flushChars the buffered characters that trigger a flush, 0 to write every
+     *                   value as soon as it is printed
+     * @param flushLines the buffered lines that trigger a flush, or {@link #NO_LINE_LIMIT}
+     */
+    Output(PrintStream sink, int flushChars, int flushLines) {
+        this(sink, flushChars, flushLines, null, null);
+    }
+
+    /**
+     * @param stdin     what {@code input()} reads, null for System.in
+     * @param directory what relative paths of the program start from, null for the
+     *                  working directory of the JVM
+     */
+    Output(PrintStream sink, int flushChars, int flushLines, Reader stdin, Path directory) {
+        if (flushChars < 0 || flushLines < 0) {
+            throw new IllegalArgumentException("flush thresholds can't be negative");
+        }
+        this.sink = sink;
+        this.buffer = new StringBuilder(Math.min(flushChars, DEFAULT_FLUSH_CHARS) + 256);
+        this.flushChars = flushChars;
+        this.flushLines = flushLines;
+        this.stdin = stdin;
+        this.directory = directory;
+    }
+
+    static Output buffered() {
+        return new Output(System.out, DEFAULT_FLUSH_CHARS, NO_LINE_LIMIT);
+    }
+
+    static Output unbuffered(PrintStream sink, Reader stdin, Path directory) {
+        return new Output(sink, 0, NO_LINE_LIMIT, stdin, directory);
+    }
+
+    // what a chunk of parfor iterations prints, held until it is appended in order
+    static Output detached() {
+        return new Output(null, Integer.MAX_VALUE, NO_LINE_LIMIT);
+    }
+
+    // appends what a detached output holds
+    void append(Output detached) {
+        buffer.append(detached.buffer);
+        lines += detached.lines;
+        written();
+    }
+
+    void print(TLValue value) {
+        append(value);
+        written();
+    }
+
+    void println(TLValue value) {
+        append(value);
+        println();
+    }
+
+    void println() {
+        buffer.append(System.lineSeparator());
+        lines++;
+        written();
+    }
+
+    // a missing value prints as "null", the way PrintStream prints a null reference
+    private void append(TLValue value) {
+        if (value == null) {
+            buffer.append("null");
+        } else {
+            value.appendTo(buffer);
+        }
+    }
+
+    private void written() {
+        if (buffer.length() >= flushChars || (flushLines != NO_LINE_LIMIT && lines >= flushLines)) {
+            flush();
+        }
+    }
+
+    Reader stdin() {
+        return stdin != null ? stdin : new InputStreamReader(System.in);
+    }
+
+    // a path the program reads, relative to the directory of the run
+    Path path(String path) {
+        return directory != null ? directory.resolve(path) : Paths.get(path);
+    }
+
+    void flush() {
+        if (sink == null) {
+            // detached, see append(Output)
+            return;
+        }
+        if (buffer.length() > 0) {
+            sink.append(buffer);
+            buffer.setLength(0);
+        }
+        lines = 0;
+        sink.flush();
+    }
+}
@@ -0,0 +1,218 @@
+package tl.antlr4;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tl.antlr4.Node.Reduction;
+
+/**
+ * Runs the iterations of a parfor on a ForkJoinPool of its own. The range is split in
+ * halves down to chunks of iterations, and idle workers steal the halves that are
+ * still waiting. A chunk runs its iterations one after another, in a copy of the
+ * loop's frame the backend makes for it.
+ *
+ * The loop behaves like a for loop otherwise: every chunk prints to an output of its
+ * own, which is appended to the output of the run in the order of the iterations once
+ * the loop has ended, and the contributions of a reduce clause are folded in that order
+ * too. When iterations fail, the error of the first one is thrown after the output of
+ * the iterations before it; chunks after a failed one are skipped, or stop at their next
+ * check of the budget when they have started. When the run is cancelled while it waits for
+ * the loop, the chunks stop the same way.
+ *
+ * An iteration may read anything from outside the loop, but only change the lists, sets
+ * and maps it made itself, see {@link Budget#mayChange}; changing another one, through a
+ * variable of its own that refers to it or in a function it calls, is an error. The worker
+ * threads of the pool know the fork of the budget of the chunk they run, which owns what
+ * its iterations make. What the iterations made and changed reaches the thread that
+ * waits for the loop, and the chunks of a later loop, when the tasks are joined.
+ */
+final class ParallelRange {
+
+    // chunks per worker thread, so that stealing can even out iterations of different cost
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            Worker::new, null, false);
+
+    interface Chunk {
+        // runs the iterations first to last, printing to output
+        void run(int first, int last, Output output, Budget budget);
+    }
+
+    private ParallelRange() {
+    }
+
+    // runs the iterations from to to, both included
+    static void run(int from, int to, Output output, Budget budget, Chunk chunk) {
+        long iterations = (long) to - from + 1;
+        run(from, to, Math.max(1, iterations / ((long) POOL.getParallelism() * CHUNKS_PER_THREAD)), output, budget, chunk);
+    }
+
+    // runs the iterations from to to one after another, in a single chunk
+    static void runInOrder(int from, int to, Output output, Budget budget, Chunk chunk) {
+        run(from, to, Math.max(1, (long) to - from + 1), output, budget, chunk);
+    }
+
+    private static void run(int from, int to, long grain, Output output, Budget budget, Chunk chunk) {
+        if (from > to) {
+            return;
+        }
+        Task root = new Task(from, to, grain, budget, chunk, new AtomicInteger(Integer.MAX_VALUE));
+        if (Thread.currentThread() instanceof Worker) {
+            // a parfor in an iteration, the worker helps with its chunks while it waits
+            POOL.invoke(root);
+        } else {
+            await(root, budget);
+        }
+        root.finish(output);
+    }
+
+    // the fork of the budget of the parfor iteration running in this thread, null outside of iterations
+    static Budget iteration() {
+        Thread thread = Thread.currentThread();
+        return thread instanceof Worker ? ((Worker) thread).iteration : null;
+    }
+
+    // waits for the chunks in the thread of the run, which is interrupted when the run is cancelled
+    private static void await(Task root, Budget budget) {
+        POOL.execute(root);
+        try {
+            root.get();
+        } catch (InterruptedException e) {
+            budget.cancel();
+            root.quietlyJoin();
+            throw new LimitExceededException("the script was interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    // what the iterations left in the target of a reduce clause, folded in order into total
+    static TLValue fold(Reduction reduction, TLValue total, TLValue[] contributions) throws OperatorException {
+        for (TLValue contribution : contributions) {
+            if (contribution == null) {
+                // the iteration didn't assign the target
+                continue;
+            }
+            if (total == null) {
+                total = contribution;
+                continue;
+            }
+            switch (reduction) {
+                case SUM:
+                    total = Operators.add(total, contribution);
+                    break;
+                case PRODUCT:
+                    total = Operators.multiply(total, contribution);
+                    break;
+                case MIN:
+                    total = holds(Operators.lt(contribution, total)) ? contribution : total;
+                    break;
+                case MAX:
+                    total = holds(Operators.gt(contribution, total)) ? contribution : total;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown reduction: " + reduction);
+            }
+        }
+        return total;
+    }
+
+    // a comparison of vectors holds element by element, which doesn't pick either of them
+    private static boolean holds(TLValue comparison) throws OperatorException {
+        if (!comparison.isBoolean()) {
+            throw new OperatorException();
+        }
+        return comparison.asBoolean();
+    }
+
+    private static final class Task extends RecursiveAction {
+
+        private final int first;
+        private final int last;
+        private final long grain;
+        private final Budget budget;
+        private final Chunk chunk;
+        // the first iteration of the first chunk that failed so far
+        private final AtomicInteger failed;
+        // the halves of a split range, null for a chunk
+        private Task left;
+        private Task right;
+        // of a chunk that ran: what it printed, and the error that ended it
+        private Output output;
+        private Throwable error;
+
+        Task(int first, int last, long grain, Budget budget, Chunk chunk, AtomicInteger failed) {
+            this.first = first;
+            this.last = last;
+            this.grain = grain;
+            this.budget = budget;
+            this.chunk = chunk;
+            this.failed = failed;
+        }
+
+        @Override
+        protected void compute() {
+            if ((long) last - first + 1 > grain) {
+                int middle = (int) (((long) first + last) >>> 1);
+                left = new Task(first, middle, grain, budget, chunk, failed);
+                right = new Task(middle + 1, last, grain, budget, chunk, failed);
+                invokeAll(left, right);
+                return;
+            }
+            if (first > failed.get()) {
+                return;
+            }
+            output = Output.detached();
+            Budget fork = budget.fork(() -> failed.get() < first);
+            Budget previous = fork.enter();
+            Worker worker = (Worker) Thread.currentThread();
+            Budget outer = worker.iteration;
+            worker.iteration = fork;
+            try {
+                chunk.run(first, last, output, fork);
+            } catch (RuntimeException | Error e) {
+                error = e;
+                failed.accumulateAndGet(first, Math::min);
+            } finally {
+                worker.iteration = outer;
+                fork.exit(previous);
+            }
+        }
+
+        // appends the output of the chunks in order, throws the error of the first that failed
+        void finish(Output target) {
+            if (left != null) {
+                left.finish(target);
+                right.finish(target);
+                return;
+            }
+            if (output == null) {
+                // skipped after an earlier chunk failed, which has thrown
+                return;
+            }
+            target.append(output);
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error != null) {
+                throw (Error) error;
+            }
+        }
+    }
+
+    private static final class Worker extends ForkJoinWorkerThread {
+
+        // of the chunk running in this thread, null between chunks
+        private Budget iteration;
+
+        private Worker(ForkJoinPool pool) {
+            super(pool);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package tl.antlr4;
+
+import java.util.Arrays;
+
+/**
+ * The elements of a MAVA list: a persistent vector, a trie of 32-wide nodes with the
+ * last (up to) 32 elements kept in a tail outside of it. Reading, replacing and
+ * appending an element touch one path of the trie, so they take O(log32 n); replacing
+ * and appending copy only that path and share everything else with the vector they
+ * started from, which stays as it was.
+ *
+ * A vector is immutable, with one exception for {@link ValueList}: a list that is the
+ * only holder of its vector may append into the free slots of its tail, see
+ * {@link #append(Object, boolean)}. {@link ValueMap} keeps the entries of a set or map
+ * in one, in the order they were added.
+ */
+final class PersistentVector {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    // room for the first appends into a new tail
+    private static final int MIN_TAIL = 4;
+
+    static final PersistentVector EMPTY = new PersistentVector(0, BITS, new Object[WIDTH], new Object[0]);
+
+    private final int size;
+    // bits of an index consumed above the leaves
+    private final int shift;
+    private final Object[] root;
+    private final Object[] tail;
+
+    private PersistentVector(int size, int shift, Object[] root, Object[] tail) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    /**
+     * A vector of the first {@code size} elements of an array, built leaves first
+     * without any path copies. The array is not kept.
+     */
+    static PersistentVector of(Object[] elements, int size) {
+        int tailOffset = tailOffset(size);
+        Object[] tail = Arrays.copyOfRange(elements, tailOffset, size);
+        if (tailOffset == 0) {
+            return new PersistentVector(size, BITS, EMPTY.root, tail);
+        }
+        Object[] nodes = new Object[tailOffset >>> BITS];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = Arrays.copyOfRange(elements, i << BITS, (i + 1) << BITS);
+        }
+        int shift = BITS;
+        while (nodes.length > WIDTH) {
+            Object[] parents = new Object[(nodes.length + MASK) >>> BITS];
+            for (int i = 0; i < parents.length; i++) {
+                parents[i] = Arrays.copyOfRange(nodes, i << BITS, (i + 1) << BITS);
+            }
+            nodes = parents;
+            shift += BITS;
+        }
+        return new PersistentVector(size, shift, Arrays.copyOf(nodes, WIDTH), tail);
+    }
+
+    int size() {
+        return size;
+    }
+
+    TLValue get(int i) {
+        return (TLValue) leaf(i)[i & MASK];
+    }
+
+    Object object(int i) {
+        return leaf(i)[i & MASK];
+    }
+
+    // the node that holds element i
+    Object[] leaf(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size);
+        }
+        if (i >= tailOffset(size)) {
+            return tail;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(i >>> level) & MASK];
+        }
+        return node;
+    }
+
+    // a vector with element i replaced
+    PersistentVector set(int i, Object element) {
+        Object[] leaf = leaf(i);
+        if (leaf == tail) {
+            Object[] newTail = tail.clone();
+            newTail[i & MASK] = element;
+            return new PersistentVector(size, shift, root, newTail);
+        }
+        return new PersistentVector(size, shift, set(shift, root, i, element), tail);
+    }
+
+    private static Object[] set(int level, Object[] node, int i, Object element) {
+        Object[] copy = node.clone();
+        if (level == 0) {
+            copy[i & MASK] = element;
+        } else {
+            int child = (i >>> level) & MASK;
+            copy[child] = set(level - BITS, (Object[]) node[child], i, element);
+        }
+        return copy;
+    }
+
+    /**
+     * A vector with the element appended. When {@code owned}, no other vector or list
+     * shares this vector's tail, and a free slot of the tail is filled in place.
+     */
+    PersistentVector append(Object element, boolean owned) {
+        int inTail = size - tailOffset(size);
+        if (inTail < WIDTH) {
+            Object[] newTail = tail;
+            if (!owned || inTail == tail.length) {
+                newTail = Arrays.copyOf(tail, Math.min(WIDTH, Math.max(MIN_TAIL, inTail * 2)));
+            }
+            newTail[inTail] = element;
+            return new PersistentVector(size + 1, shift, root, newTail);
+        }
+        // the full tail becomes a leaf of the trie
+        Object[] newRoot;
+        int newShift = shift;
+        if ((size >>> BITS) > (1 << shift)) {
+            newRoot = new Object[WIDTH];
+            newRoot[0] = root;
+            newRoot[1] = path(shift, tail);
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root);
+        }
+        Object[] newTail = new Object[MIN_TAIL];
+        newTail[0] = element;
+        return new PersistentVector(size + 1, newShift, newRoot, newTail);
+    }
+
+    private Object[] pushTail(int level, Object[] parent) {
+        int child = ((size - 1) >>> level) & MASK;
+        Object[] copy = parent.clone();
+        if (level == BITS) {
+            copy[child] = tail;
+        } else if (parent[child] != null) {
+            copy[child] = pushTail(level - BITS, (Object[]) parent[child]);
+        } else {
+            copy[child] = path(level - BITS, tail);
+        }
+        return copy;
+    }
+
+    // the leaf under as many single-child nodes as the level takes
+    private static Object[] path(int level, Object[] leaf) {
+        if (level == 0) {
+            return leaf;
+        }
+        Object[] node = new Object[WIDTH];
+        node[0] = path(level - BITS, leaf);
+        return node;
+    }
+
+    // the elements before the tail
+    private static int tailOffset(int size) {
+        return size < WIDTH ? 0 : ((size - 1) >>> BITS) << BITS;
+    }
+}
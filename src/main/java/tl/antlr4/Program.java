@@ -0,0 +1,53 @@
+package tl.antlr4;
+
+import java.util.Collections;
+import java.util.Map;
+
+import tl.antlr4.Node.Block;
+import tl.antlr4.Node.FunctionDecl;
+
+/**
+ * A lowered MAVA program: the top-level block plus every declared function,
+ * keyed by name and arity the same way {@link SymbolVisitor} registers them.
+ */
+public class Program {
+
+    final Block main;
+    final Map<String, FunctionDecl> functions;
+    // the functions in declaration order, Call nodes refer to them by index
+    final FunctionDecl[] functionTable;
+    // number of slots in the global frame, Node.UNDEFINED until the Resolver has run
+    final int frameSize;
+    private final String source;
+
+    Program(Block main, Map<String, FunctionDecl> functions, String source) {
+        this(main, functions, Node.UNDEFINED, source);
+    }
+
+    Program(Block main, Map<String, FunctionDecl> functions, int frameSize, String source) {
+        this.main = main;
+        this.functions = Collections.unmodifiableMap(functions);
+        this.functionTable = functions.values().toArray(new FunctionDecl[0]);
+        this.frameSize = frameSize;
+        this.source = source;
+    }
+
+    public boolean isResolved() {
+        return frameSize != Node.UNDEFINED;
+    }
+
+    String source() {
+        return source;
+    }
+
+    /**
+     * The source text of a node without whitespace, the way {@code ctx.getText()}
+     * renders it in error messages.
+     */
+    String text(Node node) {
+        if (node.start < 0 || node.stop < node.start || node.stop >= source.length()) {
+            return "";
+        }
+        return source.substring(node.start, node.stop + 1).replaceAll("\\s+", "");
+    }
+}
@@ -0,0 +1,134 @@
+package tl.antlr4;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An on-disk cache of optimized programs, so that running an unchanged script again
+ * skips lexing, parsing, lowering and optimizing it. A program is stored in the form of
+ * {@link ProgramCodec} under the SHA-256 of its source.
+ *
+ * The cache is best effort: an entry that can't be read, is of another format, was
+ * written by another build (see {@link ProgramCodec#BUILD}) or belongs to another source
+ * is a miss, and a program that can't be written, such as one holding a {@link Sequence}
+ * constant, is just not cached.
+ *
+ * The programs last loaded or stored are also kept in memory, for the whole process: a
+ * {@link Server} running many scripts takes them from there without reading the file.
+ * Optimized programs are immutable, so runs can share them.
+ */
+final class ProgramCache {
+
+    private static final String SUFFIX = ".ast";
+    // programs kept in memory, by the name of their entry
+    private static final int RECENT_PROGRAMS = 256;
+    private static final Map<String, Program> RECENT = new LinkedHashMap<String, Program>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Program> eldest) {
+            return size() > RECENT_PROGRAMS;
+        }
+    };
+
+    private final Path directory;
+
+    ProgramCache(Path directory) {
+        this.directory = directory;
+    }
+
+    // ~/.mava/cache
+    static ProgramCache inHomeDirectory() {
+        return new ProgramCache(Paths.get(System.getProperty("user.home"), ".mava", "cache"));
+    }
+
+    // the program cached for the source, null if there is none
+    Program load(String source) {
+        String name = name(source);
+        Program program = recent(name);
+        if (program != null && source.equals(program.source())) {
+            return program;
+        }
+        Path entry = directory.resolve(name);
+        if (!Files.isRegularFile(entry)) {
+            return null;
+        }
+        try {
+            program = ProgramCodec.read(Files.readAllBytes(entry));
+        } catch (IOException | RuntimeException e) {
+            // a damaged entry
+            return null;
+        }
+        if (program == null || !source.equals(program.source())) {
+            return null;
+        }
+        remember(name, program);
+        return program;
+    }
+
+    void store(String source, Program program) {
+        String name = name(source);
+        remember(name, program);
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            // written aside and moved in, runs reading the entry never see half of it
+            temp = Files.createTempFile(directory, "program", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                ProgramCodec.write(program, out);
+            }
+            Files.move(temp, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+        } catch (IOException e) {
+            // not cached, the next run parses the source again
+        } finally {
+            deleteQuietly(temp);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // left behind, it is never read
+            }
+        }
+    }
+
+    private static Program recent(String name) {
+        synchronized (RECENT) {
+            return RECENT.get(name);
+        }
+    }
+
+    private static void remember(String name, Program program) {
+        synchronized (RECENT) {
+            RECENT.put(name, program);
+        }
+    }
+
+    // the file name of the entry of a source
+    static String name(String source) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(hash.length * 2 + SUFFIX.length());
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
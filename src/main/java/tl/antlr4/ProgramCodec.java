@@ -0,0 +1,717 @@
+package tl.antlr4;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import tl.antlr4.Node.*;
+
+/**
+ * The binary form of a {@link Program} that {@link ProgramCache} stores: the source, then
+ * every node depth-first as a tag byte followed by its fields. A string is written once
+ * and referred to by its index afterwards. Reading it back takes a fraction of the time
+ * of lexing, parsing, lowering and optimizing the source again.
+ *
+ * {@link #FORMAT} has to change whenever a node gains or loses a field, so that entries
+ * of the old form are not read as the new one, and whenever the {@link Optimizer} folds a
+ * source into other nodes than before, so that no run takes the old folding from the cache.
+ * As a change of folding is easily missed, every entry also carries the {@link #BUILD} that
+ * wrote it, and only the same build reads it.
+ */
+final class ProgramCodec implements NodeVisitor<Void> {
+
+    static final int FORMAT = 3;
+    private static final int MAGIC = 0x4d415641; // MAVA
+    // the build of the code that lowers, optimizes and encodes programs, see build()
+    static final long BUILD = build();
+
+    // node tags, 0 stands for a null node
+    private static final byte NONE = 0;
+    private static final byte LITERAL = 1;
+    private static final byte LIST_LITERAL = 2;
+    private static final byte SET_LITERAL = 3;
+    private static final byte MAP_LITERAL = 4;
+    private static final byte VARIABLE = 5;
+    private static final byte INDEX = 6;
+    private static final byte UNARY = 7;
+    private static final byte BINARY = 8;
+    private static final byte TERNARY = 9;
+    private static final byte CALL = 10;
+    private static final byte BUILTIN_CALL = 11;
+    private static final byte INPUT = 12;
+    private static final byte ASSIGN = 13;
+    private static final byte EXPR_STMT = 14;
+    private static final byte IF = 15;
+    private static final byte FOR = 16;
+    private static final byte FOR_IN = 17;
+    private static final byte WHILE = 18;
+    private static final byte BLOCK = 19;
+    private static final byte FUNCTION_DECL = 20;
+    private static final byte PARFOR = 21;
+
+    // value tags, 0 stands for a null value
+    private static final byte NUMBER = 1;
+    private static final byte INTEGER = 2;
+    private static final byte TRUE = 3;
+    private static final byte FALSE = 4;
+    private static final byte NULL = 5;
+    private static final byte STRING = 6;
+    private static final byte LIST = 7;
+    private static final byte DENSE = 8;
+    private static final byte SET = 9;
+    private static final byte MAP = 10;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> written = new HashMap<>();
+
+    private ProgramCodec(DataOutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes the program, or throws an IOException for a program holding a constant that
+     * has no binary form, a {@link Sequence}.
+     */
+    static void write(Program program, DataOutputStream out) throws IOException {
+        write(program, out, BUILD);
+    }
+
+    static void write(Program program, DataOutputStream out, long build) throws IOException {
+        ProgramCodec codec = new ProgramCodec(out);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(build);
+            codec.string(program.source());
+            codec.integer(program.frameSize);
+            codec.node(program.main);
+            codec.integer(program.functionTable.length);
+            for (FunctionDecl function : program.functionTable) {
+                codec.node(function);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // the program, null when the bytes are of another format or build
+    static Program read(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != MAGIC || in.readInt() != FORMAT || in.readLong() != BUILD) {
+            return null;
+        }
+        return new Reader(in).program();
+    }
+
+    /**
+     * A hash of the names, sizes and modification times of the classes of MAVA, or of the
+     * jar holding them: any rebuild is another build. When the classes can't be found, a
+     * random number, so that entries are only read by the process that wrote them.
+     */
+    private static long build() {
+        try {
+            Path classes = Paths.get(ProgramCodec.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            List<Path> files = new ArrayList<>();
+            if (Files.isDirectory(classes)) {
+                try (Stream<Path> walk = Files.walk(classes.resolve(ProgramCodec.class.getPackage().getName().replace('.', '/')))) {
+                    walk.filter(file -> file.toString().endsWith(".class")).sorted().forEach(files::add);
+                }
+            } else {
+                files.add(classes);
+            }
+            for (Path file : files) {
+                digest.update(file.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+                digest.update(ByteBuffer.allocate(2 * Long.BYTES)
+                        .putLong(Files.size(file)).putLong(Files.getLastModifiedTime(file).toMillis()).array());
+            }
+            return ByteBuffer.wrap(digest.digest()).getLong();
+        } catch (IOException | URISyntaxException | NoSuchAlgorithmException | RuntimeException e) {
+            return new SecureRandom().nextLong();
+        }
+    }
+
+    private void node(Node node) {
+        if (node == null) {
+            tag(NONE);
+        } else {
+            node.accept(this);
+        }
+    }
+
+    private void nodes(Node[] nodes) {
+        integer(nodes != null ? nodes.length : -1);
+        if (nodes != null) {
+            for (Node node : nodes) {
+                node(node);
+            }
+        }
+    }
+
+    private void header(byte tag, Node node) {
+        tag(tag);
+        integer(node.line);
+        integer(node.start);
+        integer(node.stop - node.start);
+    }
+
+    private void tag(byte tag) {
+        try {
+            out.writeByte(tag);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // zigzag varint: 7 bits a byte, small and negative numbers (UNDEFINED) take one byte
+    private void integer(int i) {
+        try {
+            int bits = (i << 1) ^ (i >> 31);
+            while ((bits & ~0x7f) != 0) {
+                out.writeByte((bits & 0x7f) | 0x80);
+                bits >>>= 7;
+            }
+            out.writeByte(bits);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void number(double d) {
+        try {
+            out.writeDouble(d);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the index of a string written before, or a new index and the string
+    private void string(String s) {
+        if (s == null) {
+            integer(-1);
+            return;
+        }
+        Integer index = written.get(s);
+        if (index != null) {
+            integer(index);
+            return;
+        }
+        integer(written.size());
+        written.put(s, written.size());
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        integer(bytes.length);
+        try {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void slots(Map<String, Integer> slots) {
+        integer(slots != null ? slots.size() : -1);
+        if (slots != null) {
+            for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+                string(entry.getKey());
+                integer(entry.getValue());
+            }
+        }
+    }
+
+    private void strings(String[] strings) {
+        integer(strings.length);
+        for (String s : strings) {
+            string(s);
+        }
+    }
+
+    private void value(TLValue value) {
+        if (value == null) {
+            tag(NONE);
+        } else if (value.isInteger()) {
+            tag(INTEGER);
+            number(value.asDouble());
+        } else if (value.isNumber()) {
+            tag(NUMBER);
+            number(value.asDouble());
+        } else if (value.isBoolean()) {
+            tag(value.asBoolean() ? TRUE : FALSE);
+        } else if (value.isNull()) {
+            tag(NULL);
+        } else if (value.isString()) {
+            tag(STRING);
+            string(value.asString());
+        } else if (value.isDense()) {
+            DenseMatrix dense = value.asDense();
+            tag(DENSE);
+            tag(dense.isVector() ? TRUE : FALSE);
+            integer(dense.rows);
+            integer(dense.columns);
+            for (double d : dense.data) {
+                number(d);
+            }
+        } else if (value.isList()) {
+            List<TLValue> list = value.asList();
+            tag(LIST);
+            integer(list.size());
+            for (TLValue element : list) {
+                value(element);
+            }
+        } else if (value.isMap()) {
+            ValueMap map = value.asMap();
+            tag(map.isSet() ? SET : MAP);
+            integer(map.size());
+            for (Iterator<TLValue> keys = map.keys(); keys.hasNext(); ) {
+                TLValue key = keys.next();
+                value(key);
+                if (!map.isSet()) {
+                    value(map.get(key));
+                }
+            }
+        } else {
+            throw new UncheckedIOException(new IOException("no binary form for " + value));
+        }
+    }
+
+    @Override
+    public Void visitLiteral(Literal node) {
+        header(LITERAL, node);
+        value(node.value);
+        return null;
+    }
+
+    @Override
+    public Void visitListLiteral(ListLiteral node) {
+        header(LIST_LITERAL, node);
+        nodes(node.elements);
+        value(node.constant);
+        return null;
+    }
+
+    @Override
+    public Void visitSetLiteral(SetLiteral node) {
+        header(SET_LITERAL, node);
+        nodes(node.elements);
+        return null;
+    }
+
+    @Override
+    public Void visitMapLiteral(MapLiteral node) {
+        header(MAP_LITERAL, node);
+        nodes(node.keys);
+        nodes(node.values);
+        return null;
+    }
+
+    @Override
+    public Void visitVariable(Variable node) {
+        header(VARIABLE, node);
+        string(node.name);
+        integer(node.depth);
+        integer(node.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitIndex(Index node) {
+        header(INDEX, node);
+        node(node.target);
+        nodes(node.indexes);
+        return null;
+    }
+
+    @Override
+    public Void visitUnary(Unary node) {
+        header(UNARY, node);
+        tag((byte) node.op.ordinal());
+        node(node.operand);
+        return null;
+    }
+
+    @Override
+    public Void visitBinary(Binary node) {
+        header(BINARY, node);
+        tag((byte) node.op.ordinal());
+        node(node.lhs);
+        node(node.rhs);
+        return null;
+    }
+
+    @Override
+    public Void visitTernary(Ternary node) {
+        header(TERNARY, node);
+        node(node.condition);
+        node(node.whenTrue);
+        node(node.whenFalse);
+        return null;
+    }
+
+    @Override
+    public Void visitCall(Call node) {
+        header(CALL, node);
+        string(node.name);
+        nodes(node.args);
+        integer(node.function);
+        slots(node.names);
+        return null;
+    }
+
+    @Override
+    public Void visitBuiltinCall(BuiltinCall node) {
+        header(BUILTIN_CALL, node);
+        tag((byte) node.builtin.ordinal());
+        node(node.arg);
+        node(node.second);
+        return null;
+    }
+
+    @Override
+    public Void visitInput(Input node) {
+        header(INPUT, node);
+        string(node.path);
+        return null;
+    }
+
+    @Override
+    public Void visitAssign(Assign node) {
+        header(ASSIGN, node);
+        string(node.name);
+        integer(node.depth);
+        integer(node.slot);
+        nodes(node.indexes);
+        node(node.value);
+        return null;
+    }
+
+    @Override
+    public Void visitExprStmt(ExprStmt node) {
+        header(EXPR_STMT, node);
+        node(node.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitIf(If node) {
+        header(IF, node);
+        nodes(node.conditions);
+        nodes(node.blocks);
+        node(node.elseBlock);
+        return null;
+    }
+
+    @Override
+    public Void visitFor(For node) {
+        header(FOR, node);
+        string(node.variable);
+        integer(node.depth);
+        integer(node.slot);
+        node(node.from);
+        node(node.to);
+        node(node.body);
+        return null;
+    }
+
+    @Override
+    public Void visitForIn(ForIn node) {
+        header(FOR_IN, node);
+        string(node.variable);
+        integer(node.depth);
+        integer(node.slot);
+        node(node.iterable);
+        node(node.body);
+        return null;
+    }
+
+    @Override
+    public Void visitParfor(Parfor node) {
+        header(PARFOR, node);
+        string(node.variable);
+        integer(node.slot);
+        node(node.from);
+        node(node.to);
+        node(node.body);
+        // the ordinal plus one, 0 without a reduce clause
+        integer(node.reduction != null ? node.reduction.ordinal() + 1 : 0);
+        if (node.reduction != null) {
+            string(node.target);
+        }
+        integer(node.localTarget);
+        integer(node.targetDepth);
+        integer(node.targetSlot);
+        integer(node.firstLocal);
+        integer(node.localsEnd);
+        return null;
+    }
+
+    @Override
+    public Void visitWhile(While node) {
+        header(WHILE, node);
+        node(node.condition);
+        node(node.body);
+        return null;
+    }
+
+    @Override
+    public Void visitBlock(Block node) {
+        header(BLOCK, node);
+        nodes(node.statements);
+        node(node.returnValue);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionDecl(FunctionDecl node) {
+        header(FUNCTION_DECL, node);
+        string(node.name);
+        strings(node.params);
+        node(node.body);
+        integer(node.frameSize);
+        return null;
+    }
+
+    // reads what the codec wrote, in the same order
+    private static final class Reader {
+
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        Program program() throws IOException {
+            String source = string();
+            int frameSize = integer();
+            Block main = (Block) node();
+            Map<String, FunctionDecl> functions = new LinkedHashMap<>();
+            for (int i = integer(); i > 0; i--) {
+                FunctionDecl function = (FunctionDecl) node();
+                functions.put(function.key(), function);
+            }
+            return new Program(main, functions, frameSize, source);
+        }
+
+        private Node node() throws IOException {
+            byte tag = in.readByte();
+            if (tag == NONE) {
+                return null;
+            }
+            int line = integer();
+            int start = integer();
+            int stop = start + integer();
+            switch (tag) {
+                case LITERAL:
+                    return new Literal(line, start, stop, value());
+                case LIST_LITERAL:
+                    return new ListLiteral(line, start, stop, exprs(), value());
+                case SET_LITERAL:
+                    return new SetLiteral(line, start, stop, exprs());
+                case MAP_LITERAL:
+                    return new MapLiteral(line, start, stop, exprs(), exprs());
+                case VARIABLE:
+                    return new Variable(line, start, stop, name(), integer(), integer());
+                case INDEX:
+                    return new Index(line, start, stop, (Expr) node(), exprs());
+                case UNARY:
+                    return new Unary(line, start, stop, UnaryOp.values()[in.readByte()], (Expr) node());
+                case BINARY:
+                    return new Binary(line, start, stop, BinaryOp.values()[in.readByte()], (Expr) node(), (Expr) node());
+                case TERNARY:
+                    return new Ternary(line, start, stop, (Expr) node(), (Expr) node(), (Expr) node());
+                case CALL:
+                    return new Call(line, start, stop, name(), exprs(), integer(), slots());
+                case BUILTIN_CALL:
+                    return new BuiltinCall(line, start, stop, Builtin.values()[in.readByte()], (Expr) node(), (Expr) node());
+                case INPUT:
+                    return new Input(line, start, stop, string());
+                case ASSIGN:
+                    return new Assign(line, start, stop, name(), integer(), integer(), exprs(), (Expr) node());
+                case EXPR_STMT:
+                    return new ExprStmt(line, start, stop, (Expr) node());
+                case IF:
+                    return new If(line, start, stop, exprs(), blocks(), (Block) node());
+                case FOR:
+                    return new For(line, start, stop, name(), integer(), integer(), (Expr) node(), (Expr) node(),
+                            (Block) node());
+                case FOR_IN:
+                    return new ForIn(line, start, stop, name(), integer(), integer(), (Expr) node(), (Block) node());
+                case PARFOR:
+                    return parfor(line, start, stop);
+                case WHILE:
+                    return new While(line, start, stop, (Expr) node(), (Block) node());
+                case BLOCK:
+                    return new Block(line, start, stop, stmts(), (Expr) node());
+                case FUNCTION_DECL:
+                    return new FunctionDecl(line, start, stop, name(), names(), (Block) node(), integer());
+                default:
+                    throw new IOException("unknown node tag " + tag);
+            }
+        }
+
+        private Parfor parfor(int line, int start, int stop) throws IOException {
+            String variable = name();
+            int slot = integer();
+            Expr from = (Expr) node();
+            Expr to = (Expr) node();
+            Block body = (Block) node();
+            int reduction = integer();
+            String target = reduction != 0 ? name() : null;
+            return new Parfor(line, start, stop, variable, slot, from, to, body,
+                    reduction != 0 ? Reduction.values()[reduction - 1] : null, target,
+                    integer(), integer(), integer(), integer(), integer());
+        }
+
+        private int integer() throws IOException {
+            int bits = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in.readByte();
+                bits |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return (bits >>> 1) ^ -(bits & 1);
+                }
+            }
+        }
+
+        private Expr[] exprs() throws IOException {
+            int length = integer();
+            if (length < 0) {
+                return null;
+            }
+            Expr[] exprs = new Expr[length];
+            for (int i = 0; i < length; i++) {
+                exprs[i] = (Expr) node();
+            }
+            return exprs;
+        }
+
+        private Stmt[] stmts() throws IOException {
+            int length = integer();
+            if (length < 0) {
+                return null;
+            }
+            Stmt[] stmts = new Stmt[length];
+            for (int i = 0; i < length; i++) {
+                stmts[i] = (Stmt) node();
+            }
+            return stmts;
+        }
+
+        private Block[] blocks() throws IOException {
+            int length = integer();
+            if (length < 0) {
+                return null;
+            }
+            Block[] blocks = new Block[length];
+            for (int i = 0; i < length; i++) {
+                blocks[i] = (Block) node();
+            }
+            return blocks;
+        }
+
+        private String string() throws IOException {
+            int index = integer();
+            if (index < 0) {
+                return null;
+            }
+            if (index < strings.size()) {
+                return strings.get(index);
+            }
+            byte[] bytes = new byte[integer()];
+            in.readFully(bytes);
+            String s = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(s);
+            return s;
+        }
+
+        // identifiers are interned, as AstBuilder does
+        private String name() throws IOException {
+            return string().intern();
+        }
+
+        private String[] names() throws IOException {
+            String[] names = new String[integer()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = name();
+            }
+            return names;
+        }
+
+        private Map<String, Integer> slots() throws IOException {
+            int size = integer();
+            if (size < 0) {
+                return null;
+            }
+            Map<String, Integer> slots = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                slots.put(name(), integer());
+            }
+            return slots;
+        }
+
+        private TLValue value() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NONE:
+                    return null;
+                case NUMBER:
+                    return TLValue.of(in.readDouble());
+                case INTEGER:
+                    return new TLValue((long) in.readDouble());
+                case TRUE:
+                    return TLValue.TRUE;
+                case FALSE:
+                    return TLValue.FALSE;
+                case NULL:
+                    return TLValue.NULL;
+                case STRING:
+                    return new TLValue(string());
+                case DENSE: {
+                    boolean vector = in.readByte() == TRUE;
+                    int rows = integer();
+                    int columns = integer();
+                    double[] data = new double[rows * columns];
+                    for (int i = 0; i < data.length; i++) {
+                        data[i] = in.readDouble();
+                    }
+                    return new TLValue(vector ? DenseMatrix.vector(data) : DenseMatrix.matrix(rows, columns, data));
+                }
+                case LIST: {
+                    List<TLValue> list = new ValueList();
+                    for (int i = integer(); i > 0; i--) {
+                        list.add(value());
+                    }
+                    return new TLValue(list);
+                }
+                case SET:
+                case MAP: {
+                    int size = integer();
+                    ValueMap map = tag == SET ? ValueMap.newSet() : ValueMap.newMap();
+                    for (int i = 0; i < size; i++) {
+                        TLValue key = value();
+                        map.put(key, tag == SET ? key : value());
+                    }
+                    return new TLValue(map);
+                }
+                default:
+                    throw new IOException("unknown value tag " + tag);
+            }
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package tl.antlr4;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tl.antlr4.Node.*;
+
+/**
+ * Gives every variable reference a (depth, slot) coordinate in a {@link Frame}.
+ *
+ * Names follow the scoping rules of {@link Scope}: assigning a name that is visible
+ * from an enclosing block re-assigns it, otherwise the name is declared in the
+ * current block. All blocks of a function share the function's frame, every variable
+ * declared in it has a slot of its own. At the top level the global frame is depth 0.
+ *
+ * A function sees the variables of its callers, as it does with a Scope per call: a
+ * name that isn't declared in reach gets the {@link Node#UNDEFINED} coordinate and is
+ * looked up by name in the frames of the callers at run time, and a variable the
+ * function assigns is {@link Node#CALLERS}, the caller's while the function hasn't set
+ * it. Only a name that nothing but the top-level block declares is read from its slot
+ * in the global frame (depth 1) directly. Every call site records which variables in
+ * reach a function may look up this way, see {@link Call#names}.
+ *
+ * Call sites are bound to the index of their function in {@link Program#functionTable}.
+ *
+ * The iterations of a parfor run in parallel, each in a copy of the frame: the loop
+ * variable, the local of a reduce target and every variable declared in the body are
+ * iteration-local. A body that assigns a variable from outside the loop, returns, or
+ * calls a function that (directly or through its calls) assigns global variables is
+ * rejected, because iterations would race on that variable.
+ */
+public class Resolver extends NodeTransformer {
+
+    private final Map<String, Integer> globals;
+    // names some other frame than the global one may hold: declared by a function or a nested top-level block
+    private final Set<String> frameNames;
+    // names the functions may look up in the frames of their callers
+    private final Set<String> lookedUp;
+    // function key to index in the function table
+    private final Map<String, Integer> functionIndexes;
+    private final Deque<Map<String, Integer>> scopes = new ArrayDeque<>();
+    private Map<String, Integer> outermost;
+    // of the top level: the names declared in nested blocks
+    private final Set<String> nested = new HashSet<>();
+    // the slots of CALLERS variables
+    private final BitSet callerSlots = new BitSet();
+    // the variables in reach that callees may look up, null after a scope changed
+    private Map<String, Integer> callNames;
+    private int nextSlot;
+    // the scopes outside the body of the innermost parfor, -1 outside of parfors
+    private int parforScopes = -1;
+    // calls from parfor bodies, checked once every function is resolved
+    private final List<Call> parforCalls;
+    // of a function: whether it assigns global variables itself, and what it calls
+    private boolean assignsGlobals;
+    private final Set<Integer> callees = new HashSet<>();
+
+    private Resolver(Map<String, Integer> globals, Set<String> frameNames, Set<String> lookedUp,
+                     Map<String, Integer> functionIndexes, List<Call> parforCalls) {
+        this.globals = globals;
+        this.frameNames = frameNames;
+        this.lookedUp = lookedUp;
+        this.functionIndexes = functionIndexes;
+        this.parforCalls = parforCalls;
+    }
+
+    public static Program resolve(Program program) {
+        Map<String, Integer> functionIndexes = new HashMap<>();
+        for (String key : program.functions.keySet()) {
+            functionIndexes.put(key, functionIndexes.size());
+        }
+        Set<String> declared = new HashSet<>();
+        Set<String> lookedUp = new HashSet<>();
+        for (FunctionDecl function : program.functions.values()) {
+            FunctionNames names = new FunctionNames();
+            names.block(function.body);
+            declared.addAll(Arrays.asList(function.params));
+            declared.addAll(names.assigned);
+            names.read.addAll(names.assigned);
+            names.read.removeAll(Arrays.asList(function.params));
+            lookedUp.addAll(names.read);
+        }
+        List<Call> parforCalls = new ArrayList<>();
+        Resolver main = new Resolver(null, null, lookedUp, functionIndexes, parforCalls);
+        Block block = main.block(program.main);
+        declared.addAll(main.nested);
+
+        Map<String, FunctionDecl> functions = new LinkedHashMap<>();
+        List<Resolver> resolvers = new ArrayList<>();
+        for (Map.Entry<String, FunctionDecl> entry : program.functions.entrySet()) {
+            FunctionDecl function = entry.getValue();
+            Resolver resolver = new Resolver(main.outermost, declared, lookedUp, functionIndexes, parforCalls);
+            resolvers.add(resolver);
+            Map<String, Integer> params = new HashMap<>();
+            for (String param : function.params) {
+                params.put(param, resolver.nextSlot++);
+            }
+            resolver.scopes.push(params);
+            Block body = resolver.block(function.body);
+            functions.put(entry.getKey(), new FunctionDecl(function.line, function.start, function.stop,
+                    function.name, function.params, body, resolver.nextSlot));
+        }
+        checkParforCalls(parforCalls, resolvers);
+        return new Program(block, functions, main.nextSlot, program.source());
+    }
+
+    // resolvers holds the resolver of every function, in the order of the function table
+    private static void checkParforCalls(List<Call> parforCalls, List<Resolver> resolvers) {
+        if (parforCalls.isEmpty()) {
+            return;
+        }
+        boolean[] assignsGlobals = new boolean[resolvers.size()];
+        for (int i = 0; i < assignsGlobals.length; i++) {
+            assignsGlobals[i] = resolvers.get(i).assignsGlobals;
+        }
+        // a function assigns globals when one it calls does
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (int i = 0; i < assignsGlobals.length; i++) {
+                if (assignsGlobals[i]) {
+                    continue;
+                }
+                for (int callee : resolvers.get(i).callees) {
+                    if (assignsGlobals[callee]) {
+                        assignsGlobals[i] = true;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+        for (Call call : parforCalls) {
+            if (call.function != Node.UNDEFINED && assignsGlobals[call.function]) {
+                throw new EvalException("parfor can't call " + call.name + ", it assigns global variables", call.line);
+            }
+        }
+    }
+
+    // an assignment in a parfor body to a variable declared outside of it
+    private void checkParforAssign(String name, int line) {
+        if (parforScopes < 0) {
+            return;
+        }
+        int inside = scopes.size() - parforScopes;
+        int i = 0;
+        for (Map<String, Integer> scope : scopes) {
+            if (scope.containsKey(name)) {
+                if (i < inside) {
+                    return;
+                }
+                break;
+            }
+            i++;
+        }
+        if (i < scopes.size() || lookupGlobal(name) != null) {
+            throw new EvalException("parfor can't assign " + name + ", a variable from outside the loop", line);
+        }
+    }
+
+    private Integer lookup(String name) {
+        for (Map<String, Integer> scope : scopes) {
+            Integer slot = scope.get(name);
+            if (slot != null) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private Integer lookupGlobal(String name) {
+        return globals != null ? globals.get(name) : null;
+    }
+
+    private Integer declare(String name) {
+        int slot = nextSlot++;
+        scopes.peek().put(name, slot);
+        callNames = null;
+        if (globals == null && scopes.peek() != outermost) {
+            nested.add(name);
+        }
+        // a function's variable is the caller's until the function sets it, but a parfor's are its own
+        if (globals != null && parforScopes < 0) {
+            callerSlots.set(slot);
+        }
+        return slot;
+    }
+
+    private int depth(int slot) {
+        return callerSlots.get(slot) ? Node.CALLERS : 0;
+    }
+
+    // the coordinate of a name that isn't declared in reach
+    private Variable outOfReach(Variable node) {
+        Integer slot = lookupGlobal(node.name);
+        if (slot != null && !frameNames.contains(node.name)) {
+            return new Variable(node.line, node.start, node.stop, node.name, 1, slot);
+        }
+        return new Variable(node.line, node.start, node.stop, node.name, Node.UNDEFINED, Node.UNDEFINED);
+    }
+
+    @Override
+    public Node visitVariable(Variable node) {
+        Integer slot = lookup(node.name);
+        if (slot != null) {
+            return new Variable(node.line, node.start, node.stop, node.name, depth(slot), slot);
+        }
+        return outOfReach(node);
+    }
+
+    // the variables in reach at a call that the called function may look up
+    private Map<String, Integer> callNames() {
+        if (callNames == null) {
+            callNames = new HashMap<>();
+            for (Map<String, Integer> scope : scopes) {
+                for (Map.Entry<String, Integer> variable : scope.entrySet()) {
+                    if (lookedUp.contains(variable.getKey())) {
+                        callNames.putIfAbsent(variable.getKey(), variable.getValue());
+                    }
+                }
+            }
+        }
+        return callNames.isEmpty() ? null : callNames;
+    }
+
+    @Override
+    public Node visitCall(Call node) {
+        Expr[] args = exprs(node.args);
+        // bind the call site to its function once, instead of a lookup by key per call
+        Integer function = functionIndexes.get(node.key);
+        Call call = new Call(node.line, node.start, node.stop, node.name, args,
+                function != null ? function : Node.UNDEFINED, callNames());
+        if (function != null) {
+            callees.add(function);
+        }
+        if (parforScopes >= 0) {
+            parforCalls.add(call);
+        }
+        return call;
+    }
+
+    @Override
+    public Node visitAssign(Assign node) {
+        Expr value = expr(node.value);
+        Expr[] indexes = exprs(node.indexes);
+        checkParforAssign(node.name, node.line);
+        Integer slot = lookup(node.name);
+        if (slot == null) {
+            if (lookupGlobal(node.name) != null) {
+                assignsGlobals = true;
+            }
+            if (indexes.length > 0) {
+                // indexing into a variable that isn't declared in reach
+                Variable target = outOfReach(new Variable(node.line, node.start, node.stop, node.name));
+                return new Assign(node.line, node.start, node.stop, node.name, target.depth, target.slot, indexes, value);
+            }
+            slot = declare(node.name);
+        }
+        return new Assign(node.line, node.start, node.stop, node.name, depth(slot), slot, indexes, value);
+    }
+
+    @Override
+    public Node visitFor(For node) {
+        Expr from = expr(node.from);
+        Expr to = expr(node.to);
+        int slot = loopVariable(node.line, node.variable);
+        Block body = block(node.body);
+        return new For(node.line, node.start, node.stop, node.variable, depth(slot), slot, from, to, body);
+    }
+
+    @Override
+    public Node visitForIn(ForIn node) {
+        Expr iterable = expr(node.iterable);
+        int slot = loopVariable(node.line, node.variable);
+        Block body = block(node.body);
+        return new ForIn(node.line, node.start, node.stop, node.variable, depth(slot), slot, iterable, body);
+    }
+
+    @Override
+    public Node visitParfor(Parfor node) {
+        Expr from = expr(node.from);
+        Expr to = expr(node.to);
+        int targetDepth = Node.UNDEFINED;
+        int targetSlot = Node.UNDEFINED;
+        if (node.reduction != null) {
+            // the contributions are assigned to the target after the loop, like to a loop variable
+            targetSlot = loopVariable(node.line, node.target);
+            targetDepth = depth(targetSlot);
+        }
+        int outerParforScopes = parforScopes;
+        int firstLocal = nextSlot;
+        scopes.push(new HashMap<>());
+        callNames = null;
+        parforScopes = scopes.size() - 1;
+        try {
+            int slot = declare(node.variable);
+            int localTarget = node.reduction != null ? declare(node.target) : Node.UNDEFINED;
+            Block body = block(node.body);
+            return new Parfor(node.line, node.start, node.stop, node.variable, slot, from, to, body, node.reduction,
+                    node.target, localTarget, targetDepth, targetSlot, firstLocal, nextSlot);
+        } finally {
+            scopes.pop();
+            callNames = null;
+            parforScopes = outerParforScopes;
+        }
+    }
+
+    // the slot of a loop variable, which is assigned like any other variable
+    private int loopVariable(int line, String name) {
+        checkParforAssign(name, line);
+        Integer slot = lookup(name);
+        if (slot != null) {
+            return slot;
+        }
+        if (lookupGlobal(name) != null) {
+            assignsGlobals = true;
+        }
+        return declare(name);
+    }
+
+    @Override
+    public Node visitBlock(Block node) {
+        if (parforScopes >= 0 && node.returnValue != null) {
+            throw new EvalException("parfor can't return from its body", node.returnValue.line);
+        }
+        Map<String, Integer> scope = new HashMap<>();
+        if (scopes.isEmpty()) {
+            outermost = scope;
+        }
+        scopes.push(scope);
+        callNames = null;
+        try {
+            return super.visitBlock(node);
+        } finally {
+            scopes.pop();
+            callNames = null;
+        }
+    }
+
+    // the names a function body reads and assigns, before it is resolved
+    private static final class FunctionNames extends NodeTransformer {
+
+        final Set<String> read = new HashSet<>();
+        final Set<String> assigned = new HashSet<>();
+
+        @Override
+        public Node visitVariable(Variable node) {
+            read.add(node.name);
+            return node;
+        }
+
+        @Override
+        public Node visitAssign(Assign node) {
+            (node.indexes.length > 0 ? read : assigned).add(node.name);
+            return super.visitAssign(node);
+        }
+
+        @Override
+        public Node visitFor(For node) {
+            assigned.add(node.variable);
+            return super.visitFor(node);
+        }
+
+        @Override
+        public Node visitForIn(ForIn node) {
+            assigned.add(node.variable);
+            return super.visitForIn(node);
+        }
+
+        @Override
+        public Node visitParfor(Parfor node) {
+            assigned.add(node.variable);
+            if (node.target != null) {
+                assigned.add(node.target);
+            }
+            return super.visitParfor(node);
+        }
+    }
+}
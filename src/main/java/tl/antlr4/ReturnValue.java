@@ -1,5 +0,0 @@
-package tl.antlr4;
-
-public class ReturnValue extends RuntimeException {
-	public TLValue value;
-}
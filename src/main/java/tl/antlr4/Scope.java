@@ -1,12 +1,16 @@
 package tl.antlr4;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 public class Scope {
 
     private Scope parent;
     private Map<String, TLValue> variables;
+    // variables declared without a value, which nested scopes assign here; null if none are
+    private Set<String> declared;
 
     Scope() {
         // only for the global scope, the parent is null
@@ -23,7 +27,7 @@ public class Scope {
     }
     
     public void assign(String var, TLValue value) {
-        if(resolve(var) != null) {
+        if(resolve(var) != null || declares(var)) {
             // There is already such a variable, re-assign it
             this.reAssign(var, value);
         }
@@ -33,10 +37,43 @@ public class Scope {
         }
     }
 
+    // declares a variable of this scope that has no value yet
+    void declare(String var) {
+        if (declared == null) {
+            declared = new HashSet<>();
+        }
+        declared.add(var);
+        variables.put(var, null);
+    }
+
+    private boolean declares(String var) {
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            if (scope.declared != null && scope.declared.contains(var)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private boolean isGlobalScope() {
         return parent == null;
     }
 
+    // the scope a variable is assigned in: the one holding it, or this one if none does
+    public Scope owner(String var) {
+        for (Scope scope = this; scope != null; scope = scope.parent) {
+            if (scope.variables.get(var) != null) {
+                return scope;
+            }
+        }
+        return this;
+    }
+
+    // the value of a variable declared in this scope, null if none is
+    TLValue local(String var) {
+        return variables.get(var);
+    }
+
     public Scope parent() {
         return parent;
     }
@@ -0,0 +1,108 @@
+package tl.antlr4;
+
+import java.io.PrintStream;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Runs {@link MavaEngine.Script}s on a fixed number of threads, every run within the
+ * {@link Limits} of the executor. A runaway loop ends when it goes over its steps or
+ * its time, instead of holding on to a thread for good; the other scripts only wait in
+ * the queue meanwhile. A script waiting for stdin or a file, or busy in a large builtin,
+ * stops at its time limit or when it is cancelled as well.
+ *
+ * The counters tell how loaded the executor is: the runs waiting in the queue and
+ * running, the runs that ended and how many ended per second.
+ */
+public final class ScriptExecutor {
+
+    private final ThreadPoolExecutor threads;
+    private final Limits limits;
+    private final long started = System.nanoTime();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public ScriptExecutor(int threads, Limits limits) {
+        AtomicInteger count = new AtomicInteger();
+        this.threads = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "mava-script-" + count.incrementAndGet());
+                    // queued scripts don't keep the JVM alive
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.limits = limits;
+    }
+
+    /**
+     * Queues a run of the script that prints to {@code out}. The future fails with the
+     * error that ended the run, a {@link LimitExceededException} when it went over a
+     * limit; cancelling it interrupts the run at its next check of the limits.
+     */
+    public Future<?> submit(MavaEngine.Script script, PrintStream out) {
+        return threads.submit(() -> {
+            boolean ok = false;
+            try {
+                script.run(out, limits);
+                ok = true;
+            } finally {
+                (ok ? succeeded : failed).incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Queues a task that runs scripts other than through a {@link MavaEngine.Script}, such
+     * as a {@link Server} request running a command line of {@link Main}. The task gets
+     * the limits of the executor and has to keep its runs within them.
+     */
+    <T> Future<T> submit(Function<Limits, T> task) {
+        return threads.submit(() -> {
+            boolean ok = false;
+            try {
+                T result = task.apply(limits);
+                ok = true;
+                return result;
+            } finally {
+                (ok ? succeeded : failed).incrementAndGet();
+            }
+        });
+    }
+
+    // the runs waiting for a thread
+    public int queueDepth() {
+        return threads.getQueue().size();
+    }
+
+    public int running() {
+        return threads.getActiveCount();
+    }
+
+    public long succeeded() {
+        return succeeded.get();
+    }
+
+    public long failed() {
+        return failed.get();
+    }
+
+    // runs ended per second, since the executor was created
+    public double throughput() {
+        double seconds = (System.nanoTime() - started) / 1e9;
+        return (succeeded.get() + failed.get()) / seconds;
+    }
+
+    // runs what is queued, then stops the threads
+    public void shutdown() {
+        threads.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return threads.awaitTermination(timeout, unit);
+    }
+}
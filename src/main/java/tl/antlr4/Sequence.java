@@ -0,0 +1,364 @@
+package tl.antlr4;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+
+/**
+ * A lazy sequence of values, produced one at a time by a {@link Cursor} instead of being
+ * held in a list. {@code lines(path)} and {@code chunks(path, n)} read their file on
+ * every pass over the sequence, so a {@code for} loop over a file of any size runs in
+ * constant memory. {@code range(from, to)} only holds its bounds.
+ */
+public abstract class Sequence {
+
+    /**
+     * One pass over a sequence. A cursor may hold a file open: it is closed when the
+     * last value has been read, and whoever stops early has to close it.
+     */
+    public interface Cursor extends Closeable {
+
+        // the next value, null once the sequence is exhausted
+        TLValue next();
+
+        @Override
+        void close();
+    }
+
+    private static final Cursor EMPTY = new Cursor() {
+        @Override
+        public TLValue next() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    abstract Cursor open();
+
+    // lines("path")
+    static Sequence lines(Path path) {
+        return new Lines(path);
+    }
+
+    // chunks("path", n)
+    static Sequence chunks(Path path, int size) {
+        if (size <= 0) {
+            throw new OperatorException("chunks() needs a positive chunk size, got " + size);
+        }
+        return new Chunks(path, size);
+    }
+
+    // range(from, to)
+    static Range range(int from, int to) {
+        return new Range(from, to);
+    }
+
+    /**
+     * A cursor over the elements of a list or a set, the rows of a matrix, the keys of a
+     * map, the characters of a string or the values of a sequence.
+     */
+    static Cursor iterate(TLValue value) {
+        if (value.isSequence()) {
+            return value.asSequence().open();
+        }
+        if (value.isMap()) {
+            return new Keys(value.asMap().keys());
+        }
+        if (value.isString() || value.isList()) {
+            return new Elements(value);
+        }
+        throw new OperatorException();
+    }
+
+    static Cursor empty() {
+        return EMPTY;
+    }
+
+    private static OperatorException readError(Path path, IOException e) {
+        return new OperatorException("Can't read " + path + ": " + e.getMessage());
+    }
+
+    // list[i], string[i] or matrix[i] for increasing i, checking the size on every step
+    private static final class Elements implements Cursor {
+
+        private final TLValue value;
+        private int next;
+
+        Elements(TLValue value) {
+            this.value = value;
+        }
+
+        @Override
+        public TLValue next() {
+            if (value.isString()) {
+                CharSequence string = value.asChars();
+                return next < string.length() ? TLValue.ofChar(string.charAt(next++)) : null;
+            }
+            if (value.isDense()) {
+                DenseMatrix dense = value.asDense();
+                if (dense.isVector()) {
+                    return next < dense.size() ? TLValue.of(dense.get(next++)) : null;
+                }
+                // a row of a matrix, without turning the matrix into lists
+                return next < dense.rows ? new TLValue(DenseMatrix.vector(dense.row(next++))) : null;
+            }
+            if (next >= value.asList().size()) {
+                return null;
+            }
+            // an element that was an undefined variable, it mustn't end the iteration
+            TLValue element = value.asList().get(next++);
+            return element != null ? element : TLValue.NULL;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    // the elements of a set or the keys of a map, which can't change while they are iterated
+    private static final class Keys implements Cursor {
+
+        private final Iterator<TLValue> keys;
+
+        Keys(Iterator<TLValue> keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        public TLValue next() {
+            try {
+                return keys.hasNext() ? keys.next() : null;
+            } catch (ConcurrentModificationException e) {
+                throw new OperatorException("A set or map can't change while a for loop iterates it");
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * The whole numbers from {@code from} up to, not including, {@code to}.
+     */
+    static final class Range extends Sequence {
+
+        final int from;
+        final int to;
+
+        Range(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        long size() {
+            return Math.max(0, (long) to - from);
+        }
+
+        boolean contains(TLValue value) {
+            if (!value.isNumber()) {
+                return false;
+            }
+            // a number equal to a whole one within EPSILON is in the range, the way == compares it
+            double d = value.asDouble();
+            double nearest = Math.rint(d);
+            return Math.abs(d - nearest) < TLValue.EPSILON && nearest >= from && nearest < to;
+        }
+
+        @Override
+        Cursor open() {
+            return new Cursor() {
+                private int next = from;
+
+                @Override
+                public TLValue next() {
+                    return next < to ? TLValue.of(next++) : null;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return "range(" + from + ", " + to + ")";
+        }
+    }
+
+    private static final class Lines extends Sequence {
+
+        private final Path path;
+
+        Lines(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        Cursor open() {
+            BufferedReader reader;
+            try {
+                reader = new BufferedReader(new InputStreamReader(Files.newInputStream(path), Charset.defaultCharset()));
+            } catch (IOException e) {
+                throw readError(path, e);
+            }
+            return new Cursor() {
+                @Override
+                public TLValue next() {
+                    try {
+                        String line = reader.readLine();
+                        if (line == null) {
+                            close();
+                            return null;
+                        }
+                        return new TLValue(line);
+                    } catch (IOException e) {
+                        close();
+                        throw readError(path, e);
+                    }
+                }
+
+                @Override
+                public void close() {
+                    try {
+                        reader.close();
+                    } catch (IOException ignored) {
+                        // nothing left to read from it anyway
+                    }
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return "lines(" + path + ")";
+        }
+    }
+
+    private static final class Chunks extends Sequence {
+
+        private final Path path;
+        private final int size;
+
+        Chunks(Path path, int size) {
+            this.path = path;
+            this.size = size;
+        }
+
+        @Override
+        Cursor open() {
+            try {
+                return new ChunkCursor(path, FileChannel.open(path, StandardOpenOption.READ), size);
+            } catch (IOException e) {
+                throw readError(path, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "chunks(" + path + ", " + size + ")";
+        }
+    }
+
+    /**
+     * Decodes a file into strings of {@code size} characters, the last one possibly
+     * shorter. The file is mapped a window at a time, so only the window being decoded
+     * is paged in and files larger than 2GB can be read.
+     */
+    private static final class ChunkCursor implements Cursor {
+
+        static final long WINDOW = 1L << 26;
+
+        private final Path path;
+        private final FileChannel channel;
+        private final long size;
+        private final CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final CharBuffer chunk;
+        private MappedByteBuffer window;
+        // file offset of the first byte after the current window
+        private long mapped;
+        // the whole file is decoded, what the decoder still holds is left to flush
+        private boolean flushing;
+        private boolean done;
+
+        ChunkCursor(Path path, FileChannel channel, int chunkSize) throws IOException {
+            this.path = path;
+            this.channel = channel;
+            this.size = channel.size();
+            this.chunk = CharBuffer.allocate(chunkSize);
+        }
+
+        @Override
+        public TLValue next() {
+            if (done) {
+                return null;
+            }
+            chunk.clear();
+            try {
+                while (chunk.hasRemaining()) {
+                    if (window == null || !window.hasRemaining() && mapped < size) {
+                        map(mapped);
+                    }
+                    if (!flushing) {
+                        boolean last = mapped >= size;
+                        if (decoder.decode(window, chunk, last).isOverflow()) {
+                            break;
+                        }
+                        if (!last) {
+                            if (window.hasRemaining()) {
+                                // a character split across windows: map again from its first byte
+                                map(mapped - window.remaining());
+                            }
+                            continue;
+                        }
+                        flushing = true;
+                    }
+                    if (decoder.flush(chunk).isOverflow()) {
+                        break;
+                    }
+                    close();
+                    break;
+                }
+            } catch (IOException e) {
+                close();
+                throw readError(path, e);
+            }
+            chunk.flip();
+            return chunk.hasRemaining() ? new TLValue(chunk.toString()) : null;
+        }
+
+        private void map(long position) throws IOException {
+            long length = Math.min(WINDOW, size - position);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            mapped = position + length;
+        }
+
+        @Override
+        public void close() {
+            done = true;
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // nothing left to read from it anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package tl.antlr4;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A long-running MAVA process. {@code Main --server} listens on a loopback port and runs
+ * the scripts that {@link Client}s send, so every script after the first starts in a warm
+ * JVM: the interpreter is JIT-compiled already and the programs of {@link ProgramCache}
+ * are in memory. Scripts run on a {@link ScriptExecutor}, as many at once as it has
+ * threads, within its limits: {@code --max-steps}, {@code --max-millis} and
+ * {@code --max-length} of the server cap the ones a request asks for. Whatever a script
+ * throws, an assertion or a runaway recursion too, ends that script only.
+ *
+ * The port and a random token are written to {@code ~/.mava/server}, which only its owner
+ * can read, and a request that doesn't start with the token is dropped. Other users of
+ * the machine can reach the port but can't run scripts as the server's user.
+ *
+ * A request is the token, the charset the client prints in, its working directory, which
+ * relative paths of the run start from, and the command line arguments of {@link Main}.
+ * Requests are read on threads of their own, so a client that is slow to send one
+ * doesn't hold up the others. The answer is a sequence of frames, a kind byte followed by
+ * its data: output for stdout or stderr (a length and that many bytes), then the exit
+ * status of the run. When the script reads stdin, the server asks for it with an input
+ * frame, and the client answers with a length and that many bytes of its stdin, -1 at
+ * its end.
+ */
+final class Server {
+
+    // frame kinds
+    static final byte EXIT = 0;
+    static final byte STDOUT = 1;
+    static final byte STDERR = 2;
+    static final byte INPUT = 3;
+
+    // a client has this long to send its request once connected
+    private static final int REQUEST_TIMEOUT_MILLIS = 10000;
+    private static final int TOKEN_BYTES = 16;
+
+    private static final ExecutorService REQUESTS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "mava-request");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ServerSocket socket;
+    private final String token;
+    private final ScriptExecutor scripts;
+
+    private Server(ServerSocket socket, String token, ScriptExecutor scripts) {
+        this.socket = socket;
+        this.token = token;
+        this.scripts = scripts;
+    }
+
+    // ~/.mava/server: "<port> <token>"
+    static Path stateFile() {
+        return Paths.get(System.getProperty("user.home"), ".mava", "server");
+    }
+
+    // Main --server [--port=<n>] [--threads=<n>] [--max-steps=<n>] [--max-millis=<n>] [--max-length=<n>]
+    static void main(String[] args) {
+        int port = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long maxSteps = Limits.NO_LIMIT;
+        long maxMillis = Limits.NO_LIMIT;
+        int maxLength = (int) Limits.NO_LIMIT;
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--max-steps=")) {
+                maxSteps = Long.parseLong(arg.substring("--max-steps=".length()));
+            } else if (arg.startsWith("--max-millis=")) {
+                maxMillis = Long.parseLong(arg.substring("--max-millis=".length()));
+            } else if (arg.startsWith("--max-length=")) {
+                maxLength = Integer.parseInt(arg.substring("--max-length=".length()));
+            } else {
+                System.err.println("unknown server option: " + arg);
+                return;
+            }
+        }
+        try {
+            ServerSocket socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+            ScriptExecutor scripts = new ScriptExecutor(threads, new Limits(maxSteps, maxMillis, maxLength));
+            Server server = new Server(socket, newToken(), scripts);
+            Path state = stateFile();
+            server.writeState(state);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteQuietly(state)));
+            System.out.println("MAVA server listening on " + socket.getInetAddress().getHostAddress() + ":"
+                    + socket.getLocalPort());
+            server.serve();
+        } catch (IOException e) {
+            System.err.println("MAVA server: " + e.getMessage());
+        }
+    }
+
+    private void serve() {
+        while (true) {
+            Socket client;
+            try {
+                client = socket.accept();
+            } catch (IOException e) {
+                continue;
+            }
+            REQUESTS.execute(() -> {
+                try {
+                    accept(client);
+                } catch (IOException | RuntimeException e) {
+                    // the client went away or sent no request in time
+                    closeQuietly(client);
+                }
+            });
+        }
+    }
+
+    // reads the request, and queues its run when it has the token
+    private void accept(Socket client) throws IOException {
+        client.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(client.getInputStream()));
+        byte[] presented = in.readUTF().getBytes(StandardCharsets.UTF_8);
+        if (!MessageDigest.isEqual(presented, token.getBytes(StandardCharsets.UTF_8))) {
+            client.close();
+            return;
+        }
+        String charset = in.readUTF();
+        if (!Charset.isSupported(charset)) {
+            charset = StandardCharsets.UTF_8.name();
+        }
+        Path directory = Paths.get(in.readUTF());
+        String[] args = new String[in.readInt()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = in.readUTF();
+        }
+        // a script may run and wait for input as long as its limits let it
+        client.setSoTimeout(0);
+        String clientCharset = charset;
+        scripts.submit(limits -> {
+            respond(client, in, clientCharset, directory, args, limits);
+            return null;
+        });
+    }
+
+    // runs a request in a thread of the executor, and sends the client what it printed
+    private static void respond(Socket client, DataInputStream in, String charset, Path directory, String[] args,
+                                Limits limits) {
+        try (Socket connection = client) {
+            DataOutputStream frames = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            PrintStream out = new PrintStream(new FrameStream(frames, STDOUT), false, charset);
+            PrintStream err = new PrintStream(new FrameStream(frames, STDERR), false, charset);
+            InputStreamReader stdin = new InputStreamReader(new ClientStdin(frames, in), charset);
+            int status;
+            try {
+                status = Main.run(args, stdin, directory, out, err, limits);
+            } catch (Throwable e) {
+                // a failed assertion, a runaway recursion or running out of memory ends the
+                // script, not the server
+                err.println(e);
+                status = 1;
+            }
+            out.flush();
+            err.flush();
+            synchronized (frames) {
+                frames.writeByte(EXIT);
+                frames.writeInt(status);
+                frames.flush();
+            }
+        } catch (IOException e) {
+            // the client went away
+        }
+    }
+
+    private static void closeQuietly(Socket client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            // closed already
+        }
+    }
+
+    // written aside and moved in, with the owner-only permissions of a temp file
+    private void writeState(Path state) throws IOException {
+        Files.createDirectories(state.getParent());
+        Path temp = Files.createTempFile(state.getParent(), "server", ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(socket.getLocalPort() + " " + token);
+        }
+        Files.move(temp, state, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return token.toString();
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // a client finds no server behind it and runs scripts itself
+        }
+    }
+
+    // the stdin of the client, asked for with an input frame whenever the script has read all it sent
+    private static final class ClientStdin extends InputStream {
+
+        private final DataOutputStream frames;
+        private final DataInputStream in;
+        private byte[] buffer = new byte[0];
+        private int position;
+        private boolean ended;
+
+        ClientStdin(DataOutputStream frames, DataInputStream in) {
+            this.frames = frames;
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == buffer.length) {
+                if (ended) {
+                    return -1;
+                }
+                // read on a thread of its own, while the script's thread may still print
+                synchronized (frames) {
+                    frames.writeByte(INPUT);
+                    frames.flush();
+                }
+                int length = in.readInt();
+                if (length < 0) {
+                    ended = true;
+                } else {
+                    buffer = new byte[length];
+                    in.readFully(buffer);
+                    position = 0;
+                }
+            }
+            int n = Math.min(len, buffer.length - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+
+    // what a script prints to one of the streams, as frames of that kind
+    private static final class FrameStream extends OutputStream {
+
+        private final DataOutputStream frames;
+        private final byte kind;
+
+        FrameStream(DataOutputStream frames, byte kind) {
+            this.frames = frames;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (frames) {
+                frames.writeByte(kind);
+                frames.writeInt(len);
+                frames.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (frames) {
+                frames.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package tl.antlr4;
+
+import java.io.PrintStream;
+
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import tl.antlr4.TLParser.ParseContext;
+
+/**
+ * Parses MAVA source in two stages. SLL prediction is tried first: it is much faster
+ * than full LL and parses every valid program of this grammar, but it gives up at the
+ * first syntax error. Only then is the source parsed again with LL, which reports and
+ * recovers from errors the way the parser always has.
+ */
+final class SourceParser {
+
+    // where syntax errors are reported, in the form of ANTLR's ConsoleErrorListener
+    private final PrintStream err;
+    private int errors;
+
+    SourceParser() {
+        this(System.err);
+    }
+
+    SourceParser(PrintStream err) {
+        this.err = err;
+    }
+
+    ParseContext parse(CharStream source) {
+        TLLexer lexer = new TLLexer(source);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(reporter());
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        TLParser parser = new TLParser(tokens);
+        parser.setBuildParseTree(true);
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        try {
+            return parser.parse();
+        } catch (ParseCancellationException e) {
+            // the tokens are kept, only the parser runs again
+            tokens.seek(0);
+            parser.reset();
+            parser.addErrorListener(reporter());
+            parser.setErrorHandler(new DefaultErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            return parser.parse();
+        }
+    }
+
+    // whether the lexer or the parser reported a syntax error
+    boolean hadErrors() {
+        return errors > 0;
+    }
+
+    private BaseErrorListener reporter() {
+        return new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                                    int charPositionInLine, String msg, RecognitionException e) {
+                errors++;
+                err.println("line " + line + ":" + charPositionInLine + " " + msg);
+            }
+        };
+    }
+}
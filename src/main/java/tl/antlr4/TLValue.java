@@ -2,53 +2,248 @@ package tl.antlr4;
 
 import org.apache.commons.math3.linear.RealMatrix;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class TLValue implements Comparable<TLValue> {
 
-    public static final TLValue NULL = new TLValue();
-    public static final TLValue VOID = new TLValue();
+    /**
+     * Type tags of the unboxed values. They are stored in the same field as strings
+     * and lists, so a number is a single object holding a primitive double.
+     */
+    private enum Tag {
+        NUMBER,
+        // a number that came from an integer (for loop counters, sizes), printed without a fraction
+        INTEGER,
+        BOOLEAN,
+        NULL,
+        VOID
+    }
+
+    public static final TLValue NULL = new TLValue(Tag.NULL, 0);
+    public static final TLValue VOID = new TLValue(Tag.VOID, 0);
+    public static final TLValue TRUE = new TLValue(Tag.BOOLEAN, 1);
+    public static final TLValue FALSE = new TLValue(Tag.BOOLEAN, 0);
+
+    // canonical instances of the small whole numbers, the most common loop and arithmetic values
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1024;
+    private static final TLValue[] NUMBER_CACHE = new TLValue[CACHE_HIGH - CACHE_LOW];
+    private static final TLValue[] INTEGER_CACHE = new TLValue[CACHE_HIGH - CACHE_LOW];
+    // the one-character strings of Latin-1, what indexing and iterating a string return
+    private static final TLValue[] CHAR_CACHE = new TLValue[256];
+
+    static {
+        for (int i = CACHE_LOW; i < CACHE_HIGH; i++) {
+            NUMBER_CACHE[i - CACHE_LOW] = new TLValue(Tag.NUMBER, i);
+            INTEGER_CACHE[i - CACHE_LOW] = new TLValue(Tag.INTEGER, i);
+        }
+        for (char c = 0; c < CHAR_CACHE.length; c++) {
+            CHAR_CACHE[c] = new TLValue(String.valueOf(c));
+        }
+    }
 
+    // numbers closer than this are equal
+    static final double EPSILON = 0.00000000001;
+
+    // the value of numbers and booleans (1 or 0)
+    private final double number;
+    // a Tag for numbers, booleans, NULL and VOID, otherwise the string (a String or a Text), list,
+    // DenseMatrix, ValueMap or Sequence itself.
+    // A DenseMatrix is replaced by its list form the first time it is used as a list, by
+    // a thread that may change the value, see #asList.
     private Object value;
+    // of a list, matrix, set or map: the budget of the parfor iteration that made it, see Budget#mayChange
+    private final Budget owner;
 
-    private TLValue() {
-        // private constructor: only used for NULL and VOID
-        value = new Object();
+    private TLValue(Tag tag, double number) {
+        this.number = number;
+        this.value = tag;
+        this.owner = null;
     }
 
     TLValue(Object v) {
+        this(v, Budget.owner());
+    }
+
+    private TLValue(Object v, Budget owner) {
         if(v == null) {
             throw new RuntimeException("v == null");
         }
-        value = v;
-        // only accept boolean, list, number or string types
-        if(!(isBoolean() || isList() || isNumber() || isString())) {
+        // only accept boolean, list, number, string, set, map or sequence types
+        if(v instanceof Boolean) {
+            number = (Boolean)v ? 1 : 0;
+            value = Tag.BOOLEAN;
+        }
+        else if(v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte) {
+            number = ((Number)v).doubleValue();
+            value = Tag.INTEGER;
+        }
+        else if(v instanceof Number) {
+            number = ((Number)v).doubleValue();
+            value = Tag.NUMBER;
+        }
+        else if(v instanceof String || v instanceof Text || v instanceof List<?> || v instanceof DenseMatrix || v instanceof ValueMap
+                || v instanceof Sequence) {
+            number = 0;
+            value = v;
+        }
+        else {
             throw new RuntimeException("invalid data type: " + v + " (" + v.getClass() + ")");
         }
+        this.owner = v instanceof List<?> || v instanceof DenseMatrix || v instanceof ValueMap ? owner : null;
+    }
+
+    // a row of a matrix in list form, which belongs where the matrix does; null for a new matrix
+    static TLValue row(List<TLValue> row, TLValue matrix) {
+        return new TLValue(row, matrix != null ? matrix.owner : Budget.owner());
     }
 
-    public Boolean asBoolean() {
-        return (Boolean)value;
+    // whether the running iteration of a parfor, if any, may change this list, set or map
+    boolean mayChange() {
+        return Budget.mayChange(owner);
     }
 
-    public Double asDouble() {
-        return ((Number)value).doubleValue();
+    public static TLValue of(double d) {
+        int i = (int) d;
+        // -0.0 is printed differently than 0.0, so it is never taken from the cache
+        if (i == d && i >= CACHE_LOW && i < CACHE_HIGH && (i != 0 || Double.doubleToRawLongBits(d) == 0L)) {
+            return NUMBER_CACHE[i - CACHE_LOW];
+        }
+        return new TLValue(Tag.NUMBER, d);
+    }
+
+    public static TLValue of(int i) {
+        if (i >= CACHE_LOW && i < CACHE_HIGH) {
+            return INTEGER_CACHE[i - CACHE_LOW];
+        }
+        return new TLValue(Tag.INTEGER, i);
     }
 
-    public Long asLong() {
-        return ((Number)value).longValue();
+    public static TLValue of(boolean b) {
+        return b ? TRUE : FALSE;
+    }
+
+    // a one-character string
+    static TLValue ofChar(char c) {
+        return c < CHAR_CACHE.length ? CHAR_CACHE[c] : new TLValue(String.valueOf(c));
+    }
+
+    public boolean asBoolean() {
+        if (value != Tag.BOOLEAN) {
+            throw new ClassCastException("not a boolean: " + this);
+        }
+        return number != 0;
+    }
+
+    public double asDouble() {
+        if (!isNumber()) {
+            throw new ClassCastException("not a number: " + this);
+        }
+        return number;
+    }
+
+    public long asLong() {
+        return (long) asDouble();
     }
 
     @SuppressWarnings("unchecked")
     public List<TLValue> asList() {
-        return (List<TLValue>)value;
+        Object list = value;
+        if (list instanceof DenseMatrix) {
+            if (!mayChange()) {
+                // the iterations of a parfor read it at the same time, they get a view of the matrix
+                return ((DenseMatrix) list).view(this);
+            }
+            // list semantics (indexing, mutation, appending) from here on
+            value = list = ((DenseMatrix) list).toList(this);
+        }
+        return (List<TLValue>) list;
+    }
+
+    /**
+     * The dense form of a vector or matrix value, without converting lists in place. A list
+     * gives the same one until it changes, see {@link ValueList#dense()}.
+     */
+    public DenseMatrix asDense() {
+        if (value instanceof DenseMatrix) {
+            return (DenseMatrix) value;
+        }
+        ValueList list = value instanceof ValueList ? (ValueList) value : null;
+        DenseMatrix dense = list != null ? list.dense() : null;
+        if (dense != null) {
+            return dense;
+        }
+        dense = isMatrix() ? DenseMatrix.matrix(toMatrix(this)) : DenseMatrix.vector(toVector(this));
+        if (list != null) {
+            list.keepDense(dense);
+        }
+        return dense;
+    }
+
+    // changes whenever the list in this value does, see ValueList#dense()
+    Object version() {
+        return value instanceof ValueList ? ((ValueList) value).version() : value;
+    }
+
+    public boolean isDense() {
+        return value instanceof DenseMatrix;
+    }
+
+    public ValueMap asMap() {
+        return (ValueMap) value;
+    }
+
+    // a set or a map, see ValueMap#isSet
+    public boolean isMap() {
+        return value instanceof ValueMap;
+    }
+
+    public boolean isSet() {
+        return value instanceof ValueMap && ((ValueMap) value).isSet();
+    }
+
+    public Sequence asSequence() {
+        return (Sequence) value;
+    }
+
+    public boolean isSequence() {
+        return value instanceof Sequence;
+    }
+
+    /**
+     * An equal value that shares no mutable state with this one: lists, sets and maps
+     * are copied deeply, a dense value gets a holder of its own around the same
+     * immutable data. A list shares its persistent elements with the copy, see
+     * {@link ValueList#copy}.
+     */
+    TLValue copy() {
+        if (value instanceof DenseMatrix) {
+            return new TLValue(value);
+        }
+        if (value instanceof ValueMap) {
+            return new TLValue(((ValueMap) value).copy());
+        }
+        if (value instanceof ValueList) {
+            return new TLValue(((ValueList) value).copy());
+        }
+        if (value instanceof List<?>) {
+            List<TLValue> list = asList();
+            List<TLValue> copy = new ValueList();
+            for (TLValue element : list) {
+                copy.add(element.copy());
+            }
+            return new TLValue(copy);
+        }
+        return this;
     }
 
     public String asString() {
-        return (String)value;
+        return value instanceof Text ? value.toString() : (String) value;
+    }
+
+    // the characters of a string, without turning a Text into a String
+    CharSequence asChars() {
+        return (CharSequence) value;
     }
 
     @Override
@@ -58,7 +253,7 @@ public class TLValue implements Comparable<TLValue> {
                 return 0;
             }
             else {
-                return this.asDouble().compareTo(that.asDouble());
+                return Double.compare(this.number, that.number);
             }
         }
         else if(this.isString() && that.isString()) {
@@ -82,29 +277,106 @@ public class TLValue implements Comparable<TLValue> {
         }
         TLValue that = (TLValue)o;
         if(this.isNumber() && that.isNumber()) {
-            double diff = Math.abs(this.asDouble() - that.asDouble());
-            return diff < 0.00000000001;
+            double diff = Math.abs(this.number - that.number);
+            return diff < EPSILON;
         }
-        else {
-            return this.value.equals(that.value);
+        if(this.isBoolean() && that.isBoolean()) {
+            return this.number == that.number;
+        }
+        if(this.value instanceof Tag || that.value instanceof Tag) {
+            // NULL and VOID are singletons, handled by the identity check above
+            return false;
+        }
+        if(this.isString() && that.isString()) {
+            return this.asString().equals(that.asString());
+        }
+        if(this.value instanceof DenseMatrix && that.value instanceof DenseMatrix) {
+            return ((DenseMatrix) this.value).contentEquals((DenseMatrix) that.value);
         }
+        if(this.value instanceof DenseMatrix || that.value instanceof DenseMatrix) {
+            // compare a dense and a list value element-wise, without converting either
+            return this.isList() && that.isList() && listEquals(this, that);
+        }
+        return this.value.equals(that.value);
     }
 
+    private static boolean listEquals(TLValue a, TLValue b) {
+        if (a.isDense() && b.isDense()) {
+            return a.equals(b);
+        }
+        if (a.isDense()) {
+            TLValue swap = a;
+            a = b;
+            b = swap;
+        }
+        // a is a list, b is dense
+        List<TLValue> list = a.asList();
+        DenseMatrix dense = (DenseMatrix) b.value;
+        if (list.size() != dense.size()) {
+            return false;
+        }
+        for (int i = 0; i < list.size(); i++) {
+            TLValue element = list.get(i);
+            if (dense.isVector()) {
+                if (!element.isNumber() || Math.abs(element.number - dense.data[i]) >= EPSILON) {
+                    return false;
+                }
+            } else if (!element.isList() || !listEquals(element, new TLValue(DenseMatrix.vector(dense.row(i))))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Numbers closer than {@link #EPSILON} are equal, so a number hashes like the integer
+     * nearest to it, which the numbers equal to it share. Only a number within EPSILON of
+     * halfway between two integers can be equal to one that hashes like the other integer
+     * (see {@link #nearHalf(double)}); {@link ValueMap} looks for it there too. Lists,
+     * sets and maps hash by the values they hold.
+     */
     @Override
     public int hashCode() {
-        return value.hashCode();
+        if(isNumber()) {
+            return hashOf(number);
+        }
+        if(isBoolean()) {
+            return Double.hashCode(number);
+        }
+        if(value instanceof DenseMatrix) {
+            return ((DenseMatrix) value).listHashCode();
+        }
+        if(value instanceof Text) {
+            return value.toString().hashCode();
+        }
+        return value instanceof Tag ? System.identityHashCode(this) : value.hashCode();
+    }
+
+    // the hash of a number, the one of the integer nearest to it
+    static int hashOf(double d) {
+        return Double.hashCode(Math.floor(d + 0.5));
+    }
+
+    // numbers equal to d may hash like either of the integers it is halfway between
+    static boolean nearHalf(double d) {
+        return Math.abs(d - Math.floor(d) - 0.5) < 2 * EPSILON;
     }
 
     public boolean isBoolean() {
-        return value instanceof Boolean;
+        return value == Tag.BOOLEAN;
+    }
+
+    // a number printed without a fraction, see Tag.INTEGER
+    boolean isInteger() {
+        return value == Tag.INTEGER;
     }
 
     public boolean isNumber() {
-        return value instanceof Number;
+        return value == Tag.NUMBER || value == Tag.INTEGER;
     }
 
     public boolean isList() {
-        return value instanceof List<?>;
+        return value instanceof List<?> || value instanceof DenseMatrix;
     }
 
     public boolean isNull() {
@@ -116,35 +388,63 @@ public class TLValue implements Comparable<TLValue> {
     }
 
     public boolean isString() {
-        return value instanceof String;
+        return value instanceof String || value instanceof Text;
     }
 
     public static double[][] toMatrix(TLValue value) {
-        List<double[]> resultList = value.asList()
-                .stream().map(x -> x.asList().stream()
-                        .mapToDouble(y -> y.asDouble()).toArray()).collect(Collectors.toList());
-        double[][] resultArray = new double[resultList.size()][];
-        resultArray = resultList.toArray(resultArray);
-        return resultList.toArray(resultArray);
+        if (value.value instanceof DenseMatrix) {
+            DenseMatrix dense = (DenseMatrix) value.value;
+            double[][] resultArray = new double[dense.rows][];
+            for (int i = 0; i < resultArray.length; i++) {
+                resultArray[i] = dense.row(i);
+            }
+            return resultArray;
+        }
+        List<TLValue> rows = value.asList();
+        double[][] resultArray = new double[rows.size()][];
+        for (int i = 0; i < resultArray.length; i++) {
+            resultArray[i] = toVector(rows.get(i));
+        }
+        return resultArray;
     }
 
     public static double[] toVector(TLValue value) {
-        return value.asList().stream().mapToDouble(x -> x.asDouble()).toArray();
+        if (value.value instanceof DenseMatrix) {
+            return ((DenseMatrix) value.value).data.clone();
+        }
+        List<TLValue> list = value.asList();
+        double[] resultArray = new double[list.size()];
+        for (int i = 0; i < resultArray.length; i++) {
+            resultArray[i] = list.get(i).asDouble();
+        }
+        return resultArray;
     }
 
     public boolean isVector() {
+        if (value instanceof DenseMatrix) {
+            DenseMatrix dense = (DenseMatrix) value;
+            return dense.isVector() && dense.size() > 0;
+        }
         return isList() && asList().size() > 0 && !asList().get(0).isList();
     }
 
-    public static TLValue fromMatrix(RealMatrix realMatrix) {
-        double[][] resultArray = realMatrix.getData();
-        List<TLValue> resultList =
-                Arrays.stream(resultArray).map(x -> new TLValue(Arrays.stream(x).mapToObj(y -> y).collect(Collectors.toList())))
-                        .collect(Collectors.toList());
+    public static TLValue fromVector(double[] vector) {
+        List<TLValue> resultList = new ValueList();
+        for (double d : vector) {
+            resultList.add(of(d));
+        }
         return new TLValue(resultList);
     }
 
+    public static TLValue fromMatrix(RealMatrix realMatrix) {
+        return new TLValue(DenseMatrix.fromRealMatrix(realMatrix));
+    }
+
     public boolean isMatrix() {
+        if (value instanceof DenseMatrix) {
+            DenseMatrix dense = (DenseMatrix) value;
+            return !dense.isVector() && dense.size() > 0;
+        }
         return isList() && asList().size() > 0 && asList().get(0).isList();
     }
 
@@ -156,6 +456,62 @@ public class TLValue implements Comparable<TLValue> {
         if (isVoid()) {
             return "VOID";
         }
-        return String.valueOf(value);
+        if (value == Tag.NUMBER) {
+            return String.valueOf(number);
+        }
+        if (value == Tag.INTEGER) {
+            return String.valueOf((long) number);
+        }
+        if (value == Tag.BOOLEAN) {
+            return String.valueOf(number != 0);
+        }
+        if (isString()) {
+            return asString();
+        }
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the same text as {@link #toString()}, writing the elements of lists and
+     * matrices directly instead of building a string per element.
+     */
+    void appendTo(StringBuilder sb) {
+        if (value == Tag.NUMBER) {
+            sb.append(number);
+        } else if (value == Tag.INTEGER) {
+            sb.append((long) number);
+        } else if (value == Tag.BOOLEAN) {
+            sb.append(number != 0);
+        } else if (value instanceof String) {
+            sb.append((String) value);
+        } else if (value instanceof Text) {
+            ((Text) value).appendTo(sb);
+        } else if (value instanceof DenseMatrix) {
+            ((DenseMatrix) value).appendTo(sb);
+        } else if (value instanceof ValueMap) {
+            ((ValueMap) value).appendTo(sb);
+        } else if (value instanceof Sequence) {
+            // the expression that made it, reading a file to print it would defeat the laziness
+            sb.append(value);
+        } else if (value instanceof List<?>) {
+            List<?> list = (List<?>) value;
+            sb.append('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                TLValue element = (TLValue) list.get(i);
+                if (element == null) {
+                    sb.append("null");
+                } else {
+                    element.appendTo(sb);
+                }
+            }
+            sb.append(']');
+        } else {
+            sb.append(this);
+        }
     }
 }
@@ -0,0 +1,92 @@
+package tl.antlr4;
+
+/**
+ * A MAVA string built by {@code +}: the first {@link #length()} characters of a
+ * StringBuilder that the strings appended from one another share. Appending to the
+ * newest of them extends the builder in place, so a loop of {@code s = s + x} takes
+ * amortized O(1) per append instead of copying s every time; appending to an older one
+ * copies its characters into a builder of its own. The characters are turned into a
+ * String only when it is needed, for comparing or hashing, and printing writes them
+ * straight from the builder. Only the budget that made a Text, or one it was forked from,
+ * extends its builder, see {@link Budget#mayChange}: the iterations of a parfor appending
+ * to a string from outside the loop copy it.
+ */
+final class Text implements CharSequence {
+
+    // shorter results of + are plain strings, copying them costs less than a builder
+    static final int MIN_LENGTH = 64;
+
+    private final StringBuilder chars;
+    private final int length;
+    private final Budget owner;
+    private String flat;
+
+    private Text(StringBuilder chars) {
+        this.chars = chars;
+        this.length = chars.length();
+        this.owner = Budget.owner();
+    }
+
+    // string + value
+    static Object concat(CharSequence string, TLValue value) {
+        if (string instanceof Text) {
+            return ((Text) string).append(value);
+        }
+        StringBuilder sb = new StringBuilder(Math.max(16, string.length() * 2));
+        sb.append(string);
+        value.appendTo(sb);
+        return of(sb);
+    }
+
+    // the characters of a builder that isn't used afterwards, as a Text when they are long
+    static Object of(StringBuilder sb) {
+        Budget.checkLength(sb.length());
+        return sb.length() < MIN_LENGTH ? sb.toString() : new Text(sb);
+    }
+
+    private Text append(TLValue value) {
+        StringBuilder target = chars;
+        if (chars.length() != length || !Budget.mayChange(owner)) {
+            // another string was appended to the builder after this one
+            target = new StringBuilder(length * 2).append(chars, 0, length);
+        }
+        value.appendTo(target);
+        Budget.checkLength(target.length());
+        return new Text(target);
+    }
+
+    void appendTo(StringBuilder sb) {
+        if (sb == chars) {
+            // s + s: the builder can't be read while it grows
+            sb.append(toString());
+        } else {
+            sb.append(chars, 0, length);
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int i) {
+        if (i < 0 || i >= length) {
+            throw new StringIndexOutOfBoundsException("index " + i + ", length " + length);
+        }
+        return chars.charAt(i);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flat = chars.substring(0, length);
+        }
+        return flat;
+    }
+}
@@ -0,0 +1,257 @@
+package tl.antlr4;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * The list of a MAVA list value. Its elements are a {@link PersistentVector}: {@code list[i]}
+ * and {@code list[i] = v} take O(log32 n), and a list made from another one, by
+ * {@code list + x}, {@code list - x} or a copy, shares the elements of the other instead of
+ * copying them. Changing either of the two later only copies the path to the change.
+ *
+ * A list also answers {@code x in list} from a hash index of its elements (see
+ * {@link ValueMap}) once it has been searched a few times. Appending keeps the index up
+ * to date; any other change drops it, and it is built again after the next few searches.
+ * A list that holds lists, sets or maps is always scanned, they can change without it.
+ * The iterations of a parfor may search a list from outside the loop at once, so the
+ * index, and the dense form below, are published whole through volatile fields.
+ *
+ * A list used as a vector or matrix keeps the {@link DenseMatrix} made of it, along with the
+ * elements it was made from, and for a matrix the elements of every row. Since elements
+ * are persistent, the list and its rows are unchanged as long as they still hold the same
+ * ones, and the same dense form, with the decompositions it keeps, is used again.
+ */
+final class ValueList extends AbstractList<TLValue> implements RandomAccess {
+
+    // lists shorter than this are always scanned
+    static final int MIN_INDEXED_SIZE = 32;
+    // scans of a list before it gets an index
+    static final int SCANS_BEFORE_INDEX = 4;
+
+    private PersistentVector elements;
+    // another list may hold the same elements, appends may not fill in their tail
+    private boolean shared;
+    private volatile ValueMap index;
+    // searches without the index; a parfor's iterations may lose some of their counts
+    private int scans;
+    // the list holds no lists, sets or maps; null when that isn't known
+    private Boolean flat = Boolean.TRUE;
+    // the dense form last made of the list, see #dense()
+    private volatile Dense dense;
+
+    ValueList() {
+        this.elements = PersistentVector.EMPTY;
+    }
+
+    private ValueList(ValueList source) {
+        this.elements = source.elements;
+        this.shared = true;
+        this.flat = source.flat;
+        source.shared = true;
+    }
+
+    // list + element, the list itself stays as it is; takeIndex when this list may be changed
+    ValueList plus(TLValue element, boolean takeIndex) {
+        ValueList result = new ValueList(this);
+        if (takeIndex) {
+            // `list = list + x` drops this list, its index goes on with the result
+            result.index = index;
+            result.scans = scans;
+            index = null;
+            scans = 0;
+        }
+        result.add(element);
+        return result;
+    }
+
+    // list - element, the list itself stays as it is
+    ValueList minus(TLValue element) {
+        ValueList result = new ValueList(this);
+        result.remove(element);
+        return result;
+    }
+
+    // a deep copy, see TLValue#copy; only the lists, sets and maps in it are copied
+    ValueList copy() {
+        ValueList copy = new ValueList(this);
+        if (!isFlat()) {
+            for (int i = 0; i < size(); i++) {
+                TLValue element = get(i);
+                if (isContainer(element)) {
+                    copy.set(i, element.copy());
+                }
+            }
+        }
+        return copy;
+    }
+
+    // value in list
+    boolean includes(TLValue value) {
+        ValueMap current = index;
+        if (current == null) {
+            if (size() < MIN_INDEXED_SIZE || !isFlat() || ++scans < SCANS_BEFORE_INDEX) {
+                return scan(value);
+            }
+            index = current = ValueMap.index(this);
+        }
+        return current.containsKey(value);
+    }
+
+    private boolean scan(TLValue value) {
+        for (int i = 0; i < size(); i++) {
+            TLValue element = get(i);
+            if (element != null && element.equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isFlat() {
+        Boolean known = flat;
+        if (known == null) {
+            known = Boolean.TRUE;
+            for (int i = 0; i < size(); i++) {
+                if (isContainer(get(i))) {
+                    known = Boolean.FALSE;
+                    break;
+                }
+            }
+            flat = known;
+        }
+        return known;
+    }
+
+    private static boolean isContainer(TLValue element) {
+        return element != null && (element.isList() || element.isMap());
+    }
+
+    // the elements of the list now, a different object after any change
+    Object version() {
+        return elements;
+    }
+
+    // the dense form made of the list, null if the list or a row of it has changed since
+    DenseMatrix dense() {
+        Dense current = dense;
+        if (current == null || current.elements != elements) {
+            return null;
+        }
+        if (current.rows != null) {
+            for (int i = 0; i < current.rows.length; i++) {
+                if (get(i).version() != current.rows[i]) {
+                    return null;
+                }
+            }
+        }
+        return current.matrix;
+    }
+
+    void keepDense(DenseMatrix matrix) {
+        Object[] rows = null;
+        if (!matrix.isVector()) {
+            rows = new Object[size()];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = get(i).version();
+            }
+        }
+        dense = new Dense(matrix, elements, rows);
+    }
+
+    private void changed() {
+        index = null;
+        scans = 0;
+        flat = null;
+    }
+
+    @Override
+    public int size() {
+        return elements.size();
+    }
+
+    @Override
+    public TLValue get(int i) {
+        return elements.get(i);
+    }
+
+    @Override
+    public TLValue set(int i, TLValue element) {
+        TLValue old = elements.get(i);
+        changed();
+        elements = elements.set(i, element);
+        return old;
+    }
+
+    @Override
+    public boolean add(TLValue element) {
+        if (isContainer(element)) {
+            flat = Boolean.FALSE;
+            index = null;
+        } else if (index != null && element != null && !element.isVoid()) {
+            index.add(element);
+        }
+        elements = elements.append(element, !shared);
+        shared = false;
+        modCount++;
+        if ((elements.size() & 31) == 0) {
+            // once per 32 elements, a list grows one element at a time
+            Budget.checkLength(elements.size());
+        }
+        return true;
+    }
+
+    // inserting and removing shift the elements after them, the vector is built again
+    @Override
+    public void add(int i, TLValue element) {
+        if (i < 0 || i > size()) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for length " + size());
+        }
+        Object[] array = new Object[size() + 1];
+        copyTo(array, 0, i, 0);
+        array[i] = element;
+        copyTo(array, i, size(), i + 1);
+        rebuild(array);
+    }
+
+    @Override
+    public TLValue remove(int i) {
+        TLValue old = elements.get(i);
+        Object[] array = new Object[size() - 1];
+        copyTo(array, 0, i, 0);
+        copyTo(array, i + 1, size(), i);
+        rebuild(array);
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        rebuild(new Object[0]);
+    }
+
+    private void copyTo(Object[] array, int from, int to, int offset) {
+        for (int i = from; i < to; i++) {
+            array[offset + i - from] = elements.get(i);
+        }
+    }
+
+    private void rebuild(Object[] array) {
+        changed();
+        elements = PersistentVector.of(array, array.length);
+        shared = false;
+        modCount++;
+    }
+
+    // a dense form with the elements it was made from, and for a matrix the version of every row
+    private static final class Dense {
+
+        final DenseMatrix matrix;
+        final PersistentVector elements;
+        final Object[] rows;
+
+        Dense(DenseMatrix matrix, PersistentVector elements, Object[] rows) {
+            this.matrix = matrix;
+            this.elements = elements;
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,482 @@
+package tl.antlr4;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The value of a MAVA set or map: a hash table keyed by MAVA equality, iterated in
+ * insertion order. A set maps every element to itself.
+ *
+ * The table is a {@link HashTrie} and the order a {@link PersistentVector} of its
+ * entries, so that {@code set + x}, {@code set - x} and {@code map - k} make a new set or
+ * map in O(log32 n) that shares both with the one they started from, which stays as it
+ * was. A removed entry leaves a hole in the order, which is closed once there are more
+ * holes than entries.
+ *
+ * Keys hash by {@link TLValue#hashCode()}, lists, sets and maps by what they hold. A number
+ * hashes like the integer nearest to it, and when it is about halfway between two, a
+ * number equal to it may hash like the other one: a lookup of a key with such numbers in
+ * it also probes the hashes it could have with the other integers (at most
+ * {@link #MAX_PROBES}, beyond that it compares with every key).
+ *
+ * A list, set or map is copied when it becomes a key, and handed out as a copy, so that
+ * changing it can't change a key under its hash.
+ */
+public final class ValueMap {
+
+    // the hashes a lookup probes before it compares with every key
+    static final int MAX_PROBES = 64;
+    // holes in the order that are left before it is closed up
+    private static final int MIN_HOLES = 32;
+
+    private static final int SET_HASH = 0x5e7;
+    private static final int MAP_HASH = 0x3a9;
+
+    static final String UNDEFINED_ELEMENT = "Sets and maps can only hold defined values";
+
+    private final boolean set;
+    // from Key to Entry
+    private HashTrie table = HashTrie.EMPTY;
+    // the entries in the order they were added, null where one was removed
+    private PersistentVector order = PersistentVector.EMPTY;
+    private int size;
+    // another set or map may hold the same order, appends may not fill in its tail
+    private boolean shared;
+
+    private ValueMap(boolean set) {
+        this.set = set;
+    }
+
+    private ValueMap(ValueMap source) {
+        this.set = source.set;
+        this.table = source.table;
+        this.order = source.order;
+        this.size = source.size;
+        this.shared = true;
+        source.shared = true;
+    }
+
+    // the trie takes nodes as it grows, there is no capacity to give it up front
+    public static ValueMap newSet() {
+        return new ValueMap(true);
+    }
+
+    public static ValueMap newMap() {
+        return new ValueMap(false);
+    }
+
+    // the elements of a list, for answering `in` without scanning it
+    static ValueMap index(List<TLValue> list) {
+        ValueMap index = newSet();
+        for (TLValue element : list) {
+            if (isKey(element)) {
+                index.add(element);
+            }
+        }
+        return index;
+    }
+
+    public boolean isSet() {
+        return set;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(TLValue key) {
+        return isKey(key) && find(key) != null;
+    }
+
+    // the value of a key, null when the map doesn't hold it
+    public TLValue get(TLValue key) {
+        Entry found = isKey(key) ? find(key) : null;
+        return found != null ? found.value : null;
+    }
+
+    // set + element, the set itself stays as it is
+    ValueMap plus(TLValue element) {
+        ValueMap result = new ValueMap(this);
+        result.add(element);
+        return result;
+    }
+
+    // set - element, map - key, the set or map itself stays as it is
+    ValueMap minus(TLValue key) {
+        ValueMap result = new ValueMap(this);
+        result.remove(key);
+        return result;
+    }
+
+    // adds an element to this set
+    public void add(TLValue element) {
+        put(element, element);
+    }
+
+    // map[key] = value
+    public void put(TLValue key, TLValue value) {
+        if (!isKey(key) || !isKey(value)) {
+            throw new OperatorException(UNDEFINED_ELEMENT);
+        }
+        Entry found = find(key);
+        if (found != null) {
+            // the first of equal keys stays, a set keeps its element
+            if (!set) {
+                replace(new Entry(found.key, value, found.position));
+            }
+            return;
+        }
+        TLValue own = isContainer(key) ? key.copy() : key;
+        Key newKey = new Key(own, own.hashCode());
+        Entry entry = new Entry(newKey, set ? own : value, order.size());
+        table = table.put(newKey.hash, newKey, entry);
+        order = order.append(entry, !shared);
+        shared = false;
+        size++;
+    }
+
+    // removes an element from this set, a key from this map
+    public void remove(TLValue key) {
+        Entry found = isKey(key) ? find(key) : null;
+        if (found == null) {
+            return;
+        }
+        table = table.remove(found.key.hash, found.key);
+        order = order.set(found.position, null);
+        size--;
+        if (order.size() - size > Math.max(MIN_HOLES, size)) {
+            closeHoles();
+        }
+    }
+
+    // an entry with a new value in place of the one of its key
+    private void replace(Entry entry) {
+        table = table.put(entry.key.hash, entry.key, entry);
+        order = order.set(entry.position, entry);
+    }
+
+    private void closeHoles() {
+        Object[] entries = new Object[size];
+        HashTrie newTable = HashTrie.EMPTY;
+        int position = 0;
+        for (Entry entry : entries()) {
+            Entry moved = new Entry(entry.key, entry.value, position);
+            entries[position++] = moved;
+            newTable = newTable.put(moved.key.hash, moved.key, moved);
+        }
+        table = newTable;
+        order = PersistentVector.of(entries, size);
+        shared = false;
+    }
+
+    // the entries in the order they were added, as they are when this is called
+    private Iterable<Entry> entries() {
+        final PersistentVector order = this.order;
+        return () -> new Iterator<Entry>() {
+            private int next = skipHoles(0);
+
+            private int skipHoles(int i) {
+                while (i < order.size() && order.object(i) == null) {
+                    i++;
+                }
+                return i;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < order.size();
+            }
+
+            @Override
+            public Entry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Entry entry = (Entry) order.object(next);
+                next = skipHoles(next + 1);
+                return entry;
+            }
+        };
+    }
+
+    // the elements of a set, the keys of a map
+    Iterator<TLValue> keys() {
+        final Iterator<Entry> keys = entries().iterator();
+        return new Iterator<TLValue>() {
+            @Override
+            public boolean hasNext() {
+                return keys.hasNext();
+            }
+
+            @Override
+            public TLValue next() {
+                TLValue key = keys.next().key.value;
+                return isContainer(key) ? key.copy() : key;
+            }
+        };
+    }
+
+    // undefined variables (null) and VOID can't be compared, so they can't be keys or values
+    private static boolean isKey(TLValue value) {
+        return value != null && !value.isVoid();
+    }
+
+    private static boolean isContainer(TLValue value) {
+        return value.isList() || value.isMap();
+    }
+
+    // the entry of the key, null if there is none
+    private Entry find(TLValue key) {
+        int hash = key.hashCode();
+        Key probe = new Key(key, hash);
+        Entry found = (Entry) table.get(hash, probe);
+        if (found != null || !nearHalf(key)) {
+            return found;
+        }
+        // an equal number that hashes like the integer on the other side of it
+        Set<Integer> hashes = hashes(key);
+        if (hashes == null) {
+            for (Entry entry : entries()) {
+                if (entry.key.value.equals(key)) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+        for (int other : hashes) {
+            if (other != hash && (found = (Entry) table.get(other, probe)) != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    // the value holds a number equal to numbers that hash differently, see TLValue#hashCode
+    private static boolean nearHalf(TLValue value) {
+        if (value.isNumber()) {
+            return TLValue.nearHalf(value.asDouble());
+        }
+        if (value.isDense()) {
+            for (double d : value.asDense().data) {
+                if (TLValue.nearHalf(d)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (value.isList()) {
+            for (TLValue element : value.asList()) {
+                if (element != null && nearHalf(element)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (value.isMap()) {
+            for (Entry entry : value.asMap().entries()) {
+                if (nearHalf(entry.key.value) || nearHalf(entry.value)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Every hash a value equal to this one can have, following {@link TLValue#hashCode()};
+     * null when there are more than {@link #MAX_PROBES}.
+     */
+    private static Set<Integer> hashes(TLValue value) {
+        Set<Integer> hashes = new LinkedHashSet<>();
+        if (value.isNumber()) {
+            double d = value.asDouble();
+            hashes.add(TLValue.hashOf(d));
+            if (TLValue.nearHalf(d)) {
+                hashes.add(Double.hashCode(Math.floor(d)));
+                hashes.add(Double.hashCode(Math.floor(d) + 1));
+            }
+            return hashes;
+        }
+        if (value.isDense()) {
+            DenseMatrix dense = value.asDense();
+            if (dense.isVector()) {
+                return listHashes(dense.data, 0, dense.columns);
+            }
+            hashes.add(1);
+            for (int i = 0; i < dense.rows && hashes != null; i++) {
+                hashes = combine(hashes, listHashes(dense.data, i * dense.columns, dense.columns), true);
+            }
+            return hashes;
+        }
+        if (value.isList()) {
+            hashes.add(1);
+            for (int i = 0; i < value.asList().size() && hashes != null; i++) {
+                TLValue element = value.asList().get(i);
+                hashes = combine(hashes, element == null ? Collections.singleton(0) : hashes(element), true);
+            }
+            return hashes;
+        }
+        if (value.isMap()) {
+            ValueMap map = value.asMap();
+            hashes.add(map.set ? SET_HASH : MAP_HASH);
+            for (Iterator<Entry> entries = map.entries().iterator(); entries.hasNext() && hashes != null; ) {
+                Entry entry = entries.next();
+                Set<Integer> keyHashes = hashes(entry.key.value);
+                hashes = combine(hashes, map.set ? keyHashes : xor(keyHashes, hashes(entry.value)), false);
+            }
+            return hashes;
+        }
+        hashes.add(value.hashCode());
+        return hashes;
+    }
+
+    // the hashes of a dense vector or matrix row, as DenseMatrix#listHashCode makes them
+    private static Set<Integer> listHashes(double[] data, int offset, int length) {
+        Set<Integer> hashes = new LinkedHashSet<>();
+        hashes.add(1);
+        for (int i = 0; i < length && hashes != null; i++) {
+            hashes = combine(hashes, hashes(TLValue.of(data[offset + i])), true);
+        }
+        return hashes;
+    }
+
+    // the hashes of a map entry, key ^ value over every pair; null past MAX_PROBES
+    private static Set<Integer> xor(Set<Integer> keys, Set<Integer> values) {
+        if (keys == null || values == null || keys.size() * values.size() > MAX_PROBES) {
+            return null;
+        }
+        Set<Integer> xors = new LinkedHashSet<>();
+        for (int k : keys) {
+            for (int v : values) {
+                xors.add(k ^ v);
+            }
+        }
+        return xors;
+    }
+
+    // 31 * h + e for a list, h + e for a set or map, over every pair; null past MAX_PROBES
+    private static Set<Integer> combine(Set<Integer> hashes, Set<Integer> element, boolean list) {
+        if (element == null || hashes.size() * element.size() > MAX_PROBES) {
+            return null;
+        }
+        Set<Integer> combined = new LinkedHashSet<>();
+        for (int h : hashes) {
+            for (int e : element) {
+                combined.add(list ? 31 * h + e : h + e);
+            }
+        }
+        return combined;
+    }
+
+    // a deep copy, see TLValue#copy; keys never change, only the lists, sets and maps that are values are copied
+    ValueMap copy() {
+        ValueMap copy = new ValueMap(this);
+        if (!set) {
+            for (Entry entry : entries()) {
+                if (isContainer(entry.value)) {
+                    copy.replace(new Entry(entry.key, entry.value.copy(), entry.position));
+                }
+            }
+        }
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ValueMap)) {
+            return false;
+        }
+        ValueMap that = (ValueMap) o;
+        if (set != that.set || size() != that.size()) {
+            return false;
+        }
+        for (Entry entry : entries()) {
+            TLValue value = that.get(entry.key.value);
+            if (value == null || (!set && !value.equals(entry.value))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the same for equal keys in any order, see TLValue#hashCode
+    @Override
+    public int hashCode() {
+        int hashCode = set ? SET_HASH : MAP_HASH;
+        for (Entry entry : entries()) {
+            hashCode += set ? entry.key.hash : entry.key.hash ^ entry.value.hashCode();
+        }
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        appendTo(sb);
+        return sb.toString();
+    }
+
+    // {1.0, 2.0} for a set, {a: 1.0} for a map, {} and {:} when they are empty
+    void appendTo(StringBuilder sb) {
+        sb.append('{');
+        if (size == 0 && !set) {
+            sb.append(':');
+        }
+        boolean first = true;
+        for (Entry entry : entries()) {
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            entry.key.value.appendTo(sb);
+            if (!set) {
+                sb.append(": ");
+                entry.value.appendTo(sb);
+            }
+        }
+        sb.append('}');
+    }
+
+    // a key with its hash, or a probe for one
+    private static final class Key {
+
+        final TLValue value;
+        final int hash;
+
+        Key(TLValue value, int hash) {
+            this.value = value;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && value.equals(((Key) o).value);
+        }
+    }
+
+    // the key as it was first put, its value and where it is in the order
+    private static final class Entry {
+
+        final Key key;
+        final TLValue value;
+        final int position;
+
+        Entry(Key key, TLValue value, int position) {
+            this.key = key;
+            this.value = value;
+            this.position = position;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package tl.antlr4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Keys of a {@link HashTrie} with the same hash, or with hashes that only differ in the
+ * bits of the last level, and tries that keys are removed from.
+ */
+public class HashTrieTest {
+
+    @Test
+    public void keysWithTheSameHashAreKeptApart() {
+        HashTrie trie = HashTrie.EMPTY.put(7, "a", 1).put(7, "b", 2).put(7, "c", 3);
+        assertEquals(1, trie.get(7, "a"));
+        assertEquals(2, trie.get(7, "b"));
+        assertEquals(3, trie.get(7, "c"));
+        assertNull(trie.get(7, "d"));
+        assertNull(trie.get(8, "a"));
+        HashTrie replaced = trie.put(7, "b", 20);
+        assertEquals(20, replaced.get(7, "b"));
+        assertEquals(2, trie.get(7, "b"));
+    }
+
+    @Test
+    public void keysWithTheSameHashAreRemovedOneByOne() {
+        HashTrie trie = HashTrie.EMPTY.put(-1, "a", 1).put(-1, "b", 2).put(-1, "c", 3).put(0, "d", 4);
+        HashTrie withoutB = trie.remove(-1, "b");
+        assertNull(withoutB.get(-1, "b"));
+        assertEquals(1, withoutB.get(-1, "a"));
+        assertEquals(3, withoutB.get(-1, "c"));
+        HashTrie withoutA = withoutB.remove(-1, "a");
+        assertNull(withoutA.get(-1, "a"));
+        assertEquals(3, withoutA.get(-1, "c"));
+        assertEquals(4, withoutA.get(0, "d"));
+        assertSame(HashTrie.EMPTY, withoutA.remove(-1, "c").remove(0, "d"));
+        // the tries removed from stay as they were
+        assertEquals(2, trie.get(-1, "b"));
+        assertEquals(1, withoutB.get(-1, "a"));
+    }
+
+    @Test
+    public void hashesThatDifferInTheLastLevelOnly() {
+        int low = 0x0abcdef1;
+        int high = low | 1 << 31;
+        HashTrie trie = HashTrie.EMPTY.put(low, "low", 1).put(high, "high", 2);
+        assertEquals(1, trie.get(low, "low"));
+        assertEquals(2, trie.get(high, "high"));
+        assertNull(trie.get(high, "low"));
+        HashTrie withoutLow = trie.remove(low, "low");
+        assertNull(withoutLow.get(low, "low"));
+        assertEquals(2, withoutLow.get(high, "high"));
+    }
+
+    @Test
+    public void removingAKeyItDoesntHoldGivesTheSameTrie() {
+        HashTrie trie = HashTrie.EMPTY.put(1, "a", 1).put(1, "b", 2).put(33, "c", 3);
+        assertSame(trie, trie.remove(1, "z"));
+        assertSame(trie, trie.remove(2, "a"));
+        assertSame(HashTrie.EMPTY, HashTrie.EMPTY.remove(1, "a"));
+    }
+
+    @Test
+    public void holdsWhatAHashMapHolds() {
+        Random random = new Random(42);
+        Map<Integer, Integer> expected = new HashMap<>();
+        HashTrie trie = HashTrie.EMPTY;
+        for (int step = 0; step < 20000; step++) {
+            int key = random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                trie = trie.remove(hash(key), key);
+            } else {
+                expected.put(key, step);
+                trie = trie.put(hash(key), key, step);
+            }
+        }
+        for (int key = 0; key < 2000; key++) {
+            assertEquals("key " + key, expected.get(key), trie.get(hash(key), key));
+        }
+        for (Integer key : expected.keySet()) {
+            trie = trie.remove(hash(key), key);
+        }
+        assertSame(HashTrie.EMPTY, trie);
+    }
+
+    // few distinct hashes, spread over every level, so that many keys collide
+    private static int hash(int key) {
+        return (key % 61) * 0x9e3779b9;
+    }
+}
@@ -0,0 +1,64 @@
+package tl.antlr4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The iterations of a parfor read what was made before the loop and change only what
+ * they made themselves, on every backend.
+ */
+public class ParforTest {
+
+    private static final String[] BACKENDS = {"", "--compile", "--legacy"};
+
+    private static String run(String source, String backend) {
+        return backend.isEmpty() ? Scripts.run(source) : Scripts.run(source, backend);
+    }
+
+    @Test
+    public void iterationsReadAMatrixFromOutsideTheLoopAsLists() {
+        String source =
+                "m = [[1, 2], [3, 4], [5, 6]];\n" +
+                "parfor i = 0 to 2 reduce sum into t do\n" +
+                "  row = m[i];\n" +
+                "  t = row[0] + row[1] + size(m);\n" +
+                "end\n" +
+                "println(t);\n" +
+                "m[0][1] = 7;\n" +
+                "println(m[0]);\n";
+        for (String backend : BACKENDS) {
+            assertEquals(backend, "30.0" + System.lineSeparator() + "[1.0, 7.0]" + System.lineSeparator(),
+                    run(source, backend));
+        }
+    }
+
+    @Test
+    public void iterationsChangeTheListsTheyMade() {
+        String source =
+                "parfor i = 1 to 4 reduce sum into t do\n" +
+                "  m = [[i, 0], [0, i]];\n" +
+                "  m[0][1] = 1;\n" +
+                "  t = m[0][0] + m[0][1];\n" +
+                "end\n" +
+                "println(t);\n";
+        for (String backend : BACKENDS) {
+            assertEquals(backend, "14.0" + System.lineSeparator(), run(source, backend));
+        }
+    }
+
+    @Test
+    public void iterationsCantChangeAListFromOutsideTheLoop() {
+        String source =
+                "m = [[1, 2], [3, 4]];\n" +
+                "parfor i = 0 to 1 do\n" +
+                "  row = m[i];\n" +
+                "  row[0] = 0;\n" +
+                "end\n";
+        for (String backend : BACKENDS) {
+            String output = run(source, backend);
+            assertTrue(backend + ": " + output, output.contains(Operators.PARFOR_SHARED_CHANGE));
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package tl.antlr4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+/**
+ * A {@link PersistentVector} around the sizes where its tail becomes a leaf of the trie
+ * (32) and where the trie takes another level (1024 elements in it, 32 more in the tail),
+ * and vectors and lists that share their elements with others.
+ */
+public class PersistentVectorTest {
+
+    private static final int[] BOUNDARIES = {0, 1, 31, 32, 33, 63, 64, 65, 1023, 1024, 1025, 1055, 1056, 1057, 1088, 1089};
+
+    private static PersistentVector appended(int size) {
+        PersistentVector vector = PersistentVector.EMPTY;
+        for (int i = 0; i < size; i++) {
+            vector = vector.append(TLValue.of(i), true);
+        }
+        return vector;
+    }
+
+    private static void assertHolds(PersistentVector vector, int size) {
+        assertEquals(size, vector.size());
+        for (int i = 0; i < size; i++) {
+            assertEquals("element " + i + " of " + size, TLValue.of(i), vector.get(i));
+        }
+    }
+
+    @Test
+    public void appendsAcrossTheTailAndTheLevelsOfTheTrie() {
+        PersistentVector vector = PersistentVector.EMPTY;
+        for (int size = 0; size <= 1100; size++) {
+            if (size == 32 || size == 33 || size == 1056 || size == 1057 || size == 1100) {
+                assertHolds(vector, size);
+            }
+            vector = vector.append(TLValue.of(size), true);
+        }
+    }
+
+    @Test
+    public void buildsTheSameVectorFromAnArray() {
+        for (int size : BOUNDARIES) {
+            Object[] elements = new Object[size + 3];
+            for (int i = 0; i < size; i++) {
+                elements[i] = TLValue.of(i);
+            }
+            PersistentVector vector = PersistentVector.of(elements, size);
+            assertHolds(vector, size);
+            // and it grows from there like an appended one
+            assertHolds(vector.append(TLValue.of(size), true), size + 1);
+        }
+    }
+
+    @Test
+    public void setLeavesTheVectorItStartedFrom() {
+        for (int size : BOUNDARIES) {
+            PersistentVector vector = appended(size);
+            for (int i : new int[]{0, 31, 32, 1023, 1024, 1055, size - 1}) {
+                if (i < 0 || i >= size) {
+                    continue;
+                }
+                PersistentVector changed = vector.set(i, TLValue.of(-1));
+                assertEquals(TLValue.of(-1), changed.get(i));
+                assertEquals(size, changed.size());
+                assertHolds(vector, size);
+            }
+        }
+    }
+
+    @Test
+    public void appendsToASharedTailDontSeeEachOther() {
+        PersistentVector shared = appended(34);
+        PersistentVector left = shared.append(TLValue.of(100), false);
+        PersistentVector right = shared.append(TLValue.of(200), false);
+        assertEquals(TLValue.of(100), left.get(34));
+        assertEquals(TLValue.of(200), right.get(34));
+        assertHolds(shared, 34);
+    }
+
+    @Test
+    public void setAfterASharedCopy() {
+        for (int size : new int[]{33, 1057}) {
+            ValueList list = new ValueList();
+            for (int i = 0; i < size; i++) {
+                list.add(TLValue.of(i));
+            }
+            ValueList copy = list.copy();
+            list.set(size - 1, TLValue.of(-1));
+            list.set(0, TLValue.of(-2));
+            copy.add(TLValue.of(size));
+            list.add(TLValue.of(-3));
+            assertEquals(TLValue.of(size - 1), copy.get(size - 1));
+            assertEquals(TLValue.of(0), copy.get(0));
+            assertEquals(TLValue.of(size), copy.get(size));
+            assertEquals(TLValue.of(-1), list.get(size - 1));
+            assertEquals(TLValue.of(-2), list.get(0));
+            assertEquals(TLValue.of(-3), list.get(size));
+            assertSame(TLValue.of(1), copy.get(1));
+        }
+    }
+}
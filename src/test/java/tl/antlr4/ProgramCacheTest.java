@@ -0,0 +1,64 @@
+package tl.antlr4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProgramCacheTest {
+
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("mava-cache");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static Program optimize(String source) {
+        return new MavaEngine(MavaEngine.Mode.INTERPRET).optimize(source, new PrintStream(new ByteArrayOutputStream()));
+    }
+
+    // writes the entry of the source as the given build would, bypassing the programs kept in memory
+    private void writeEntry(String source, long build) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(directory.resolve(ProgramCache.name(source))))) {
+            ProgramCodec.write(optimize(source), out, build);
+        }
+    }
+
+    @Test
+    public void readsTheEntryOfThisBuild() throws IOException {
+        String source = "x = \"ab\" * 5000; // " + directory + "\nprintln(size(x));\n";
+        writeEntry(source, ProgramCodec.BUILD);
+        Program program = new ProgramCache(directory).load(source);
+        assertNotNull(program);
+        assertEquals(source, program.source());
+    }
+
+    @Test
+    public void anEntryOfAnotherBuildIsAMiss() throws IOException {
+        String source = "x = \"ab\" * 5000; // " + directory + "\nprintln(size(x));\n";
+        writeEntry(source, ProgramCodec.BUILD + 1);
+        assertNull(new ProgramCache(directory).load(source));
+    }
+}
@@ -0,0 +1,107 @@
+package tl.antlr4;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * A program read back from its binary form is the program that was written, for every
+ * kind of node, and only bytes of this format and build are read.
+ */
+public class ProgramCodecTest {
+
+    // a program per kind of node, with variables where the optimizer would fold literals away
+    private static final String[][] PROGRAMS = {
+            {"literal", "println(1.5); println(\"s\\\"q\"); println(true); println(false); println(null); println(size(\"abc\"));\n"},
+            {"list literal", "a = 2; println([a, \"x\"]); println([1, 2]); println([[1, 2], [3, 4]]); println([\"a\", [1]]); println([]);\n"},
+            {"set literal", "a = 1; println({a, 2}); println({});\n"},
+            {"map literal", "a = 1; println({\"k\": a, 2: [a]}); println({:});\n"},
+            {"variable and assign", "x = 1; x = x + 1; println(x);\n"},
+            {"index", "l = [1, [2, 3]]; l[1][0] = 5; println(l[1][0]); println(l[0]);\n"},
+            {"unary", "a = true; b = 2; println(!a); println(-b);\n"},
+            {"binary and ternary", "a = 3; println(a > 2 ? a * 2 : a - 1); println(a in [1, 3]); println([a, 1] .* [2, 2]);\n"},
+            {"call and function", "def f(p, q)\n  return p + q + r;\nend\ndef g()\n  println(\"g\");\nend\nr = 1; println(f(1, 2)); g();\n"},
+            {"builtin call", "m = [[1, 2], [3, 4]]; println(transpose(m)); println(rows(m)); println(range(1, 3));\n"},
+            {"input", "n = 1;\nif n > 5 do\n  s = input();\n  t = input(\"missing.txt\");\nend\n"},
+            {"if", "a = 2;\nif a > 3 do\n  println(1);\nelse if a > 1 do\n  println(2);\nelse do\n  println(3);\nend\n"},
+            {"for", "n = 3;\nfor i = 1 to n do\n  println(i);\nend\n"},
+            {"for in", "l = [1, 2];\nfor e in l do\n  println(e);\nend\nfor c in range(1, 2) do\n  println(c);\nend\n"},
+            {"while", "i = 0;\nwhile i < 3 do\n  i = i + 1;\nend\nprintln(i);\n"},
+            {"parfor", "n = 4; t = 0;\nparfor i = 1 to n reduce sum into t do\n  t = i;\nend\nprintln(t);\nparfor j = 1 to 2 do\n  println(j);\nend\n"},
+    };
+
+    private static Program optimize(String source) {
+        return new MavaEngine(MavaEngine.Mode.INTERPRET).optimize(source, new PrintStream(new ByteArrayOutputStream()));
+    }
+
+    private static byte[] write(Program program) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            ProgramCodec.write(program, out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String run(Program program) throws UnsupportedEncodingException {
+        if (!program.isResolved()) {
+            program = Resolver.resolve(program);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new Interpreter(program, new Output(new PrintStream(bytes, true, "UTF-8"), 0, Output.NO_LINE_LIMIT)).run();
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void readsBackEveryKindOfNode() throws IOException {
+        for (String[] named : PROGRAMS) {
+            Program optimized = optimize(named[1]);
+            // as the cache keeps it, and with the slots of the resolver
+            readsBack(named[0], optimized);
+            readsBack(named[0] + ", resolved", Resolver.resolve(optimized));
+        }
+    }
+
+    private static void readsBack(String name, Program program) throws IOException {
+        byte[] bytes = write(program);
+        Program read = ProgramCodec.read(bytes);
+        assertNotNull(name, read);
+        assertEquals(name, program.source(), read.source());
+        assertEquals(name, program.frameSize, read.frameSize);
+        assertEquals(name, AstPrinter.print(program), AstPrinter.print(read));
+        // the slots, depths and lines the printer doesn't show are written again the same way
+        assertArrayEquals(name, bytes, write(read));
+        assertEquals(name, run(program), run(read));
+    }
+
+    @Test
+    public void bytesOfAnotherFormatAreNotRead() throws IOException {
+        byte[] bytes = write(optimize("println(1);\n"));
+        ByteBuffer.wrap(bytes).putInt(4, ProgramCodec.FORMAT + 1);
+        assertNull(ProgramCodec.read(bytes));
+    }
+
+    @Test
+    public void bytesWithoutTheMagicNumberAreNotRead() throws IOException {
+        byte[] bytes = write(optimize("println(1);\n"));
+        ByteBuffer.wrap(bytes).putInt(0, 0x12345678);
+        assertNull(ProgramCodec.read(bytes));
+    }
+
+    @Test
+    public void bytesOfAnotherBuildAreNotRead() throws IOException {
+        byte[] bytes = write(optimize("println(1);\n"));
+        ByteBuffer.wrap(bytes).putLong(8, ProgramCodec.BUILD + 1);
+        assertNull(ProgramCodec.read(bytes));
+    }
+}
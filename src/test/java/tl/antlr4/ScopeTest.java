@@ -0,0 +1,180 @@
+package tl.antlr4;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Functions see the variables of their callers, as they did with a {@link Scope} per call:
+ * the Resolver's frame slots, interpreted or compiled, have to give the same results as
+ * the {@code --legacy} backend.
+ */
+public class ScopeTest {
+
+    private static final String[] BACKENDS = {"--compile", "--legacy"};
+
+    // the output of the default backend, after checking that every other backend prints the same
+    private static String run(String source) {
+        String output = Scripts.run(source);
+        for (String backend : BACKENDS) {
+            assertEquals(backend, output, Scripts.run(source, backend));
+        }
+        return output;
+    }
+
+    private static String lines(Object... values) {
+        StringBuilder sb = new StringBuilder();
+        for (Object value : values) {
+            sb.append(value).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void readsALocalOfTheCaller() {
+        assertEquals(lines(5.0), run(
+                "def show()\n" +
+                "  println(local);\n" +
+                "end\n" +
+                "def caller()\n" +
+                "  local = 5.0;\n" +
+                "  show();\n" +
+                "end\n" +
+                "caller();\n"));
+    }
+
+    @Test
+    public void recursionReAssignsTheCallersVariable() {
+        assertEquals(lines(55.0, 1.0), run(
+                "def acc(n)\n" +
+                "  if n > 0 do\n" +
+                "    sum = sum + n;\n" +
+                "    acc(n - 1);\n" +
+                "  end\n" +
+                "end\n" +
+                "def rec(n)\n" +
+                "  if n > 0 do\n" +
+                "    total = n;\n" +
+                "    rec(n - 1);\n" +
+                "  end\n" +
+                "  return total;\n" +
+                "end\n" +
+                "sum = 0;\n" +
+                "acc(10);\n" +
+                "println(sum);\n" +
+                "total = 0;\n" +
+                "println(rec(10));\n"));
+    }
+
+    @Test
+    public void assignsTheNearestCallersVariable() {
+        assertEquals(lines(11.0, 11.0, 101.0, 101.0, "null"), run(
+                "def inner()\n" +
+                "  x = x + 1;\n" +
+                "  return x;\n" +
+                "end\n" +
+                "def outer()\n" +
+                "  x = 10;\n" +
+                "  println(inner());\n" +
+                "  println(x);\n" +
+                "end\n" +
+                "def declare()\n" +
+                "  y = 3;\n" +
+                "end\n" +
+                "outer();\n" +
+                "x = 100;\n" +
+                "println(inner());\n" +
+                "println(x);\n" +
+                "declare();\n" +
+                "println(y);\n"));
+    }
+
+    @Test
+    public void readsVariablesOfNestedTopLevelBlocks() {
+        assertEquals(lines(42.0, 3), run(
+                "def show()\n" +
+                "  println(nested);\n" +
+                "end\n" +
+                "def count()\n" +
+                "  for i = 1 to 3 do\n" +
+                "    last = i;\n" +
+                "  end\n" +
+                "end\n" +
+                "if true do\n" +
+                "  nested = 42;\n" +
+                "  show();\n" +
+                "end\n" +
+                "last = 0;\n" +
+                "count();\n" +
+                "println(last);\n"));
+    }
+
+    @Test
+    public void readsAndAssignsAcrossSeveralCalls() {
+        assertEquals(lines(1.0, 2.0, 7.0, 3.0, "[1.0, 2.0]"), run(
+                "def leaf(a)\n" +
+                "  println(a);\n" +
+                "  println(b);\n" +
+                "  c = c + a;\n" +
+                "  items[1] = b;\n" +
+                "end\n" +
+                "def middle(b)\n" +
+                "  leaf(1);\n" +
+                "end\n" +
+                "def top()\n" +
+                "  c = 6;\n" +
+                "  middle(2);\n" +
+                "  println(c);\n" +
+                "end\n" +
+                "items = [1, 0];\n" +
+                "top();\n" +
+                "b = 3;\n" +
+                "println(b);\n" +
+                "println(items);\n"));
+    }
+
+    @Test
+    public void parforIterationsReadTheirCallersVariables() {
+        assertEquals(lines(312.0, 430.0), run(
+                "def square(v)\n" +
+                "  r = v * v;\n" +
+                "  return r;\n" +
+                "end\n" +
+                "def scaled(v)\n" +
+                "  return v * factor + offset;\n" +
+                "end\n" +
+                "def loop(n)\n" +
+                "  offset = 100;\n" +
+                "  parfor j = 1 to n reduce sum into t do\n" +
+                "    t = scaled(j);\n" +
+                "  end\n" +
+                "  return t;\n" +
+                "end\n" +
+                "factor = 3;\n" +
+                "offset = 0;\n" +
+                "parfor j = 1 to 8 reduce sum into s do\n" +
+                "  s = square(j) + scaled(j);\n" +
+                "end\n" +
+                "println(s);\n" +
+                "println(loop(4));\n"));
+    }
+
+    @Test
+    public void parforIterationsCantAssignSharedVariablesThroughCalls() {
+        String source =
+                "def note()\n" +
+                "  seen = 1;\n" +
+                "end\n" +
+                "def loop()\n" +
+                "  seen = 0;\n" +
+                "  parfor j = 1 to 4 do\n" +
+                "    note();\n" +
+                "  end\n" +
+                "end\n" +
+                "loop();\n";
+        for (String output : new String[]{Scripts.run(source), Scripts.run(source, "--compile")}) {
+            assertTrue(output, output.contains("parfor can't assign seen, a variable from outside the loop"));
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package tl.antlr4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Runs scripts through {@link Main} like the command line does, for the tests.
+ */
+final class Scripts {
+
+    private static final String BANNER = "MAVA compiler. Made by Mantas Damijonaitis and Mantas Kleiva. All rights reserved. 2018.";
+
+    private Scripts() {
+    }
+
+    /**
+     * Runs the source with the given options and without the program cache, and returns
+     * what it printed to stdout and stderr, without the banner.
+     */
+    static String run(String source, String... options) {
+        try {
+            Path file = Files.createTempFile("mava", ".mava");
+            try {
+                Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+                String[] args = new String[options.length + 2];
+                System.arraycopy(options, 0, args, 0, options.length);
+                args[options.length] = "--no-cache";
+                args[options.length + 1] = file.toString();
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                PrintStream out = new PrintStream(bytes, true, "UTF-8");
+                Main.run(args, out, out);
+                String printed = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+                return printed.startsWith(BANNER) ? printed.substring(BANNER.length() + System.lineSeparator().length()) : printed;
+            } finally {
+                Files.delete(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
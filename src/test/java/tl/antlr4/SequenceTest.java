@@ -0,0 +1,61 @@
+package tl.antlr4;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * {@code chunks(path, n)} decodes its file into strings of at most n characters, whole
+ * characters only, however the bytes of a character fall on the boundary of a chunk. The
+ * tests run with UTF-8 as the default charset, see the surefire configuration.
+ */
+public class SequenceTest {
+
+    private static List<String> chunks(byte[] contents, int size) throws IOException {
+        Path file = Files.createTempFile("mava", ".txt");
+        try {
+            Files.write(file, contents);
+            List<String> chunks = new ArrayList<>();
+            Sequence.Cursor cursor = Sequence.chunks(file, size).open();
+            for (TLValue chunk = cursor.next(); chunk != null; chunk = cursor.next()) {
+                chunks.add(chunk.asString());
+            }
+            return chunks;
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<String> list(String... values) {
+        List<String> list = new ArrayList<>();
+        for (String value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    @Test
+    public void aChunkEndsBeforeACharacterItCantHold() throws IOException {
+        // U+1F600 is 4 bytes and 2 chars, only one of which is left in the first chunk
+        assertEquals(list("ab", "\uD83D\uDE00c", "d"), chunks("ab\uD83D\uDE00cd".getBytes(StandardCharsets.UTF_8), 3));
+    }
+
+    @Test
+    public void multiByteCharactersAreNotSplit() throws IOException {
+        assertEquals(list("a", "\u00E9", "\u20AC", "b"), chunks("a\u00E9\u20ACb".getBytes(StandardCharsets.UTF_8), 1));
+    }
+
+    @Test
+    public void aCharacterCutOffByTheEndOfTheFileIsReplaced() throws IOException {
+        byte[] euro = "\u20AC".getBytes(StandardCharsets.UTF_8);
+        byte[] contents = {'a', 'b', euro[0], euro[1]};
+        assertEquals(list("ab", "\uFFFD"), chunks(contents, 2));
+    }
+}